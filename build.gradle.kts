@@ -173,7 +173,20 @@ dependencies {
 
 tasks.test {
     jvmArgs(simbrainJvmArgs)
-    useJUnitPlatform()
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+// Timing benchmarks (test classes tagged "benchmark"), which are excluded from the regular test run
+// gradle benchmark
+tasks.register<Test>("benchmark") {
+    jvmArgs(simbrainJvmArgs)
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
 }
 
 // Sample invocation:
@@ -193,6 +206,20 @@ tasks.register<JavaExec>("runSim") {
     }
 }
 
+// Sample invocation:
+// gradle runSweep -Pspec="cows.sweep" -Presults="cows.csv" -Pparallelism=8
+// See SweepSpec for the spec format. Running again with the same results file skips the runs already in it.
+tasks.register<JavaExec>("runSweep") {
+    jvmArgs(simbrainJvmArgs)
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.simbrain.custom_sims.RegisteredSimulationsKt")
+    if (project.hasProperty("spec")) {
+        val spec = project.property("spec") as String
+        val results = project.findProperty("results") as String? ?: (File(spec).nameWithoutExtension + "_results.csv")
+        args(listOfNotNull("--sweep", spec, results, project.findProperty("parallelism") as String?))
+    }
+}
+
 tasks.withType<KotlinCompile>().configureEach {
     kotlinOptions {
         jvmTarget = "17"
@@ -0,0 +1,118 @@
+package org.simbrain.world.imageworld
+
+import kotlinx.coroutines.*
+import java.awt.image.BufferedImage
+import java.io.File
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.imageio.ImageIO
+
+/**
+ * Decodes the image files of a disk-backed [ImageAlbum] on demand, keeping the most recently used frames in a cache
+ * of bounded size. Frames that are likely to be needed next can be decoded ahead of time on a background thread with
+ * [prefetch].
+ *
+ * @param capacity maximum number of decoded frames held in memory.
+ * @param read reads an image file, returning null if it is not in a known format.
+ */
+internal class FrameCache(
+    val capacity: Int,
+    private val read: (File) -> BufferedImage? = ImageIO::read
+) {
+
+    /**
+     * Decoded frames in access order, so the eldest entry is the least recently used.
+     */
+    private val images = object : LinkedHashMap<File, BufferedImage>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<File, BufferedImage>) = size > capacity
+    }
+
+    /**
+     * Frames being decoded by the prefetcher, so that a frame requested in the meantime is not decoded twice.
+     */
+    private val loading = HashMap<File, CompletableDeferred<BufferedImage?>>()
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    private var prefetchJob: Job? = null
+
+    /**
+     * Number of decoded frames currently held.
+     */
+    val size get() = synchronized(this) { images.size }
+
+    /**
+     * Returns the decoded image in the file, decoding it on the calling thread if it is not cached or being
+     * prefetched. Returns null if the file cannot be read.
+     */
+    fun get(file: File): BufferedImage? {
+        val pending = synchronized(this) {
+            images[file]?.let { return it }
+            loading[file]
+        }
+        if (pending != null) {
+            return runBlocking { pending.await() }
+        }
+        return decode(file)?.also { synchronized(this) { images[file] = it } }
+    }
+
+    /**
+     * Decode the given files in order in the background, replacing any earlier prefetch that is still running.
+     */
+    fun prefetch(files: List<File>) {
+        prefetchJob?.cancel()
+        prefetchJob = scope.launch {
+            for (file in files) {
+                ensureActive()
+                val deferred = synchronized(this@FrameCache) {
+                    // Reading a cached frame also marks it as recently used, so it is kept until it is shown
+                    if (images[file] != null || file in loading) {
+                        null
+                    } else {
+                        CompletableDeferred<BufferedImage?>().also { loading[file] = it }
+                    }
+                } ?: continue
+                // Always clear the loading entry and settle the deferred, or a later get of this file would block
+                // forever. The entry is removed first so that a caller that sees the failure can decode again.
+                val image = try {
+                    decode(file)
+                } catch (e: Throwable) {
+                    synchronized(this@FrameCache) {
+                        loading.remove(file)
+                    }
+                    deferred.completeExceptionally(e)
+                    throw e
+                }
+                synchronized(this@FrameCache) {
+                    if (image != null) images[file] = image
+                    loading.remove(file)
+                }
+                deferred.complete(image)
+            }
+        }
+    }
+
+    /**
+     * Stop prefetching and release all cached frames.
+     */
+    fun close() {
+        scope.cancel()
+        synchronized(this) {
+            images.clear()
+        }
+    }
+
+    private fun decode(file: File): BufferedImage? {
+        return try {
+            read(file) ?: null.also { logger.warning("Could not parse ${file.name}") }
+        } catch (e: Exception) {
+            // ImageIO plugins can throw runtime exceptions on malformed files as well as IOExceptions
+            logger.log(Level.WARNING, "Could not read ${file.name}", e)
+            null
+        }
+    }
+
+    companion object {
+        private val logger = Logger.getLogger(FrameCache::class.java.name)
+    }
+}
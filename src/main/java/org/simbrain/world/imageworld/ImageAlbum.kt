@@ -14,6 +14,11 @@ import javax.swing.JOptionPane
 /**
  * ImageAlbum stores a list of static images and lets you load, advance through them etc.
  *
+ * Large albums can be disk-backed (see [loadImages]): only the image files are indexed, and frames are decoded when
+ * shown, through a [FrameCache] of at most [cacheSize] frames that decodes the next [prefetchCount] frames in the
+ * background. Memory then stays flat regardless of album size, apart from frames that are added or edited. A
+ * disk-backed album refers to its image files by path, so it is saved with the paths rather than the images.
+ *
  * @author Tim Shea
  */
 class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
@@ -22,6 +27,44 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
      */
     private val frames: MutableList<BufferedImage> = ArrayList()
 
+    /**
+     * Frames of a disk-backed album. Empty when the album is held in memory.
+     */
+    private val diskFrames: MutableList<DiskFrame> = ArrayList()
+
+    /**
+     * Maximum number of decoded frames held in memory by a disk-backed album.
+     */
+    var cacheSize = 64
+        set(value) {
+            field = value
+            closeCache()
+        }
+
+    /**
+     * Number of frames a disk-backed album decodes ahead of the current frame.
+     */
+    var prefetchCount = 8
+
+    @Transient
+    private var frameCache: FrameCache? = null
+
+    private val cache: FrameCache
+        get() = frameCache ?: FrameCache(maxOf(cacheSize, 2 * prefetchCount + 1)).also { frameCache = it }
+
+    /**
+     * True if frames are decoded from disk as needed rather than held in memory.
+     */
+    val isDiskBacked: Boolean
+        get() = diskFrames.isNotEmpty()
+
+    /**
+     * True if the current image has been changed since its frame was shown, so that it must be stored back into the
+     * frame before another frame is shown. See [currentImageEdited].
+     */
+    @Transient
+    private var edited = false
+
     /**
      * Current frame being shown.
      */
@@ -50,14 +93,30 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
             val image = ImageIO.read(File(filename))
             currentImage = image
         }
+        edited = true
     }
 
     /**
-     * Load a set of image.
+     * Load a set of images.
      *
      * @param files the images to load
+     * @param diskBacked if true only the files are indexed, and frames are decoded as they are shown. The album is
+     * then saved with the file paths rather than the images, so it can only be opened where the files are.
      */
-    fun loadImages(files: Array<File>) {
+    @JvmOverloads
+    fun loadImages(files: Array<File>, diskBacked: Boolean = false) {
+        if (files.isEmpty()) {
+            return
+        }
+        closeCache()
+        frameIndex = 0
+        if (diskBacked) {
+            frames.clear()
+            diskFrames.clear()
+            files.mapTo(diskFrames) { DiskFrame(it) }
+            showFrame(0, 1)
+            return
+        }
         val list: MutableList<BufferedImage> = ArrayList()
         for (file in files) {
             try {
@@ -72,9 +131,11 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
                 e.printStackTrace()
             }
         }
+        diskFrames.clear()
         frames.clear()
         frames.addAll(list)
         currentImage = frames[0]
+        edited = false
     }
 
     fun writeCurrentImageToFile(destination: File) {
@@ -83,8 +144,8 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
 
     fun writeAllImagesToFile(destination: File, fileNamePrefix: String) {
         assert(destination.isDirectory) { "Destination must be a directory" }
-        for (i in frames.indices) {
-            ImageIO.write(frames[i], "png", File(destination, "${fileNamePrefix}$i.png"))
+        for (i in 0 until numFrames) {
+            ImageIO.write(frameAt(i), "png", File(destination, "${fileNamePrefix}$i.png"))
         }
     }
 
@@ -92,9 +153,14 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
      * Add a new image to the album and set the current frame to it.
      */
     fun addImage(image: BufferedImage) {
-        frames.add(image)
-        frameIndex = frames.size - 1
+        if (isDiskBacked) {
+            diskFrames.add(DiskFrame(null, image))
+        } else {
+            frames.add(image)
+        }
+        frameIndex = numFrames - 1
         currentImage = image
+        edited = false
     }
 
     /**
@@ -108,16 +174,25 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
         graphics.drawImage(imageIcon.image, 0, 0, null)
         graphics.dispose()
         currentImage = image
+        edited = true
         events.imageUpdate.fire()
     }
 
+    /**
+     * Notify the album that the current image has been drawn on, so that the edit is kept when another frame is
+     * shown, and fire an image update.
+     */
+    fun currentImageEdited() {
+        edited = true
+        fireImageUpdate()
+    }
+
     /**
      * Update the current image to the next image in the frame list.
      */
     fun nextFrame() {
         saveCurrentFrame()
-        frameIndex = (frameIndex + 1) % frames.size
-        currentImage = frames[frameIndex]
+        showFrame((frameIndex + 1) % numFrames, 1)
     }
 
     /**
@@ -125,30 +200,64 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
      */
     fun previousFrame() {
         saveCurrentFrame()
-        frameIndex = (frameIndex + frames.size - 1) % frames.size
-        currentImage = frames[frameIndex]
+        showFrame((frameIndex + numFrames - 1) % numFrames, -1)
     }
 
     /**
      * Returns number of frames in the album
      */
     val numFrames: Int
-        get() = frames.size
+        get() = if (isDiskBacked) diskFrames.size else frames.size
 
     /**
      * Set album to frame aat provided index.
      */
     fun setFrame(frameIndex: Int) {
-        if (frameIndex >= 0 && frameIndex < frames.size) {
+        if (frameIndex >= 0 && frameIndex < numFrames) {
             saveCurrentFrame()
-            currentImage = frames[frameIndex]
+            showFrame(frameIndex, 1)
+        }
+    }
+
+    /**
+     * Show the frame at the given index and, for a disk-backed album, start decoding the frames that follow it in the
+     * given direction (1 or -1).
+     */
+    private fun showFrame(index: Int, direction: Int) {
+        frameIndex = index
+        currentImage = frameAt(index)
+        edited = false
+        if (isDiskBacked) {
+            cache.prefetch((1..minOf(prefetchCount, numFrames - 1)).mapNotNull { step ->
+                diskFrames[Math.floorMod(index + step * direction, numFrames)].takeIf { it.image == null }?.file
+            })
         }
     }
 
+    /**
+     * The stored image for a frame, which for a disk-backed album may be decoded from its file.
+     */
+    private fun frameAt(index: Int): BufferedImage {
+        if (!isDiskBacked) {
+            return frames[index]
+        }
+        val frame = diskFrames[index]
+        return frame.image ?: cache.get(frame.file!!)
+            ?: BufferedImage(currentImage.width, currentImage.height, BufferedImage.TYPE_INT_RGB)
+    }
+
+    private fun closeCache() {
+        frameCache?.close()
+        frameCache = null
+    }
+
     fun reset(width: Int, height: Int) {
+        closeCache()
+        diskFrames.clear()
         frames.clear()
         frameIndex = 0
         setCurrentImage(BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), true)
+        edited = false
     }
 
     /**
@@ -160,23 +269,49 @@ class ImageAlbum : ImageSource, AttributeContainer, EditableObject {
     }
 
     fun saveCurrentFrame() {
+        if (numFrames == 0) {
+            return
+        }
+        if (isDiskBacked && diskFrames[frameIndex].image == null) {
+            // Keep a disk-backed frame in memory only once it has been edited
+            if (edited) {
+                diskFrames[frameIndex].image = currentImage.copy()
+            }
+            return
+        }
         val snapshot = currentImage.copy()
-        frames[frameIndex].data = snapshot.data
+        frameAt(frameIndex).data = snapshot.data
     }
 
     fun deleteCurrentImage() {
-        if (frames.size == 0) {
+        if (numFrames == 0) {
             return
         }
-        if (frames.size == 1) {
+        if (numFrames == 1) {
             reset(currentImage.width, currentImage.height)
             return
         }
-        frames.removeAt(frameIndex)
-        frameIndex = (frameIndex + frames.size - 1) % frames.size
-        currentImage = frames[frameIndex]
+        if (isDiskBacked) {
+            diskFrames.removeAt(frameIndex)
+        } else {
+            frames.removeAt(frameIndex)
+        }
+        showFrame((frameIndex + numFrames - 1) % numFrames, -1)
     }
 
     override val id: String
         get() = "Image album"
+
+    /**
+     * A frame of a disk-backed album: an image file that is decoded as needed, and the image itself once the frame
+     * has been edited. Frames added to the album have no file.
+     */
+    private class DiskFrame(val file: File?, var image: BufferedImage? = null)
+
+    companion object {
+        /**
+         * Loading more images than this offers to make the album disk-backed.
+         */
+        const val DISK_BACKED_THRESHOLD = 100
+    }
 }
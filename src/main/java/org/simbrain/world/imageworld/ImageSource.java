@@ -4,6 +4,9 @@ import org.simbrain.util.ImageUtilsKt;
 import org.simbrain.world.imageworld.events.ImageEvents;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 
 /**
  * Produces BufferedImages periodically and notifies listeners when the image changes or is resized.
@@ -34,6 +37,11 @@ public abstract class ImageSource  {
      */
     private transient ImageEvents events = new ImageEvents();
 
+    /**
+     * Reused buffer for the packed pixels of current images that are not stored as ints.
+     */
+    private transient int[] pixelBuffer;
+
     /**
      * Construct a new ImageSourceAdapter and initialize the current image.
      */
@@ -101,6 +109,32 @@ public abstract class ImageSource  {
         setCurrentImage(ImageUtilsKt.copy(image), true);
     }
 
+    /**
+     * Returns the pixels of the current image packed as 0xRRGGBB ints, row by row (the alpha byte is unspecified).
+     * For int RGB images this is the image's own pixel array, so no copy is made. Other images are converted into a
+     * buffer that is reused from call to call. Either way the array must not be modified.
+     */
+    public synchronized int[] getCurrentPixels() {
+        BufferedImage image = currentImage;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        WritableRaster raster = image.getRaster();
+        boolean packedInts = (image.getType() == BufferedImage.TYPE_INT_RGB
+                || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                && raster.getParent() == null
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getDataBuffer().getOffset() == 0
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width;
+        if (packedInts) {
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+        if (pixelBuffer == null || pixelBuffer.length != width * height) {
+            pixelBuffer = new int[width * height];
+        }
+        return image.getRGB(0, 0, width, height, pixelBuffer, 0, width);
+    }
+
     public int getWidth() {
         return currentImage.getWidth();
     }
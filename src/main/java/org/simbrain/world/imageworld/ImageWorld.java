@@ -57,6 +57,17 @@ public class ImageWorld {
         imageAlbum.loadImages(files);
     }
 
+    /**
+     * Load images from an array.
+     *
+     * @param files array of images to load
+     * @param diskBacked if true the images are decoded from their files as they are shown, see
+     * {@link ImageAlbum#loadImages(File[], boolean)}
+     */
+    public void loadImages(File[] files, boolean diskBacked) {
+        imageAlbum.loadImages(files, diskBacked);
+    }
+
     /**
      * Returns number of frames in the "album" associated with this component.
      */
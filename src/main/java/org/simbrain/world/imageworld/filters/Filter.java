@@ -9,7 +9,7 @@ import org.simbrain.world.imageworld.ImageSource;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.BufferedImageOp;
+import java.awt.image.DataBufferInt;
 
 /**
  * Wraps an {@link ImageOperation} in a structure that allows for coupling, event handling etc.
@@ -18,6 +18,10 @@ import java.awt.image.BufferedImageOp;
  * brightness, red, green, and blue separately are maintained and can serve
  * as producers for couplings.
  * <br>
+ * Scaling, the image operation, and extraction of the channels are done in a single pass over the source pixels,
+ * writing into buffers that are reused from frame to frame. Scaling is bilinear, using sampling tables that are
+ * only recomputed when the source or filter is resized.
+ * <br>
  * The actual filtering happens in the {@link org.simbrain.world.imageworld.filters}
  * package. Filters do the work of allowing the filtered images to
  * couple to something else. This makes sense biologically: retinal patterns
@@ -53,9 +57,32 @@ public class Filter implements AttributeContainer, EditableObject {
     private ImageOperation imageOp;
 
     /**
-     * Use for rescaling.
+     * Sampling tables for scaling, computed in {@link #initScaleOp()}. For each column of the filter, the two source
+     * columns to interpolate between (or -1 if the column is offset out of the image) and the weight of the second,
+     * out of 256. Likewise for each row.
+     */
+    private transient int[] sourceX0, sourceX1, weightX, sourceY0, sourceY1, weightY;
+
+    /**
+     * Source size and offsets the sampling tables were computed for.
+     */
+    private transient int tableSourceWidth, tableSourceHeight, tableOffsetX, tableOffsetY;
+
+    /**
+     * Pixels of {@link #filteredImage}.
+     */
+    private transient int[] filteredPixels;
+
+    /**
+     * Channel values for each byte value.
      */
-    private transient BufferedImageOp scaleOp;
+    private static final double[] UNIT_VALUES = new double[256];
+
+    static {
+        for (int i = 0; i < UNIT_VALUES.length; i++) {
+            UNIT_VALUES[i] = i / 255.0;
+        }
+    }
 
     /**
      * An ImageSource from which to extract filter values.  For "image world" this will be a
@@ -159,16 +186,11 @@ public class Filter implements AttributeContainer, EditableObject {
         return this.name;
     }
 
-    void initChannels() {
+    synchronized void initChannels() {
         channels = new double[4][width * height];
         rgbColors = new int[width * height];
-    }
-
-    BufferedImage applyFilter() {
-        BufferedImage image = source.getCurrentImage();
-        image = scaleOp.filter(image, null);
-        image = imageOp.getOp().filter(image, null);
-        return image;
+        filteredImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        filteredPixels = ((DataBufferInt) filteredImage.getRaster().getDataBuffer()).getData();
     }
 
     private float computeScalingFactor(int source, int target) {
@@ -177,43 +199,113 @@ public class Filter implements AttributeContainer, EditableObject {
         return (target - 0.1f) / source;
     }
 
-    void initScaleOp() {
-        float scaleX = computeScalingFactor(source.getWidth(), width);
-        float scaleY = computeScalingFactor(source.getHeight(), height);
-        scaleOp = FilterUtils.createScaleOp(scaleX, scaleY, true);
+    synchronized void initScaleOp() {
+        tableSourceWidth = source.getWidth();
+        tableSourceHeight = source.getHeight();
+        tableOffsetX = imageOp.getOffsetX();
+        tableOffsetY = imageOp.getOffsetY();
+        sourceX0 = new int[width];
+        sourceX1 = new int[width];
+        weightX = new int[width];
+        sourceY0 = new int[height];
+        sourceY1 = new int[height];
+        weightY = new int[height];
+        initSamplingTable(computeScalingFactor(tableSourceWidth, width), tableSourceWidth, tableOffsetX,
+                sourceX0, sourceX1, weightX);
+        initSamplingTable(computeScalingFactor(tableSourceHeight, height), tableSourceHeight, tableOffsetY,
+                sourceY0, sourceY1, weightY);
+    }
+
+    /**
+     * Fill the sampling tables for one axis. Pixel centers are mapped into the source as in a bilinear
+     * {@link java.awt.image.AffineTransformOp}, with samples past the edge clamped to the edge.
+     */
+    private static void initSamplingTable(float scale, int sourceSize, int offset, int[] first, int[] second,
+                                          int[] weight) {
+        for (int i = 0; i < first.length; i++) {
+            int shifted = i - offset;
+            if (shifted < 0 || shifted >= first.length) {
+                first[i] = -1;
+                continue;
+            }
+            double position = (shifted + 0.5) / scale - 0.5;
+            int lower = (int) Math.floor(position);
+            first[i] = Math.max(0, Math.min(sourceSize - 1, lower));
+            second[i] = Math.max(0, Math.min(sourceSize - 1, lower + 1));
+            weight[i] = (int) Math.round((position - lower) * 256);
+        }
+    }
+
+    /**
+     * Bilinear interpolation of four packed RGB pixels, with weights out of 256.
+     */
+    private static int interpolate(int topLeft, int topRight, int bottomLeft, int bottomRight, int wx, int wy) {
+        if ((wx | wy) == 0) {
+            return topLeft & 0xFFFFFF;
+        }
+        int result = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int top = ((topLeft >>> shift) & 0xFF) * (256 - wx) + ((topRight >>> shift) & 0xFF) * wx;
+            int bottom = ((bottomLeft >>> shift) & 0xFF) * (256 - wx) + ((bottomRight >>> shift) & 0xFF) * wx;
+            result |= ((top * (256 - wy) + bottom * wy + (1 << 15)) >>> 16) << shift;
+        }
+        return result;
     }
 
     /**
      * Update the filter.
      */
     public void updateFilter() {
+        updateFilter(source.getCurrentPixels());
+    }
 
-        filteredImage = applyFilter();
-
-        if (filteredImage.getHeight() != height || filteredImage.getWidth() != width) {
-            throw new AssertionError(String.format("Filtered image size not equal to filter size" +
-                    " (filtered image size: %d x %d, filter size: %d x %d)", filteredImage.getWidth(),
-                    filteredImage.getHeight(), width, height));
+    /**
+     * Update the filter from the given pixels of the current source image (see
+     * {@link ImageSource#getCurrentPixels()}).
+     */
+    synchronized void updateFilter(int[] sourcePixels) {
+        if (rgbColors.length != width * height) {
+            initChannels();
+        }
+        if (sourceX0.length != width || sourceY0.length != height
+                || tableSourceWidth != source.getWidth() || tableSourceHeight != source.getHeight()
+                || tableOffsetX != imageOp.getOffsetX() || tableOffsetY != imageOp.getOffsetY()) {
+            initScaleOp();
+        }
+        if (sourcePixels.length < tableSourceWidth * tableSourceHeight) {
+            // The source image changed since the pixels were fetched
+            return;
         }
 
-        // Set values of channels
-        for (int y = 0; y < filteredImage.getHeight(); ++y) {
-            for (int x = 0; x < filteredImage.getWidth(); ++x) {
-
-                // Update rgb colors
-                int color = filteredImage.getRGB(x, y);
-                rgbColors[y * width + x] = color;
+        double[] brightness = channels[0];
+        double[] red = channels[1];
+        double[] green = channels[2];
+        double[] blue = channels[3];
+        for (int y = 0; y < height; ++y) {
+            int row0 = sourceY0[y] * tableSourceWidth;
+            int row1 = sourceY1[y] * tableSourceWidth;
+            int wy = weightY[y];
+            for (int x = 0; x < width; ++x) {
+                int color = 0;
+                int x0 = sourceX0[x];
+                if (sourceY0[y] >= 0 && x0 >= 0) {
+                    int x1 = sourceX1[x];
+                    color = imageOp.filterPixel(interpolate(sourcePixels[row0 + x0], sourcePixels[row0 + x1],
+                            sourcePixels[row1 + x0], sourcePixels[row1 + x1], weightX[x], wy));
+                }
+                int i = y * width + x;
+                filteredPixels[i] = color;
+                rgbColors[i] = 0xFF000000 | color;
 
-                // Update other color channels
                 // Cf https://stackoverflow.com/questions/2534116/how-to-convert-get-rgbx-y-integer-pixel-to-colorr-g-b-a-in-java
-                double red = ((color >>> 16) & 0xFF) / 255.0;
-                double green = ((color >>> 8) & 0xFF) / 255.0;
-                double blue = (color & 0xFF) / 255.0;
+                double r = UNIT_VALUES[(color >>> 16) & 0xFF];
+                double g = UNIT_VALUES[(color >>> 8) & 0xFF];
+                double b = UNIT_VALUES[color & 0xFF];
                 // Cf. https://en.wikipedia.org/wiki/Luma_(video)
-                channels[0][y * width + x] = (red * 0.2126 + green * 0.7152 + blue * 0.0722);
-                channels[1][y * width + x] = red;
-                channels[2][y * width + x] = green;
-                channels[3][y * width + x] = blue;
+                brightness[i] = (r * 0.2126 + g * 0.7152 + b * 0.0722);
+                red[i] = r;
+                green[i] = g;
+                blue[i] = b;
             }
         }
     }
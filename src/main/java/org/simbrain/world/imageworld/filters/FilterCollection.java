@@ -37,9 +37,7 @@ public class FilterCollection {
         imageSource.getEvents().getResize().on(null, true, () -> {
             filters.forEach(Filter::initScaleOp);
         });
-        imageSource.getEvents().getImageUpdate().on(null, true, () -> {
-            filters.forEach(Filter::updateFilter);
-        });
+        imageSource.getEvents().getImageUpdate().on(null, true, this::updateFilters);
     }
 
     /**
@@ -50,12 +48,23 @@ public class FilterCollection {
         imageSource.getEvents().getResize().on(() -> {
             filters.forEach(Filter::initScaleOp);
         });
-        imageSource.getEvents().getImageUpdate().on(() -> {
-            filters.forEach(Filter::updateFilter);
-        });
+        imageSource.getEvents().getImageUpdate().on(this::updateFilters);
         return this;
     }
 
+    /**
+     * Update all filters from the current image. The source pixels are fetched once and shared, and when there is more
+     * than one filter they are updated in parallel, since each filter only writes to its own buffers.
+     */
+    private void updateFilters() {
+        int[] pixels = imageSource.getCurrentPixels();
+        if (filters.size() > 1) {
+            filters.parallelStream().forEach(filter -> filter.updateFilter(pixels));
+        } else {
+            filters.forEach(filter -> filter.updateFilter(pixels));
+        }
+    }
+
     /**
      * Initialize some default filters on world creation. This should be called
      * on the instantiation of a child of this class after the image source is
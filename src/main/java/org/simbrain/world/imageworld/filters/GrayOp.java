@@ -11,6 +11,43 @@ public class GrayOp extends ImageOperation<ColorConvertOp> {
         return op;
     }
 
+    /**
+     * Linear intensity of each sRGB byte value.
+     */
+    private static final double[] LINEAR = new double[256];
+
+    /**
+     * sRGB byte value of linear intensities, sampled at {@link #ENCODED_STEPS} + 1 points.
+     */
+    private static final int[] ENCODED = new int[4097];
+
+    private static final int ENCODED_STEPS = ENCODED.length - 1;
+
+    static {
+        for (int i = 0; i < LINEAR.length; i++) {
+            double value = i / 255.0;
+            LINEAR[i] = value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+        }
+        for (int i = 0; i < ENCODED.length; i++) {
+            double value = (double) i / ENCODED_STEPS;
+            double encoded = value <= 0.0031308 ? 12.92 * value : 1.055 * Math.pow(value, 1 / 2.4) - 0.055;
+            ENCODED[i] = (int) Math.round(encoded * 255);
+        }
+    }
+
+    /**
+     * Same conversion as {@link #getOp()}: luminance is computed in linear light, using the sRGB weights adapted to
+     * the D50 white point of the ICC profile connection space, and converted back to sRGB.
+     */
+    @Override
+    int filterPixel(int rgb) {
+        double luminance = 0.2225 * LINEAR[(rgb >>> 16) & 0xFF]
+                + 0.7169 * LINEAR[(rgb >>> 8) & 0xFF]
+                + 0.0606 * LINEAR[rgb & 0xFF];
+        int gray = ENCODED[(int) Math.round(Math.min(1, luminance) * ENCODED_STEPS)];
+        return (gray << 16) | (gray << 8) | gray;
+    }
+
     @Override
     public GrayOp copy() {
         return new GrayOp();
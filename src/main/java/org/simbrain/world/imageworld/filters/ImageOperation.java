@@ -31,4 +31,26 @@ public abstract class ImageOperation<O extends BufferedImageOp> implements Copya
     }
 
     abstract O getOp();
+
+    /**
+     * Apply the operation to a single packed 0xRRGGBB pixel. {@link Filter} uses this to apply the operation in the
+     * same pass that scales the image, rather than running {@link #getOp()} on a scaled copy.
+     */
+    int filterPixel(int rgb) {
+        return rgb;
+    }
+
+    /**
+     * Horizontal translation of the image, in pixels.
+     */
+    int getOffsetX() {
+        return 0;
+    }
+
+    /**
+     * Vertical translation of the image, in pixels.
+     */
+    int getOffsetY() {
+        return 0;
+    }
 }
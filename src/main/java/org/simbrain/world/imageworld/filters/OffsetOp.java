@@ -36,6 +36,16 @@ public class OffsetOp extends ImageOperation<OffsetOp> implements BufferedImageO
         return this;
     }
 
+    @Override
+    int getOffsetX() {
+        return dx;
+    }
+
+    @Override
+    int getOffsetY() {
+        return dy;
+    }
+
     @Override
     public OffsetOp copy() {
         return new OffsetOp(dx, dy);
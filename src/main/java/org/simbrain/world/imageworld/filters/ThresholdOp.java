@@ -60,18 +60,22 @@ public class ThresholdOp extends ImageOperation<ThresholdOp> implements Buffered
         }
         for (int y = 0; y < source.getHeight(); ++y) {
             for (int x = 0; x < source.getWidth(); ++x) {
-                double luminance = getLuminance(source.getRGB(x, y));
-                destination.setRGB(x, y, luminance >= threshold ? white : black);
+                destination.setRGB(x, y, filterPixel(source.getRGB(x, y)));
             }
         }
         return destination;
     }
 
+    @Override
+    int filterPixel(int rgb) {
+        return getLuminance(rgb) >= threshold ? white : black;
+    }
+
     /**
      * @param color a 3-byte RGB color to convert
      * @return the luminance of the color
      */
-    private double getLuminance(int color) {
+    static double getLuminance(int color) {
         int red = (color >>> 16) & 0xFF;
         int green = (color >>> 8) & 0xFF;
         int blue = (color >>> 0) & 0xFF;
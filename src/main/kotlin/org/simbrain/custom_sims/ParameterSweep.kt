@@ -0,0 +1,356 @@
+package org.simbrain.custom_sims
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.simbrain.workspace.Workspace
+import java.io.File
+import java.io.FileWriter
+import kotlin.random.Random
+
+/**
+ * One swept parameter. In the option string template of a [SweepSpec] the parameter is written `{name}`.
+ */
+sealed class SweepParameter(val name: String) {
+
+    /**
+     * Values for a grid search.
+     */
+    abstract val gridValues: List<String>
+
+    /**
+     * A value for a random search.
+     */
+    abstract fun sample(random: Random): String
+
+    /**
+     * An explicit list of values, which can be any strings.
+     */
+    class Values(name: String, val values: List<String>) : SweepParameter(name) {
+        override val gridValues get() = values
+        override fun sample(random: Random) = values[random.nextInt(values.size)]
+    }
+
+    /**
+     * A range from [min] to [max] inclusive. A grid search uses [count] evenly spaced values and a random search draws
+     * uniformly from the range. If both ends are integers, so are the values.
+     */
+    class Range(name: String, val min: Double, val max: Double, val count: Int, val integer: Boolean) :
+        SweepParameter(name) {
+
+        override val gridValues
+            get() = (0 until count).map { i ->
+                val value = if (count == 1) min else min + (max - min) * i / (count - 1)
+                format(value)
+            }.distinct()
+
+        override fun sample(random: Random) = if (integer) {
+            format(random.nextLong(min.toLong(), max.toLong() + 1).toDouble())
+        } else {
+            format(min + (max - min) * random.nextDouble())
+        }
+
+        private fun format(value: Double) = if (integer) Math.round(value).toString() else value.toString()
+    }
+}
+
+/**
+ * A set of runs of one simulation: a grid or random search over parameters, each point run once for each seed and
+ * replicate.
+ *
+ * Specs are usually read from a text file with [SweepSpec.parse], for example:
+ *
+ * ```
+ * sim = Evolve Grazing Cows
+ * options = {numCows}:20:1000:100:{eliminationRatio}:true
+ * search = random
+ * samples = 50
+ * seeds = 1, 2
+ * replicates = 3
+ * param numCows = 1, 2, 4
+ * param eliminationRatio = 0.1 .. 0.9 : 5
+ * ```
+ *
+ * `search` is `grid` (the default, every combination of values) or `random` (`samples` points drawn using
+ * `searchSeed`). A range `min .. max : count` gives `count` evenly spaced values in a grid search and a uniform draw
+ * in a random search. Besides the parameters, the template can use `{seed}` and `{replicate}`. Lines starting with
+ * `#` are comments.
+ *
+ * @param simName name of the simulation in [simulations]
+ * @param optionTemplate option string passed to the simulation, with `{name}` replaced by parameter values
+ */
+class SweepSpec(
+    val simName: String,
+    val optionTemplate: String,
+    val parameters: List<SweepParameter>,
+    val randomSearch: Boolean = false,
+    val samples: Int = 1,
+    val searchSeed: Long = 0,
+    val seeds: List<Long> = listOf(0),
+    val replicates: Int = 1
+) {
+
+    init {
+        require(parameters.map { it.name }.toSet().size == parameters.size) { "Parameter names must be unique" }
+        require(replicates >= 1) { "Replicates must be at least 1" }
+    }
+
+    /**
+     * All runs of the sweep, in a fixed order that depends only on the spec.
+     */
+    fun runs(): List<SweepRun> {
+        val points: List<Map<String, String>> = if (randomSearch) {
+            val random = Random(searchSeed)
+            List(samples) { parameters.associate { it.name to it.sample(random) } }
+        } else {
+            parameters.fold(listOf(mapOf())) { points, parameter ->
+                points.flatMap { point -> parameter.gridValues.map { point + (parameter.name to it) } }
+            }
+        }
+        return points.flatMap { values ->
+            seeds.flatMap { seed ->
+                (0 until replicates).map { replicate ->
+                    SweepRun(values, replicateSeed(seed, replicate), replicate, optionTemplate)
+                }
+            }
+        }
+    }
+
+    companion object {
+
+        /**
+         * Seed for a replicate: the base seed for the first, and then successive draws from a generator seeded with
+         * it, so that replicates of different base seeds do not overlap.
+         */
+        fun replicateSeed(seed: Long, replicate: Int): Long {
+            if (replicate == 0) {
+                return seed
+            }
+            val random = Random(seed)
+            repeat(replicate - 1) { random.nextLong() }
+            return random.nextLong()
+        }
+
+        fun parse(text: String): SweepSpec {
+            val settings = HashMap<String, String>()
+            val parameters = ArrayList<SweepParameter>()
+            text.lines().map { it.trim() }.filter { it.isNotEmpty() && !it.startsWith("#") }.forEach { line ->
+                val equals = line.indexOf('=')
+                require(equals > 0) { "Expected key = value: $line" }
+                val key = line.substring(0, equals).trim()
+                val value = line.substring(equals + 1).trim()
+                if (key.startsWith("param ")) {
+                    parameters.add(parseParameter(key.removePrefix("param ").trim(), value))
+                } else {
+                    settings[key] = value
+                }
+            }
+            fun setting(key: String) = settings.remove(key)
+            val spec = SweepSpec(
+                simName = setting("sim") ?: throw IllegalArgumentException("The sweep spec must name a sim"),
+                optionTemplate = setting("options") ?: "",
+                parameters = parameters,
+                randomSearch = when (val search = setting("search") ?: "grid") {
+                    "grid" -> false
+                    "random" -> true
+                    else -> throw IllegalArgumentException("Unknown search $search. Use grid or random.")
+                },
+                samples = setting("samples")?.toInt() ?: 1,
+                searchSeed = setting("searchSeed")?.toLong() ?: 0,
+                seeds = setting("seeds")?.split(",")?.map { it.trim().toLong() } ?: listOf(0),
+                replicates = setting("replicates")?.toInt() ?: 1
+            )
+            require(settings.isEmpty()) { "Unknown settings: ${settings.keys.joinToString()}" }
+            return spec
+        }
+
+        private fun parseParameter(name: String, value: String): SweepParameter {
+            val range = Regex("""(\S+)\s*\.\.\s*(\S+)\s*:\s*(\d+)""").matchEntire(value)
+                ?: return SweepParameter.Values(name, value.split(",").map { it.trim() })
+            val (min, max, count) = range.destructured
+            return SweepParameter.Range(
+                name, min.toDouble(), max.toDouble(), count.toInt(),
+                integer = min.toLongOrNull() != null && max.toLongOrNull() != null
+            )
+        }
+    }
+}
+
+/**
+ * One run of a sweep.
+ */
+class SweepRun(val values: Map<String, String>, val seed: Long, val replicate: Int, template: String) {
+
+    val optionString = (values + ("seed" to "$seed") + ("replicate" to "$replicate"))
+        .entries.fold(template) { options, (name, value) -> options.replace("{$name}", value) }
+
+    /**
+     * Identifies the run in the results file, so that a resumed sweep can skip it.
+     */
+    val id = (values.entries.map { (name, value) -> "$name=$value" } + "seed=$seed" + "replicate=$replicate")
+        .joinToString(";")
+}
+
+/**
+ * Run every run of the sweep that does not already have results in [output], at most [parallelism] at a time, each
+ * in its own new [Workspace]. Results are appended to [output] as each run finishes, so an interrupted sweep can be
+ * resumed by running it again with the same file.
+ *
+ * The results file is a CSV file with one row per metric reported by a run (see [SimulationScope.reportMetric]):
+ * run id, parameter values, seed, replicate, status, metric and value. Every run also reports `elapsedSeconds`, as its
+ * last row. A run that throws gets a single row with status `failed` and the error message, and is run again when
+ * the sweep is resumed.
+ *
+ * @param sim the simulation to run, by default the one named in the spec
+ * @return the number of runs that were run
+ */
+suspend fun runSweep(
+    spec: SweepSpec,
+    output: File,
+    parallelism: Int = Runtime.getRuntime().availableProcessors(),
+    sim: NewSimulation = findSimulation(spec.simName) as? NewSimulation
+        ?: throw IllegalArgumentException("${spec.simName} cannot be run in a sweep because it does not use newSim")
+): Int {
+    val header = listOf("run") + spec.parameters.map { it.name } + listOf("seed", "replicate", "status", "metric", "value")
+    val completed = SweepResults.completedRuns(output, header)
+    val pending = spec.runs().filter { it.id !in completed }
+    val results = SweepResults(output, header)
+    val permits = Semaphore(parallelism.coerceAtLeast(1))
+    try {
+        coroutineScope {
+            pending.map { run ->
+                async(Dispatchers.Default) {
+                    permits.withPermit {
+                        results.append(run, spec.parameters, runHeadless(sim, run))
+                    }
+                }
+            }.awaitAll()
+        }
+    } finally {
+        results.close()
+    }
+    return pending.size
+}
+
+private const val ELAPSED_SECONDS = "elapsedSeconds"
+
+/**
+ * Metrics of a run, or the error it threw.
+ */
+private class RunOutcome(val metrics: Map<String, Double>, val error: Throwable? = null)
+
+private suspend fun runHeadless(sim: NewSimulation, run: SweepRun): RunOutcome {
+    val workspace = Workspace()
+    val scope = SimulationScope(workspace, run.seed)
+    val start = System.nanoTime()
+    return try {
+        sim.run(scope, run.optionString)
+        val metrics = synchronized(scope.metrics) { LinkedHashMap(scope.metrics) }
+        // Written last, marking the run as complete
+        metrics.remove(ELAPSED_SECONDS)
+        metrics[ELAPSED_SECONDS] = (System.nanoTime() - start) / 1e9
+        RunOutcome(metrics)
+    } catch (e: Exception) {
+        RunOutcome(mapOf(), e)
+    } finally {
+        workspace.clearWorkspace()
+    }
+}
+
+/**
+ * Appends the rows of finished runs to a results file.
+ */
+private class SweepResults(val file: File, header: List<String>) {
+
+    private val writer: FileWriter
+
+    init {
+        val isNew = !file.exists() || file.length() == 0L
+        // An interrupted sweep can leave a partial last line, which must not run into the next row
+        val endsInPartialLine = !isNew && file.readText().last() != '\n'
+        file.absoluteFile.parentFile?.mkdirs()
+        writer = FileWriter(file, true)
+        if (isNew) {
+            writer.write(header.joinToString(",") { quote(it) } + "\n")
+        } else if (endsInPartialLine) {
+            writer.write("\n")
+        }
+        writer.flush()
+    }
+
+    /**
+     * Write all rows of a run at once, so that the file holds either all of a run's results or none.
+     */
+    fun append(run: SweepRun, parameters: List<SweepParameter>, outcome: RunOutcome) {
+        val prefix = listOf(run.id) + parameters.map { run.values.getValue(it.name) } + listOf("${run.seed}", "${run.replicate}")
+        val rows = if (outcome.error != null) {
+            listOf(prefix + listOf("failed", "error", "${outcome.error}"))
+        } else {
+            outcome.metrics.map { (metric, value) -> prefix + listOf("ok", metric, "$value") }
+        }
+        val text = rows.joinToString("") { row -> row.joinToString(",") { quote(it) } + "\n" }
+        synchronized(this) {
+            writer.write(text)
+            writer.flush()
+        }
+        if (outcome.error != null) {
+            System.err.println("Run ${run.id} failed: ${outcome.error}")
+        }
+    }
+
+    fun close() {
+        writer.close()
+    }
+
+    companion object {
+
+        fun quote(field: String) = if (field.any { it == ',' || it == '"' || it == '\n' || it == '\r' }) {
+            "\"" + field.replace("\"", "\"\"") + "\""
+        } else {
+            field
+        }
+
+        fun parseLine(line: String): List<String> {
+            val fields = ArrayList<String>()
+            val field = StringBuilder()
+            var quoted = false
+            var i = 0
+            while (i < line.length) {
+                val c = line[i]
+                when {
+                    quoted && c == '"' && i + 1 < line.length && line[i + 1] == '"' -> field.append('"').also { i++ }
+                    c == '"' -> quoted = !quoted
+                    c == ',' && !quoted -> fields.add(field.toString()).also { field.clear() }
+                    else -> field.append(c)
+                }
+                i++
+            }
+            fields.add(field.toString())
+            return fields
+        }
+
+        /**
+         * Ids of the runs that completed in an earlier sweep written to [file], that is, the ones with an elapsed time
+         * row, which is the last row written for a run.
+         */
+        fun completedRuns(file: File, header: List<String>): Set<String> {
+            if (!file.exists() || file.length() == 0L) {
+                return setOf()
+            }
+            val lines = file.readLines()
+            require(parseLine(lines.first()) == header) {
+                "${file.name} holds results with different columns: ${lines.first()}"
+            }
+            val status = header.indexOf("status")
+            val metric = header.indexOf("metric")
+            return lines.drop(1)
+                .map { parseLine(it) }
+                .filter { it.size == header.size && it[status] == "ok" && it[metric] == ELAPSED_SECONDS }
+                .map { it[0] }
+                .toSet()
+        }
+    }
+}
@@ -14,6 +14,8 @@ import org.simbrain.custom_sims.simulations.nlp.tinyLanguageModel2
 import org.simbrain.custom_sims.simulations.patterns_of_activity.cogMap3Objects
 import org.simbrain.util.StructureDir
 import org.simbrain.util.dir
+import java.io.File
+import kotlin.system.exitProcess
 
 /**
  * Use this DSL to create the structure of the simulation menu in the Simbrain Desktop.
@@ -164,32 +166,47 @@ val simulations = dir("Simulations", alphabetical = true ) {
 
 }
 
+private fun simulationList() = simulations.items.mapIndexed { index, (name, _) -> "\t$index. $name" }.joinToString("\n")
+
 /**
- * Called by build.gradle#runSim when invoking a headless simulation from the command line.
+ * Returns the simulation with the given name or index in [simulations].
  */
-suspend fun main(args: Array<String>) {
-
-    if (args.isEmpty()) throw IllegalArgumentException(
-        "Please supply a simulation name or an index. A list of possible values are:\n" +
-                simulations.items.mapIndexed { index, (name, _) ->
-                    "\t$index. $name"
-                }.joinToString("\n")
-    )
-
+fun findSimulation(nameOrIndex: String): Any? {
     val (_, sim) = try {
-        val index = args[0].toInt()
+        val index = nameOrIndex.toInt()
         simulations.items.drop(index).first()
     } catch (e: NumberFormatException) {
-        val name = args[0]
         simulations.items
-            .firstOrNull { (key, _) -> key == name } ?: throw IllegalArgumentException(
-            "Simulation $name not found. A list of possible values are:\n" +
-                    simulations.items.mapIndexed { index, (name, _) -> "\t$index. $name" }.joinToString("\n")
+            .firstOrNull { (key, _) -> key == nameOrIndex } ?: throw IllegalArgumentException(
+            "Simulation $nameOrIndex not found. A list of possible values are:\n" + simulationList()
         )
     } catch (e: NoSuchElementException) {
         throw IllegalArgumentException("Index is out of bound")
     }
-    when (sim) {
+    return sim
+}
+
+/**
+ * Called by build.gradle#runSim when invoking a headless simulation from the command line, and by
+ * build.gradle#runSweep with `--sweep specFile [resultsFile] [parallelism]` to run a parameter sweep (see [SweepSpec]).
+ */
+suspend fun main(args: Array<String>) {
+
+    if (args.isEmpty()) throw IllegalArgumentException(
+        "Please supply a simulation name or an index. A list of possible values are:\n" + simulationList()
+    )
+
+    if (args[0] == "--sweep") {
+        require(args.size > 1) { "Please supply a sweep spec file" }
+        val specFile = File(args[1])
+        val output = if (args.size > 2) File(args[2]) else File(specFile.nameWithoutExtension + "_results.csv")
+        val parallelism = if (args.size > 3) args[3].toInt() else Runtime.getRuntime().availableProcessors()
+        val runs = runSweep(SweepSpec.parse(specFile.readText()), output, parallelism)
+        println("Finished $runs runs. Results are in ${output.absolutePath}")
+        exitProcess(0)
+    }
+
+    when (val sim = findSimulation(args[0])) {
         is NewSimulation -> sim.run(optionString = if(args.size > 1) args[1] else null)
         is Simulation -> sim.run()
     }
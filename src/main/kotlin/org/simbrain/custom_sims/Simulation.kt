@@ -21,13 +21,39 @@ import java.io.File
 
 class SimulationScope private constructor(
     val desktop: SimbrainDesktop?,
-    val workspace: Workspace
+    val workspace: Workspace,
+    /**
+     * Seed for the run when it is one point of a parameter sweep (see [runSweep]), else null.
+     */
+    val seed: Long? = null
 ) {
 
     constructor(desktop: SimbrainDesktop? = null): this(desktop, desktop?.workspace ?: Workspace())
 
     private constructor(workspace: Workspace): this(null, workspace)
 
+    internal constructor(workspace: Workspace, seed: Long): this(null, workspace, seed)
+
+    /**
+     * True if this run is one point of a parameter sweep. Such runs should not write their own output files.
+     */
+    val isSweepRun get() = seed != null
+
+    /**
+     * Metrics reported by the simulation, in the order first reported.
+     */
+    internal val metrics = LinkedHashMap<String, Double>()
+
+    /**
+     * Record a result of the simulation, such as a final fitness. In a parameter sweep each metric is written to the
+     * results file, and a metric reported more than once keeps its last value.
+     */
+    fun reportMetric(name: String, value: Number) {
+        synchronized(metrics) {
+            metrics[name] = value.toDouble()
+        }
+    }
+
     operator fun <T> Workspace.invoke(block: SimulationScope.() -> T): T {
         return SimulationScope(this).block()
     }
@@ -54,6 +80,15 @@ class NewSimulation(val task: suspend SimulationScope.(optionString: String?) ->
             task(optionString)
         }
     }
+
+    /**
+     * Run headless in the given scope, for example one point of a parameter sweep.
+     */
+    internal suspend fun run(scope: SimulationScope, optionString: String?) {
+        with(scope) {
+            task(optionString)
+        }
+    }
 }
 
 /**
@@ -278,7 +278,10 @@ val grazingCows = newSim { optionString ->
                 stoppingFunction = {
                     nthPercentileFitness(10) > 400 || generation > maxGenerations
                 },
+                seed = seed ?: Random.nextLong(),
                 peek = {
+                    reportMetric("generations", generation)
+                    listOf(0, 10, 25, 50, 75, 90, 100).forEach { reportMetric("fitness$it", nthPercentileFitness(it)) }
                     listOf(0, 10, 25, 50, 75, 90, 100).joinToString(" ") {
                         "$it: ${nthPercentileFitness(it).format(3)}"
                     }.also {
@@ -306,7 +309,7 @@ val grazingCows = newSim { optionString ->
                         it.hiddens.location = point(0, 60)
                         it.outputs.location = point(0, -25)
                     }
-                    if (desktop == null) {
+                    if (desktop == null && !isSweepRun) {
                         workspace.save(File("evolved_${SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(Date())}.zip"), headless = true)
                     }
                 }
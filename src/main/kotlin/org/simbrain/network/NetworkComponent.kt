@@ -20,6 +20,7 @@ package org.simbrain.network
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.getNetworkXStream
 import org.simbrain.network.neurongroups.NeuronGroup
+import org.simbrain.util.RandomStreams
 import org.simbrain.util.getSimbrainXStream
 import org.simbrain.workspace.AttributeContainer
 import org.simbrain.workspace.WorkspaceComponent
@@ -101,6 +102,10 @@ class NetworkComponent : WorkspaceComponent {
     override val attributeContainers: List<AttributeContainer>
         get() = network.allModels.filterIsInstance<AttributeContainer>()
 
+    override fun seedRandom(streams: RandomStreams) {
+        network.randomSeed = streams.seed
+    }
+
     override fun save(output: OutputStream, format: String?) {
         getNetworkXStream().toXML(network, output)
     }
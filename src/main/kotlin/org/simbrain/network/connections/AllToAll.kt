@@ -16,7 +16,6 @@ import org.simbrain.network.core.Neuron
 import org.simbrain.network.core.Synapse
 import org.simbrain.util.UserParameter
 import org.simbrain.util.cartesianProduct
-import kotlin.random.Random
 
 /**
  * Connect every source neuron to every target neuron.
@@ -38,7 +37,7 @@ class AllToAll @JvmOverloads constructor(
     )
     var allowSelfConnection: Boolean = false,
 
-    seed: Long = Random.nextLong()
+    seed: Long? = null
 
 ) : ConnectionStrategy(seed) {
 
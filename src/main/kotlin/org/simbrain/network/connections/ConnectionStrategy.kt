@@ -40,7 +40,7 @@ import kotlin.random.Random
  * @author Zoë Tosi
  * @author Jeff Yoshimi
  */
-abstract class ConnectionStrategy(seed: Long = Random.nextLong()) : CopyableObject {
+abstract class ConnectionStrategy(seed: Long? = null) : CopyableObject {
 
     /**
      * Whether excitatory connection should be randomized.
@@ -76,7 +76,35 @@ abstract class ConnectionStrategy(seed: Long = Random.nextLong()) : CopyableObje
     /**
      * A random object that uses the strategy’s [seed] that can be passed to different functions (such as shuffle) to ensure deterministic results
      */
-    var random = Random(seed)
+    var random = Random(seed ?: Random.nextLong())
+
+    /**
+     * Whether this strategy was created with a seed. Strategies without one are seeded by [seedFrom] when they
+     * connect neurons that are in a network.
+     */
+    val hasSeed = seed != null
+
+    /**
+     * Restart [random] and the randomizers from [seed].
+     */
+    fun reseed(seed: Long) {
+        random = Random(seed)
+        exRandomizer.randomSeed = seed
+        inRandomizer.randomSeed = seed
+    }
+
+    /**
+     * Unless this strategy was created with a seed, restart it from the random streams of the first source neuron,
+     * keyed by the first target neuron, so that connecting neurons that are in a network is reproducible from the
+     * network's seed. See [org.simbrain.network.core.Network.randomStreams].
+     */
+    fun seedFrom(source: List<Neuron>, target: List<Neuron>) {
+        if (hasSeed) {
+            return
+        }
+        val streams = source.firstOrNull()?.randomStreams ?: return
+        reseed(streams.seedFor("connect to ${target.firstOrNull()?.id}"))
+    }
 
     fun commonCopy(toCopy: ConnectionStrategy) {
         toCopy.exRandomizer = exRandomizer.copy()
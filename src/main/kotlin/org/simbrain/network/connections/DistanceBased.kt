@@ -19,12 +19,11 @@ package org.simbrain.network.connections
 
 import org.simbrain.network.core.Neuron
 import org.simbrain.network.core.Synapse
-import org.simbrain.network.util.SimnetUtils.getEuclideanDist
 import org.simbrain.util.UserParameter
-import org.simbrain.util.cartesianProduct
 import org.simbrain.util.decayfunctions.DecayFunction
 import org.simbrain.util.decayfunctions.GaussianDecayFunction
 import org.simbrain.util.propertyeditor.EditableObject
+import kotlin.math.sqrt
 import kotlin.random.Random
 
 class DistanceBased (
@@ -38,7 +37,7 @@ class DistanceBased (
         order = 1)
     var decayFunction: DecayFunction = GaussianDecayFunction(),
 
-    seed: Long = Random.nextLong()
+    seed: Long? = null
 
 ) : ConnectionStrategy(seed), EditableObject {
 
@@ -65,20 +64,17 @@ class DistanceBased (
 
 }
 
+/**
+ * Only pairs of neurons within the decay function's [DecayFunction.cutoffDistance] are considered (see
+ * [connectWithinDistance]).
+ */
 fun createRadialSynapses (
     source: List<Neuron>,
     target: List<Neuron>,
     decay: DecayFunction,
     random: Random = Random
 ): List<Synapse> {
-    val syns = ArrayList<Synapse>()
-    (source cartesianProduct target).forEach{ (src, tar) ->
-        if (src != tar) {
-            val p = decay.getScalingFactor(getEuclideanDist(src, tar))
-            if (random.nextDouble() < p) {
-                syns.add(Synapse(src, tar))
-            }
-        }
+    return connectWithinDistance(source, target, decay.cutoffDistance, random) { src, tar, squaredDist ->
+        if (src == tar) 0.0 else decay.getScalingFactor(sqrt(squaredDist))
     }
-    return syns
 }
@@ -69,7 +69,7 @@ class FixedDegree(
     )
     var allowSelfConnections: Boolean = false,
 
-    seed: Long = Random.nextLong(),
+    seed: Long? = null,
 
     ) : ConnectionStrategy(seed), EditableObject {
 
@@ -0,0 +1,157 @@
+package org.simbrain.network.connections
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.Synapse
+import kotlin.math.floor
+import kotlin.random.Random
+
+/**
+ * Number of source neurons handled by each parallel task in [connectWithinDistance]. Fixed so that results do not
+ * depend on the number of processors.
+ */
+private const val SOURCES_PER_BLOCK = 64
+
+/**
+ * Uniform grid over the x-y locations of a list of neurons, used to find the neurons within a given distance of a
+ * point without testing every neuron. Cells are [cellSize] wide and only occupied cells are stored, so a query with a
+ * radius up to the cell size visits at most 9 cells.
+ *
+ * Neuron locations are copied when the grid is built.
+ */
+class NeuronGrid(val neurons: List<Neuron>, cellSize: Double) {
+
+    val cellSize = cellSize.coerceAtLeast(1.0)
+
+    private val xs = DoubleArray(neurons.size) { neurons[it].x }
+    private val ys = DoubleArray(neurons.size) { neurons[it].y }
+    private val zs = DoubleArray(neurons.size) { neurons[it].z }
+
+    /**
+     * Indices of the neurons in each occupied cell, in increasing order.
+     */
+    private val cells: Map<Long, IntArray> = HashMap<Long, IntArray>().also { cells ->
+        val counts = HashMap<Long, Int>()
+        val keys = LongArray(neurons.size) { cellKey(cellOf(xs[it]), cellOf(ys[it])) }
+        keys.forEach { counts.merge(it, 1, Int::plus) }
+        counts.forEach { (key, count) -> cells[key] = IntArray(count) }
+        val filled = HashMap<Long, Int>()
+        keys.forEachIndexed { i, key ->
+            val n = filled.merge(key, 1, Int::plus)!!
+            cells[key]!![n - 1] = i
+        }
+    }
+
+    private fun cellOf(coordinate: Double) = floor(coordinate / cellSize).toInt()
+
+    private fun cellKey(cx: Int, cy: Int) = (cx.toLong() shl 32) or (cy.toLong() and 0xFFFFFFFFL)
+
+    /**
+     * Writes the indices of the neurons within [radius] of the given neuron's location into [result], in increasing
+     * order, and returns how many there are. [result] must be at least as long as [neurons].
+     */
+    fun neighborIndices(neuron: Neuron, radius: Double, result: IntArray): Int {
+        val squaredRadius = radius * radius
+        val x = neuron.x
+        val y = neuron.y
+        val z = neuron.z
+        var count = 0
+        for (cx in cellOf(x - radius)..cellOf(x + radius)) {
+            for (cy in cellOf(y - radius)..cellOf(y + radius)) {
+                val cell = cells[cellKey(cx, cy)] ?: continue
+                for (i in cell) {
+                    val dx = xs[i] - x
+                    val dy = ys[i] - y
+                    val dz = zs[i] - z
+                    if (dx * dx + dy * dy + dz * dz <= squaredRadius) {
+                        result[count++] = i
+                    }
+                }
+            }
+        }
+        // Cells are visited in grid order, so restore index order to make random draws independent of the grid
+        result.sort(0, count)
+        return count
+    }
+}
+
+/**
+ * Connects each source neuron to each target neuron with the given [probability], assuming the probability is zero
+ * (or negligible) for neurons more than [cutoff] apart. Only pairs within the cutoff are considered, using a
+ * [NeuronGrid] over the targets, so the cost grows with the number of nearby pairs rather than with the product of
+ * the group sizes. An infinite cutoff considers every pair.
+ *
+ * Sources are processed in fixed-size blocks in parallel, each block with its own generator seeded from [random], so
+ * the result depends only on the state of [random]. Synapses are created afterwards on the calling thread, since
+ * creating a synapse updates its neurons' fan-in and fan-out.
+ *
+ * @param probability probability of connecting a source and target neuron, given the squared distance between them.
+ * Called from several threads.
+ */
+fun connectWithinDistance(
+    source: List<Neuron>,
+    target: List<Neuron>,
+    cutoff: Double,
+    random: Random = Random,
+    probability: (src: Neuron, tar: Neuron, squaredDistance: Double) -> Double
+): List<Synapse> {
+    if (source.isEmpty() || target.isEmpty() || cutoff.isNaN() || cutoff < 0) {
+        return listOf()
+    }
+    val grid = if (cutoff.isInfinite()) null else NeuronGrid(target, cutoff)
+    val blockCount = (source.size + SOURCES_PER_BLOCK - 1) / SOURCES_PER_BLOCK
+    val seeds = LongArray(blockCount) { random.nextLong() }
+    val blocks = runBlocking {
+        (0 until blockCount).map { block ->
+            async(Dispatchers.Default) {
+                val blockRandom = Random(seeds[block])
+                val candidates = IntArray(target.size)
+                val pairs = IndexPairs()
+                for (s in block * SOURCES_PER_BLOCK until minOf(source.size, (block + 1) * SOURCES_PER_BLOCK)) {
+                    val src = source[s]
+                    val count = grid?.neighborIndices(src, cutoff, candidates)
+                        ?: target.size.also { for (t in target.indices) candidates[t] = t }
+                    for (k in 0 until count) {
+                        val tar = target[candidates[k]]
+                        val dx = src.x - tar.x
+                        val dy = src.y - tar.y
+                        val dz = src.z - tar.z
+                        if (blockRandom.nextDouble() < probability(src, tar, dx * dx + dy * dy + dz * dz)) {
+                            pairs.add(s, candidates[k])
+                        }
+                    }
+                }
+                pairs
+            }
+        }.awaitAll()
+    }
+    val synapses = ArrayList<Synapse>(blocks.sumOf { it.size })
+    for (pairs in blocks) {
+        for (k in 0 until pairs.size) {
+            synapses.add(Synapse(source[pairs.sources[k]], target[pairs.targets[k]]))
+        }
+    }
+    return synapses
+}
+
+/**
+ * Growable list of (source index, target index) pairs.
+ */
+private class IndexPairs {
+    var sources = IntArray(256)
+    var targets = IntArray(256)
+    var size = 0
+
+    fun add(source: Int, target: Int) {
+        if (size == sources.size) {
+            sources = sources.copyOf(size * 2)
+            targets = targets.copyOf(size * 2)
+        }
+        sources[size] = source
+        targets[size] = target
+        size++
+    }
+}
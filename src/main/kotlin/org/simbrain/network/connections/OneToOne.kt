@@ -17,7 +17,6 @@ import org.simbrain.network.core.Synapse
 import org.simbrain.network.core.bound
 import org.simbrain.util.*
 import org.simbrain.util.propertyeditor.EditableObject
-import kotlin.random.Random
 
 /**
  * Connect each source neuron to a single target.
@@ -33,7 +32,7 @@ class OneToOne(
     @UserParameter(label = "Bi-directional", order = 2)
     var useBidirectionalConnections: Boolean = false,
 
-    seed: Long = Random.nextLong()
+    seed: Long? = null
 
 ) : ConnectionStrategy(seed), EditableObject {
 
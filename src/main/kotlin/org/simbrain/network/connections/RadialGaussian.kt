@@ -21,7 +21,10 @@ import org.simbrain.network.core.Neuron
 import org.simbrain.network.core.Synapse
 import org.simbrain.util.SimbrainConstants.Polarity
 import org.simbrain.util.UserParameter
+import org.simbrain.util.decayfunctions.NEGLIGIBLE_PROBABILITY
 import org.simbrain.util.propertyeditor.EditableObject
+import kotlin.math.ln
+import kotlin.math.sqrt
 import kotlin.random.Random
 
 const val DEFAULT_DIST_CONST: Double = 0.25
@@ -126,7 +129,7 @@ class RadialGaussian(
         order = 1)
     var lambda: Double = DEFAULT_LAMBDA,
 
-    seed: Long = Random.nextLong()
+    seed: Long? = null
 
 ) : ConnectionStrategy(seed), EditableObject {
 
@@ -250,6 +253,10 @@ class RadialGaussian(
 
 }
 
+/**
+ * Only pairs of neurons close enough to have a non-negligible connection probability are considered (see
+ * [connectWithinDistance]).
+ */
 fun createRadialPolarizedSynapses(
     source: List<Neuron>,
     target: List<Neuron>,
@@ -261,42 +268,30 @@ fun createRadialPolarizedSynapses(
     lambda: Double = DEFAULT_LAMBDA,
     random: Random = Random
 ): List<Synapse> {
-    // Pre-allocating assuming that if one is using this as a connector
-    // then they are probably not going to have greater than 25%
-    // connectivity
-    val synapses: MutableList<Synapse> = ArrayList(source!!.size * target!!.size / 4)
-    for (src: Neuron in source) {
-        for (tar: Neuron in target) {
-            val randVal = random.nextDouble()
-            var probability: Double
-            if (src.polarity === Polarity.EXCITATORY) {
-                if (tar.polarity === Polarity.EXCITATORY) {
-                    probability = calcConnectProb(src, tar, eeDistConst, lambda)
-                } else if (tar.polarity === Polarity.INHIBITORY) {
-                    probability = calcConnectProb(src, tar, eiDistConst, lambda)
-                } else {
-                    probability = calcConnectProb(src, tar, distConst, lambda)
-                }
-            } else if (src.polarity === Polarity.INHIBITORY) {
-                if (tar.polarity === Polarity.EXCITATORY) {
-                    probability = calcConnectProb(src, tar, ieDistConst, lambda)
-                } else if (tar.polarity === Polarity.INHIBITORY) {
-                    probability = calcConnectProb(src, tar, iiDistConst, lambda)
-                } else {
-                    probability = calcConnectProb(src, tar, distConst, lambda)
-                }
-            } else {
-                probability = calcConnectProb(src, tar, distConst, lambda)
+    val maxConst = maxOf(eeDistConst, eiDistConst, ieDistConst, iiDistConst, distConst)
+    val synapses = connectWithinDistance(source, target, cutoffDistance(maxConst, lambda), random) { src, tar, squaredDist ->
+        val connectConst = if (src.polarity === Polarity.EXCITATORY) {
+            when (tar.polarity) {
+                Polarity.EXCITATORY -> eeDistConst
+                Polarity.INHIBITORY -> eiDistConst
+                else -> distConst
             }
-            if (randVal < probability) {
-                val s = Synapse(src, tar)
-                if (src.polarity === Polarity.INHIBITORY) {
-                    s.forceSetStrength(-1.0)
-                } else {
-                    s.forceSetStrength(1.0)
-                }
-                synapses.add(s)
+        } else if (src.polarity === Polarity.INHIBITORY) {
+            when (tar.polarity) {
+                Polarity.EXCITATORY -> ieDistConst
+                Polarity.INHIBITORY -> iiDistConst
+                else -> distConst
             }
+        } else {
+            distConst
+        }
+        calcConnectProb(squaredDist, connectConst, lambda)
+    }
+    for (s in synapses) {
+        if (s.source.polarity === Polarity.INHIBITORY) {
+            s.forceSetStrength(-1.0)
+        } else {
+            s.forceSetStrength(1.0)
         }
     }
     return synapses
@@ -311,54 +306,34 @@ fun createRadialNoPolaritySynapses(
     source: List<Neuron>,
     target: List<Neuron>,
     distConst: Double,
-    lambda: Double
+    lambda: Double,
+    random: Random = Random
 ): List<Synapse> {
-    // Pre-allocating assuming that if one is using this as a connector
-    // then they are probably not going to have greater than 25%
-    // connectivity
-    val synapses: MutableList<Synapse> = ArrayList(source.size * target.size / 4)
-    for (src: Neuron in source) {
-        for (tar: Neuron in target) {
-            val randVal: Double = Math.random()
-            val probability: Double = calcConnectProb(src, tar, distConst, lambda)
-            if (randVal < probability) {
-                val s = Synapse(src, tar)
-                synapses.add(s)
-            }
-        }
+    return connectWithinDistance(source, target, cutoffDistance(distConst, lambda), random) { _, _, squaredDist ->
+        calcConnectProb(squaredDist, distConst, lambda)
     }
-    return synapses
 }
 
 /**
- * @param src       the source neuron.
- * @param tar       the target neuron.
+ * Distance beyond which connection probabilities with the given constant are below [NEGLIGIBLE_PROBABILITY].
+ */
+private fun cutoffDistance(distConst: Double, lambda: Double): Double {
+    if (distConst <= 0) return 0.0
+    return lambda * sqrt(maxOf(0.0, ln(distConst / NEGLIGIBLE_PROBABILITY)))
+}
+
+/**
+ * @param squaredDist the squared distance between the source and target neuron.
  * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit
  * polarity.
  * @param lambda    average connection distance.
  * @return
  */
-private fun calcConnectProb(src: Neuron, tar: Neuron, distConst: Double, lambda: Double): Double {
-    val dist: Double = -getRawDist(src, tar)
-    var exp: Double = Math.exp(dist / (lambda * lambda))
+private fun calcConnectProb(squaredDist: Double, distConst: Double, lambda: Double): Double {
+    var exp: Double = Math.exp(-squaredDist / (lambda * lambda))
     if (exp == 1.0) { // Same location == same neuron: cheapest way to
         // prevent self connections
         exp = 0.0
     }
     return distConst * exp
 }
-
-/**
- * @param n1 neuron one
- * @param n2 neuron two
- * @return
- */
-private fun getRawDist(n1: Neuron, n2: Neuron): Double {
-    var x2: Double = (n1.x - n2.x)
-    x2 *= x2
-    var y2: Double = (n1.y - n2.y)
-    y2 *= y2
-    var z2: Double = (n1.z - n2.z)
-    z2 *= z2
-    return x2 + y2 + z2
-}
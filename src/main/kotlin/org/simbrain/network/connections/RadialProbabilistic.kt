@@ -96,7 +96,7 @@ class RadialProbabilistic(
     )
     var allowSelfConnections: Boolean = false,
 
-    seed: Long = Random.nextLong()
+    seed: Long? = null
 
 ) : ConnectionStrategy(seed), EditableObject {
 
@@ -79,7 +79,7 @@ class Sparse @JvmOverloads constructor(
     )
     var allowSelfConnection: Boolean = false,
 
-    seed: Long = Random.nextLong()
+    seed: Long? = null
 
 ) : ConnectionStrategy(seed), EditableObject {
 
@@ -215,13 +215,16 @@ abstract class AbstractNeuronCollection : Layer(), CopyableObject {
     protected open fun addNeuron(neuron: Neuron) {
         neuronList.add(neuron)
         addListener(neuron)
+        NetworkModelList.structureChanged()
     }
 
     /**
-     * Add a collection of neurons.
+     * Add a collection of neurons. The neuron list is copied once rather than once per neuron.
      */
     protected fun addNeurons(neurons: Collection<Neuron>) {
-        neurons.forEach { this.addNeuron(it) }
+        neuronList.addAll(neurons)
+        neurons.forEach { addListener(it) }
+        NetworkModelList.structureChanged()
     }
 
     /**
@@ -231,6 +234,7 @@ abstract class AbstractNeuronCollection : Layer(), CopyableObject {
         n.events.locationChanged.on { events.locationChanged.fire() }
         n.events.deleted.on(wait = true) { neuron ->
             neuronList.remove(neuron)
+            NetworkModelList.structureChanged()
             if (isEmpty) {
                 delete()
             }
@@ -239,10 +243,12 @@ abstract class AbstractNeuronCollection : Layer(), CopyableObject {
 
     fun removeNeuron(neuron: Neuron?) {
         neuronList.remove(neuron)
+        NetworkModelList.structureChanged()
     }
 
     fun removeAllNeurons() {
         neuronList.clear()
+        NetworkModelList.structureChanged()
     }
 
     /**
@@ -7,6 +7,8 @@ import org.simbrain.util.flatten
 import org.simbrain.util.propertyeditor.EditableObject
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.toDoubleArray
+import smile.math.blas.Transpose.NO_TRANSPOSE
+import smile.math.blas.Transpose.TRANSPOSE
 import smile.math.matrix.Matrix
 import smile.stat.distribution.GaussianDistribution
 
@@ -29,9 +31,10 @@ class ActivationSequence(val sequenceSize: Int, inputSize: Int): ArrayLayer(inpu
     override val size: Int = inputSize
 
     context(Network) override fun accumulateInputs() {
-        val matrix = (incomingConnectors.firstOrNull() as? WeightMatrix)?.weightMatrix
+        val matrix = (incomingConnectors.firstOrNull() as? WeightMatrix)?.weightMatrix ?: return
         (incomingConnectors.firstOrNull()?.source as? ActivationSequenceProcessor)?.let { source ->
-            inputs.add(source.activations.mm(matrix?.transpose()))
+            // inputs += source activations * matrix^T
+            inputs.mm(NO_TRANSPOSE, source.activations, TRANSPOSE, matrix, 1.0, 1.0)
         }
     }
 
@@ -0,0 +1,77 @@
+package org.simbrain.network.core
+
+/**
+ * Circular buffer of the last [capacity] activation vectors of a connector's source, used to implement conduction
+ * delays for a whole [WeightMatrix] or [SynapseGroup] at once. A connection with delay d reads its source value from
+ * d steps ago, so memory is bounded by (max delay + 1) × source size rather than growing with the number of
+ * connections as with per-[Synapse] delay queues.
+ */
+class DelayLine(
+    val size: Int,
+    val capacity: Int,
+    /**
+     * Writes the current source values into the array it is given. Used by [pushOnce].
+     */
+    private val source: ((DoubleArray) -> Unit)? = null
+) {
+
+    private val history = Array(capacity) { DoubleArray(size) }
+
+    /**
+     * Index in [history] of the most recently pushed vector.
+     */
+    private var head = capacity - 1
+
+    /**
+     * Network time of the last push, for [pushOnce].
+     */
+    @Volatile
+    private var lastPushTime = Double.NaN
+
+    init {
+        require(capacity >= 1) { "Delay line capacity must be at least 1" }
+    }
+
+    /**
+     * Record the current source values. The previous vectors each become one step older and the oldest is
+     * overwritten.
+     */
+    fun push(values: DoubleArray) {
+        head = (head + 1) % capacity
+        values.copyInto(history[head], 0, 0, minOf(size, values.size))
+    }
+
+    /**
+     * Push the current values of [source] unless a push has already been made at this network time. Lets the synapses
+     * of a [SynapseGroup] share one line without knowing which of them is read first in an update.
+     */
+    fun pushOnce(time: Double) {
+        if (time == lastPushTime) {
+            return
+        }
+        synchronized(this) {
+            if (time != lastPushTime) {
+                val next = (head + 1) % capacity
+                source!!(history[next])
+                head = next
+                lastPushTime = time
+            }
+        }
+    }
+
+    /**
+     * The source vector pushed [delay] pushes ago; 0 is the most recent. The returned array is live and must not be
+     * modified.
+     */
+    fun delayed(delay: Int): DoubleArray {
+        require(delay in 0 until capacity) { "Delay $delay is outside 0 until $capacity" }
+        return history[Math.floorMod(head - delay, capacity)]
+    }
+
+    operator fun get(delay: Int, index: Int) = delayed(delay)[index]
+
+    fun clear() {
+        history.forEach { it.fill(0.0) }
+        lastPushTime = Double.NaN
+    }
+}
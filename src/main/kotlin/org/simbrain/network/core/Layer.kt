@@ -1,6 +1,7 @@
 package org.simbrain.network.core
 
 import org.simbrain.network.events.LocationEvents
+import org.simbrain.util.table.MatrixDataFrame
 import org.simbrain.util.toDoubleArray
 import org.simbrain.workspace.AttributeContainer
 import org.simbrain.workspace.Producible
@@ -61,6 +62,23 @@ abstract class Layer : LocatableModel(), AttributeContainer {
             _inputData = inputData
         }
 
+    /**
+     * Table used to append rows to [inputData] in amortized constant time. Replaced if [inputData] is set.
+     */
+    @Transient
+    private var inputDataFrame: MatrixDataFrame? = null
+
+    /**
+     * Add a row to the bottom of [inputData].
+     */
+    fun appendInputData(row: DoubleArray) {
+        val frame = inputDataFrame?.takeIf { it.matrixView() === _inputData }
+            ?: MatrixDataFrame(inputData).also { inputDataFrame = it }
+        frame.appendRow(row, fireEvent = false)
+        // Share the frame's storage so that the next append does not copy the rows
+        _inputData = frame.matrixView()
+    }
+
     /**
      * Add inputs to input vector. Performed in first pass of [org.simbrain.network.update_actions.BufferedUpdate]
      * Asynchronous buffered update assumes that inputs are aggregated in one pass then updated in a second pass.
@@ -7,7 +7,11 @@ import org.simbrain.network.gui.dialogs.NetworkPreferences
 import org.simbrain.network.neurongroups.NeuronGroup
 import org.simbrain.network.subnetworks.Subnetwork
 import org.simbrain.util.CachedObject
+import org.simbrain.util.Events
+import org.simbrain.util.RandomStreams
 import org.simbrain.util.SimpleIdManager
+import org.simbrain.util.UpdatePhase
+import org.simbrain.util.UpdateTelemetry
 import org.simbrain.util.UserParameter
 import org.simbrain.util.math.SimbrainMath
 import org.simbrain.util.propertyeditor.EditableObject
@@ -57,6 +61,22 @@ class Network: CoroutineScope, EditableObject {
         CONTINUOUS
     }
 
+    /**
+     * Precision used by weight matrices for their forward computation.
+     */
+    enum class Precision {
+        /**
+         * 64 bit floating point, the default.
+         */
+        DOUBLE,
+
+        /**
+         * 32 bit floating point weights and inputs, with results returned as doubles. Halves the memory traffic of
+         * large weight matrices at the cost of about seven significant digits.
+         */
+        SINGLE
+    }
+
     /**
      * Handle network events.
      */
@@ -94,6 +114,13 @@ class Network: CoroutineScope, EditableObject {
             "does not impact logical update)", order = 20)
     var timeType = TimeType.DISCRETE
 
+    /**
+     * Precision of weight matrix updates. Saved with the network.
+     */
+    @UserParameter("Precision", description = "Single precision halves the memory traffic of large weight " +
+            "matrices at the cost of accuracy", order = 30)
+    var precision = Precision.DOUBLE
+
     /**
      * Whether network has been updated yet; used by thread.
      */
@@ -147,20 +174,38 @@ class Network: CoroutineScope, EditableObject {
         set(value) {
             field = value
             random = Random(value)
+            randomStreams = RandomStreams(value)
+            networkModels.all.forEach { seedRandom(it) }
         }
 
+    /**
+     * Generator for code that updates the network sequentially. Not thread safe.
+     */
     @Transient
     var random = Random(randomSeed)
         private set
 
+    /**
+     * Independent streams derived from [randomSeed]. Each model draws from the stream for its id when it is
+     * randomized (see [NetworkModel.seeded]), so that its weights do not depend on what else in the network draws
+     * random numbers.
+     */
+    @Transient
+    var randomStreams = RandomStreams(randomSeed)
+        private set
+
     private var shouldUpdateTimeType = true
 
     private fun updateInternal(name: String) {
-        // Main update
-        updateManager.actionList.forEach {
-            runBlocking {
-                PerformanceMonitor.record(it, "${name}:${it.description}") {
-                    it.run()
+        // Main update. Repeated fires of a model's events during the update are dispatched once at the end.
+        Events.coalesce {
+            updateManager.actionList.forEach {
+                runBlocking {
+                    PerformanceMonitor.record(it, "${name}:${it.description}") {
+                        UpdateTelemetry.measure(UpdatePhase.NetworkAction, it.description ?: "(Unnamed Action)") {
+                            it.run()
+                        }
+                    }
                 }
             }
         }
@@ -251,64 +296,45 @@ class Network: CoroutineScope, EditableObject {
     val freeSynapses get() = networkModels.get<Synapse>()
 
     /**
-     * Create "flat" list of neurons, which includes the top-level neurons plus all group neurons.
+     * "Flat" list of neurons, which includes the top-level neurons plus all group neurons. The list is cached and only
+     * rebuilt after neurons or groups are added or removed (see [NetworkModelList.flatNeurons]), and cannot be
+     * modified.
      *
      * @return the flat list
      */
     val flatNeuronList: List<Neuron>
-        get() = sequence {
-            yieldAll(networkModels.get<Neuron>())
-            for (neuronGroup in networkModels.get<NeuronGroup>()) {
-                yieldAll(neuronGroup.neuronList)
-            }
-            for (subnetwork in networkModels.get<Subnetwork>()) {
-                yieldAll(subnetwork.modelList.get<NeuronGroup>().flatMap { it.neuronList })
-            }
-        }.toList()
+        get() = networkModels.flatNeurons
 
     /**
-     * Create "flat" list of synapses, which includes the top-level synapses plus all subnet synapses.
+     * "Flat" list of synapses, which includes the top-level synapses plus all subnet synapses. Cached like
+     * [flatNeuronList].
      *
      * @return the flat list
      */
     val flatSynapseList: List<Synapse>
-        get() = sequence {
-            yieldAll(networkModels.get<Synapse>())
-            yieldAll(networkModels.get<SynapseGroup>().flatMap { sg -> sg.synapses })
-            yieldAll(networkModels.get<Subnetwork>().flatMap { subnetwork ->
-                subnetwork.modelList.get<SynapseGroup>().flatMap { it.synapses }
-            })
-        }.toList()
+        get() = networkModels.flatSynapses
 
     /**
      * Returns a list of all neuron groups including those in subnetworks.
      */
     val flatNeuronGroupList: List<NeuronGroup>
-        get() = sequence {
-            yieldAll(networkModels.get<NeuronGroup>())
-            yieldAll(networkModels.get<Subnetwork>().flatMap { it.modelList.get() })
-        }.toList()
+        get() = networkModels.flatNeuronGroups
 
     /**
      * Returns a list of all synapse groups including those in subnetworks.
      */
     val flatSynapseGroupList: List<SynapseGroup>
-        get() = sequence {
-            yieldAll(networkModels.get<SynapseGroup>())
-            yieldAll(networkModels.get<Subnetwork>().flatMap { it.modelList.get() })
-        }.toList()
+        get() = networkModels.flatSynapseGroups
 
     /**
      * Returns a list of all weight matrices including those in subnetworks.
      */
     val flatWeightMatrixList: List<WeightMatrix>
-        get() = sequence {
-            yieldAll(networkModels.get<WeightMatrix>())
-            yieldAll(networkModels.get<Subnetwork>().flatMap { it.modelList.get() })
-        }.toList()
+        get() = networkModels.flatWeightMatrices
 
     private fun assignId(model: NetworkModel) {
         model.id = idManager.getAndIncrementId(model.javaClass)
+        model.seedRandom(randomStreams)
         when (model) {
             is NeuronGroup -> model.neuronList.forEach { assignId(it) }
             is SynapseGroup -> model.synapses.forEach { assignId(it) }
@@ -316,6 +342,18 @@ class Network: CoroutineScope, EditableObject {
         }
     }
 
+    /**
+     * Derive the random streams of [model], and of the models in it, from [randomStreams].
+     */
+    private fun seedRandom(model: NetworkModel) {
+        model.seedRandom(randomStreams)
+        when (model) {
+            is NeuronGroup -> model.neuronList.forEach { seedRandom(it) }
+            is SynapseGroup -> model.synapses.forEach { seedRandom(it) }
+            is Subnetwork -> model.modelList.all.forEach { seedRandom(it) }
+        }
+    }
+
     /**
      * Add a new [NetworkModel]. All network models must be added using this method.
      * For best results call with `?.await()` when possible.
@@ -384,6 +422,17 @@ class Network: CoroutineScope, EditableObject {
 
         placementManager = PlacementManager()
 
+        random = Random(randomSeed)
+
+        randomStreams = RandomStreams(randomSeed)
+        networkModels.all.forEach { seedRandom(it) }
+
+        // Networks saved before precision was added
+        @Suppress("SENSELESS_COMPARISON")
+        if (precision == null) {
+            precision = Precision.DOUBLE
+        }
+
         updateCompleted = AtomicBoolean(false)
         prioritySortedNeuronList = CachedObject {
             flatNeuronList.sortedBy { it.updatePriority }.toMutableList()
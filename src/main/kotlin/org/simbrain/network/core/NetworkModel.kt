@@ -2,6 +2,7 @@ package org.simbrain.network.core
 
 import kotlinx.coroutines.runBlocking
 import org.simbrain.network.events.NetworkModelEvents
+import org.simbrain.util.RandomStreams
 import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.workspace.Consumable
@@ -30,6 +31,41 @@ abstract class NetworkModel {
             events.labelChanged.fire(oldLabel, this.label)
         }
 
+    /**
+     * Streams this model draws from when it is randomized, derived from [Network.randomStreams] and this model's id
+     * when the model is added to a network. Null for models that are not in a network.
+     */
+    @Transient
+    var randomStreams: RandomStreams? = null
+        private set
+
+    /**
+     * Number of distributions handed out by [seeded], so that each randomization draws from a new stream.
+     */
+    @Transient
+    private var randomizations = 0L
+
+    /**
+     * Derive [randomStreams] from the streams of the network this model is in.
+     */
+    fun seedRandom(networkStreams: RandomStreams) {
+        randomStreams = networkStreams.child(id ?: return)
+        randomizations = 0
+    }
+
+    /**
+     * The distribution to sample when randomizing this model. Unless [dist] has a seed of its own, this is a copy of
+     * it seeded from the next stream of [randomStreams], so that randomizing a model in a network is reproducible from
+     * the network's seed whatever else draws from the distribution.
+     */
+    fun seeded(dist: ProbabilityDistribution): ProbabilityDistribution {
+        val streams = randomStreams
+        if (streams == null || dist.randomSeed != null) {
+            return dist
+        }
+        return dist.copy().also { it.randomSeed = streams.seedFor(randomizations++) }
+    }
+
     /**
      * First pass of updating. Generally a "weighted input".
      */
@@ -6,35 +6,33 @@ import com.thoughtworks.xstream.converters.MarshallingContext
 import com.thoughtworks.xstream.converters.UnmarshallingContext
 import com.thoughtworks.xstream.io.HierarchicalStreamReader
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter
+import org.simbrain.network.neurongroups.NeuronGroup
 import org.simbrain.network.subnetworks.Subnetwork
 import org.simbrain.util.CachedObject
+import java.util.*
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * The main data structure for [NetworkModel]s. Wraps a map from classes to ordered sets of those objects.
- * Backed by a linked hash set. Hash set deals with duplication; linked provides an iterator.
+ * Backed by [ModelSet]s, which deal with duplication and iterate in insertion order.
+ *
+ * Also provides "flat" views of the neurons, synapses, groups and weight matrices, including those inside groups and
+ * subnetworks. The views are rebuilt only when [structureVersion] has changed since they were last built.
  *
  * Used both by [Network] and by [Subnetwork].
  */
 class NetworkModelList {
 
     /**
-     * Backing for the collection: a map from model types to linked hash sets.
+     * Backing for the collection: a map from model types to insertion ordered sets.
      */
     @XStreamImplicit
-    private val networkModels: MutableMap<Class<out NetworkModel>, CopyOnWriteArraySet<NetworkModel>?> = ConcurrentHashMap()
+    private val networkModels: MutableMap<Class<out NetworkModel>, ModelSet<NetworkModel>?> = ConcurrentHashMap()
 
     @Suppress("UNCHECKED_CAST")
     fun <T : NetworkModel> put(modelClass: Class<T>, model: T) {
-        allInUpdatingOrderCache.invalidate()
-        if (modelClass in networkModels) {
-            networkModels[modelClass]!!.add(model)
-        } else {
-            val newSet = CopyOnWriteArraySet<T>()
-            newSet.add(model)
-            networkModels[modelClass] = newSet as CopyOnWriteArraySet<NetworkModel>
-        }
+        putUnsafe(modelClass, model)
     }
 
     /**
@@ -43,43 +41,44 @@ class NetworkModelList {
      */
     fun putUnsafe(modelClass: Class<out NetworkModel>, model: NetworkModel) {
         allInUpdatingOrderCache.invalidate()
-        if (modelClass in networkModels) {
-            networkModels[modelClass]!!.add(model)
-        } else {
-            val newSet = CopyOnWriteArraySet<NetworkModel>()
-            newSet.add(model)
-            networkModels[modelClass] = newSet
-        }
+        networkModels.computeIfAbsent(modelClass) { ModelSet() }!!.add(model)
+        structureChanged()
     }
 
     /**
-     * Add a collection of network models to the map.
+     * Add a collection of network models to the map. Models of the same type are added to their set in one step, and
+     * the flat views are invalidated once, so this is the preferred way to insert many models while building a large
+     * network.
      */
     fun addAll(models: Collection<NetworkModel>) {
-        models.forEach { add(it) }
+        allInUpdatingOrderCache.invalidate()
+        models.groupByTo(LinkedHashMap()) { setClass(it) }.forEach { (modelClass, group) ->
+            networkModels.computeIfAbsent(modelClass) { ModelSet() }!!.addAll(group)
+        }
+        structureChanged()
     }
 
     /**
      * Add a network model to the map.
      */
     fun add(model: NetworkModel) {
-        allInUpdatingOrderCache.invalidate()
-        if (model is Subnetwork) {
-            put(Subnetwork::class.java, model)
-        } else {
-            put(model.javaClass, model)
-        }
+        putUnsafe(setClass(model), model)
     }
 
+    /**
+     * Forces all subclasses of subnetwork to be grouped with the subnetwork class.
+     */
+    private fun setClass(model: NetworkModel) = if (model is Subnetwork) Subnetwork::class.java else model.javaClass
+
     /**
      * Returns an ordered set of network models of a specific type.
      */
     @Suppress("UNCHECKED_CAST")
-    operator fun <T : NetworkModel> get(modelClass: Class<T>): CopyOnWriteArraySet<T> {
+    operator fun <T : NetworkModel> get(modelClass: Class<T>): ModelSet<T> {
         return if (networkModels.containsKey(modelClass)) {
-            networkModels[modelClass] as CopyOnWriteArraySet<T>
+            networkModels[modelClass] as ModelSet<T>
         } else {
-            CopyOnWriteArraySet()
+            ModelSet()
         }
     }
 
@@ -90,11 +89,11 @@ class NetworkModelList {
      * Returns a set corresponding to the provided network model type.
      * Does not guarantee that the returned set contains models of that type.
      */
-    fun getRawModelSet(modelClass: Class<*>?): CopyOnWriteArraySet<*> {
+    fun getRawModelSet(modelClass: Class<*>?): ModelSet<*> {
         return if (networkModels.containsKey(modelClass)) {
             networkModels[modelClass]!!
         } else {
-            CopyOnWriteArraySet<NetworkModel>()
+            ModelSet<NetworkModel>()
         }
     }
 
@@ -111,20 +110,170 @@ class NetworkModelList {
 
     fun remove(model: NetworkModel) {
         allInUpdatingOrderCache.invalidate()
-        if (model is Subnetwork) {
-            // Forces all subclasses of subnetwork to be grouped with the subnetwork class
-            networkModels[Subnetwork::class.java]?.remove(model)
-        } else {
-            networkModels[model.javaClass]?.remove(model)
-        }
+        networkModels[setClass(model)]?.remove(model)
+        structureChanged()
     }
 
+    /**
+     * A list computed from the models, cached until the structure of some network changes.
+     */
+    private inner class FlatView<T>(private val build: () -> List<T>) {
+
+        @Volatile
+        private var version = -1L
+
+        @Volatile
+        private var list: List<T> = listOf()
+
+        val value: List<T>
+            get() {
+                val current = structureVersion.get()
+                if (version != current) {
+                    // Read the version first, so that a change made while building forces another rebuild
+                    list = Collections.unmodifiableList(ArrayList(build()))
+                    version = current
+                }
+                return list
+            }
+    }
+
+    private val flatNeuronView = FlatView {
+        sequence {
+            yieldAll(get<Neuron>())
+            for (neuronGroup in get<NeuronGroup>()) {
+                yieldAll(neuronGroup.neuronList)
+            }
+            for (subnetwork in get<Subnetwork>()) {
+                yieldAll(subnetwork.modelList.get<NeuronGroup>().flatMap { it.neuronList })
+            }
+        }.toList()
+    }
+
+    private val flatSynapseView = FlatView {
+        sequence {
+            yieldAll(get<Synapse>())
+            yieldAll(get<SynapseGroup>().flatMap { sg -> sg.synapses })
+            yieldAll(get<Subnetwork>().flatMap { subnetwork ->
+                subnetwork.modelList.get<SynapseGroup>().flatMap { it.synapses }
+            })
+        }.toList()
+    }
+
+    private val flatNeuronGroupView = FlatView {
+        get<NeuronGroup>() + get<Subnetwork>().flatMap { it.modelList.get<NeuronGroup>() }
+    }
+
+    private val flatSynapseGroupView = FlatView {
+        get<SynapseGroup>() + get<Subnetwork>().flatMap { it.modelList.get<SynapseGroup>() }
+    }
+
+    private val flatWeightMatrixView = FlatView {
+        get<WeightMatrix>() + get<Subnetwork>().flatMap { it.modelList.get<WeightMatrix>() }
+    }
+
+    /**
+     * Top-level neurons, then the neurons of neuron groups, then the neurons of neuron groups in subnetworks.
+     */
+    val flatNeurons: List<Neuron> get() = flatNeuronView.value
+
+    /**
+     * Top-level synapses, then the synapses of synapse groups, then the synapses of synapse groups in subnetworks.
+     */
+    val flatSynapses: List<Synapse> get() = flatSynapseView.value
+
+    /**
+     * Neuron groups, including those in subnetworks.
+     */
+    val flatNeuronGroups: List<NeuronGroup> get() = flatNeuronGroupView.value
+
+    /**
+     * Synapse groups, including those in subnetworks.
+     */
+    val flatSynapseGroups: List<SynapseGroup> get() = flatSynapseGroupView.value
+
+    /**
+     * Weight matrices, including those in subnetworks.
+     */
+    val flatWeightMatrices: List<WeightMatrix> get() = flatWeightMatrixView.value
 
     override fun toString(): String =  all.joinToString("\n") { "$it" }
 
     fun toStringTabbed(): String =  all.joinToString("\n") { "\t$it" }
 
     val size get() = networkModels.values.sumBy { it?.size ?: 0 }
+
+    companion object {
+
+        /**
+         * Incremented whenever models are added to or removed from any model list, neuron collection or synapse group,
+         * which invalidates all flat views. The counter is shared by all networks so that changes to groups, which do
+         * not know their network, need no back references.
+         */
+        private val structureVersion = AtomicLong()
+
+        fun structureChanged() {
+            structureVersion.incrementAndGet()
+        }
+    }
+}
+
+/**
+ * Insertion ordered set of network models with the iteration guarantees of a copy-on-write set: iterators traverse a
+ * snapshot, so the set can be changed while it is being iterated, for example by deleting models. Unlike
+ * [java.util.concurrent.CopyOnWriteArraySet], adding and removing do not copy the set. The snapshot is taken by the
+ * first iteration after a change, so adding n models one at a time costs O(n) rather than O(n^2).
+ */
+class ModelSet<T> : AbstractMutableSet<T>() {
+
+    private val elements = LinkedHashSet<T>()
+
+    @Volatile
+    private var snapshot: Array<Any?>? = null
+
+    override val size: Int get() = synchronized(this) { elements.size }
+
+    override fun contains(element: T) = synchronized(this) { element in elements }
+
+    override fun add(element: T) = synchronized(this) {
+        elements.add(element).also { if (it) snapshot = null }
+    }
+
+    override fun addAll(elements: Collection<T>) = synchronized(this) {
+        this.elements.addAll(elements).also { if (it) snapshot = null }
+    }
+
+    override fun remove(element: T) = synchronized(this) {
+        elements.remove(element).also { if (it) snapshot = null }
+    }
+
+    override fun clear() = synchronized(this) {
+        elements.clear()
+        snapshot = null
+    }
+
+    private fun currentSnapshot(): Array<Any?> = snapshot ?: synchronized(this) {
+        snapshot ?: elements.toTypedArray<Any?>().also { snapshot = it }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun iterator(): MutableIterator<T> = object : MutableIterator<T> {
+        private val items = currentSnapshot()
+        private var index = 0
+
+        override fun hasNext() = index < items.size
+
+        override fun next(): T {
+            if (index >= items.size) {
+                throw NoSuchElementException()
+            }
+            return items[index++] as T
+        }
+
+        override fun remove() {
+            check(index > 0) { "next has not been called" }
+            this@ModelSet.remove(items[index - 1] as T)
+        }
+    }
 }
 
 /**
@@ -158,10 +158,12 @@ fun connect(source: Neuron, target: Neuron, value: Double, lowerBound: Double =
 }
 
 fun Network.connect(source: List<Neuron>, target: List<Neuron>, connectionStrategy: ConnectionStrategy): List<Synapse> {
+    connectionStrategy.seedFrom(source, target)
     return connectionStrategy.connectNeurons(source, target).also { it.addToNetworkAsync() }
 }
 
 fun Network.connect(source: AbstractNeuronCollection, target: AbstractNeuronCollection, connector: ConnectionStrategy): List<Synapse?> {
+    connector.seedFrom(source.neuronList, target.neuronList)
     return connector.connectNeurons(source.neuronList, target.neuronList).also { it.addToNetworkAsync() }
 }
 
@@ -175,7 +177,8 @@ fun Network.connectAllToAll(source: AbstractNeuronCollection, target: AbstractNe
 }
 
 fun Network.connectAllToAll(source: AbstractNeuronCollection, target: AbstractNeuronCollection): List<Synapse> {
-    return AllToAll().connectNeurons(source.neuronList, target.neuronList).also { it.addToNetworkAsync() }
+    return AllToAll().apply { seedFrom(source.neuronList, target.neuronList) }
+        .connectNeurons(source.neuronList, target.neuronList).also { it.addToNetworkAsync() }
 }
 
 /**
@@ -183,6 +186,7 @@ fun Network.connectAllToAll(source: AbstractNeuronCollection, target: AbstractNe
  */
 fun Network.connectAllToAll(inputs: AbstractNeuronCollection, target: Neuron): List<Synapse> {
     val connector = AllToAll()
+    connector.seedFrom(inputs.neuronList, listOf(target))
     return connector.connectNeurons(inputs.neuronList, listOf(target)).also { it.addToNetworkAsync() }
 }
 
@@ -160,6 +160,24 @@ class Neuron : LocatableModel, EditableObject, AttributeContainer {
     var fanIn: ArrayList<Synapse> = ArrayList()
         private set
 
+    /**
+     * Incremented when a synapse is added to or removed from [fanIn], or when the delay, spike responder or enabled
+     * state of one of them changes, so that models which cache how their inputs are wired (like
+     * [org.simbrain.network.neurongroups.SOMGroup]) can tell when the cache is stale. Strength changes do not count,
+     * since they happen on every learning step; see [fanInStrengthVersion].
+     */
+    @Transient
+    var fanInVersion = 0
+        internal set
+
+    /**
+     * Incremented whenever the strength of one of the synapses in [fanIn] is set, so that models which keep a copy of
+     * their incoming weights only re-read the neurons whose weights changed.
+     */
+    @Transient
+    var fanInStrengthVersion = 0
+        internal set
+
     /**
      * Central x-coordinate of this neuron in 2-space.
      */
@@ -349,6 +367,7 @@ class Neuron : LocatableModel, EditableObject, AttributeContainer {
     fun addToFanIn(source: Synapse) {
         if (fanIn != null) {
             fanIn.add(source)
+            fanInVersion++
         }
     }
 
@@ -358,6 +377,7 @@ class Neuron : LocatableModel, EditableObject, AttributeContainer {
      */
     fun removeFromFanIn(synapse: Synapse) {
         fanIn.remove(synapse)
+        fanInVersion++
     }
 
     /**
@@ -226,6 +226,13 @@ class NeuronArray(inputSize: Int) : ArrayLayer(inputSize), EditableObject, Attri
 
     }
 
+    context(Network)
+    override fun accumulateInputs() {
+        if (updateRule.usesSummedInputs) {
+            super.accumulateInputs()
+        }
+    }
+
     context(Network)
     override fun update() {
         if (isClamped) {
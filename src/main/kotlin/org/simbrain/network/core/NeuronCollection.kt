@@ -118,6 +118,7 @@ class NeuronCollection : AbstractNeuronCollection {
         // These neurons already have ids and listeners
         neuronList.add(neuron)
         addListener(neuron)
+        NetworkModelList.structureChanged()
     }
 
     /**
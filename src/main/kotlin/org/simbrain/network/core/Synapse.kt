@@ -48,6 +48,10 @@ import java.util.*
 class Synapse : NetworkModel, EditableObject, AttributeContainer {
 
     private var _strength = 1.0
+        set(value) {
+            field = value
+            target.fanInStrengthVersion++
+        }
 
     /**
      * Strength of synapse.
@@ -116,6 +120,7 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
         set(newResponder) {
             field = newResponder
             spikeResponderData = newResponder.createResponderData()
+            target.fanInVersion++
         }
 
     /**
@@ -164,18 +169,10 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
                 return
             }
             field = dly
+            target.fanInVersion++
 
-            if (delay <= 0) {
-                delayManager = null
-
-                return
-            }
-
-            delayManager = DoubleArray(delay)
-
-            for (i in 0 until delay) {
-                delayManager!![i] = 0.0
-            }
+            // Allocated on first use, since synapses reading a shared delay line never need it
+            delayManager = null
             dlyPtr = 0
         }
 
@@ -188,6 +185,10 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
         order = 6
     )
     var isEnabled: Boolean = true
+        set(value) {
+            field = value
+            target.fanInVersion++
+        }
 
     /**
      * Whether or not this synapse's strength can be changed by any means other than direct
@@ -215,6 +216,19 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
      */
     private var dlyVal = 0.0
 
+    /**
+     * Source history shared by the synapses of a [SynapseGroup]. When set, a delayed connectionist synapse reads its
+     * source activation from here instead of keeping its own queue. See [SynapseGroup.setDelays].
+     */
+    @Transient
+    internal var delayLine: DelayLine? = null
+
+    /**
+     * Index of this synapse's source neuron in [delayLine].
+     */
+    @Transient
+    internal var delayLineIndex = 0
+
     /**
      * Data holder for learning rule
      */
@@ -337,6 +351,12 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
 
         // Update the output of this synapse
         if (spikeResponder is NonResponder) {
+            val line = delayLine
+            if (delay in 1 until (line?.capacity ?: 0)) {
+                line!!.pushOnce(this@Network.time)
+                psr = line[delay, delayLineIndex] * _strength
+                return
+            }
             // For "connectionist" case
             psr = source.activation * _strength
         } else {
@@ -346,6 +366,9 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
 
         // Handle delays
         if (delay != 0) {
+            if (delayManager == null) {
+                delayManager = DoubleArray(delay)
+            }
             dlyVal = dequeue()
             enqueue(psr)
             psr = dlyVal
@@ -361,6 +384,19 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
          */
         get() = learningRule.javaClass.simpleName
 
+    /**
+     * Set the strength as with [strength], optionally without firing [SynapseEvents.strengthUpdated]. Used by models
+     * that update many synapses at once and notify listeners themselves.
+     */
+    fun setStrength(wt: Double, fireEvent: Boolean) {
+        if (!frozen) {
+            _strength = source.polarity.value(wt).coerceIn(lowerBound, upperBound)
+        }
+        if (fireEvent) {
+            events.strengthUpdated.fire()
+        }
+    }
+
     fun forceSetStrength(wt: Double) {
         _strength = source.polarity.value(wt)
         events.strengthUpdated.fire()
@@ -429,9 +465,9 @@ class Synapse : NetworkModel, EditableObject, AttributeContainer {
 
     override fun randomize(randomizer: ProbabilityDistribution?) {
         when (source.polarity) {
-            Polarity.EXCITATORY -> forceSetStrength(excitatoryRandomizer.sampleDouble())
-            Polarity.INHIBITORY -> forceSetStrength(inhibitoryRandomizer.sampleDouble())
-            else -> forceSetStrength((randomizer ?: weightRandomizer).sampleDouble())
+            Polarity.EXCITATORY -> forceSetStrength(seeded(excitatoryRandomizer).sampleDouble())
+            Polarity.INHIBITORY -> forceSetStrength(seeded(inhibitoryRandomizer).sampleDouble())
+            else -> forceSetStrength(seeded(randomizer ?: weightRandomizer).sampleDouble())
         }
     }
 
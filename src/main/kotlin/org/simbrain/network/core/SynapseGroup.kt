@@ -11,6 +11,7 @@ import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.stats.distributions.UniformRealDistribution
 import org.simbrain.workspace.AttributeContainer
 import smile.math.matrix.Matrix
+import java.util.*
 
 /**
  * Lightweight collection of synapses. Contains references to a source and target layer, a connection strategy, and a
@@ -20,9 +21,17 @@ class SynapseGroup @JvmOverloads constructor(
     val source: AbstractNeuronCollection,
     val target: AbstractNeuronCollection,
     var connectionStrategy: ConnectionStrategy = AllToAll(),
-    var synapses: MutableList<Synapse> = connectionStrategy.connectNeurons(source.neuronList, target.neuronList).toMutableList()
+    synapses: MutableList<Synapse> = connectionStrategy
+        .apply { seedFrom(source.neuronList, target.neuronList) }
+        .connectNeurons(source.neuronList, target.neuronList).toMutableList()
 ) : NetworkModel(), AttributeContainer {
 
+    var synapses: MutableList<Synapse> = synapses
+        set(value) {
+            field = value
+            NetworkModelList.structureChanged()
+        }
+
     // TODO: When passing in synapses check all source are in source and all target are in target
     // reuse this in addsynapse
 
@@ -51,6 +60,17 @@ class SynapseGroup @JvmOverloads constructor(
             events.visibilityChanged.fire()
         }
 
+    /**
+     * True once [setDelays] has been used, so that the shared delay line is rebuilt after deserialization.
+     */
+    private var useDelayLine = false
+
+    /**
+     * Recent activations of the source neurons, read by delayed synapses in this group. See [setDelays].
+     */
+    @Transient
+    private var delayLine: DelayLine? = null
+
     init {
         initializeSynapseVisibility()
         source.outgoingSg.add(this)
@@ -76,12 +96,21 @@ class SynapseGroup @JvmOverloads constructor(
 
     fun addSynapse(syn: Synapse) {
         syn.isVisible = displaySynapses
+        delayLine?.let { line ->
+            val index = source.neuronList.indexOf(syn.source)
+            if (index >= 0) {
+                syn.delayLine = line
+                syn.delayLineIndex = index
+            }
+        }
         this.synapses.add(syn)
+        NetworkModelList.structureChanged()
         events.synapseAdded.fire(syn)
     }
 
     fun removeSynapse(syn: Synapse) {
         this.synapses.remove(syn)
+        NetworkModelList.structureChanged()
         events.synapseRemoved.fire(syn)
     }
 
@@ -97,6 +126,55 @@ class SynapseGroup @JvmOverloads constructor(
 
     fun size(): Int = this.synapses.size
 
+    /**
+     * Set the delay of every synapse in the group. Delayed synapses then share one buffer of past source activations,
+     * of size (delay + 1) × source size, instead of each keeping its own queue.
+     */
+    fun setDelays(delay: Int) {
+        this.synapses.forEach { it.delay = delay }
+        updateDelayLine()
+    }
+
+    /**
+     * Set the delay of each synapse to a sample from [randomizer]. Negative samples are treated as 0.
+     */
+    fun setDelays(randomizer: ProbabilityDistribution) {
+        this.synapses.forEach { it.delay = randomizer.sampleInt().coerceAtLeast(0) }
+        updateDelayLine()
+    }
+
+    /**
+     * Rebuild the shared delay line. Call after changing the delays of individual synapses in the group.
+     */
+    fun updateDelayLine() {
+        useDelayLine = true
+        val neurons = source.neuronList
+        val maxDelay = this.synapses.maxOfOrNull { it.delay } ?: 0
+        val line = if (maxDelay > 0) {
+            DelayLine(neurons.size, maxDelay + 1) { values ->
+                for (i in 0 until minOf(values.size, neurons.size)) {
+                    values[i] = neurons[i].activation
+                }
+            }
+        } else {
+            null
+        }
+        val indices = IdentityHashMap<Neuron, Int>().apply { neurons.forEachIndexed { i, n -> put(n, i) } }
+        this.synapses.forEach { synapse ->
+            val index = indices[synapse.source]
+            synapse.delayLine = if (index == null) null else line
+            synapse.delayLineIndex = index ?: 0
+        }
+        delayLine = line
+    }
+
+    private fun readResolve(): Any {
+        if (useDelayLine) {
+            updateDelayLine()
+        }
+        return this
+    }
+
     fun randomizeSymmetric(randomizer: ProbabilityDistribution?) {
         randomize(randomizer)
         this.synapses.forEach { it.symmetricSynapse?.let { s -> it.forceSetStrength(s.strength) } }
@@ -104,25 +182,30 @@ class SynapseGroup @JvmOverloads constructor(
     }
 
     override fun randomize(randomizer: ProbabilityDistribution?) {
+        val exRandomizer = seeded(connectionStrategy.exRandomizer)
+        val inRandomizer = seeded(connectionStrategy.inRandomizer)
+        val bothRandomizer = seeded(randomizer ?: weightRandomizer)
         this.synapses.forEach {
             when (it.target.polarity) {
-                SimbrainConstants.Polarity.EXCITATORY -> it.forceSetStrength(connectionStrategy.exRandomizer.sampleDouble())
-                SimbrainConstants.Polarity.INHIBITORY -> it.forceSetStrength(connectionStrategy.inRandomizer.sampleDouble())
-                SimbrainConstants.Polarity.BOTH -> it.forceSetStrength((randomizer ?: weightRandomizer).sampleDouble())
+                SimbrainConstants.Polarity.EXCITATORY -> it.forceSetStrength(exRandomizer.sampleDouble())
+                SimbrainConstants.Polarity.INHIBITORY -> it.forceSetStrength(inRandomizer.sampleDouble())
+                SimbrainConstants.Polarity.BOTH -> it.forceSetStrength(bothRandomizer.sampleDouble())
             }
         }
     }
 
     fun randomizeExcitatory() {
+        val exRandomizer = seeded(connectionStrategy.exRandomizer)
         this.synapses
             .filter { s -> s.target.polarity == SimbrainConstants.Polarity.EXCITATORY }
-            .forEach { it.forceSetStrength(connectionStrategy.exRandomizer.sampleDouble()) }
+            .forEach { it.forceSetStrength(exRandomizer.sampleDouble()) }
     }
 
     fun randomizeInhibitory() {
+        val exRandomizer = seeded(connectionStrategy.exRandomizer)
         this.synapses
             .filter { s -> s.target.polarity == SimbrainConstants.Polarity.INHIBITORY }
-            .forEach { it.forceSetStrength(connectionStrategy.exRandomizer.sampleDouble()) }
+            .forEach { it.forceSetStrength(exRandomizer.sampleDouble()) }
     }
 
     override fun toggleClamping() {
@@ -135,6 +218,7 @@ class SynapseGroup @JvmOverloads constructor(
 
     fun applyConnectionStrategy() {
         synapses.toList().forEach { removeSynapse(it) }
+        connectionStrategy.seedFrom(source.neuronList, target.neuronList)
         connectionStrategy.connectNeurons(
             source.neuronList,
             target.neuronList
@@ -5,10 +5,24 @@ import org.simbrain.network.gui.nodes.ActivationSequenceProcessor
 import org.simbrain.util.*
 import org.simbrain.util.propertyeditor.EditableObject
 import org.simbrain.util.stats.ProbabilityDistribution
+import smile.math.blas.Transpose.NO_TRANSPOSE
+import smile.math.blas.Transpose.TRANSPOSE
 import smile.math.matrix.Matrix
 import kotlin.math.exp
 import kotlin.math.sqrt
 
+/**
+ * A transformer block: single-head self attention over a sequence of [sequenceSize] activation vectors, followed by
+ * a feedforward network, each with a residual connection and layer normalization.
+ *
+ * All intermediate results are kept in buffers allocated with the block, and the forward pass writes into them with
+ * in-place matrix products, so an update allocates nothing. When the input is the previous input shifted up by one
+ * row (a context window sliding over a text), the query, key and value rows of the earlier tokens are shifted rather
+ * than recomputed.
+ *
+ * [step] processes a sequence one token at a time with causal attention, keeping the keys and values of the last
+ * [sequenceSize] tokens in a rolling cache so that each token costs O(sequenceSize * inputSize) for attention.
+ */
 class TransformerBlock(val sequenceSize: Int, inputSize: Int, val hiddenSize: Int): ArrayLayer(inputSize), EditableObject, ActivationSequenceProcessor {
 
     override val inputs: Matrix = Matrix(sequenceSize, inputSize)
@@ -61,6 +75,41 @@ class TransformerBlock(val sequenceSize: Int, inputSize: Int, val hiddenSize: In
 
     val feedForwardHidden = Matrix(sequenceSize, hiddenSize)
 
+    @Transient
+    private val attentionOutput = Matrix(sequenceSize, inputSize)
+
+    // Inputs and weights the q, k and v stacks were last computed from
+    @Transient
+    private val projectedInputs = Matrix(sequenceSize, inputSize)
+    @Transient
+    private val projectedK = Matrix(inputSize, inputSize)
+    @Transient
+    private val projectedQ = Matrix(inputSize, inputSize)
+    @Transient
+    private val projectedV = Matrix(inputSize, inputSize)
+    @Transient
+    private var projectionsValid = false
+
+    // Rolling key / value cache for [step]. Token t of the cache is in row (cacheStart + t) % sequenceSize.
+    @Transient
+    private val keyCache = Matrix(sequenceSize, inputSize)
+    @Transient
+    private val valueCache = Matrix(sequenceSize, inputSize)
+    @Transient
+    private var cacheStart = 0
+    @Transient
+    private var cacheCount = 0
+    @Transient
+    private val stepQuery = DoubleArray(inputSize)
+    @Transient
+    private val stepScores = DoubleArray(sequenceSize)
+    @Transient
+    private val stepResidual = DoubleArray(inputSize)
+    @Transient
+    private val stepHidden = DoubleArray(hiddenSize)
+    @Transient
+    private val stepOutput = DoubleArray(inputSize)
+
     override val biases: Matrix get() = throw UnsupportedOperationException("Not applicable to Transformer")
 
     override val biasArray: DoubleArray
@@ -70,9 +119,10 @@ class TransformerBlock(val sequenceSize: Int, inputSize: Int, val hiddenSize: In
     override val size: Int = inputSize
 
     context(Network) override fun accumulateInputs() {
-        val matrix = (incomingConnectors.firstOrNull() as? WeightMatrix)?.weightMatrix
+        val matrix = (incomingConnectors.firstOrNull() as? WeightMatrix)?.weightMatrix ?: return
         (incomingConnectors.firstOrNull()?.source as? ActivationSequenceProcessor)?.let { source ->
-            inputs.add(source.activations.mm(matrix?.transpose()))
+            // inputs += source activations * matrix^T
+            inputs.mm(NO_TRANSPOSE, source.activations, TRANSPOSE, matrix, 1.0, 1.0)
         }
     }
 
@@ -84,47 +134,239 @@ class TransformerBlock(val sequenceSize: Int, inputSize: Int, val hiddenSize: In
         events.updated.fire()
     }
 
-    private fun softmaxRow(row: DoubleArray): DoubleArray {
-        val max = row.maxOrNull() ?: 0.0  // For numerical stability
-        val expValues = row.map { exp(it - max) }
-        val sumExp = expValues.sum()
-        return expValues.map { it / sumExp }.toDoubleArray()
-    }
-
-
     context(Network) override fun update() {
         if (isClamped) {
             return
         }
+        forward()
+        inputs.mul(0.0)
+        events.updated.fire()
+    }
 
-        val scale = sqrt(inputSize.toDouble())
+    /**
+     * Compute the activations from the inputs, using only the block's own buffers.
+     */
+    internal fun forward() {
+        if (canShiftProjections()) {
+            shiftUp(qStack)
+            shiftUp(kStack)
+            shiftUp(vStack)
+            projectRow(inputs, sequenceSize - 1, Q, qStack)
+            projectRow(inputs, sequenceSize - 1, K, kStack)
+            projectRow(inputs, sequenceSize - 1, V, vStack)
+        } else {
+            qStack.mm(NO_TRANSPOSE, inputs, NO_TRANSPOSE, Q)
+            kStack.mm(NO_TRANSPOSE, inputs, NO_TRANSPOSE, K)
+            vStack.mm(NO_TRANSPOSE, inputs, NO_TRANSPOSE, V)
+        }
+        projectedInputs.copyFrom(inputs)
+        projectedQ.copyFrom(Q)
+        projectedK.copyFrom(K)
+        projectedV.copyFrom(V)
+        projectionsValid = true
+
+        // Scaled dot-product attention
+        selfAttention.mm(NO_TRANSPOSE, qStack, TRANSPOSE, kStack, 1 / sqrt(inputSize.toDouble()), 0.0)
+        for (i in 0 until sequenceSize) {
+            softmaxRow(selfAttention, i)
+        }
+        attentionOutput.mm(NO_TRANSPOSE, selfAttention, NO_TRANSPOSE, vStack)
 
-        kStack.copyFrom(inputs.mm(K))
-        qStack.copyFrom(inputs.mm(Q))
-        vStack.copyFrom(inputs.mm(V))
+        // Residual connection and layer norm
+        for (j in 0 until inputSize) {
+            for (i in 0 until sequenceSize) {
+                feedForwardInput[i, j] = inputs[i, j] + attentionOutput[i, j]
+            }
+        }
+        feedForwardInput.layerNormInPlace()
+
+        // Feedforward network, residual connection and layer norm
+        feedForwardHidden.mm(NO_TRANSPOSE, feedForwardInput, NO_TRANSPOSE, W1)
+        for (j in 0 until hiddenSize) {
+            for (i in 0 until sequenceSize) {
+                feedForwardHidden[i, j] = maxOf(0.0, feedForwardHidden[i, j] + b1[i, j])
+            }
+        }
+        activations.mm(NO_TRANSPOSE, feedForwardHidden, NO_TRANSPOSE, W2)
+        for (j in 0 until inputSize) {
+            for (i in 0 until sequenceSize) {
+                activations[i, j] += b2[i, j] + feedForwardInput[i, j]
+            }
+        }
+        activations.layerNormInPlace()
+    }
 
-        selfAttention.copyFrom(qStack.mm(kStack.transpose()))
-        selfAttention.div(scale)
+    /**
+     * True if the inputs are the inputs of the last forward pass shifted up by one row, and the q, k and v weights
+     * have not changed, so that only the last row of each stack needs to be computed.
+     */
+    private fun canShiftProjections(): Boolean {
+        if (!projectionsValid || sequenceSize < 2) {
+            return false
+        }
+        for (j in 0 until inputSize) {
+            for (i in 0 until sequenceSize - 1) {
+                if (inputs[i, j] != projectedInputs[i + 1, j]) {
+                    return false
+                }
+            }
+        }
+        return sameValues(Q, projectedQ) && sameValues(K, projectedK) && sameValues(V, projectedV)
+    }
 
-        // Apply softmax to each row
-        (0 until selfAttention.nrow())
-            .map { selfAttention.row(it) }
-            .map { row ->
-                softmaxRow(row)
-            }.toTypedArray()
-            .toMatrix()
-            .let { selfAttention.copyFrom(it) }
+    private fun shiftUp(stack: Matrix) {
+        for (j in 0 until stack.ncol()) {
+            for (i in 0 until stack.nrow() - 1) {
+                stack[i, j] = stack[i + 1, j]
+            }
+        }
+    }
 
-        val attentionOutput = selfAttention.mm(vStack)
+    /**
+     * Set row [i] of [result] to row [i] of [x] times [weights].
+     */
+    private fun projectRow(x: Matrix, i: Int, weights: Matrix, result: Matrix) {
+        for (j in 0 until weights.ncol()) {
+            var sum = 0.0
+            for (k in 0 until weights.nrow()) {
+                sum += x[i, k] * weights[k, j]
+            }
+            result[i, j] = sum
+        }
+    }
 
-        feedForwardInput.copyFrom(inputs.clone().add(attentionOutput).layerNorm())
+    private fun sameValues(a: Matrix, b: Matrix): Boolean {
+        for (j in 0 until a.ncol()) {
+            for (i in 0 until a.nrow()) {
+                if (a[i, j] != b[i, j]) {
+                    return false
+                }
+            }
+        }
+        return true
+    }
 
-        feedForwardHidden.copyFrom(feedForwardInput.mm(W1).add(b1).relu())
+    /**
+     * Replace row [i] of [matrix] with its softmax, subtracting the row maximum for numerical stability.
+     */
+    private fun softmaxRow(matrix: Matrix, i: Int) {
+        var max = Double.NEGATIVE_INFINITY
+        for (j in 0 until matrix.ncol()) {
+            max = maxOf(max, matrix[i, j])
+        }
+        var sum = 0.0
+        for (j in 0 until matrix.ncol()) {
+            val e = exp(matrix[i, j] - max)
+            matrix[i, j] = e
+            sum += e
+        }
+        for (j in 0 until matrix.ncol()) {
+            matrix[i, j] /= sum
+        }
+    }
 
-        activations.copyFrom(feedForwardInput.add(feedForwardHidden.mm(W2).add(b2)).layerNorm())
+    /**
+     * Normalize a vector in place to zero mean and unit variance, as [Matrix.layerNorm] does for each row.
+     */
+    private fun layerNorm(vector: DoubleArray, epsilon: Double = 1e-5) {
+        val mean = vector.average()
+        var variance = 0.0
+        for (x in vector) {
+            variance += (x - mean) * (x - mean)
+        }
+        val std = sqrt(variance / vector.size + epsilon)
+        for (j in vector.indices) {
+            vector[j] = (vector[j] - mean) / std
+        }
+    }
 
-        inputs.mul(0.0)
-        events.updated.fire()
+    /**
+     * Process one token of a sequence, with causal attention: the token attends to itself and the tokens before it,
+     * up to [sequenceSize] tokens back. Keys and values of earlier tokens come from a rolling cache, so only the new
+     * token's query, key and value are computed. The feedforward biases for the token's position in the window are
+     * used.
+     *
+     * @param token input vector of size [inputSize]
+     * @return the output vector for the token. The array is reused by the next call.
+     */
+    fun step(token: DoubleArray): DoubleArray {
+        require(token.size == inputSize) { "Token has ${token.size} values but the block has input size $inputSize" }
+
+        // Store the token's key and value, replacing the oldest token once the cache is full
+        val slot: Int
+        if (cacheCount < sequenceSize) {
+            slot = (cacheStart + cacheCount) % sequenceSize
+            cacheCount++
+        } else {
+            slot = cacheStart
+            cacheStart = (cacheStart + 1) % sequenceSize
+        }
+        val position = cacheCount - 1
+        for (j in 0 until inputSize) {
+            var q = 0.0
+            var k = 0.0
+            var v = 0.0
+            for (i in 0 until inputSize) {
+                q += token[i] * Q[i, j]
+                k += token[i] * K[i, j]
+                v += token[i] * V[i, j]
+            }
+            stepQuery[j] = q
+            keyCache[slot, j] = k
+            valueCache[slot, j] = v
+        }
+
+        // Attention over the cached tokens
+        val scale = 1 / sqrt(inputSize.toDouble())
+        var max = Double.NEGATIVE_INFINITY
+        for (t in 0 until cacheCount) {
+            val row = (cacheStart + t) % sequenceSize
+            var score = 0.0
+            for (j in 0 until inputSize) {
+                score += stepQuery[j] * keyCache[row, j]
+            }
+            stepScores[t] = score * scale
+            max = maxOf(max, stepScores[t])
+        }
+        var sum = 0.0
+        for (t in 0 until cacheCount) {
+            stepScores[t] = exp(stepScores[t] - max)
+            sum += stepScores[t]
+        }
+        for (j in 0 until inputSize) {
+            var attention = 0.0
+            for (t in 0 until cacheCount) {
+                attention += stepScores[t] * valueCache[(cacheStart + t) % sequenceSize, j]
+            }
+            stepResidual[j] = token[j] + attention / sum
+        }
+        layerNorm(stepResidual)
+
+        // Feedforward network
+        for (h in 0 until hiddenSize) {
+            var x = b1[position, h]
+            for (j in 0 until inputSize) {
+                x += stepResidual[j] * W1[j, h]
+            }
+            stepHidden[h] = maxOf(0.0, x)
+        }
+        for (j in 0 until inputSize) {
+            var x = b2[position, j] + stepResidual[j]
+            for (h in 0 until hiddenSize) {
+                x += stepHidden[h] * W2[h, j]
+            }
+            stepOutput[j] = x
+        }
+        layerNorm(stepOutput)
+        return stepOutput
+    }
+
+    /**
+     * Forget the tokens processed by [step].
+     */
+    fun resetCache() {
+        cacheStart = 0
+        cacheCount = 0
     }
 
     fun copy() = TransformerBlock(sequenceSize, inputSize, hiddenSize).also {
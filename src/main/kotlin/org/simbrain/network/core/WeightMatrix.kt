@@ -5,15 +5,18 @@ import org.simbrain.network.gui.nodes.ActivationSequenceProcessor
 import org.simbrain.network.learningrules.StaticSynapseRule
 import org.simbrain.network.learningrules.SynapseUpdateRule
 import org.simbrain.network.spikeresponders.NonResponder
+import org.simbrain.network.spikeresponders.SparseSpikeResponse
 import org.simbrain.network.spikeresponders.SpikeResponder
 import org.simbrain.network.util.EmptyMatrixData
 import org.simbrain.network.util.MatrixDataHolder
+import org.simbrain.network.util.SpikingMatrixData
 import org.simbrain.util.*
 import org.simbrain.util.propertyeditor.GuiEditable
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.workspace.Consumable
 import org.simbrain.workspace.Producible
 import smile.math.matrix.Matrix
+import java.util.stream.IntStream
 import kotlin.math.min
 
 /**
@@ -44,8 +47,81 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
         set(value) {
             field = value
             spikeResponseData = value.createMatrixData(weightMatrix.nrow(), weightMatrix.ncol())
+            sparseResponse = null
         }
 
+    /**
+     * If true, spikes are propagated event-driven when the spike responder supports it (see
+     * [SpikeResponder.createSparseResponse]): each step only the weight columns of source neurons that spiked are
+     * read, and targets receive summed responses directly. The psr matrix is then not kept up to date; responders may
+     * use it to hold the responses of each source as of its last spike.
+     */
+    @UserParameter(label = "Sparse spike propagation", order = 205)
+    var useSparsePropagation = false
+        set(value) {
+            field = value
+            sparseResponse = null
+        }
+
+    /**
+     * State of the event-driven response when [useSparsePropagation] is in effect.
+     */
+    @Transient
+    private var sparseResponse: SparseSpikeResponse? = null
+
+    /**
+     * Indices of the source neurons that spiked in the current step.
+     */
+    @Transient
+    private var spikedIndices: IntArray? = null
+
+    /**
+     * Incremented by [weightsChanged] so that [floatWeights] is rebuilt after the weights are modified.
+     */
+    @Transient
+    private var weightsVersion = 0
+
+    @Transient
+    private var uniformWeightVersion = -1
+
+    @Transient
+    private var cachedUniformWeight: Double? = null
+
+    @Transient
+    private var blockWeightsVersion = -1
+
+    @Transient
+    private var cachedBlockWeights: BlockWeights? = null
+
+    /**
+     * Set when a search for [uniformWeight] or [blockWeights] finds nothing, so that it is not repeated each time the
+     * weights change, only after they are replaced (see [weightsReplaced]).
+     */
+    @Transient
+    private var uniformWeightAbandoned = false
+
+    @Transient
+    private var blockWeightsAbandoned = false
+
+    /**
+     * Row-major single precision copy of the weights, used when the network's precision is
+     * [Network.Precision.SINGLE].
+     */
+    @Transient
+    private var floatWeights: FloatArray? = null
+
+    @Transient
+    private var floatWeightsVersion = -1
+
+    @Transient
+    private var floatInputs: FloatArray? = null
+
+    /**
+     * Summed inputs to each target computed in single precision. Null unless the last update used single precision.
+     */
+    @Transient
+    private var singlePrecisionPSRs: DoubleArray? = null
+
     /**
      * Holds data for learning rule.
      */
@@ -96,6 +172,24 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
     @Transient
     val inhibitoryMask: Matrix
 
+    /**
+     * Conduction delay in time steps of each connection, stored row-major (target, source). Null when no connection
+     * is delayed. Delays apply to the connectionist case; spike responders read the current spikes of the source.
+     */
+    private var delays: IntArray? = null
+
+    /**
+     * Recent source activations, so that a connection with delay d can read the source from d steps ago.
+     */
+    @Transient
+    private var delayLine: DelayLine? = null
+
+    /**
+     * Indices of the delayed entries grouped by delay, so each past source vector is read once per update.
+     */
+    @Transient
+    private var delayClasses: List<Pair<Int, IntArray>>? = null
+
     @UserParameter(label = "Transpose Graphics", order = 10)
     var transposeGraphics = false
         set(value) {
@@ -138,6 +232,7 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
                 weightMatrix[i, j] = newWeights[i][j]
             }
         }
+        weightsReplaced()
     }
 
     @Consumable
@@ -147,6 +242,7 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
             weightMatrix[i / weightMatrix.ncol(), i % weightMatrix.ncol()] = newWeights[i]
         }
         updateMasks()
+        weightsReplaced()
         events.updated.fire()
     }
 
@@ -154,6 +250,7 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
     fun setMatrixValues(otherWeightMatrix: Matrix?) {
         weightMatrix.copyFrom(otherWeightMatrix!!)
         updateMasks()
+        weightsReplaced()
         events.updated.fire()
     }
 
@@ -180,10 +277,27 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
 
     /**
      * Update the psr matrix in the connectionist case.
+     *
+     * When the network's precision is [Network.Precision.SINGLE] and no connection is delayed, only the summed input
+     * to each target is computed, from a float copy of the weights, and the psr matrix is not kept up to date.
      */
     context(Network)
     override fun updatePSR() {
+        singlePrecisionPSRs = null
         if (spikeResponder is NonResponder) {
+            val delays = delays
+            if (this@Network.precision == Network.Precision.SINGLE && delays == null) {
+                updateSinglePrecision()
+                return
+            }
+            if (delays != null) {
+                if (source is ActivationSequenceProcessor) {
+                    updateDelayedPSR(delays, source.activations.row(source.activations.nrow() - 1))
+                } else {
+                    updateDelayedPSR(delays, source.activationArray)
+                }
+                return
+            }
             // For "connectionist" case. One "half" of a matrix product.
             // Populate each row of the psrMatrix with the element-wise product of the pre-synaptic output vector and
             // that row of the matrix
@@ -192,11 +306,243 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
             } else {
                 psrMatrix.copyFrom(weightMatrix.broadcastMultiply(source.activations))
             }
-        } else {
+        } else if (!applySparseResponse()) {
+            sparseResponse = null
             spikeResponder.apply(this, spikeResponseData)
         }
     }
 
+    /**
+     * Apply the event-driven response if [useSparsePropagation] is set and the source and responder support it.
+     *
+     * @return false if the dense responder should be used instead
+     */
+    context(Network)
+    private fun applySparseResponse(): Boolean {
+        if (!useSparsePropagation || spikeResponder.useSpikeProbability) {
+            return false
+        }
+        val na = source as? NeuronArray ?: return false
+        val spikeData = na.dataHolder as? SpikingMatrixData ?: return false
+        val rows = weightMatrix.nrow()
+        val cols = weightMatrix.ncol()
+        val response = sparseResponse
+            ?: spikeResponder.createSparseResponse(rows, cols)?.also { sparseResponse = it }
+            ?: return false
+        if (!na.updateRule.isSpikingRule) {
+            // As in the dense responders, nothing changes
+            return true
+        }
+        val spiked = spikedIndices?.takeIf { it.size == cols } ?: IntArray(cols).also { spikedIndices = it }
+        var count = 0
+        val spikes = spikeData.spikes
+        for (j in 0 until minOf(cols, spikes.size)) {
+            if (spikes[j]) {
+                spiked[count++] = j
+            }
+        }
+        response.apply(this, spikeData, spiked, count)
+        return true
+    }
+
+    override fun getSummedPSRs(): DoubleArray = sparseResponse?.summedPSRs?.copyOf()
+        ?: singlePrecisionPSRs?.copyOf()
+        ?: super.getSummedPSRs()
+
+    /**
+     * Compute the summed inputs to the targets as a single precision matrix-vector product. Halves the memory traffic
+     * of reading the weights and skips writing the full psr matrix.
+     */
+    private fun updateSinglePrecision() {
+        val rows = weightMatrix.nrow()
+        val cols = weightMatrix.ncol()
+        val weights = floatWeights?.takeIf { floatWeightsVersion == weightsVersion && it.size == rows * cols }
+            ?: FloatArray(rows * cols).also { w ->
+                for (i in 0 until rows) {
+                    for (j in 0 until cols) {
+                        w[i * cols + j] = weightMatrix[i, j].toFloat()
+                    }
+                }
+                floatWeights = w
+                floatWeightsVersion = weightsVersion
+            }
+        val inputs = floatInputs?.takeIf { it.size == cols } ?: FloatArray(cols).also { floatInputs = it }
+        val sourceActivations = if (source is ActivationSequenceProcessor) {
+            source.activations.row(source.activations.nrow() - 1)
+        } else {
+            source.activationArray
+        }
+        for (j in 0 until cols) {
+            inputs[j] = sourceActivations[j].toFloat()
+        }
+        val result = DoubleArray(rows)
+        val dotRow = { i: Int ->
+            var sum = 0f
+            val offset = i * cols
+            for (j in 0 until cols) {
+                sum += weights[offset + j] * inputs[j]
+            }
+            result[i] = sum.toDouble()
+        }
+        if (rows.toLong() * cols >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, rows).parallel().forEach { dotRow(it) }
+        } else {
+            for (i in 0 until rows) {
+                dotRow(i)
+            }
+        }
+        singlePrecisionPSRs = result
+    }
+
+    /**
+     * The value shared by all weights, or null if they are not all equal. Lets rules that can use the sum of the
+     * source activity (e.g. [org.simbrain.network.updaterules.KuramotoRule]) skip the matrix product. Cached until the
+     * weights change. Always null while a learning rule is changing the weights, since they would be scanned after
+     * every step, and null after a scan finds the weights unequal until they are replaced.
+     */
+    val uniformWeight: Double?
+        get() {
+            if (weightMatrix.size() == 0L || learningRule !is StaticSynapseRule || uniformWeightAbandoned) {
+                return null
+            }
+            if (uniformWeightVersion != weightsVersion) {
+                val first = weightMatrix[0, 0]
+                var uniform = true
+                loop@ for (j in 0 until weightMatrix.ncol()) {
+                    for (i in 0 until weightMatrix.nrow()) {
+                        if (weightMatrix[i, j] != first) {
+                            uniform = false
+                            break@loop
+                        }
+                    }
+                }
+                cachedUniformWeight = if (uniform) first else null
+                uniformWeightAbandoned = !uniform
+                uniformWeightVersion = weightsVersion
+            }
+            return cachedUniformWeight
+        }
+
+    /**
+     * The weights as a grid of constant blocks, or null if they have too many distinct rows or columns for that to
+     * help. Sources whose columns are identical share a column block and targets whose rows are identical share a row
+     * block, so a matrix made of constant blocks (e.g. coupling within and between populations) is found whatever the
+     * order of the neurons. Lets rules like [org.simbrain.network.updaterules.KuramotoRule] sum the source activity
+     * per block instead of taking the matrix product. Cached until the weights change, and like [uniformWeight] not
+     * searched for while a learning rule is changing the weights or after a search has failed.
+     */
+    val blockWeights: BlockWeights?
+        get() {
+            if (learningRule !is StaticSynapseRule || blockWeightsAbandoned) {
+                return null
+            }
+            if (blockWeightsVersion != weightsVersion) {
+                cachedBlockWeights = findBlockWeights()
+                blockWeightsAbandoned = cachedBlockWeights == null
+                blockWeightsVersion = weightsVersion
+            }
+            return cachedBlockWeights
+        }
+
+    private fun findBlockWeights(): BlockWeights? {
+        val rows = weightMatrix.nrow()
+        val cols = weightMatrix.ncol()
+        if (rows == 0 || cols == 0) {
+            return null
+        }
+
+        val (columnBlocks, firstColumns) = groupEqual(cols, rows, cols / 2) { j, i -> weightMatrix[i, j] }
+            ?: return null
+        val (rowBlocks, firstRows) = groupEqual(rows, cols, rows) { i, j -> weightMatrix[i, j] }!!
+        if (firstRows.size.toLong() * firstColumns.size > rows.toLong() * cols / 4) {
+            return null
+        }
+        val values = Array(firstRows.size) { r ->
+            DoubleArray(firstColumns.size) { c -> weightMatrix[firstRows[r], firstColumns[c]] }
+        }
+        return BlockWeights(rowBlocks, columnBlocks, values)
+    }
+
+    /**
+     * Call after modifying [weightMatrix] directly (rather than through the methods of this class) so that cached
+     * copies of the weights are refreshed.
+     */
+    fun weightsChanged() {
+        weightsVersion++
+    }
+
+    /**
+     * Like [weightsChanged], for when the weights have been replaced as a whole, so that the searches for
+     * [uniformWeight] and [blockWeights] are tried again.
+     */
+    private fun weightsReplaced() {
+        weightsChanged()
+        uniformWeightAbandoned = false
+        blockWeightsAbandoned = false
+    }
+
+    /**
+     * Update the psr matrix when some connections are delayed. Records the current source activations then, for each
+     * distinct delay, multiplies the connections with that delay by the source vector from that many steps ago.
+     */
+    private fun updateDelayedPSR(delays: IntArray, sourceActivations: DoubleArray) {
+        val line = delayLine ?: DelayLine(weightMatrix.ncol(), delays.max() + 1).also { delayLine = it }
+        line.push(sourceActivations)
+        val classes = delayClasses ?: delays.indices.groupBy { delays[it] }
+            .map { (delay, entries) -> delay to entries.toIntArray() }
+            .also { delayClasses = it }
+        val cols = weightMatrix.ncol()
+        for ((delay, entries) in classes) {
+            val past = line.delayed(delay)
+            for (entry in entries) {
+                val i = entry / cols
+                val j = entry % cols
+                psrMatrix[i, j] = weightMatrix[i, j] * past[j]
+            }
+        }
+    }
+
+    /**
+     * Delay in time steps of the connection from source node j to target node i.
+     */
+    fun getDelay(i: Int, j: Int) = delays?.get(i * weightMatrix.ncol() + j) ?: 0
+
+    /**
+     * Largest delay of any connection.
+     */
+    val maxDelay: Int
+        get() = delays?.max() ?: 0
+
+    /**
+     * Set the delay of every connection to the same number of time steps.
+     */
+    fun setDelays(delay: Int) {
+        require(delay >= 0) { "Delays must be non-negative" }
+        setDelays(IntArray(weightMatrix.nrow() * weightMatrix.ncol()) { delay })
+    }
+
+    /**
+     * Set delays from an array with one row per target node and one column per source node, like [setWeights].
+     */
+    fun setDelays(newDelays: Array<IntArray>) {
+        val cols = weightMatrix.ncol()
+        val flat = IntArray(weightMatrix.nrow() * cols)
+        for (i in newDelays.indices.take(weightMatrix.nrow())) {
+            for (j in newDelays[i].indices.take(cols)) {
+                require(newDelays[i][j] >= 0) { "Delays must be non-negative" }
+                flat[i * cols + j] = newDelays[i][j]
+            }
+        }
+        setDelays(flat)
+    }
+
+    private fun setDelays(flat: IntArray) {
+        delays = if (flat.all { it == 0 }) null else flat
+        delayLine = null
+        delayClasses = null
+        events.updated.fire()
+    }
+
     private fun updateExcitatoryMask() {
         for (i in 0 until weightMatrix.nrow()) {
             for (j in 0 until weightMatrix.ncol()) {
@@ -216,11 +562,7 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
     }
 
     override fun randomize(randomizer: ProbabilityDistribution?) {
-        for (i in 0 until weightMatrix.nrow()) {
-            for (j in 0 until weightMatrix.ncol()) {
-                weightMatrix[i, j] = (randomizer ?: weightRandomizer).sampleDouble()
-            }
-        }
+        weightMatrix.randomize(seeded(randomizer ?: weightRandomizer))
         updateMasks()
         events.updated.fire()
     }
@@ -242,6 +584,7 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
      */
     fun hardClear() {
         weightMatrix.copyFrom(Matrix(weightMatrix.nrow(), weightMatrix.ncol()))
+        weightsReplaced()
         events.updated.fire()
     }
 
@@ -254,5 +597,91 @@ class WeightMatrix(source: Layer, target: Layer) : Connector(source, target) {
     fun updateMasks() {
         updateExcitatoryMask()
         updateInhibitoryMask()
+        weightsChanged()
+    }
+
+    companion object {
+        /**
+         * Number of weights above which single precision updates split the rows across threads.
+         */
+        private const val PARALLEL_THRESHOLD = 1 shl 16
+    }
+}
+
+/**
+ * Assign each of [count] vectors of the given [length] to the index of the first vector equal to it, returning the
+ * index assigned to each vector and the first vector of each index. Vectors are hashed and compared in place through
+ * [element] (vector, position), without copying or boxing them. Null once there are more than [limit] distinct
+ * vectors.
+ */
+private inline fun groupEqual(
+    count: Int,
+    length: Int,
+    limit: Int,
+    element: (Int, Int) -> Double
+): Pair<IntArray, IntArray>? {
+    val groups = IntArray(count)
+    val firsts = IntArray(minOf(limit, count))
+    // Open addressing table from hash to a group with that hash, with groups of equal hash chained through sameHash
+    val tableSize = Integer.highestOneBit(maxOf(firsts.size, 1) * 2 - 1) shl 1
+    val table = IntArray(tableSize) { -1 }
+    val hashes = IntArray(firsts.size)
+    val sameHash = IntArray(firsts.size)
+    var groupCount = 0
+    for (k in 0 until count) {
+        var hash = 1
+        for (t in 0 until length) {
+            hash = 31 * hash + element(k, t).hashCode()
+        }
+        var slot = hash and (tableSize - 1)
+        while (table[slot] >= 0 && hashes[table[slot]] != hash) {
+            slot = (slot + 1) and (tableSize - 1)
+        }
+        var group = table[slot]
+        while (group >= 0) {
+            val first = firsts[group]
+            var equal = true
+            for (t in 0 until length) {
+                if (element(k, t) != element(first, t)) {
+                    equal = false
+                    break
+                }
+            }
+            if (equal) {
+                break
+            }
+            group = sameHash[group]
+        }
+        if (group < 0) {
+            if (groupCount == firsts.size) {
+                return null
+            }
+            group = groupCount++
+            firsts[group] = k
+            hashes[group] = hash
+            sameHash[group] = table[slot]
+            table[slot] = group
+        }
+        groups[k] = group
+    }
+    return groups to firsts.copyOf(groupCount)
+}
+
+/**
+ * A weight matrix made of constant blocks: the weight from source j to target i is
+ * `values[rowBlocks[i]][columnBlocks[j]]`. See [WeightMatrix.blockWeights].
+ */
+class BlockWeights(val rowBlocks: IntArray, val columnBlocks: IntArray, val values: Array<DoubleArray>) {
+
+    /**
+     * The product of the weights with [vector], from the sums of [vector] over each column block.
+     */
+    fun mv(vector: DoubleArray): DoubleArray {
+        val columnSums = DoubleArray(values[0].size)
+        for (j in vector.indices) {
+            columnSums[columnBlocks[j]] += vector[j]
+        }
+        val rowProducts = DoubleArray(values.size) { r -> values[r].indices.sumOf { c -> values[r][c] * columnSums[c] } }
+        return DoubleArray(rowBlocks.size) { rowProducts[rowBlocks[it]] }
     }
 }
@@ -745,7 +745,7 @@ class NetworkActions(val networkPanel: NetworkPanel) {
         description = "Add the current activation of this layer to the input data table",
         iconPath = "menu_icons/TestInput.png"
     ) {
-        layer.inputData = layer.inputData.appendRow(layer.activationArray)
+        layer.appendInputData(layer.activationArray)
     }
 
     fun setTextPropertiesAction(textNodes: Collection<TextNode>) = networkPanel.createAction(
@@ -614,7 +614,7 @@ class NetworkPanel constructor(val networkComponent: NetworkComponent) : JPanel(
         with(selectionManager) {
             val sourceNeurons = filterSelectedSourceModels<Neuron>()
             val targetNeurons = filterSelectedModels<Neuron>()
-            NetworkPreferences.connectionStrategy.connectNeurons(sourceNeurons, targetNeurons).addToNetworkAsync(network)
+            network.connect(sourceNeurons, targetNeurons, NetworkPreferences.connectionStrategy)
         }
     }
 
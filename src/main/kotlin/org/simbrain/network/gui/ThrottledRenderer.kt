@@ -0,0 +1,69 @@
+package org.simbrain.network.gui
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.swing.Swing
+import kotlinx.coroutines.withContext
+import org.simbrain.network.gui.dialogs.NetworkPreferences
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Redraws a node off the Swing thread at most [NetworkPreferences.maxImageFrameRate] times per second.
+ *
+ * [request] only sets a flag, so model updates never wait on rendering. Requests made while a frame is pending are
+ * merged into it. Each frame calls [render] on a background thread, e.g. to write pixels into a persistent image, and
+ * then [present] on the Swing thread, e.g. to repaint.
+ */
+class ThrottledRenderer(
+    private val scope: CoroutineScope,
+    private val render: () -> Unit,
+    private val present: () -> Unit
+) {
+
+    private val requested = AtomicBoolean(false)
+
+    private val running = AtomicBoolean(false)
+
+    private var lastFrameNanos = 0L
+
+    /**
+     * Schedule a frame.
+     */
+    fun request() {
+        requested.set(true)
+        if (running.compareAndSet(false, true)) {
+            scope.launch(Dispatchers.Default) {
+                try {
+                    renderFrames()
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                } finally {
+                    running.set(false)
+                }
+                // A request made after the last frame but before running was cleared
+                if (requested.get()) {
+                    request()
+                }
+            }
+        }
+    }
+
+    private suspend fun renderFrames() {
+        while (requested.get()) {
+            val frameNanos = 1_000_000_000L / NetworkPreferences.maxImageFrameRate.coerceAtLeast(1)
+            val remainingNanos = lastFrameNanos + frameNanos - System.nanoTime()
+            if (remainingNanos > 0) {
+                delay(remainingNanos / 1_000_000)
+            }
+            lastFrameNanos = System.nanoTime()
+            requested.set(false)
+            render()
+            withContext(Dispatchers.Swing) { present() }
+        }
+    }
+}
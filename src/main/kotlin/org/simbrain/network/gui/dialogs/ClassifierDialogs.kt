@@ -1,5 +1,8 @@
 package org.simbrain.network.gui.dialogs
 
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.swing.Swing
 import net.miginfocom.swing.MigLayout
 import org.simbrain.network.NetworkComponent
 import org.simbrain.network.gui.NetworkPanel
@@ -11,6 +14,7 @@ import org.simbrain.util.StandardDialog
 import org.simbrain.util.display
 import org.simbrain.util.propertyeditor.AnnotatedPropertyEditor
 import org.simbrain.util.showWarningDialog
+import org.simbrain.util.swingInvokeLater
 import org.simbrain.util.table.*
 import java.awt.Dimension
 import javax.swing.JButton
@@ -38,7 +42,7 @@ fun SmileClassifier.getTrainingDialog(): StandardDialog {
             statsLabel.text = classifier.stats
         }
         updateStatsLabel()
-        events.updated.on {
+        events.updated.on(Dispatchers.Swing) {
             updateStatsLabel()
         }
 
@@ -90,9 +94,22 @@ fun SmileClassifier.getTrainingDialog(): StandardDialog {
                 classfierProps.commitChanges()
                 classifier.trainingData.featureVectors = inputs.model.get2DDoubleArray()
                 classifier.trainingData.targetLabels = targets.model.getStringColumn(0)
-                train()
             } catch(e: Exception) {
                 showWarningDialog(e.message.toString())
+                return
+            }
+            // Fit in the background so the workspace keeps running with the current model
+            statsLabel.text = "Training..."
+            val training = trainInBackground()
+            swingInvokeLater {
+                try {
+                    training.await()
+                } catch (e: CancellationException) {
+                    // Replaced by a newer training run
+                } catch (e: Exception) {
+                    showWarningDialog(e.message.toString())
+                }
+                updateStatsLabel()
             }
         }
 
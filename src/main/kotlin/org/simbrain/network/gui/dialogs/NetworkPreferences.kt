@@ -65,6 +65,14 @@ object NetworkPreferences: PreferenceHolder() {
     )
     var weightMatrixImageMaxSize by IntegerPreference(1000)
 
+    @UserParameter(
+        label = "Max image frame rate",
+        description = "Most times per second that neuron array and weight matrix images are redrawn while a network runs.",
+        minimumValue = 1.0,
+        tab = "GUI"
+    )
+    var maxImageFrameRate by IntegerPreference(30)
+
     @UserParameter(label = "Default network time step", minimumValue = 0.0, increment = .1, tab = "Model")
     var defaultTimeStep by DoublePreference(.1)
 
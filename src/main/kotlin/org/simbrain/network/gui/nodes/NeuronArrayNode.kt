@@ -29,6 +29,7 @@ import org.simbrain.network.core.NeuronArray
 import org.simbrain.network.core.randomizeBiases
 import org.simbrain.network.events.NeuronArrayEvents
 import org.simbrain.network.gui.NetworkPanel
+import org.simbrain.network.gui.ThrottledRenderer
 import org.simbrain.network.gui.alignMenu
 import org.simbrain.network.gui.createCouplingMenu
 import org.simbrain.network.gui.nodes.NeuronNode.Companion.DIAMETER
@@ -165,6 +166,30 @@ class NeuronArrayNode(networkPanel: NetworkPanel, val neuronArray: NeuronArray)
         mainNode.addChild(this)
     }
 
+    /**
+     * Pixels of [activationImage], [spikeImage] and [biasImage], written in place each frame and reallocated only when
+     * the layout changes.
+     */
+    @Volatile
+    private var activationPixels: PixelImage? = null
+
+    @Volatile
+    private var spikePixels: PixelImage? = null
+
+    @Volatile
+    private var biasPixels: PixelImage? = null
+
+    /**
+     * Info text computed by the last frame.
+     */
+    @Volatile
+    private var renderedInfoText = infoText.text
+
+    /**
+     * Renders frames off the Swing thread when the array updates.
+     */
+    private val renderer = ThrottledRenderer(networkPanel, ::renderImages, ::presentImages)
+
     /**
      * Create a new neuron array node.
      *
@@ -196,18 +221,18 @@ class NeuronArrayNode(networkPanel: NetworkPanel, val neuronArray: NeuronArray)
             events.updateGraphics.fire()
         }
 
-        events.updateGraphics.on(Dispatchers.Swing) {
-            updateActivationImage()
-            updateInfoText()
+        events.updateGraphics.on {
+            renderer.request()
         }
         events.updateRuleChanged.on(Dispatchers.Swing) {
             if (!neuronArray.updateRule.isSpikingRule) {
                 mainNode.removeChild(spikeImage)
             }
-        }
-        events.clampChanged.on(Dispatchers.Swing) {
             updateActivationImage()
         }
+        events.clampChanged.on {
+            renderer.request()
+        }
         updateActivationImage()
         neuronCircleGroup.setOffset(DIAMETER / 2.0, DIAMETER / 2.0 + 20.0 + infoText.height)
         activationImage.offset(0.0, infoText.offset.y + infoText.height + 5)
@@ -220,73 +245,38 @@ class NeuronArrayNode(networkPanel: NetworkPanel, val neuronArray: NeuronArray)
 
     }
 
+    /**
+     * Set up the image nodes for the current display mode and render them. Called on the Swing thread when the layout
+     * changes; frames in between only rewrite pixels (see [renderImages]).
+     */
     private fun updateActivationImage() {
         activationImage.removeAllChildren()
         spikeImage.removeAllChildren()
         biasImage.removeAllChildren()
-        val activations = neuronArray.activations.toDoubleArray()
-
-        fun renderGridImages() {
-            val len = ceil(sqrt(activations.size.toDouble())).toInt()
-            val img = activations.toSimbrainColorImage(len, len)
-            activationImage.image = img
-            activationImage.setBounds(
-                0.0, 0.0,
-                infoText.width, infoText.width
-            )
-            activationImage.addBorder()
-            if (neuronArray.updateRule.isSpikingRule) {
-                val spikes = (neuronArray.dataHolder as SpikingMatrixData).spikes
-                spikeImage.image = spikes.toOverlay(len, len, NeuronNode.spikingColor)
-                spikeImage.setBounds(
-                    0.0, 0.0,
-                    infoText.width, infoText.width
-                )
-                spikeImage.addBorder()
-            }
-            if (showBias) {
-                biasImage.image = neuronArray.biases.toDoubleArray().toSimbrainColorImage(len, len)
-                biasImage.setBounds(
-                    0.0, infoText.width + infoText.height + margin,
-                    infoText.width, infoText.width
-                )
-                biasImage.addBorder()
-            }
-        }
 
-        fun renderFlatImages() {
-            val img = activations.toSimbrainColorImage(activations.size, 1)
-            activationImage.image = img
-            activationImage.setBounds(
-                0.0, 0.0,
-                infoText.width, flatPixelArrayHeight.toDouble()
-            )
-            activationImage.addBorder()
-            if (neuronArray.updateRule.isSpikingRule) {
-                val spikes = (neuronArray.dataHolder as SpikingMatrixData).spikes
-                spikeImage.image = spikes.toOverlay(activations.size, 1, NeuronNode.spikingColor)
-                spikeImage.setBounds(
-                    0.0, 0.0,
-                    infoText.width, flatPixelArrayHeight.toDouble()
-                )
-                spikeImage.addBorder()
-            }
-            if (showBias) {
-                biasImage.image = neuronArray.biases.toDoubleArray().toSimbrainColorImage(activations.size, 1)
-                biasImage.setBounds(
-                    0.0, flatPixelArrayHeight.toDouble() + infoText.height + margin,
-                    infoText.width, flatPixelArrayHeight.toDouble()
-                )
-                biasImage.addBorder()
-            }
+        fun layoutImage(image: PImage, pixels: PixelImage, y: Double, height: Double) {
+            image.image = pixels.image
+            image.setBounds(0.0, y, infoText.width, height)
+            image.addBorder()
         }
 
-        fun renderNeuronCircles() {
-            neuronCircles.forEachIndexed { i, circle ->
-                circle.activation = activations[i]
-                circle.setClamped(neuronArray.isClamped)
-                circle.setLabel(neuronArray.labelArray[i])
+        fun layoutImages(width: Int, height: Int, imageHeight: Double) {
+            activationPixels = activationPixels.reuse(width, height).also {
+                layoutImage(activationImage, it, 0.0, imageHeight)
             }
+            spikePixels = if (neuronArray.updateRule.isSpikingRule) {
+                spikePixels.reuse(width, height, transparent = true).also {
+                    layoutImage(spikeImage, it, 0.0, imageHeight)
+                }
+            } else {
+                spikeImage.image = null
+                null
+            }
+            biasPixels = if (showBias) {
+                biasPixels.reuse(width, height).also {
+                    layoutImage(biasImage, it, imageHeight + infoText.height + margin, imageHeight)
+                }
+            } else null
         }
 
         if (neuronArray.circleMode) {
@@ -294,26 +284,71 @@ class NeuronArrayNode(networkPanel: NetworkPanel, val neuronArray: NeuronArray)
                 mainNode.addChild(neuronCircleGroup)
             }
             mainNode.removeChild(imageNodeGroup)
-            renderNeuronCircles()
         } else {
             if (mainNode.indexOfChild(imageNodeGroup) == -1) {
                 mainNode.addChild(imageNodeGroup)
             }
             mainNode.removeChild(neuronCircleGroup)
             if (gridMode) {
-                renderGridImages()
+                val len = ceil(sqrt(neuronArray.size.toDouble())).toInt()
+                layoutImages(len, len, infoText.width)
             } else {
-                renderFlatImages()
+                layoutImages(neuronArray.size, 1, flatPixelArrayHeight.toDouble())
             }
         }
+        renderImages()
+        presentImages()
         updateTextLabel()
     }
 
+    /**
+     * Write the current activations, spikes and biases into the pixel buffers. Called off the Swing thread.
+     */
+    private fun renderImages() {
+        if (!neuronArray.circleMode) {
+            val activations = neuronArray.activations
+            activationPixels?.renderSimbrainColors(neuronArray.size) { activations[it, 0] }
+            spikePixels?.let { pixels ->
+                (neuronArray.dataHolder as? SpikingMatrixData)?.let {
+                    pixels.renderOverlay(it.spikes, NeuronNode.spikingColor)
+                }
+            }
+            biasPixels?.let { pixels ->
+                val biases = neuronArray.biases
+                pixels.renderSimbrainColors(neuronArray.size) { biases[it, 0] }
+            }
+        }
+        renderedInfoText = computeInfoText()
+    }
+
+    /**
+     * Show the last rendered frame. Called on the Swing thread.
+     */
+    private fun presentImages() {
+        if (neuronArray.circleMode) {
+            val activations = neuronArray.activations
+            neuronCircles.forEachIndexed { i, circle ->
+                circle.activation = activations[i, 0]
+                circle.setClamped(neuronArray.isClamped)
+                circle.setLabel(neuronArray.labelArray[i])
+            }
+        } else {
+            activationImage.repaint()
+            spikeImage.repaint()
+            biasImage.repaint()
+        }
+        infoText.text = renderedInfoText
+    }
+
     private fun computeInfoText() = """
             ${neuronArray.id}    Nodes: ${neuronArray.size} ${if (neuronArray.targetValues != null) "T" else ""}
-            Mean activation: ${neuronArray.activations.toDoubleArray().average().format(4)}
+            Mean activation: ${meanActivation().format(4)}
             """.trimIndent()
 
+    private fun meanActivation() = neuronArray.activations.let { activations ->
+        (0 until neuronArray.size).sumOf { activations[it, 0] } / neuronArray.size
+    }
+
     /**
      * Update status text.
      */
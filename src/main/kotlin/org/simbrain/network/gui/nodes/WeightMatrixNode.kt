@@ -8,6 +8,7 @@ import org.simbrain.network.core.Connector
 import org.simbrain.network.core.WeightMatrix
 import org.simbrain.network.gui.ImageBox
 import org.simbrain.network.gui.NetworkPanel
+import org.simbrain.network.gui.ThrottledRenderer
 import org.simbrain.network.gui.WeightMatrixArrow
 import org.simbrain.network.gui.createCouplingMenu
 import org.simbrain.network.gui.dialogs.NetworkPreferences
@@ -42,6 +43,7 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
 
     private val boxThickness = 2f
 
+    @Volatile
     private var networkPanelScalingFactor = networkPanel.scalingFactor
 
     /**
@@ -53,12 +55,23 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
 
     private val interactionBox = WeightMatrixInteractionBox()
 
+    /**
+     * Pixels of the [imageBox] image, written in place each frame and reallocated only when the image size changes.
+     */
+    @Volatile
+    private var pixels: PixelImage? = null
+
+    /**
+     * Renders frames off the Swing thread when the weights change.
+     */
+    private val renderer = ThrottledRenderer(networkPanel, ::renderMatrixToImage, ::presentImage)
+
     init {
         updateShowWeights()
         pickable = true
         val events = weightMatrix.events
         events.updated.on { events.updateGraphics.fire() }
-        events.updateGraphics.on(Dispatchers.Swing) { renderMatrixToImage() }
+        events.updateGraphics.on { renderer.request() }
         events.labelChanged.on(Dispatchers.Swing) { _, newLabel -> interactionBox.setText(newLabel) }
         weightMatrix.source.events.locationChanged.on(Dispatchers.Swing) {
             arrow.invalidateFullBounds()
@@ -83,10 +96,10 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
     }
 
     /**
-     * Render the weight matrix to the [.imageBox].
+     * Render the weight matrix to the [pixels] of the [imageBox].
      *
      * Render the weight matrix into an image using Simbrain Color Scheme. If the image is bigger than 1000x1000, it will
-     * be scaled down to 1000x1000 using nearest neighbor interpolation.
+     * be scaled down to 1000x1000 using nearest neighbor interpolation. Called off the Swing thread.
      */
     private fun renderMatrixToImage() {
         val weightMatrix = weightMatrix as WeightMatrix
@@ -95,11 +108,33 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
         networkPanelScalingFactor = networkPanel.scalingFactor
         val scale = networkPanel.scalingFactor * screenScalingFactor
 
-        // Create the image data from the weight matrix using nearest neighbor interpolation
-        val imageData = matrix.toScaledImageData(imageWidth, imageHeight, scale)
+        // Sample the weight matrix using nearest neighbor interpolation
+        val width = scaledImageSize(imageWidth, matrix.ncol(), scale)
+        val height = scaledImageSize(imageHeight, matrix.nrow(), scale)
+        val transposed = weightMatrix.transposeGraphics
+        val image = if (transposed) pixels.reuse(height, width) else pixels.reuse(width, height)
+        val columnScale = matrix.ncol().toDouble() / width
+        val rowScale = matrix.nrow().toDouble() / height
+        for (y in 0 until height) {
+            val row = (y * rowScale).toInt()
+            for (x in 0 until width) {
+                val color = SimbrainColorTable.rgb(matrix[row, (x * columnScale).toInt()])
+                image.pixels[if (transposed) x * height + y else y * width + x] = color
+            }
+        }
+        pixels = image
+    }
 
-        val img = imageData.toSimbrainColorImage().let { if (weightMatrix.transposeGraphics) it.transposed() else it }
-        imageBox.image = img
+    /**
+     * Show the last rendered frame. Called on the Swing thread.
+     */
+    private fun presentImage() {
+        val image = pixels?.image ?: return
+        if (imageBox.image !== image) {
+            imageBox.image = image
+        } else {
+            imageBox.repaint()
+        }
     }
 
     private fun updateShowWeights() {
@@ -110,6 +145,7 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
             addChild(arrow)
             addChild(imageBox)
             renderMatrixToImage()
+            presentImage()
             setBounds(imageBox.bounds)
         } else {
             updateInteractionBoxLocation()
@@ -123,7 +159,7 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
 
     override fun paint(paintContext: PPaintContext) {
         if (networkPanelScalingFactor != networkPanel.scalingFactor) {
-            renderMatrixToImage()
+            renderer.request()
         }
         paintContext.graphics.setRenderingHint(
             RenderingHints.KEY_INTERPOLATION,
@@ -198,6 +234,7 @@ class WeightMatrixNode(networkPanel: NetworkPanel, val weightMatrix: Connector)
                             showNumericInputDialog("Set spectral Radius:", weightMatrix.weightMatrix.maxEigenvalue())
                         if (radius != null) {
                             weightMatrix.weightMatrix.setSpectralRadius(radius)
+                            weightMatrix.weightsChanged()
                             weightMatrix.events.updated.fire()
                         }
                     }
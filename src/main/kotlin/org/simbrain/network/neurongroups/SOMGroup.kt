@@ -29,12 +29,23 @@ import org.simbrain.util.Utils
 import org.simbrain.util.propertyeditor.CustomTypeName
 import org.simbrain.util.propertyeditor.GuiEditable
 import org.simbrain.util.stats.ProbabilityDistribution
+import smile.math.matrix.Matrix
+import java.util.stream.IntStream
 import kotlin.math.pow
 import kotlin.math.sqrt
 
 /**
  * Implements a Self-Organizing Map
  *
+ * When every SOM neuron has the same input neurons in the same order (as when the group is connected all to all),
+ * the prototype (incoming weight) vectors are mirrored in one contiguous matrix, one column per SOM neuron. The best
+ * matching unit is then found with a single matrix-vector product, using ||w - x||^2 = ||w||^2 - 2 w.x + ||x||^2 with
+ * the squared norms of the prototypes cached, and the neighborhood update is applied to the columns within the
+ * neighborhood (a masked rank-1 update), split across cores for large maps. The synapses remain the model of record:
+ * the inputs of a neuron are re-checked when its [Neuron.fanInVersion] changes, its prototype is re-read only when
+ * its [Neuron.fanInStrengthVersion] shows that a strength was set elsewhere, and updated prototypes are written back
+ * without firing an event for each synapse that is not visible.
+ *
  * @author William B. St. Clair
  * @author Jeff Yoshimi
  */
@@ -75,6 +86,51 @@ class SOMGroup @JvmOverloads constructor(
 
     override val customInfo = InfoText(getStateInfoText())
 
+    /**
+     * The neurons providing input to every SOM neuron, in fan-in order.
+     */
+    @Transient
+    private var inputNeurons: List<Neuron> = listOf()
+
+    /**
+     * The SOM neurons the columns of [prototypes] were read from.
+     */
+    @Transient
+    private var rowNeurons: Array<Neuron> = arrayOf()
+
+    /**
+     * Prototype vectors, one column per SOM neuron, so each prototype is contiguous.
+     */
+    @Transient
+    private var prototypes = Matrix(0, 0)
+
+    /**
+     * Squared norm of each prototype.
+     */
+    @Transient
+    private var prototypeNorms = DoubleArray(0)
+
+    /**
+     * Fan-in version of each SOM neuron when its inputs were last checked.
+     */
+    @Transient
+    private var rowVersions = IntArray(0)
+
+    /**
+     * Fan-in strength version of each SOM neuron when its prototype was last read or written.
+     */
+    @Transient
+    private var strengthVersions = IntArray(0)
+
+    @Transient
+    private var inputActivations = DoubleArray(0)
+
+    @Transient
+    private var distances = DoubleArray(0)
+
+    @Transient
+    private var updatedRows = BooleanArray(0)
+
     /**
      * Randomize all weights coming in to this network. The weights will be
      * between 0 and the upper bound of each synapse.
@@ -140,7 +196,8 @@ class SOMGroup @JvmOverloads constructor(
         // Determine Winner and update neurons: The SOM Neuron with the lowest
         // distance between  its weight vector and the input neurons's weight
         // vector.
-        winner = calculateWinner()
+        val useMatrix = syncPrototypes()
+        winner = if (useMatrix) findWinner() else calculateWinner()
         for (i in neuronList.indices) {
             val n = neuronList[i]
             if (n === winner) {
@@ -156,14 +213,18 @@ class SOMGroup @JvmOverloads constructor(
 
         // Update Synapses of the neurons within the radius of the winning
         // neuron.
-        for (i in neuronList.indices) {
-            val neuron = neuronList[i]
-            physicalDistance = SimnetUtils.getEuclideanDist(neuron, winner)
-            // The center of the neuron is within the update region.
-            if (physicalDistance <= neighborhoodSize) {
-                for (incoming in neuron.fanIn) {
-                    value = incoming.strength + learningRate * (incoming.source.activation - incoming.strength)
-                    incoming.strength = value
+        if (useMatrix) {
+            updateNeighborhood(winner!!)
+        } else {
+            for (i in neuronList.indices) {
+                val neuron = neuronList[i]
+                physicalDistance = SimnetUtils.getEuclideanDist(neuron, winner)
+                // The center of the neuron is within the update region.
+                if (physicalDistance <= neighborhoodSize) {
+                    for (incoming in neuron.fanIn) {
+                        value = incoming.strength + learningRate * (incoming.source.activation - incoming.strength)
+                        incoming.strength = value
+                    }
                 }
             }
         }
@@ -209,7 +270,147 @@ class SOMGroup @JvmOverloads constructor(
         return winner
     }
 
-// TODO: Reuse our functions?
+    /**
+     * Bring [prototypes] up to date with the fan-in synapses, re-checking the inputs of the neurons whose fan-in
+     * changed and re-reading the prototypes whose strengths were set elsewhere. Returns false if the SOM neurons do
+     * not all have the same inputs, in which case the synapses are used directly.
+     */
+    private fun syncPrototypes(): Boolean {
+        val n = neuronList.size
+        val firstFanIn = neuronList.firstOrNull()?.fanIn ?: return false
+        val m = firstFanIn.size
+        val sameInputs = inputNeurons.size == m && (0 until m).all { inputNeurons[it] === firstFanIn[it].source }
+        if (!sameInputs || rowNeurons.size != n) {
+            inputNeurons = firstFanIn.map { it.source }
+            rowNeurons = neuronList.toTypedArray()
+            prototypes = Matrix(m, n)
+            prototypeNorms = DoubleArray(n)
+            rowVersions = IntArray(n)
+            strengthVersions = IntArray(n)
+            inputActivations = DoubleArray(m)
+            distances = DoubleArray(n)
+            updatedRows = BooleanArray(n)
+            // Force every row to be checked and read
+            for (i in 0 until n) rowVersions[i] = rowNeurons[i].fanInVersion - 1
+        }
+        for (i in 0 until n) {
+            val neuron = neuronList[i]
+            if (neuron !== rowNeurons[i]) {
+                rowNeurons[i] = neuron
+            } else if (rowVersions[i] == neuron.fanInVersion) {
+                continue
+            }
+            val fanIn = neuron.fanIn
+            if (fanIn.size != m || (0 until m).any { fanIn[it].source !== inputNeurons[it] }) {
+                rowNeurons = arrayOf()
+                return false
+            }
+            rowVersions[i] = neuron.fanInVersion
+            strengthVersions[i] = neuron.fanInStrengthVersion - 1
+        }
+        for (i in 0 until n) {
+            val neuron = rowNeurons[i]
+            if (strengthVersions[i] == neuron.fanInStrengthVersion) {
+                continue
+            }
+            val fanIn = neuron.fanIn
+            var norm = 0.0
+            for (j in 0 until m) {
+                val w = fanIn[j].strength
+                prototypes[j, i] = w
+                norm += w * w
+            }
+            prototypeNorms[i] = norm
+            strengthVersions[i] = neuron.fanInStrengthVersion
+        }
+        return true
+    }
+
+    /**
+     * Apply [action] to ranges of SOM neuron indices, in parallel if the map is large enough to be worth it.
+     */
+    private fun forEachRowBlock(action: (from: Int, to: Int) -> Unit) {
+        val n = neuronList.size
+        if (n.toLong() * inputNeurons.size < PARALLEL_THRESHOLD) {
+            action(0, n)
+            return
+        }
+        val blockCount = minOf(n, Runtime.getRuntime().availableProcessors() * 4)
+        IntStream.range(0, blockCount).parallel().forEach { b ->
+            action((b.toLong() * n / blockCount).toInt(), ((b + 1).toLong() * n / blockCount).toInt())
+        }
+    }
+
+    /**
+     * Find the SOM neuron whose prototype is closest to the input vector, from the product of the input vector with
+     * [prototypes].
+     */
+    private fun findWinner(): Neuron? {
+        val n = neuronList.size
+        val m = inputNeurons.size
+        var inputNorm = 0.0
+        for (j in 0 until m) {
+            val x = inputNeurons[j].activation
+            inputActivations[j] = x
+            inputNorm += x * x
+        }
+        val dots = prototypes.tv(inputActivations)
+        for (i in 0 until n) {
+            distances[i] = prototypeNorms[i] - 2 * dots[i]
+        }
+        var winnerIndex = -1
+        for (i in 0 until n) {
+            if (winnerIndex < 0 || distances[i] < distances[winnerIndex]) {
+                winnerIndex = i
+            }
+        }
+        if (winnerIndex < 0) {
+            return null
+        }
+        // Squared distances are never negative, but the expansion can round below zero
+        winDistance = maxOf(0.0, distances[winnerIndex] + inputNorm)
+        distance = maxOf(0.0, distances[n - 1] + inputNorm)
+        return neuronList[winnerIndex]
+    }
+
+    /**
+     * Move the prototypes of the SOM neurons within [neighborhoodSize] of the winner towards the input vector, and
+     * write them back to the synapses.
+     */
+    private fun updateNeighborhood(winner: Neuron) {
+        val m = inputNeurons.size
+        val squaredRadius = neighborhoodSize * neighborhoodSize
+        forEachRowBlock { from, to ->
+            for (i in from until to) {
+                val neuron = neuronList[i]
+                val dx = neuron.x - winner.x
+                val dy = neuron.y - winner.y
+                // The center of the neuron is within the update region.
+                updatedRows[i] = dx * dx + dy * dy <= squaredRadius
+                if (!updatedRows[i]) continue
+                val fanIn = neuron.fanIn
+                var norm = 0.0
+                for (j in 0 until m) {
+                    val synapse = fanIn[j]
+                    val old = prototypes[j, i]
+                    synapse.setStrength(old + learningRate * (inputActivations[j] - old), false)
+                    // Read back, since bounds and frozen synapses may keep the strength from changing as requested
+                    val w = synapse.strength
+                    prototypes[j, i] = w
+                    norm += w * w
+                }
+                prototypeNorms[i] = norm
+                // These writes are already in the prototype, so the next sync need not read them back
+                strengthVersions[i] = neuron.fanInStrengthVersion
+            }
+        }
+        for (i in neuronList.indices) {
+            if (updatedRows[i]) {
+                neuronList[i].fanIn.forEach { if (it.isVisible) it.events.strengthUpdated.fire() }
+            }
+        }
+    }
+
     /**
      * Calculates the Euclidian distance between the SOM neuron's weight vector
      * and the input vector.
@@ -227,6 +428,11 @@ class SOMGroup @JvmOverloads constructor(
 
 }
 
+/**
+ * Number of multiply-adds (SOM neurons times inputs) above which the neighborhood update is split across cores.
+ */
+private const val PARALLEL_THRESHOLD = 1L shl 16
+
 @CustomTypeName("SOM Group")
 class SOMParams : NeuronGroupParams() {
 
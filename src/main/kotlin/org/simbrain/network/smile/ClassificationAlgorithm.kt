@@ -7,7 +7,9 @@ import org.simbrain.network.trainers.ClassificationDataset
 import org.simbrain.util.Utils
 import org.simbrain.util.getOneHotArray
 import org.simbrain.util.propertyeditor.CopyableObject
+import smile.validation.metric.Accuracy
 import smile.classification.Classifier
+import java.util.stream.IntStream
 
 /**
  * Superclass for wrappers of Smile classifier objects.
@@ -23,9 +25,26 @@ abstract class ClassificationAlgorithm(
     var trainingData = ClassificationDataset(inputSize, outputSize, 4)
 
     /**
-     * Fit a model to the training data.
+     * Fit a new model to the given data. Does not change [model], so the current model can keep making predictions
+     * while a new one is fit on another thread.
      */
-    abstract fun fit(get2DDoubleArray: Array<DoubleArray>, intColumn: IntArray)
+    abstract fun fitModel(inputs: Array<DoubleArray>, targets: IntArray): Classifier<DoubleArray>
+
+    /**
+     * Fit a model to the given data and use it.
+     */
+    fun fit(inputs: Array<DoubleArray>, targets: IntArray) {
+        val newModel = fitModel(inputs, targets)
+        swapModel(newModel, Accuracy.of(targets, newModel.predict(inputs)))
+    }
+
+    /**
+     * Replace the current model with a newly fit one, along with its accuracy on the data it was fit to.
+     */
+    fun swapModel(newModel: Classifier<DoubleArray>, accuracy: Double) {
+        setAccuracyLabel(accuracy)
+        model = newModel
+    }
 
     /**
      * Statistics to display after training
@@ -35,13 +54,33 @@ abstract class ClassificationAlgorithm(
     /**
      * The main model used for classification.
      */
-    abstract var model: Classifier<DoubleArray>?
+    @Volatile
+    var model: Classifier<DoubleArray>? = null
 
     /**
      * Use the model to generate a predicted output from inputs.
      */
     abstract fun predict(input: DoubleArray): Int
 
+    /**
+     * Predict the class of every row of inputs in one call, using the model's array-based prediction. Large inputs
+     * are split into blocks of rows that are predicted in parallel. Returns -1 for every row if there is no model.
+     */
+    open fun predict(inputs: Array<DoubleArray>): IntArray {
+        val current = model ?: return IntArray(inputs.size) { -1 }
+        if (inputs.size <= PREDICTION_BLOCK_SIZE) {
+            return current.predict(inputs)
+        }
+        val predictions = IntArray(inputs.size)
+        val blockCount = (inputs.size + PREDICTION_BLOCK_SIZE - 1) / PREDICTION_BLOCK_SIZE
+        IntStream.range(0, blockCount).parallel().forEach { block ->
+            val start = block * PREDICTION_BLOCK_SIZE
+            val end = minOf(inputs.size, start + PREDICTION_BLOCK_SIZE)
+            current.predict(inputs.copyOfRange(start, end)).copyInto(predictions, start)
+        }
+        return predictions
+    }
+
     fun assertValidWinnerIndex(winner: Int) {
         if (winner > outputSize) {
             throw IllegalArgumentException("Prediction of ${winner} > output size of ${outputSize}")
@@ -69,5 +108,10 @@ abstract class ClassificationAlgorithm(
 
 }
 
+/**
+ * Number of rows predicted together by each parallel task in [ClassificationAlgorithm.predict].
+ */
+private const val PREDICTION_BLOCK_SIZE = 1024
+
 val classifierTypes = listOf(
     LogisticRegClassifier::class.java, SVMClassifier::class.java, KNNClassifier::class.java)
\ No newline at end of file
@@ -1,5 +1,6 @@
 package org.simbrain.network.smile
 
+import kotlinx.coroutines.*
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.activations
 import org.simbrain.network.neurongroups.NeuronGroup
@@ -14,6 +15,9 @@ import org.simbrain.util.UserParameter
 import org.simbrain.util.propertyeditor.EditableObject
 import org.simbrain.util.propertyeditor.GuiEditable
 import org.simbrain.workspace.Producible
+import smile.math.matrix.Matrix
+import smile.validation.metric.Accuracy
+import java.util.concurrent.Executors
 import kotlin.reflect.full.primaryConstructor
 
 /**
@@ -70,16 +74,64 @@ class SmileClassifier(
         }
     }
     
+    @Transient
+    private var trainingScope: CoroutineScope? = null
+
+    @Transient
+    private var trainingJob: Deferred<Unit>? = null
+
+    /**
+     * True while a model is being fit by [trainInBackground].
+     */
+    val isTraining get() = trainingJob?.isActive == true
+
     /**
      * Train the classifier using the current training data.
      */
     fun train() {
+        cancelTraining()
         classifier.apply {
             fit(trainingData.featureVectors, trainingData.getIntegerTargets())
         }
         events.updated.fire()
     }
 
+    /**
+     * Fit a new model to the current training data on a background thread. The current model keeps making
+     * predictions until the new one is ready, and is then replaced by it in one step. Starting another training run
+     * or calling [cancelTraining] discards this one. Errors in fitting are thrown when the returned job is awaited.
+     */
+    fun trainInBackground(): Deferred<Unit> = synchronized(this) {
+        trainingJob?.cancel()
+        val inputs = classifier.trainingData.featureVectors.map { it.copyOf() }.toTypedArray()
+        val targets = classifier.trainingData.getIntegerTargets()
+        val scope = trainingScope ?: CoroutineScope(trainingDispatcher + SupervisorJob()).also { trainingScope = it }
+        scope.async {
+            // Smile does not check for cancellation while fitting, so a cancelled run finishes and is then discarded
+            val newModel = runInterruptible { classifier.fitModel(inputs, targets) }
+            val accuracy = Accuracy.of(targets, newModel.predict(inputs))
+            synchronized(this@SmileClassifier) {
+                ensureActive()
+                classifier.swapModel(newModel, accuracy)
+            }
+            events.updated.fire()
+        }.also { trainingJob = it }
+    }
+
+    /**
+     * Discard a background training run, keeping the current model.
+     */
+    fun cancelTraining() = synchronized(this) {
+        trainingJob?.cancel()
+        trainingJob = null
+    }
+
+    /**
+     * Predict the class of each row of the inputs in one call, without stepping the network. Returns the integer
+     * targets of the classifier (see [ClassificationAlgorithm.predict]).
+     */
+    fun predict(inputs: Matrix): IntArray = classifier.predict(inputs.toArray())
+
     context(Network)
     override fun accumulateInputs() {
         inputNeuronGroup.accumulateInputs()
@@ -147,4 +199,14 @@ class SmileClassifier(
         }
 
     }
+
+    companion object {
+        /**
+         * Models are fit on a small pool of background threads so that training never competes with workspace
+         * updates for the default dispatcher.
+         */
+        private val trainingDispatcher = Executors.newFixedThreadPool(2) { runnable ->
+            Thread(runnable, "Classifier training").apply { isDaemon = true }
+        }.asCoroutineDispatcher()
+    }
 }
\ No newline at end of file
@@ -4,7 +4,6 @@ import org.simbrain.network.smile.ClassificationAlgorithm
 import org.simbrain.util.UserParameter
 import smile.classification.Classifier
 import smile.classification.KNN
-import smile.validation.metric.Accuracy
 
 /**
  * Wrapper for Smile KNN Classifier.
@@ -15,16 +14,13 @@ class KNNClassifier @JvmOverloads constructor(inputSize: Int = 4, outputSize: In
     @UserParameter(label = "K", order = 10)
     var k = 2
 
-    override var model: Classifier<DoubleArray>? = null
-
     override val name: String = "K Nearest Neighbors"
 
-    override fun fit(inputs: Array<DoubleArray>, targets: IntArray) {
-        if (k > trainingData.numSamples) {
+    override fun fitModel(inputs: Array<DoubleArray>, targets: IntArray): Classifier<DoubleArray> {
+        if (k > inputs.size) {
             throw IllegalStateException("k must be less than the number of rows in the training dataset")
         }
-        model = KNN.fit(inputs, targets, k)
-        setAccuracyLabel(Accuracy.of(targets, model?.predict(inputs)))
+        return KNN.fit(inputs, targets, k)
     }
 
     override fun predict(input: DoubleArray): Int {
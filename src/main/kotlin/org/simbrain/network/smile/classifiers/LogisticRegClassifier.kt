@@ -4,7 +4,6 @@ import org.simbrain.network.smile.ClassificationAlgorithm
 import org.simbrain.util.UserParameter
 import smile.classification.Classifier
 import smile.classification.LogisticRegression
-import smile.validation.metric.Accuracy
 
 /**
  * Wrapper for Smile's logistic regression. Despite the name, it is a classifier.
@@ -12,8 +11,6 @@ import smile.validation.metric.Accuracy
 class LogisticRegClassifier @JvmOverloads constructor(inputSize: Int = 4, outputSize: Int = 4):
     ClassificationAlgorithm(inputSize, outputSize) {
 
-    override var model: Classifier<DoubleArray>? = null
-
     @UserParameter(label = "Show probabilities", description = "If true, show output probabilities rather than " +
             "a one-hot representation of the winner",
         order = 10)
@@ -22,13 +19,10 @@ class LogisticRegClassifier @JvmOverloads constructor(inputSize: Int = 4, output
     /**
      * Output probabilities
      */
-    lateinit var outputProbabilities: DoubleArray
+    var outputProbabilities = DoubleArray(outputSize)
 
-    override fun fit(inputs: Array<DoubleArray>, targets: IntArray) {
-        model = LogisticRegression.fit(inputs, targets)
-        outputProbabilities = DoubleArray(outputSize)
-        val pred = model?.predict(inputs)
-        setAccuracyLabel(Accuracy.of(targets, pred))
+    override fun fitModel(inputs: Array<DoubleArray>, targets: IntArray): Classifier<DoubleArray> {
+        return LogisticRegression.fit(inputs, targets)
     }
 
     override fun predict(input: DoubleArray): Int {
@@ -7,7 +7,6 @@ import org.simbrain.util.getOneHotArray
 import smile.classification.Classifier
 import smile.classification.SVM
 import smile.math.kernel.PolynomialKernel
-import smile.validation.metric.Accuracy
 
 /**
  * Wrapper for Smile SVM Classifier.
@@ -33,8 +32,6 @@ class SVMClassifier @JvmOverloads constructor(inputSize: Int = 4):
     @UserParameter(label = "Tolerance of convergence test", order = 40)
     var tolerance = 1E-3
 
-    override var model: Classifier<DoubleArray>? = null
-
     override fun copy(): ClassificationAlgorithm {
         return SVMClassifier(inputSize).also {
             it.kernelDegree = kernelDegree
@@ -45,9 +42,8 @@ class SVMClassifier @JvmOverloads constructor(inputSize: Int = 4):
 
     override val name = "Support Vector Machine"
 
-    override fun fit(inputs: Array<DoubleArray>, targets: IntArray) {
-        model = SVM.fit(inputs, targets, PolynomialKernel(kernelDegree), C, tolerance)
-        setAccuracyLabel(Accuracy.of(targets, model?.predict(inputs)))
+    override fun fitModel(inputs: Array<DoubleArray>, targets: IntArray): Classifier<DoubleArray> {
+        return SVM.fit(inputs, targets, PolynomialKernel(kernelDegree), C, tolerance)
     }
 
     override fun predict(input: DoubleArray): Int {
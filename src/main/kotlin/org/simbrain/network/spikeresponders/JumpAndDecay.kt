@@ -67,6 +67,8 @@ class JumpAndDecay : SpikeResponder() {
         return jad
     }
 
+    override fun createSparseResponse(rows: Int, cols: Int) = JumpAndDecayResponse(this, rows, cols)
+
     context(Network)
     override fun apply(connector: Connector, responderData: MatrixDataHolder) {
         val wm = connector.let { if (it is WeightMatrix) it else return }
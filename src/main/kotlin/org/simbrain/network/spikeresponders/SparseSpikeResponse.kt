@@ -0,0 +1,142 @@
+package org.simbrain.network.spikeresponders
+
+import org.simbrain.network.core.Network
+import org.simbrain.network.core.WeightMatrix
+import org.simbrain.network.util.SpikingMatrixData
+import kotlin.math.pow
+
+/**
+ * Event-driven alternative to a responder's dense update of a [WeightMatrix] psr matrix. Only the summed response of
+ * each target is kept up to date, and each step touches the weight columns of the source neurons that spiked, so the
+ * cost scales with spikes × fan-out rather than with the size of the matrix.
+ *
+ * See [WeightMatrix.useSparsePropagation].
+ */
+abstract class SparseSpikeResponse(val rows: Int, val cols: Int) {
+
+    /**
+     * Summed post-synaptic response of each target, matching the row sums of the dense psr matrix.
+     */
+    val summedPSRs = DoubleArray(rows)
+
+    /**
+     * Update [summedPSRs] given the [count] source indices in [spiked] that spiked this step.
+     */
+    context(Network)
+    abstract fun apply(weightMatrix: WeightMatrix, spikeData: SpikingMatrixData, spiked: IntArray, count: Int)
+}
+
+/**
+ * Sparse form of [JumpAndDecay]. Between spikes every response decays geometrically toward the baseline, so the
+ * deviation of each target's summed response from the baseline decays as one trace.
+ *
+ * The trace alone is not enough: a spike replaces a synapse's response (or, with convolution, adds to it without
+ * decaying it that step), so the previous response of each synapse of a spiking source must be known to correct the
+ * trace. Those responses are kept in the weight matrix's psr matrix, which the sparse path does not otherwise use,
+ * as of the last spike of each column, and decayed analytically when the column next spikes. No state beyond the
+ * psr matrix and one value per target and per source is allocated.
+ */
+class JumpAndDecayResponse(private val responder: JumpAndDecay, rows: Int, cols: Int) :
+    SparseSpikeResponse(rows, cols) {
+
+    /**
+     * Step at which the psr matrix column of each source was last written.
+     */
+    private val lastStep = IntArray(cols) { -1 }
+
+    /**
+     * Sum over columns of the deviation from baseline, per target.
+     */
+    private val deviation = DoubleArray(rows)
+
+    private var step = -1
+
+    private var initialized = false
+
+    context(Network)
+    override fun apply(weightMatrix: WeightMatrix, spikeData: SpikingMatrixData, spiked: IntArray, count: Int) {
+        val baseLine = responder.baseLine
+        val psrMatrix = weightMatrix.psrMatrix
+        if (!initialized) {
+            // Start from the current dense state
+            for (j in 0 until cols) {
+                for (i in 0 until rows) {
+                    deviation[i] += psrMatrix[i, j] - baseLine
+                }
+            }
+            initialized = true
+        }
+        step++
+        val decay = 1 - timeStep / responder.timeConstant
+        for (i in 0 until rows) {
+            deviation[i] *= decay
+        }
+        for (k in 0 until count) {
+            val j = spiked[k]
+            val elapsed = decay.pow(step - 1 - lastStep[j])
+            for (i in 0 until rows) {
+                val old = (psrMatrix[i, j] - baseLine) * elapsed
+                val new = weightMatrix.weightMatrix[i, j] + if (responder.useConvolution) old else -baseLine
+                // The trace decayed this response along with the others; replace that with the jump
+                deviation[i] += new - decay * old
+                psrMatrix[i, j] = new + baseLine
+            }
+            lastStep[j] = step
+        }
+        val offset = cols * baseLine
+        for (i in 0 until rows) {
+            summedPSRs[i] = deviation[i] + offset
+        }
+    }
+}
+
+/**
+ * Sparse form of [StepResponder]. Keeps the source columns still inside their response window and sums their current
+ * weights, so cost scales with the number of recently spiking sources.
+ */
+class StepResponse(private val responder: StepResponder, rows: Int, cols: Int) : SparseSpikeResponse(rows, cols) {
+
+    private val active = IntArray(cols)
+
+    private var activeCount = 0
+
+    private val isActive = BooleanArray(cols)
+
+    private var initialized = false
+
+    context(Network)
+    override fun apply(weightMatrix: WeightMatrix, spikeData: SpikingMatrixData, spiked: IntArray, count: Int) {
+        val lastSpikeTimes = spikeData.lastSpikeTimes
+        val window = responder.responseDuration * timeStep
+        if (!initialized) {
+            for (j in 0 until cols) {
+                activate(j)
+            }
+            initialized = true
+        }
+        for (k in 0 until count) {
+            activate(spiked[k])
+        }
+        summedPSRs.fill(0.0)
+        var kept = 0
+        for (k in 0 until activeCount) {
+            val j = active[k]
+            if (lastSpikeTimes[j] + window >= time) {
+                active[kept++] = j
+                for (i in 0 until rows) {
+                    summedPSRs[i] += weightMatrix.weightMatrix[i, j]
+                }
+            } else {
+                isActive[j] = false
+            }
+        }
+        activeCount = kept
+    }
+
+    private fun activate(j: Int) {
+        if (!isActive[j]) {
+            isActive[j] = true
+            active[activeCount++] = j
+        }
+    }
+}
@@ -77,6 +77,12 @@ abstract class SpikeResponder : CopyableObject {
     context(Network)
     open fun apply(connector: Connector, responderData: MatrixDataHolder) {}
 
+    /**
+     * Override to support event-driven propagation through a weight matrix with the given shape. Return null if the
+     * responder can only update the full psr matrix.
+     */
+    open fun createSparseResponse(rows: Int, cols: Int): SparseSpikeResponse? = null
+
     context(Network)
     fun probabilisticSpikeCheck(): Boolean {
         return !useSpikeProbability || random.nextDouble() < spikeProbability
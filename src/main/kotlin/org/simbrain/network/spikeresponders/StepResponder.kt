@@ -37,6 +37,8 @@ class StepResponder(
 
 ) : SpikeResponder() {
 
+    override fun createSparseResponse(rows: Int, cols: Int) = StepResponse(this, rows, cols)
+
     context(Network)
     override fun apply(connector: Connector, responderData: MatrixDataHolder) {
         val weightMatrix = connector as WeightMatrix
@@ -0,0 +1,185 @@
+package org.simbrain.network.subnetworks
+
+import org.simbrain.util.copyFrom
+import org.simbrain.util.math.SigmoidFunctions
+import smile.math.blas.Transpose.NO_TRANSPOSE
+import smile.math.blas.Transpose.TRANSPOSE
+import smile.math.matrix.Matrix
+import kotlin.random.Random
+
+/**
+ * Mini-batch contrastive divergence (CD-k) and persistent contrastive divergence training for a
+ * [RestrictedBoltzmannMachine].
+ *
+ * Each batch is a block of rows of the input data, and all layer states are stored with one sample per row, so the
+ * passes through the weights are matrix products. Buffers are allocated once for a given batch size and reused. With
+ * persistent contrastive divergence the negative phase continues from a matrix of "fantasy particles" kept between
+ * batches, instead of starting from the data.
+ *
+ * See https://www.cs.toronto.edu/~hinton/absps/guideTR.pdf
+ *
+ * @param numVisible number of visible units
+ * @param numHidden number of hidden units
+ */
+internal class ContrastiveDivergence(val numVisible: Int, val numHidden: Int) {
+
+    /**
+     * Visible and hidden states of a batch of samples, one sample per row.
+     */
+    private inner class States(val rows: Int) {
+        val visible = Matrix(rows, numVisible)
+        val hidden = Matrix(rows, numHidden)
+    }
+
+    private var positive: States? = null
+
+    private var negative: States? = null
+
+    /**
+     * Visible states the persistent chains continue from.
+     */
+    private var fantasy: Matrix? = null
+
+    private var uniforms = DoubleArray(0)
+
+    private fun positiveStates(rows: Int) = positive?.takeIf { it.rows == rows } ?: States(rows).also { positive = it }
+
+    private fun negativeStates(rows: Int) = negative?.takeIf { it.rows == rows } ?: States(rows).also { negative = it }
+
+    /**
+     * Forget the persistent chains, for example after the weights are randomized.
+     */
+    fun resetFantasy() {
+        fantasy = null
+    }
+
+    /**
+     * Train on the input data once, in batches of [batchSize] rows.
+     *
+     * @param data input data, one sample per row
+     * @param weights hidden by visible weight matrix, updated in place
+     * @param visibleBiases visible biases as a column vector, updated in place
+     * @param hiddenBiases hidden biases as a column vector, updated in place
+     * @param steps number of Gibbs sampling steps in the negative phase
+     * @param persistent whether to continue the negative phase from the previous batch's fantasy particles
+     */
+    fun train(
+        data: Matrix,
+        weights: Matrix,
+        visibleBiases: Matrix,
+        hiddenBiases: Matrix,
+        learningRate: Double,
+        batchSize: Int,
+        steps: Int,
+        persistent: Boolean,
+        random: Random
+    ) {
+        require(data.ncol() == numVisible) {
+            "Input data has ${data.ncol()} columns but there are $numVisible visible units"
+        }
+        val batch = batchSize.coerceIn(1, maxOf(1, data.nrow()))
+        var start = 0
+        while (start < data.nrow()) {
+            val rows = minOf(batch, data.nrow() - start)
+            trainBatch(
+                data, start, rows, weights, visibleBiases, hiddenBiases, learningRate, batch, steps, persistent, random
+            )
+            start += rows
+        }
+    }
+
+    private fun trainBatch(
+        data: Matrix,
+        start: Int,
+        rows: Int,
+        weights: Matrix,
+        visibleBiases: Matrix,
+        hiddenBiases: Matrix,
+        learningRate: Double,
+        batchSize: Int,
+        steps: Int,
+        persistent: Boolean,
+        random: Random
+    ) {
+        // Positive phase: data -> hidden
+        val pos = positiveStates(rows)
+        for (j in 0 until numVisible) {
+            for (i in 0 until rows) {
+                pos.visible[i, j] = data[start + i, j]
+            }
+        }
+        pos.hidden.mm(NO_TRANSPOSE, pos.visible, TRANSPOSE, weights)
+        sample(pos.hidden, hiddenBiases, random)
+
+        // Negative phase: k steps of Gibbs sampling, from the data or from the fantasy particles
+        val neg: States
+        if (persistent) {
+            // The number of chains does not depend on the size of the last batch
+            neg = negativeStates(batchSize)
+            val particles = fantasy?.takeIf { it.nrow() == batchSize } ?: Matrix(batchSize, numVisible).also { particles ->
+                for (i in 0 until batchSize) {
+                    for (j in 0 until numVisible) {
+                        particles[i, j] = data[(start + i) % data.nrow(), j]
+                    }
+                }
+                fantasy = particles
+            }
+            neg.hidden.mm(NO_TRANSPOSE, particles, TRANSPOSE, weights)
+            sample(neg.hidden, hiddenBiases, random)
+        } else {
+            neg = negativeStates(rows)
+            neg.hidden.copyFrom(pos.hidden)
+        }
+        repeat(steps.coerceAtLeast(1)) {
+            neg.visible.mm(NO_TRANSPOSE, neg.hidden, NO_TRANSPOSE, weights)
+            sample(neg.visible, visibleBiases, random)
+            neg.hidden.mm(NO_TRANSPOSE, neg.visible, TRANSPOSE, weights)
+            sample(neg.hidden, hiddenBiases, random)
+        }
+        if (persistent) {
+            fantasy!!.copyFrom(neg.visible)
+        }
+
+        // Gradient: difference of the mean outer products of hidden and visible states in each phase
+        val positiveRate = learningRate / rows
+        val negativeRate = learningRate / neg.rows
+        weights.mm(TRANSPOSE, pos.hidden, NO_TRANSPOSE, pos.visible, positiveRate, 1.0)
+        weights.mm(TRANSPOSE, neg.hidden, NO_TRANSPOSE, neg.visible, -negativeRate, 1.0)
+        updateBiases(visibleBiases, pos.visible, positiveRate, neg.visible, negativeRate)
+        updateBiases(hiddenBiases, pos.hidden, positiveRate, neg.hidden, negativeRate)
+    }
+
+    /**
+     * Add the biases to the net inputs in [states], apply the logistic function, and replace each resulting
+     * probability p with 1 with probability p and 0 otherwise.
+     */
+    private fun sample(states: Matrix, biases: Matrix, random: Random) {
+        val rows = states.nrow()
+        if (uniforms.size < rows) {
+            uniforms = DoubleArray(rows)
+        }
+        for (j in 0 until states.ncol()) {
+            val bias = biases[j, 0]
+            for (i in 0 until rows) {
+                uniforms[i] = random.nextDouble()
+            }
+            for (i in 0 until rows) {
+                val p = SigmoidFunctions.logistic(states[i, j] + bias)
+                states[i, j] = if (uniforms[i] < p) 1.0 else 0.0
+            }
+        }
+    }
+
+    private fun updateBiases(biases: Matrix, positive: Matrix, positiveRate: Double, negative: Matrix, negativeRate: Double) {
+        for (j in 0 until positive.ncol()) {
+            var delta = 0.0
+            for (i in 0 until positive.nrow()) {
+                delta += positiveRate * positive[i, j]
+            }
+            for (i in 0 until negative.nrow()) {
+                delta -= negativeRate * negative[i, j]
+            }
+            biases[j, 0] += delta
+        }
+    }
+}
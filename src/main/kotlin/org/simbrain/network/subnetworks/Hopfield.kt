@@ -31,8 +31,6 @@ import org.simbrain.util.point
 import org.simbrain.util.propertyeditor.EditableObject
 import org.simbrain.util.stats.ProbabilityDistribution
 import smile.math.matrix.Matrix
-import java.util.function.Consumer
-import kotlin.math.sqrt
 
 /**
  * A discrete Hopfield network.
@@ -55,6 +53,16 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
 
     override lateinit var customInfo: InfoText
 
+    @Transient
+    private var _engine: HopfieldEngine? = null
+
+    /**
+     * Array-based weights, local fields and update orders for the neurons, rebuilt if the neuron list changes.
+     */
+    private val engine: HopfieldEngine
+        get() = _engine?.takeIf { it.matches(neuronGroup.neuronList) }
+            ?: HopfieldEngine(neuronGroup.neuronList).also { _engine = it }
+
     constructor(numNeurons: Int): super() {
         label = "Hopfield network"
 
@@ -94,8 +102,9 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
     context(Network) override fun trainOnInputData() {
         inputData.toArray().forEach { row ->
             inputLayer.activationArray = row
-            trainOnCurrentPattern()
+            addCurrentPattern()
         }
+        fireWeightsChanged()
     }
 
     override fun randomize(randomizer: ProbabilityDistribution?) {
@@ -110,14 +119,27 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
     context(Network)
     override fun update() {
         updateFunc.update(this)
-        updateStateInfoText()
+        // The update leaves the engine's fields current, so they need not be synced again
+        showEnergy(engine.energy(resync = false))
     }
 
+    /**
+     * Energy of the current state of the network.
+     */
+    val energy: Double
+        get() = engine.energy()
+
     val stateInfoText: String
-        get() = "Energy: " + neuronGroup.neuronList.getEnergy().format(4)
+        get() = energyText(energy)
 
     fun updateStateInfoText() {
-        customInfo.text = stateInfoText
+        showEnergy(energy)
+    }
+
+    private fun energyText(energy: Double) = "Energy: " + energy.format(4)
+
+    private fun showEnergy(energy: Double) {
+        customInfo.text = energyText(energy)
         events.customInfoUpdated.fire()
     }
 
@@ -126,13 +148,28 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
      * main training algorithm, which directly makes use of the input data.
      */
     override fun trainOnCurrentPattern() {
-        neuronGroup.neuronList.forEach(Consumer { src: Neuron ->
+        addCurrentPattern()
+        fireWeightsChanged()
+    }
+
+    /**
+     * Add the outer product of the current (bipolar) pattern to the weights, without firing events.
+     */
+    private fun addCurrentPattern() {
+        val neurons = neuronGroup.neuronList
+        if (engine.addOuterProduct(DoubleArray(neurons.size) { bipolar(neurons[it].activation) })) {
+            return
+        }
+        neurons.forEach { src: Neuron ->
+            val srcValue = bipolar(src.activation)
             src.fanIn.forEach { s: Synapse ->
-                val tar = s.source
-                val deltaW = bipolar(src.activation) * bipolar(tar.activation)
-                s.strength += deltaW
+                s.setStrength(s.strength + srcValue * bipolar(s.source.activation), false)
             }
-        })
+        }
+    }
+
+    private fun fireWeightsChanged() {
+        synapseGroup.synapses.forEach { if (it.isVisible) it.events.strengthUpdated.fire() }
         synapseGroup.events.updated.fire()
         events.updated.fire()
     }
@@ -154,11 +191,7 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
              */
             context(Network)
             override fun update(hop: Hopfield) {
-                val copy = hop.neuronGroup.neuronList.shuffled()
-                copy.forEach {
-                    it.accumulateInputs()
-                    it.update()
-                }
+                hop.engine.run { updateInOrder(shuffledOrder(this@Network.random)) }
             }
 
             override fun toString(): String {
@@ -171,13 +204,7 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
              */
             context(Network)
             override fun update(hop: Hopfield) {
-                // TODO: Cache the sorted list
-                hop.neuronGroup.neuronList
-                    .sortedBy { it.updatePriority }
-                    .forEach {
-                        it.accumulateInputs()
-                        it.update()
-                    }
+                hop.engine.run { updateInOrder(priorityOrder()) }
             }
 
 
@@ -188,8 +215,7 @@ class Hopfield : Subnetwork, UnsupervisedNetwork {
         SYNC {
             context(Network)
             override fun update(hop: Hopfield) {
-                hop.neuronGroup.neuronList.forEach { it.accumulateInputs() }
-                hop.neuronGroup.neuronList.forEach { it.update() }
+                hop.engine.updateSynchronously()
             }
 
             override fun toString(): String {
@@ -0,0 +1,287 @@
+package org.simbrain.network.subnetworks
+
+import org.simbrain.network.core.Network
+import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.getEnergy
+import org.simbrain.network.spikeresponders.NonResponder
+import java.util.*
+import kotlin.random.Random
+
+/**
+ * Array-based state for updating the neurons of a [Hopfield] network.
+ *
+ * The weights among the neurons are mirrored in a primitive matrix, and the local field h = Wx of every neuron is
+ * kept up to date incrementally, so updating one neuron costs O(N) (adding the weights out of a neuron whose
+ * activation changed to the fields), and the energy -x.h/2 can be read in O(N). The random and priority update orders
+ * are kept in reusable index arrays.
+ *
+ * The synapses remain the model of record. A neuron's incoming synapses are re-read when its [Neuron.fanInVersion]
+ * changes, its strengths are compared with the cached weights when its [Neuron.fanInStrengthVersion] changes
+ * (adjusting its field by any difference), and activations set from outside (by the user or couplings) are picked up
+ * before each use. Training adds to the cached weights directly (see [addOuterProduct]). If a neuron
+ * receives a synapse from outside the network, or one that is disabled, delayed or has a spike responder, the
+ * neurons are updated through their synapses as usual.
+ */
+internal class HopfieldEngine(neurons: List<Neuron>) {
+
+    val neurons = neurons.toTypedArray()
+
+    val size = this.neurons.size
+
+    private val indices = IdentityHashMap<Neuron, Int>(size).apply {
+        this@HopfieldEngine.neurons.forEachIndexed { i, n -> put(n, i) }
+    }
+
+    /**
+     * Weight from neuron s to neuron t at s * size + t, so that the weights out of a neuron are contiguous.
+     */
+    private val weights = DoubleArray(size * size)
+
+    /**
+     * Fan-in version of each neuron when its incoming weights were last read.
+     */
+    private val rowVersions = IntArray(size) { this.neurons[it].fanInVersion - 1 }
+
+    /**
+     * Fan-in strength version of each neuron when its incoming weights were last read or written.
+     */
+    private val strengthVersions = IntArray(size)
+
+    /**
+     * Index of the source of each of a neuron's incoming synapses, in fan-in order, as of the last read.
+     */
+    private val rowSources = Array(size) { IntArray(0) }
+
+    private val unsupportedRows = BooleanArray(size)
+
+    private var unsupportedCount = 0
+
+    private val staleFields = BooleanArray(size)
+
+    /**
+     * Local field (weighted input from the other neurons) of each neuron, given [states].
+     */
+    private val fields = DoubleArray(size)
+
+    /**
+     * Activations the fields were computed from.
+     */
+    private val states = DoubleArray(size)
+
+    private val randomOrder = IntArray(size) { it }
+
+    private var priorityOrder: IntArray? = null
+
+    private val priorities = IntArray(size)
+
+    /**
+     * True if this engine was built for the given neurons, in the same order.
+     */
+    fun matches(neuronList: List<Neuron>) =
+        neuronList.size == size && neuronList.indices.all { neuronList[it] === neurons[it] }
+
+    /**
+     * Bring the weights and fields up to date with the synapses and activations. Returns false if some synapse can
+     * only be handled by the synapse itself.
+     */
+    fun sync(): Boolean {
+        for (t in 0 until size) {
+            if (rowVersions[t] != neurons[t].fanInVersion) {
+                readRow(t)
+            }
+        }
+        if (unsupportedCount > 0) {
+            return false
+        }
+        for (t in 0 until size) {
+            if (!staleFields[t] && strengthVersions[t] != neurons[t].fanInStrengthVersion) {
+                readStrengths(t)
+            }
+        }
+        for (k in 0 until size) {
+            applyChange(k)
+        }
+        for (t in 0 until size) {
+            if (staleFields[t]) {
+                var field = 0.0
+                for (s in 0 until size) {
+                    field += weights[s * size + t] * states[s]
+                }
+                fields[t] = field
+                staleFields[t] = false
+            }
+        }
+        return true
+    }
+
+    private fun readRow(t: Int) {
+        val neuron = neurons[t]
+        for (s in 0 until size) {
+            weights[s * size + t] = 0.0
+        }
+        var unsupported = false
+        val sources = IntArray(neuron.fanIn.size)
+        neuron.fanIn.forEachIndexed { k, synapse ->
+            val s = indices[synapse.source]
+            if (s == null || !synapse.isEnabled || synapse.delay != 0 || synapse.spikeResponder !is NonResponder) {
+                unsupported = true
+                sources[k] = -1
+                return@forEachIndexed
+            }
+            sources[k] = s
+            weights[s * size + t] = synapse.strength
+        }
+        rowSources[t] = sources
+        if (unsupported != unsupportedRows[t]) {
+            unsupportedRows[t] = unsupported
+            unsupportedCount += if (unsupported) 1 else -1
+        }
+        staleFields[t] = true
+        rowVersions[t] = neuron.fanInVersion
+        strengthVersions[t] = neuron.fanInStrengthVersion
+    }
+
+    /**
+     * Copy changed strengths into the weights of neuron t, adjusting its field by the change times the source state.
+     */
+    private fun readStrengths(t: Int) {
+        val fanIn = neurons[t].fanIn
+        val sources = rowSources[t]
+        for (k in sources.indices) {
+            val s = sources[k]
+            val index = s * size + t
+            val w = fanIn[k].strength
+            if (w != weights[index]) {
+                fields[t] += (w - weights[index]) * states[s]
+                weights[index] = w
+            }
+        }
+        strengthVersions[t] = neurons[t].fanInStrengthVersion
+    }
+
+    /**
+     * Add the outer product of [pattern] (one value per neuron) to the weights among the neurons, as in Hebbian
+     * storage. The new strengths are written to the synapses without firing events and the fields are adjusted, so
+     * nothing needs to be read back. Returns false, changing nothing, if the neurons are updated through their
+     * synapses.
+     */
+    fun addOuterProduct(pattern: DoubleArray): Boolean {
+        if (!sync()) {
+            return false
+        }
+        for (t in 0 until size) {
+            val fanIn = neurons[t].fanIn
+            val sources = rowSources[t]
+            for (k in sources.indices) {
+                val s = sources[k]
+                val index = s * size + t
+                val synapse = fanIn[k]
+                synapse.setStrength(weights[index] + pattern[t] * pattern[s], false)
+                // Read back, since bounds and frozen synapses may keep the strength from changing as requested
+                val w = synapse.strength
+                fields[t] += (w - weights[index]) * states[s]
+                weights[index] = w
+            }
+            strengthVersions[t] = neurons[t].fanInStrengthVersion
+        }
+        return true
+    }
+
+    /**
+     * If the activation of neuron k has changed, add the change times its outgoing weights to the fields.
+     */
+    private fun applyChange(k: Int) {
+        val x = neurons[k].activation
+        val delta = x - states[k]
+        if (delta == 0.0) {
+            return
+        }
+        states[k] = x
+        val offset = k * size
+        for (t in 0 until size) {
+            fields[t] += weights[offset + t] * delta
+        }
+    }
+
+    /**
+     * Shuffle the random order in place (Fisher–Yates) and return it.
+     */
+    fun shuffledOrder(random: Random): IntArray {
+        for (i in size - 1 downTo 1) {
+            val j = random.nextInt(i + 1)
+            val tmp = randomOrder[i]
+            randomOrder[i] = randomOrder[j]
+            randomOrder[j] = tmp
+        }
+        return randomOrder
+    }
+
+    /**
+     * Indices of the neurons sorted by update priority (ties in list order). Only re-sorted when a priority changes.
+     */
+    fun priorityOrder(): IntArray {
+        val cached = priorityOrder
+        if (cached != null && (0 until size).all { priorities[it] == neurons[it].updatePriority }) {
+            return cached
+        }
+        for (i in 0 until size) {
+            priorities[i] = neurons[i].updatePriority
+        }
+        return (0 until size).sortedBy { priorities[it] }.toIntArray().also { priorityOrder = it }
+    }
+
+    /**
+     * Update the neurons one at a time in the given order, each seeing the new activations of the ones before it.
+     */
+    context(Network)
+    fun updateInOrder(order: IntArray) {
+        if (!sync()) {
+            order.forEach {
+                neurons[it].accumulateInputs()
+                neurons[it].update()
+            }
+            return
+        }
+        for (k in order) {
+            val neuron = neurons[k]
+            neuron.addInputValue(fields[k] + neuron.bias)
+            neuron.update()
+            applyChange(k)
+        }
+    }
+
+    /**
+     * Update all neurons from the current activations.
+     */
+    context(Network)
+    fun updateSynchronously() {
+        if (!sync()) {
+            neurons.forEach { it.accumulateInputs() }
+            neurons.forEach { it.update() }
+            return
+        }
+        for (k in 0 until size) {
+            neurons[k].addInputValue(fields[k] + neurons[k].bias)
+        }
+        neurons.forEach { it.update() }
+        for (k in 0 until size) {
+            applyChange(k)
+        }
+    }
+
+    /**
+     * Energy of the current state, -1/2 times the sum over synapses of strength times source and target activation.
+     * Right after an update the fields are already current, and [resync] can be false to skip checking the synapses
+     * and activations again.
+     */
+    fun energy(resync: Boolean = true): Double {
+        if (if (resync) !sync() else unsupportedCount > 0) {
+            return neurons.asList().getEnergy()
+        }
+        var sum = 0.0
+        for (i in 0 until size) {
+            sum += states[i] * fields[i]
+        }
+        return (sum * -0.5).let { if (it == -0.0) 0.0 else it }
+    }
+}
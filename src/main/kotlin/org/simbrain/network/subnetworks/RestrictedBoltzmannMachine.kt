@@ -61,6 +61,33 @@ class RestrictedBoltzmannMachine : Subnetwork, UnsupervisedNetwork {
 
     override val trainer = UnsupervisedTrainer()
 
+    @UserParameter(
+        label = "Batch size",
+        description = "Number of rows of input data used for each weight update",
+        minimumValue = 1.0,
+        order = 10
+    )
+    var batchSize = 10
+
+    @UserParameter(
+        label = "Sampling steps",
+        description = "Number of steps of Gibbs sampling in the negative phase (the k in CD-k)",
+        minimumValue = 1.0,
+        order = 20
+    )
+    var samplingSteps = 1
+
+    @UserParameter(
+        label = "Persistent",
+        description = "Continue the negative phase from the fantasy particles of the previous batch rather than " +
+                "from the data (persistent contrastive divergence)",
+        order = 30
+    )
+    var persistent = false
+
+    @Transient
+    private var contrastiveDivergence: ContrastiveDivergence? = null
+
     constructor(numVisibleNodes: Int, numHiddenNodes: Int): super() {
         this.label = "Restricted Boltzmann Machine"
         this.inputData = Matrix.rand(defaultRowsInputData, numVisibleNodes)
@@ -130,12 +157,35 @@ class RestrictedBoltzmannMachine : Subnetwork, UnsupervisedNetwork {
         updateStateInfoText()
     }
 
+    /**
+     * Train on all rows of the input data in batches of [batchSize], using contrastive divergence with
+     * [samplingSteps] steps, or persistent contrastive divergence.
+     */
     context(Network)
     override fun trainOnInputData() {
-        inputData.toArray().forEach { row ->
-            visibleLayer.activations = row.toMatrix()
-            trainOnCurrentPattern()
+        if (inputData.nrow() == 0) {
+            return
         }
+        val cd = contrastiveDivergence
+            ?.takeIf { it.numVisible == visibleLayer.size && it.numHidden == hiddenLayer.size }
+            ?: ContrastiveDivergence(visibleLayer.size, hiddenLayer.size).also { contrastiveDivergence = it }
+        cd.train(
+            inputData,
+            visibleToHidden.weightMatrix,
+            visibleLayer.biases,
+            hiddenLayer.biases,
+            trainer.learningRate,
+            batchSize,
+            samplingSteps,
+            persistent,
+            this@Network.random
+        )
+        visibleToHidden.updateMasks()
+        visibleToHidden.events.updated.fire()
+        hiddenLayer.events.updated.fire()
+        // Show the last pattern trained on
+        visibleLayer.activations = inputData.row(inputData.nrow() - 1).toMatrix()
+        updateStateInfoText()
     }
 
     context(Network)
@@ -173,6 +223,7 @@ class RestrictedBoltzmannMachine : Subnetwork, UnsupervisedNetwork {
     }
 
     override fun randomize(randomizer: ProbabilityDistribution?) {
+        contrastiveDivergence?.resetFantasy()
         visibleToHidden.randomize(NetworkPreferences.weightRandomizer)
         visibleLayer.randomizeBiases(NetworkPreferences.biasesRandomizer)
         hiddenLayer.randomizeBiases(NetworkPreferences.biasesRandomizer)
@@ -198,21 +249,23 @@ class RestrictedBoltzmannMachine : Subnetwork, UnsupervisedNetwork {
  * Apply logistic sigmoid to components, then treat the resulting values as probabilities and use those
  * probabilities to replace with 0 or 1.
  */
+context(Network)
 private fun updateWithSampling(array: Matrix) {
     array.validateColumnVector()
     (0 until array.nrow()).forEach { i ->
         array.set(i, 0, SigmoidFunctions.logistic(array.get(i, 0)))
-        array.set(i, 0, if (Math.random() < array.get(i, 0)) 1.0 else 0.0)
+        array.set(i, 0, if (random.nextDouble() < array.get(i, 0)) 1.0 else 0.0)
     }
 }
 
 /**
  * Same as above but the NeuronArray is assumed to have been updated and sigmoidal which would apply the sigmoid.
  */
+context(Network)
 private fun updateWithSampling(na: NeuronArray) {
     na.activations.validateColumnVector()
     (0 until na.activations.nrow()).forEach{ i ->
-        na.activations.set(i, 0, if (Math.random() < na.activations.get(i,0)) 1.0 else 0.0)
+        na.activations.set(i, 0, if (random.nextDouble() < na.activations.get(i,0)) 1.0 else 0.0)
     }
 }
 
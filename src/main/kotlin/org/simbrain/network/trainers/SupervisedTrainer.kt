@@ -217,6 +217,7 @@ class BackpropTrainer : SupervisedTrainer<BackpropNetwork>() {
 
         weightAccumulator.forEach { (wm, delta) ->
             wm.weightMatrix.add(delta.mul(trainer.learningRate))
+            wm.weightsChanged()
             wm.events.updated.fire()
         }
 
@@ -89,6 +89,7 @@ fun WeightMatrix.updateWeights(layerError: Matrix, epsilon: Double = .1): Matrix
 
     // Update weights
     weightMatrix.add(weightDeltas.mul(epsilon))
+    weightsChanged()
     events.updated.fire()
 
     return backropagatedErrors
@@ -0,0 +1,100 @@
+package org.simbrain.network.updaterules
+
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Integration of conductance-based neuron models such as [HodgkinHuxleyRule] and [MorrisLecarRule]. In these models
+ * each gating variable relaxes exponentially toward a voltage dependent steady state, and once the gates are fixed the
+ * membrane current is linear in the voltage, so the voltage relaxes exponentially as well. Taking each of these
+ * relaxations exactly over a step (the exponential Euler or Rush–Larsen scheme) keeps the update stable at time steps
+ * where forward Euler diverges. Rates are evaluated half a step ahead, which makes the scheme second order.
+ *
+ * The state, [ExponentialScratch.state], is a vector with the membrane voltage (mV) first and gating variables after
+ * it, and is advanced in place. [step] advances `from` by `h`, using rates and conductances evaluated at the state
+ * `at`, and writes the result to `out`.
+ *
+ * If [tolerance] is not null the time step [dt] is split into sub-steps, each sized so that the difference between
+ * first and second order results (gates, and voltage in units of 100 mV) is below the tolerance.
+ *
+ * @return the number of sub-steps taken
+ */
+internal inline fun integrateExponential(
+    scratch: ExponentialScratch,
+    dt: Double,
+    tolerance: Double?,
+    step: (from: DoubleArray, at: DoubleArray, h: Double, out: DoubleArray) -> Unit
+): Int {
+    val state = scratch.state
+    val half = scratch.half
+    val high = scratch.high
+    if (tolerance == null) {
+        step(state, state, dt / 2, half)
+        step(state, half, dt, high)
+        high.copyInto(state)
+        return 1
+    }
+    val low = scratch.low
+    val minimumStep = dt * MIN_SUBSTEP_FRACTION
+    var t = 0.0
+    var h = dt
+    var substeps = 0
+    while (t < dt) {
+        h = min(h, dt - t)
+        step(state, state, h, low)
+        step(state, state, h / 2, half)
+        step(state, half, h, high)
+        var error = abs(low[0] - high[0]) / VOLTAGE_SCALE
+        for (i in 1 until state.size) {
+            error = max(error, abs(low[i] - high[i]))
+        }
+        if (error <= tolerance || h <= minimumStep) {
+            high.copyInto(state)
+            t += h
+            if (dt - t < 1e-9 * dt) {
+                t = dt
+            }
+            h *= min(4.0, 0.9 * sqrt(tolerance / max(error, 1e-15)))
+            substeps++
+        } else {
+            h = max(minimumStep, h * max(0.2, 0.9 * sqrt(tolerance / error)))
+        }
+    }
+    return substeps
+}
+
+/**
+ * Arrays used by [integrateExponential], so that integrating a neuron does not allocate. Not thread safe; callers keep
+ * one per neuron or use one for a whole layer update.
+ */
+internal class ExponentialScratch(size: Int) {
+
+    /**
+     * State to integrate, which is updated in place.
+     */
+    val state = DoubleArray(size)
+
+    val half = DoubleArray(size)
+
+    val high = DoubleArray(size)
+
+    val low = DoubleArray(size)
+}
+
+/**
+ * Value after [dt] of a variable relaxing from [x] toward [steadyState] with time constant [tau].
+ */
+internal fun relax(x: Double, steadyState: Double, tau: Double, dt: Double) = steadyState + (x - steadyState) * exp(-dt / tau)
+
+/**
+ * Voltage differences are divided by this before being compared with gating variables in the error estimate.
+ */
+internal const val VOLTAGE_SCALE = 100.0
+
+/**
+ * Sub-steps are never shorter than this fraction of the time step.
+ */
+internal const val MIN_SUBSTEP_FRACTION = 1e-3
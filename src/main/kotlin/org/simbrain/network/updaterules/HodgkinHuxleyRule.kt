@@ -1,23 +1,31 @@
 package org.simbrain.network.updaterules
 
+import org.simbrain.network.core.Layer
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.NeuronArray
 import org.simbrain.network.updaterules.interfaces.NoisyUpdateRule
-import org.simbrain.network.util.EmptyMatrixData
-import org.simbrain.network.util.EmptyScalarData
+import org.simbrain.network.util.MatrixDataHolder
+import org.simbrain.network.util.ScalarDataHolder
 import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.stats.distributions.UniformRealDistribution
+import org.simbrain.workspace.Producible
+import kotlin.math.abs
 import kotlin.math.exp
 
 /**
  * Hodgkin-Huxley Neuron.
  *
+ * Activation is the membrane voltage in mV (present day convention, resting near -65 mV) and input is injected
+ * current in µA/cm². The gating variables m, h and n are kept per neuron in [HodgkinHuxleyData] and integrated
+ * with the exponential Euler scheme (see [integrateExponential]), so the time step in ms can be far larger than
+ * forward Euler allows.
  *
  * Adapted from software written by Anthony Fodor, with help from Jonathan
  * Vickrey.
  */
-class HodgkinHuxleyRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(), NoisyUpdateRule {
+class HodgkinHuxleyRule : NeuronUpdateRule<HodgkinHuxleyData, HodgkinHuxleyMatrixData>(), NoisyUpdateRule {
     /**
      * Sodium Channels
      */
@@ -31,79 +39,43 @@ class HodgkinHuxleyRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(),
     private var perKChannels = 100f
 
     /**
-     * Resting Membrane Potential
+     * If true each time step is split into sub-steps sized to keep the integration error below
+     * [substepTolerance].
      */
-    private val resting_v = 65.0
+    @UserParameter(
+        label = "Adaptive sub-steps",
+        description = "Split each time step into sub-steps sized to keep the integration error below the tolerance",
+        order = 3
+    )
+    var adaptiveSubsteps = false
+
+    @UserParameter(
+        label = "Sub-step tolerance",
+        description = "Largest allowed error per sub-step, in gating variable units (voltage in units of 100 mV)",
+        minimumValue = 0.0,
+        increment = .0001,
+        order = 4
+    )
+    var substepTolerance = 1e-4
 
-    /**  */
-    private var dv = 0.0
-
-    // remember that H&H voltages are -1 * present convention
-    // TODO: should eventually calculate this instead of setting it
-    // convert between internal use of V and the user's expectations
-    // the V will be membrane voltage using present day conventions
-    // see p. 505 of Hodgkin & Huxley, J Physiol. 1952, 117:500-544
     /**
      * Membrane Capacitance
      */
     var cm: Double = 1.0
 
     /**
-     * Constant leak permeabilities
-     */
-    private var gk: Double
-    private var gna: Double
-    private val gl: Double
-
-    /**
-     * voltage-dependent gating parameters
-     */
-    var n: Double = 0.0
-        private set
-    var m: Double = 0.0
-        private set
-    var h: Double = 0.0
-        private set
-
-    /**
-     * corresponding deltas
+     * Maximal conductances (mS/cm²)
      */
-    private var dn: Double
-    private var dm: Double
-    private var dh: Double
+    private var gk = (perKChannels * 36 / 100).toDouble()
+    private var gna = (perNaChannels * 120 / 100).toDouble()
+    private val gl = 0.3
 
     /**
-     * // rate constants
+     * Reversal potentials (mV)
      */
-    private var an: Double
-    private var bn: Double
-    private var am: Double
-    private var bm: Double
-    private var ah: Double
-    private var bh: Double
-
-    /**
-     * Ek-Er, Ena - Er, Eleak - Er
-     */
-    private var vk: Double
-    private var vna: Double
-    private val vl: Double
-
-    /**  */
-    private var n4 = 0.0
-
-    /**  */
-    private var m3h = 0.0
-
-    /**
-     * Sodium current
-     */
-    private var na_current = 0.0
-
-    /**
-     * Potassium current
-     */
-    private var k_current = 0.0
+    private var eNa = 50.0
+    private var eK = -77.0
+    private val eL = -54.387
 
     /**  */
     var temp: Double = 0.0
@@ -125,103 +97,75 @@ class HodgkinHuxleyRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(),
     override var addNoise: Boolean = false
 
     context(Network)
-    override fun apply(neuron: Neuron, data: EmptyScalarData) {
-        // Advances the model by dt and returns the new voltage
-
-        val v = neuron.input
-        bh = 1 / (exp((v + 30) / 10) + 1)
-        ah = 0.07 * exp(v / 20)
-        dh = (ah * (1 - h) - bh * h) * timeStep
-        bm = 4 * exp(v / 18)
-        am = 0.1 * (v + 25) / (exp((v + 25) / 10) - 1)
-        bn = 0.125 * exp(v / 80)
-        an = 0.01 * (v + 10) / (exp((v + 10) / 10) - 1)
-        dm = (am * (1 - m) - bm * m) * timeStep
-        dn = (an * (1 - n) - bn * n) * timeStep
-
-        n4 = n * n * n * n
-        m3h = m * m * m * h
-
-        na_current = gna * m3h * (v - vna)
-        k_current = gk * n4 * (v - vk)
-
-        dv = -1 * timeStep * (k_current + na_current + gl * (v - vl)) / cm
-
-        neuron.activation = -1 * (v + dv + resting_v)
-        h += dh
-        m += dm
-        n += dn
-
-        // if (vClampOn)
-        // v = vClampValue;
+    override fun apply(neuron: Neuron, data: HodgkinHuxleyData) {
+        val scratch = data.scratch
+        val state = scratch.state
+        state[0] = neuron.activation
+        state[1] = data.m
+        state[2] = data.h
+        state[3] = data.n
+        integrate(scratch, neuron.input, timeStep)
+        neuron.activation = state[0]
+        data.m = state[1]
+        data.h = state[2]
+        data.n = state[3]
+    }
 
-        // getV() converts the model's v to present day convention
+    context(Network)
+    override fun apply(layer: Layer, dataHolder: HodgkinHuxleyMatrixData) {
+        if (layer is NeuronArray) {
+            val scratch = ExponentialScratch(4)
+            val state = scratch.state
+            for (i in 0 until layer.size) {
+                state[0] = layer.activations[i, 0]
+                state[1] = dataHolder.m[i]
+                state[2] = dataHolder.h[i]
+                state[3] = dataHolder.n[i]
+                integrate(scratch, layer.inputs[i, 0], timeStep)
+                layer.activations[i, 0] = state[0]
+                dataHolder.m[i] = state[1]
+                dataHolder.h[i] = state[2]
+                dataHolder.n[i] = state[3]
+            }
+        }
     }
 
-    // Initializer quickly hacked from old init. Zoë this is in your hands to fix! :)
-    init {
-        val v = -70.0 // Arbitrary starting voltage
-        val dv = .001 // Arbitrary starting dv.  Not sure how to set.
-        vna = -115.0
-        vk = 12.0
-        vl = -10.613
-        gna = (perNaChannels * 120 / 100).toDouble()
-        gk = (perKChannels * 36 / 100).toDouble()
-        gl = 0.3
-
-        bh = 1 / (exp((v + 30) / 10) + 1)
-        ah = 0.07 * exp(v / 20)
-        bm = 4 * exp(v / 18)
-        am = 0.1 * (v + 25) / (exp((v + 25) / 10) - 1)
-        bn = 0.125 * exp(v / 80)
-        an = 0.01 * (v + 10) / (exp((v + 10) / 10) - 1)
-        dh = (ah * (1 - h) - bh * h) * dv
-        dm = (am * (1 - m) - bm * m) * dv
-        dn = (an * (1 - n) - bn * n) * dv
-
-        // start these parameters in steady state
-        n = an / (an + bn)
-        m = am / (am + bm)
-        h = ah / (ah + bh)
+    /**
+     * Advance a state (v, m, h, n) by dt ms with the given injected current.
+     */
+    private fun integrate(scratch: ExponentialScratch, input: Double, dt: Double) {
+        val current = if (addNoise) input + noiseGenerator.sampleDouble() else input
+        integrateExponential(scratch, dt, if (adaptiveSubsteps) substepTolerance else null) { from, at, h, out ->
+            val v = at[0]
+            val gNa = gna * at[1] * at[1] * at[1] * at[2]
+            val gK = gk * at[3] * at[3] * at[3] * at[3]
+            val gTotal = gNa + gK + gl
+            out[0] = relax(from[0], (gNa * eNa + gK * eK + gl * eL + current) / gTotal, cm / gTotal, h)
+            out[1] = relaxGate(from[1], alphaM(v), betaM(v), h)
+            out[2] = relaxGate(from[2], alphaH(v), betaH(v), h)
+            out[3] = relaxGate(from[3], alphaN(v), betaN(v), h)
+        }
     }
 
-    override val timeType: Network.TimeType
-        get() = Network.TimeType.CONTINUOUS
+    override fun createScalarData() = HodgkinHuxleyData()
 
-    fun get_n4(): Double {
-        return n4
-    }
+    override fun createMatrixData(size: Int) = HodgkinHuxleyMatrixData(size)
 
-    fun get_m3h(): Double {
-        return m3h
-    }
+    override val timeType: Network.TimeType
+        get() = Network.TimeType.CONTINUOUS
 
-    @get:Synchronized
-    @set:Synchronized
     var ena: Float
-        get() = (-1 * (vna + resting_v)).toFloat()
+        get() = eNa.toFloat()
         set(Ena) {
-            vna = -1 * Ena - resting_v
+            eNa = Ena.toDouble()
         }
 
-    @get:Synchronized
-    @set:Synchronized
     var ek: Float
-        get() = (-1 * (vk + resting_v)).toFloat()
+        get() = eK.toFloat()
         set(Ek) {
-            vk = -1 * Ek - resting_v
+            eK = Ek.toDouble()
         }
 
-    // The -1 is to correct for the fact that in the H & H paper, the currents
-    // are reversed.
-    fun get_na_current(): Double {
-        return -1 * na_current
-    }
-
-    fun get_k_current(): Double {
-        return -1 * k_current
-    }
-
     // negative values set to zero
     @Synchronized
     fun setPerNaChannels(perNaChannels: Float) {
@@ -252,18 +196,18 @@ class HodgkinHuxleyRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(),
     }
 
     /**
-     * Converts a voltage from the modern convention to the convention used by
-     * the program.
+     * Converts a voltage from the modern convention to the convention of Hodgkin & Huxley (1952), in which voltages
+     * are displacements from rest with the opposite sign.
      *
      * @param voltage
      * @return
      */
     fun convertV(voltage: Float): Float {
-        return (-1 * voltage - resting_v).toFloat()
+        return (-1 * voltage - RESTING_POTENTIAL_HH).toFloat()
     }
 
     fun get_vClampValue(): Float {
-        return (-1 * (vClampValue + resting_v)).toFloat()
+        return (-1 * (vClampValue + RESTING_POTENTIAL_HH)).toFloat()
     }
 
     fun set_vClampValue(vClampValue: Float) {
@@ -282,10 +226,84 @@ class HodgkinHuxleyRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(),
         hhr.setPerNaChannels(this.getPerNaChannels())
         hhr.temp = temp
         hhr.vClampOn = vClampOn
+        hhr.adaptiveSubsteps = adaptiveSubsteps
+        hhr.substepTolerance = substepTolerance
         return hhr
     }
 
     override val name: String
         get() = "Hodgkin-Huxley"
 
-}
\ No newline at end of file
+    companion object {
+
+        /**
+         * Resting potential in the convention of the 1952 paper.
+         */
+        private const val RESTING_POTENTIAL_HH = 65.0
+
+        /**
+         * Membrane voltage (mV) at which new gating variables start in steady state.
+         */
+        const val RESTING_POTENTIAL = -65.0
+
+        // Rate constants (1/ms) of the gating variables at voltage v (mV)
+
+        fun alphaM(v: Double) = 0.1 * linoid(v + 40, 10.0)
+        fun betaM(v: Double) = 4 * exp(-(v + 65) / 18)
+        fun alphaH(v: Double) = 0.07 * exp(-(v + 65) / 20)
+        fun betaH(v: Double) = 1 / (1 + exp(-(v + 35) / 10))
+        fun alphaN(v: Double) = 0.01 * linoid(v + 55, 10.0)
+        fun betaN(v: Double) = 0.125 * exp(-(v + 65) / 80)
+
+        /**
+         * x / (1 - exp(-x / y)), with its limit y at x = 0.
+         */
+        private fun linoid(x: Double, y: Double) = if (abs(x / y) < 1e-6) y * (1 + x / y / 2) else x / (1 - exp(-x / y))
+
+        private fun relaxGate(x: Double, alpha: Double, beta: Double, dt: Double) =
+            relax(x, alpha / (alpha + beta), 1 / (alpha + beta), dt)
+
+        internal fun steadyState(alpha: Double, beta: Double) = alpha / (alpha + beta)
+    }
+}
+
+class HodgkinHuxleyData(
+    @UserParameter(label = "m", description = "Sodium channel activation")
+    @get:Producible
+    var m: Double = HodgkinHuxleyRule.run { steadyState(alphaM(RESTING_POTENTIAL), betaM(RESTING_POTENTIAL)) },
+    @UserParameter(label = "h", description = "Sodium channel inactivation")
+    @get:Producible
+    var h: Double = HodgkinHuxleyRule.run { steadyState(alphaH(RESTING_POTENTIAL), betaH(RESTING_POTENTIAL)) },
+    @UserParameter(label = "n", description = "Potassium channel activation")
+    @get:Producible
+    var n: Double = HodgkinHuxleyRule.run { steadyState(alphaN(RESTING_POTENTIAL), betaN(RESTING_POTENTIAL)) },
+) : ScalarDataHolder {
+
+    @Transient
+    private var _scratch: ExponentialScratch? = null
+
+    /**
+     * Work arrays for integrating this neuron, created on first use.
+     */
+    internal val scratch get() = _scratch ?: ExponentialScratch(4).also { _scratch = it }
+
+    override fun copy(): HodgkinHuxleyData {
+        return HodgkinHuxleyData(m, h, n)
+    }
+}
+
+private val restingGates = HodgkinHuxleyData()
+
+class HodgkinHuxleyMatrixData(val size: Int) : MatrixDataHolder {
+    @get:Producible
+    var m = DoubleArray(size) { restingGates.m }
+    @get:Producible
+    var h = DoubleArray(size) { restingGates.h }
+    @get:Producible
+    var n = DoubleArray(size) { restingGates.n }
+    override fun copy() = HodgkinHuxleyMatrixData(size).also {
+        it.m = m.copyOf()
+        it.h = h.copyOf()
+        it.n = n.copyOf()
+    }
+}
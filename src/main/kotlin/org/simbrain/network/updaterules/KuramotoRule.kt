@@ -1,7 +1,10 @@
 package org.simbrain.network.updaterules
 
+import org.simbrain.network.core.Layer
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.NeuronArray
+import org.simbrain.network.core.WeightMatrix
 import org.simbrain.network.updaterules.interfaces.ClippedUpdateRule
 import org.simbrain.network.updaterules.interfaces.DifferentiableUpdateRule
 import org.simbrain.network.updaterules.interfaces.NoisyUpdateRule
@@ -10,6 +13,7 @@ import org.simbrain.network.util.EmptyScalarData
 import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.stats.distributions.UniformRealDistribution
+import kotlin.math.cos
 import kotlin.math.sin
 
 /**
@@ -21,6 +25,14 @@ import kotlin.math.sin
  *
  * K is weight N = number of fan-in nodes
  *
+ * On a [NeuronArray] the coupling is computed from the incoming weight matrices with the identity
+ * Σ_j w_ij sin(θj − θi) = cos θi (W sin θ)_i − sin θi (W cos θ)_i, so two matrix-vector products replace N × M sines.
+ * When all weights of a matrix are equal (see [WeightMatrix.uniformWeight]) the products reduce to sums over the
+ * source, the order parameter identity Σ_j sin(θj − θi) = Im(e^(−iθi) Σ_j e^(iθj)), and a step is linear in the
+ * number of oscillators. When the weights are constant on blocks of sources and targets (see
+ * [WeightMatrix.blockWeights]), e.g. coupling within and between populations, the sums are taken per block.
+ * [globalCoupling] couples all oscillators of an array this way without any weight matrix.
+ *
  *
  * TODO: Contextual increment.  Proper randomize and bounds.
  * Remove un-needed overrides.  Finish GUI.   Include time step in gui.
@@ -37,6 +49,18 @@ class KuramotoRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(), Diffe
             field = slope
         }
 
+    /**
+     * Coupling strength of all-to-all coupling among the oscillators of a [NeuronArray], computed from the array's
+     * order parameter. Counts as one more connection from every oscillator in the normalization.
+     */
+    @UserParameter(
+        label = "Global coupling",
+        description = "All-to-all coupling within a neuron array, computed in time linear in its size",
+        increment = .1,
+        order = 2
+    )
+    var globalCoupling: Double = 0.0
+
     /**
      * Noise generator.
      */
@@ -86,12 +110,70 @@ class KuramotoRule : NeuronUpdateRule<EmptyScalarData, EmptyMatrixData>(), Diffe
         neuron.activation = theta
     }
 
+    context(Network)
+    override fun apply(layer: Layer, dataHolder: EmptyMatrixData) {
+        if (layer !is NeuronArray) {
+            return
+        }
+        val theta = layer.activationArray
+        val n = theta.size
+        val sinTheta = DoubleArray(n) { sin(theta[it]) }
+        val cosTheta = DoubleArray(n) { cos(theta[it]) }
+        val sum = DoubleArray(n)
+        var fanIn = 0
+
+        /**
+         * Add Σ_j w_ij sin(θj − θi) given (W sin θ)_i and (W cos θ)_i.
+         */
+        fun addCoupling(weightedSin: (Int) -> Double, weightedCos: (Int) -> Double) {
+            for (i in 0 until n) {
+                sum[i] += cosTheta[i] * weightedSin(i) - sinTheta[i] * weightedCos(i)
+            }
+        }
+
+        for (connector in layer.incomingConnectors) {
+            if (connector !is WeightMatrix) {
+                continue
+            }
+            val sourceTheta = connector.source.activationArray
+            fanIn += sourceTheta.size
+            val sourceSin = if (connector.source === layer) sinTheta else DoubleArray(sourceTheta.size) { sin(sourceTheta[it]) }
+            val sourceCos = if (connector.source === layer) cosTheta else DoubleArray(sourceTheta.size) { cos(sourceTheta[it]) }
+            val uniformWeight = connector.uniformWeight
+            if (uniformWeight != null) {
+                val weightedSin = uniformWeight * sourceSin.sum()
+                val weightedCos = uniformWeight * sourceCos.sum()
+                addCoupling({ weightedSin }, { weightedCos })
+            } else {
+                val blockWeights = connector.blockWeights
+                val weightedSin = blockWeights?.mv(sourceSin) ?: connector.weightMatrix.mv(sourceSin)
+                val weightedCos = blockWeights?.mv(sourceCos) ?: connector.weightMatrix.mv(sourceCos)
+                addCoupling({ weightedSin[it] }, { weightedCos[it] })
+            }
+        }
+        if (globalCoupling != 0.0) {
+            fanIn += n
+            val weightedSin = globalCoupling * sinTheta.sum()
+            val weightedCos = globalCoupling * cosTheta.sum()
+            addCoupling({ weightedSin }, { weightedCos })
+        }
+
+        val normalization = if (fanIn > 0) fanIn.toDouble() else 1.0
+        for (i in 0 until n) {
+            layer.activations[i, 0] = (theta[i] + timeStep * (slope + sum[i] / normalization)) % (2 * Math.PI)
+        }
+    }
+
+    override val usesSummedInputs: Boolean
+        get() = false
+
     override val timeType: Network.TimeType
         get() = Network.TimeType.DISCRETE
 
     override fun copy(): KuramotoRule {
         val kr = KuramotoRule()
         kr.slope = slope
+        kr.globalCoupling = globalCoupling
         kr.isClipped = isClipped
         kr.addNoise = addNoise
         kr.upperBound = upperBound
@@ -1,7 +1,9 @@
 package org.simbrain.network.updaterules
 
+import org.simbrain.network.core.Layer
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.NeuronArray
 import org.simbrain.network.core.SpikingNeuronUpdateRule
 import org.simbrain.network.updaterules.interfaces.NoisyUpdateRule
 import org.simbrain.network.util.SpikingMatrixData
@@ -11,9 +13,12 @@ import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.stats.distributions.NormalDistribution
 
 /**
+ * Morris-Lecar neuron. The potassium gate w_K is kept per neuron in [MorrisLecarData] and, with the voltage,
+ * integrated with the exponential Euler scheme (see [integrateExponential]), optionally with adaptive sub-steps.
+ *
  * @author Zoë Tosi
  */
-class MorrisLecarRule : SpikingNeuronUpdateRule<MorrisLecarData, SpikingMatrixData>(), NoisyUpdateRule {
+class MorrisLecarRule : SpikingNeuronUpdateRule<MorrisLecarData, MorrisLecarMatrixData>(), NoisyUpdateRule {
     /**
      * Calcium channel conductance (micro Siemens/cm^2).
      */
@@ -184,6 +189,26 @@ class MorrisLecarRule : SpikingNeuronUpdateRule<MorrisLecarData, SpikingMatrixDa
     )
     private var threshold = 40.0
 
+    /**
+     * If true each time step is split into sub-steps sized to keep the integration error below
+     * [substepTolerance].
+     */
+    @UserParameter(
+        label = "Adaptive sub-steps",
+        description = "Split each time step into sub-steps sized to keep the integration error below the tolerance",
+        order = 16
+    )
+    var adaptiveSubsteps = false
+
+    @UserParameter(
+        label = "Sub-step tolerance",
+        description = "Largest allowed error per sub-step, in gating variable units (voltage in units of 100 mV)",
+        minimumValue = 0.0,
+        increment = .0001,
+        order = 17
+    )
+    var substepTolerance = 1e-4
+
     /**
      * Add noise to neuron.
      */
@@ -195,42 +220,62 @@ class MorrisLecarRule : SpikingNeuronUpdateRule<MorrisLecarData, SpikingMatrixDa
     override var noiseGenerator: ProbabilityDistribution = NormalDistribution(0.0, 1.0)
 
     context(Network)
-    override fun apply(neuron: Neuron, dat: MorrisLecarData) {
-        val data = dat as MorrisLecarData
-        val dt = timeStep
-        val i_syn = neuron.input
-        // Under normal circumstances this will cause no change.
-        var vMembrane = neuron.activation
-        val dVdt = dVdt(vMembrane, i_syn, data.w_K)
-        val dWdt = dWdt(vMembrane, data.w_K)
-        val vmFut = vMembrane + dt * dVdt
-        val wKFut = data.w_K + dt * dWdt
-        vMembrane = vMembrane + dt / 2 * (dVdt + dVdt(vmFut, i_syn, data.w_K))
-        data.w_K = data.w_K + dt / 2 * (dWdt + dWdt(vMembrane, wKFut))
-        neuron.isSpike = vMembrane > threshold
-        neuron.activation = vMembrane
-    }
-
-    private fun dVdt(vMembrane: Double, i_syn: Double, w_K: Double): Double {
-        val i_Ca = g_Ca * membraneFunction(vMembrane) * (vMembrane - vRest_Ca)
-        val i_K = g_K * w_K * (vMembrane - vRest_k)
-        val i_L = g_L * (vMembrane - vRest_L)
-        val i_ion = i_Ca + i_K + i_L
-        var i_noise = 0.0
-        if (addNoise) {
-            i_noise = noiseGenerator.sampleDouble()
+    override fun apply(neuron: Neuron, data: MorrisLecarData) {
+        val scratch = data.scratch
+        val state = scratch.state
+        state[0] = neuron.activation
+        state[1] = data.w_K
+        integrate(scratch, neuron.input, timeStep)
+        neuron.isSpike = state[0] > threshold
+        neuron.activation = state[0]
+        data.w_K = state[1]
+    }
+
+    context(Network)
+    override fun apply(layer: Layer, dataHolder: MorrisLecarMatrixData) {
+        if (layer is NeuronArray) {
+            val scratch = ExponentialScratch(2)
+            val state = scratch.state
+            for (i in 0 until layer.size) {
+                state[0] = layer.activations[i, 0]
+                state[1] = dataHolder.w_K[i]
+                integrate(scratch, layer.inputs[i, 0], timeStep)
+                dataHolder.setHasSpiked(i, state[0] > threshold)
+                layer.activations[i, 0] = state[0]
+                dataHolder.w_K[i] = state[1]
+            }
         }
-        return (i_bg - i_ion + i_syn + i_noise) / cMembrane
     }
 
-    private fun dWdt(vMembrane: Double, w_K: Double): Double {
-        return phi * lambdaFunction(vMembrane) * (k_fractionFunction(vMembrane) - w_K)
+    /**
+     * Advance a state (v, w_K) by dt with the given synaptic current.
+     */
+    private fun integrate(scratch: ExponentialScratch, i_syn: Double, dt: Double) {
+        val i_noise = if (addNoise) noiseGenerator.sampleDouble() else 0.0
+        val current = i_bg + i_syn + i_noise
+        integrateExponential(scratch, dt, if (adaptiveSubsteps) substepTolerance else null) { from, at, h, out ->
+            val v = at[0]
+            val gCa = g_Ca * membraneFunction(v)
+            val gK = g_K * at[1]
+            val gTotal = gCa + gK + g_L
+            out[0] = relax(
+                from[0],
+                (gCa * vRest_Ca + gK * vRest_k + g_L * vRest_L + current) / gTotal,
+                cMembrane / gTotal,
+                h
+            )
+            out[1] = relax(from[1], k_fractionFunction(v), 1 / (phi * lambdaFunction(v)), h)
+        }
     }
 
     override fun createScalarData(): MorrisLecarData {
         return MorrisLecarData()
     }
 
+    override fun createMatrixData(size: Int): MorrisLecarMatrixData {
+        return MorrisLecarMatrixData(size)
+    }
+
     private fun membraneFunction(vMembrane: Double): Double {
         return 0.5 * (1 + Math.tanh((vMembrane - v_m1) / v_m2))
     }
@@ -261,6 +306,8 @@ class MorrisLecarRule : SpikingNeuronUpdateRule<MorrisLecarData, SpikingMatrixDa
         cpy.vRest_k = vRest_k
         cpy.vRest_L = vRest_L
         cpy.noiseGenerator = noiseGenerator.copy()
+        cpy.adaptiveSubsteps = adaptiveSubsteps
+        cpy.substepTolerance = substepTolerance
         return cpy
     }
 
@@ -389,7 +436,25 @@ class MorrisLecarData(
     @UserParameter(label = "w_K", description = "Fraction of open potassium channels")
     var w_K: Double = 0.0,
 ) : SpikingScalarData() {
+
+    @Transient
+    private var _scratch: ExponentialScratch? = null
+
+    /**
+     * Work arrays for integrating this neuron, created on first use.
+     */
+    internal val scratch get() = _scratch ?: ExponentialScratch(2).also { _scratch = it }
+
     override fun copy(): MorrisLecarData {
         return MorrisLecarData(w_K)
     }
-}
\ No newline at end of file
+}
+
+class MorrisLecarMatrixData(size: Int) : SpikingMatrixData(size) {
+    @UserParameter(label = "w_K", description = "Fraction of open potassium channels")
+    var w_K = DoubleArray(size)
+    override fun copy() = MorrisLecarMatrixData(size).also {
+        commonCopy(it)
+        it.w_K = w_K.copyOf()
+    }
+}
@@ -195,6 +195,13 @@ abstract class NeuronUpdateRule<out DS : ScalarDataHolder, out DM : MatrixDataHo
     open val isSpikingRule: Boolean
         get() = false
 
+    /**
+     * False for rules that read their incoming connectors directly when applied to a layer (e.g. [KuramotoRule]), so
+     * that [NeuronArray] can skip computing post-synaptic responses that would not be used.
+     */
+    open val usesSummedInputs: Boolean
+        get() = true
+
     open fun getGraphicalValue(n: Neuron): Double {
         return n.activation
     }
@@ -57,7 +57,7 @@ class StochasticRule : SpikingNeuronUpdateRule<SpikingScalarData, SpikingMatrixD
 
     context(Network)
     override fun apply(neuron: Neuron, data: SpikingScalarData) {
-        val rand = Math.random()
+        val rand = random.nextDouble()
         if (rand > 1 - firingProbability) {
             neuron.isSpike = true
             neuron.activation = 1.0
@@ -58,9 +58,14 @@ class ProjectionDesktopComponent(frame: GenericFrame, component: ProjectionCompo
         if (!running) {
             running = true
             projector.events.startIterating.fire()
-            launch {
-                while (running) {
-                    iterate()
+            val projection = projector.projectionMethod
+            if (projection is BackgroundProjectionMethod && projection.runsInBackground) {
+                projection.startBackground(projector)
+            } else {
+                launch {
+                    while (running) {
+                        iterate()
+                    }
                 }
             }
         }
@@ -319,6 +324,7 @@ class ProjectionDesktopComponent(frame: GenericFrame, component: ProjectionCompo
 
     private fun stopIterating() {
         running = false
+        (projector.projectionMethod as? BackgroundProjectionMethod)?.stopBackground()
         projector.events.stopIterating.fire()
     }
 
@@ -0,0 +1,308 @@
+package org.simbrain.util
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.simbrain.world.textworld.TokenEmbedding
+import java.io.Reader
+import java.io.StringReader
+
+/**
+ * Builds a sparse co-occurrence embedding from a stream of text, for corpora whose vocabulary is too large for
+ * [generateCooccurrenceMatrix], which builds a dense vocabulary-by-vocabulary matrix.
+ *
+ * Text is read in chunks, so the document is never held in memory. Words are lower cased, punctuation is removed,
+ * and sentences end at '.', '!' or '?' followed by whitespace. Each new word is interned to an integer id (ids are in
+ * order of first appearance) and pair counts are kept in a primitive hash table, so memory grows with the number of
+ * distinct co-occurring pairs rather than with the square of the vocabulary.
+ *
+ * Window semantics are the same as [generateCooccurrenceMatrix].
+ *
+ * @param windowSize how many words before (and after, if [bidirectional]) a word are counted as its context.
+ * @param bidirectional if true, context includes words after a word as well as before it.
+ * @param usePPMI if true weight counts as in [manualPPMI].
+ * @param removeStopwords if true stopwords are dropped from the text before counting.
+ * @param parallel if true sentences are counted in shards on background threads while the text is still being read.
+ * @param sentencesPerShard number of sentences per shard when [parallel] is true.
+ */
+class CooccurrenceBuilder @JvmOverloads constructor(
+    val windowSize: Int = 2,
+    val bidirectional: Boolean = false,
+    val usePPMI: Boolean = true,
+    val removeStopwords: Boolean = false,
+    val parallel: Boolean = false,
+    val sentencesPerShard: Int = 10_000,
+    val chunkSize: Int = 64 * 1024
+) {
+
+    init {
+        if (windowSize <= 0) throw IllegalArgumentException("windowsize must be greater than 0")
+        if (sentencesPerShard <= 0) throw IllegalArgumentException("sentencesPerShard must be greater than 0")
+    }
+
+    /**
+     * Reads all text from [reader] (without closing it) and returns the resulting embedding.
+     */
+    fun build(reader: Reader): TokenEmbedding {
+        val vocabulary = Vocabulary(if (removeStopwords) stopWords.filter { it.isNotBlank() }.toHashSet() else setOf())
+        val counts = if (parallel) countParallel(reader, vocabulary) else countSerial(reader, vocabulary)
+        val cooccurrences = counts.toSparseRowMatrix(vocabulary.size)
+        return TokenEmbedding(
+            vocabulary.tokens,
+            if (usePPMI) manualPPMI(cooccurrences) else cooccurrences
+        )
+    }
+
+    fun build(docString: String) = build(StringReader(docString))
+
+    private fun countSerial(reader: Reader, vocabulary: Vocabulary): PairCounts {
+        val counts = PairCounts()
+        readSentences(reader, vocabulary) { ids, length -> countSentence(ids, 0, length, counts) }
+        return counts
+    }
+
+    /**
+     * Sentences are tokenized on the calling thread (ids must be assigned in order) and handed off in shards to one
+     * worker per processor. Each worker owns its counts, which are merged at the end.
+     */
+    private fun countParallel(reader: Reader, vocabulary: Vocabulary): PairCounts = runBlocking {
+        val workerCount = Runtime.getRuntime().availableProcessors()
+        val shards = Channel<Shard>(workerCount)
+        val workers = (0 until workerCount).map {
+            async(Dispatchers.Default) {
+                val counts = PairCounts()
+                for (shard in shards) {
+                    for (s in 0 until shard.sentenceCount) {
+                        countSentence(shard.ids, shard.startOf(s), shard.sentenceEnds[s], counts)
+                    }
+                }
+                counts
+            }
+        }
+        launch(Dispatchers.Default) {
+            var shard = Shard(sentencesPerShard)
+            readSentences(reader, vocabulary) { ids, length ->
+                shard.add(ids, length)
+                if (shard.sentenceCount == sentencesPerShard) {
+                    shards.send(shard)
+                    shard = Shard(sentencesPerShard)
+                }
+            }
+            if (shard.sentenceCount > 0) shards.send(shard)
+            shards.close()
+        }.join()
+        workers.awaitAll().reduce { merged, counts -> merged.apply { addAll(counts) } }
+    }
+
+    private fun countSentence(ids: IntArray, start: Int, end: Int, counts: PairCounts) {
+        for (i in start until end) {
+            val lower = maxOf(start, i - windowSize)
+            val upper = if (bidirectional) minOf(end - 1, i + windowSize) else i - 1
+            for (j in lower..upper) {
+                if (j != i) counts.increment(ids[i], ids[j])
+            }
+        }
+    }
+
+    /**
+     * Reads [reader] chunk by chunk, calling [onSentence] with the ids of each sentence, which are the first length
+     * entries of the passed array. The array is reused between calls.
+     */
+    private inline fun readSentences(
+        reader: Reader,
+        vocabulary: Vocabulary,
+        onSentence: (ids: IntArray, length: Int) -> Unit
+    ) {
+        val buffer = CharArray(chunkSize)
+        val tokenizer = SentenceTokenizer(vocabulary)
+        while (true) {
+            val read = reader.read(buffer)
+            if (read < 0) break
+            for (k in 0 until read) {
+                if (tokenizer.accept(buffer[k])) {
+                    onSentence(tokenizer.ids, tokenizer.length)
+                    tokenizer.length = 0
+                }
+            }
+        }
+        if (tokenizer.finish()) onSentence(tokenizer.ids, tokenizer.length)
+    }
+
+    /**
+     * Splits characters into words and sentences, accumulating the ids of the current sentence.
+     */
+    private class SentenceTokenizer(val vocabulary: Vocabulary) {
+        var ids = IntArray(256)
+        var length = 0
+        private val word = StringBuilder()
+
+        // A sentence terminator was just seen; the sentence ends if whitespace (or the end of the text) follows
+        private var pendingEnd = false
+
+        /**
+         * Returns true if the character completes a sentence.
+         */
+        fun accept(c: Char): Boolean {
+            if (Character.isWhitespace(c)) {
+                endWord()
+                val sentenceEnded = pendingEnd && length > 0
+                pendingEnd = false
+                return sentenceEnded
+            }
+            pendingEnd = c == '.' || c == '!' || c == '?'
+            if (!c.isAsciiPunctuation()) word.append(c.lowercaseChar())
+            return false
+        }
+
+        /**
+         * Ends the text, returning true if there is a final sentence.
+         */
+        fun finish(): Boolean {
+            endWord()
+            return length > 0
+        }
+
+        private fun endWord() {
+            if (word.isEmpty()) return
+            val id = vocabulary.intern(word)
+            word.setLength(0)
+            if (id < 0) return
+            if (length == ids.size) ids = ids.copyOf(ids.size * 2)
+            ids[length++] = id
+        }
+    }
+
+    /**
+     * Maps words to ids in order of first appearance. Stopwords map to -1.
+     */
+    private class Vocabulary(val stopwords: Set<String>) {
+        val ids = HashMap<String, Int>()
+        val tokens = ArrayList<String>()
+        val size get() = tokens.size
+
+        fun intern(word: CharSequence): Int {
+            val token = word.toString()
+            return ids.getOrPut(token) {
+                if (token in stopwords) -1 else tokens.size.also { tokens.add(token) }
+            }
+        }
+    }
+
+    /**
+     * Sentences of word ids stored end to end.
+     */
+    private class Shard(capacity: Int) {
+        var ids = IntArray(capacity * 16)
+        var length = 0
+        val sentenceEnds = IntArray(capacity)
+        var sentenceCount = 0
+
+        fun add(sentence: IntArray, sentenceLength: Int) {
+            if (length + sentenceLength > ids.size) ids = ids.copyOf(maxOf(ids.size * 2, length + sentenceLength))
+            System.arraycopy(sentence, 0, ids, length, sentenceLength)
+            length += sentenceLength
+            sentenceEnds[sentenceCount++] = length
+        }
+
+        fun startOf(s: Int) = if (s == 0) 0 else sentenceEnds[s - 1]
+    }
+}
+
+private fun Char.isAsciiPunctuation() = this in '!'..'/' || this in ':'..'@' || this in '['..'`' || this in '{'..'~'
+
+/**
+ * Counts of (row, column) id pairs in an open addressing hash table keyed by both ids packed into a long.
+ */
+private class PairCounts(initialCapacity: Int = 1 shl 12) {
+
+    private var keys = LongArray(initialCapacity).apply { fill(EMPTY) }
+    private var counts = IntArray(initialCapacity)
+    private var mask = initialCapacity - 1
+
+    var size = 0
+        private set
+
+    fun increment(row: Int, column: Int) = add(pack(row, column), 1)
+
+    fun addAll(other: PairCounts) {
+        for (slot in other.keys.indices) {
+            if (other.keys[slot] != EMPTY) add(other.keys[slot], other.counts[slot])
+        }
+    }
+
+    private fun add(key: Long, count: Int) {
+        var slot = slotOf(key)
+        while (true) {
+            val existing = keys[slot]
+            if (existing == key) {
+                counts[slot] += count
+                return
+            }
+            if (existing == EMPTY) {
+                keys[slot] = key
+                counts[slot] = count
+                if (++size * 2 > keys.size) grow()
+                return
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    private fun slotOf(key: Long) = ((key * -0x61c8864680b583ebL) ushr 32).toInt() and mask
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldCounts = counts
+        keys = LongArray(oldKeys.size * 2).apply { fill(EMPTY) }
+        counts = IntArray(oldKeys.size * 2)
+        mask = keys.size - 1
+        for (i in oldKeys.indices) {
+            val key = oldKeys[i]
+            if (key == EMPTY) continue
+            var slot = slotOf(key)
+            while (keys[slot] != EMPTY) slot = (slot + 1) and mask
+            keys[slot] = key
+            counts[slot] = oldCounts[i]
+        }
+    }
+
+    /**
+     * Sorting the packed keys orders entries by row and then by column, which is CSR order.
+     */
+    fun toSparseRowMatrix(dimension: Int): SparseRowMatrix {
+        val order = LongArray(size)
+        var n = 0
+        for (slot in keys.indices) {
+            if (keys[slot] != EMPTY) order[n++] = keys[slot]
+        }
+        order.sort()
+        val rowPointers = IntArray(dimension + 1)
+        val columns = IntArray(size)
+        val values = DoubleArray(size)
+        for (k in order.indices) {
+            val key = order[k]
+            val row = (key ushr 32).toInt()
+            columns[k] = key.toInt()
+            values[k] = counts[find(key)].toDouble()
+            rowPointers[row + 1]++
+        }
+        for (i in 0 until dimension) {
+            rowPointers[i + 1] += rowPointers[i]
+        }
+        return SparseRowMatrix(dimension, dimension, rowPointers, columns, values)
+    }
+
+    private fun find(key: Long): Int {
+        var slot = slotOf(key)
+        while (keys[slot] != key) slot = (slot + 1) and mask
+        return slot
+    }
+
+    companion object {
+        const val EMPTY = -1L
+        fun pack(row: Int, column: Int) = (row.toLong() shl 32) or column.toLong()
+    }
+}
@@ -14,6 +14,8 @@ import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.atomic.AtomicLong
 import java.util.function.BiConsumer
 import java.util.function.Consumer
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.system.measureNanoTime
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.nanoseconds
@@ -37,6 +39,11 @@ import kotlin.time.Duration.Companion.seconds
  *
  * `fireAndBlock()` is an adapter which allows events to be fired outside of suspend functions.
  *
+ * Non-suspending handlers registered without a dispatcher (Java handlers, and Kotlin handlers of changed events) are
+ * run directly on the firing thread, and an event with just one such handler is fired without launching anything.
+ * Within [coalesce], as during a network update, repeated fires of a no-arg or changed event on the same thread are
+ * merged into one.
+ *
  * When handling a large number of events (for example, updating a thousand synapses, each of which triggers
  * a screen refresh), throttling and debouncing can be enabled. For this set `interval` to a value greater than 0.
  * See [here](https://css-tricks.com/debouncing-throttling-explained-examples/). If (as in the synapse -> screen refresh case), not
@@ -50,14 +57,21 @@ import kotlin.time.Duration.Companion.seconds
  */
 open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
 
-    private val job = SupervisorJob()
+    /**
+     * Created on first use, so that models whose events are never listened to do not each own a job.
+     */
+    @Volatile
+    private var context: CoroutineContext? = null
 
-    override val coroutineContext = Dispatchers.Default + job
+    override val coroutineContext: CoroutineContext
+        get() = context ?: synchronized(this) {
+            context ?: (Dispatchers.Default + SupervisorJob()).also { context = it }
+        }
 
     /**
-     * Associates events to their listeners
+     * Name under which handler fan-out is timed by [UpdateTelemetry].
      */
-    private val eventMapping = HashMap<EventObject, ConcurrentLinkedQueue<EventObjectHandler>>()
+    private val telemetryName: String = javaClass.simpleName
 
     enum class TimingMode {
         Throttle, Debounce
@@ -79,48 +93,86 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
 
         private var shouldClearQueue: Boolean = false
 
+        /**
+         * Registered handlers. Replaced rather than modified when handlers are added or removed, so that a fire reads
+         * a consistent snapshot without locking or allocating.
+         */
+        @Volatile
+        private var handlers: Array<EventObjectHandler> = noHandlers
+
+        private fun addHandler(eventObjectHandler: EventObjectHandler): () -> Boolean? {
+            synchronized(this) {
+                handlers += eventObjectHandler
+            }
+            return {
+                synchronized(this) {
+                    val index = handlers.indexOf(eventObjectHandler)
+                    if (index >= 0) {
+                        handlers = handlers.filterIndexed { i, _ -> i != index }.toTypedArray()
+                    }
+                    index >= 0
+                }
+            }
+        }
+
         /**
          * Helper function for registering suspending event handlers.
          *
          * @return A function that can be called to unregister the event handler.
          */
         protected fun onSuspendHelper(dispatcher: CoroutineDispatcher?, wait: Boolean, run: suspend (new: Any?, old: Any?) -> Unit): () -> Boolean? {
-            val eventObjectHandler = EventObjectHandler(dispatcher, wait, run)
-            eventMapping.getOrPut(this@EventObject) { ConcurrentLinkedQueue() }.add(eventObjectHandler)
-            return {
-                eventMapping[this@EventObject]?.remove(eventObjectHandler)
-            }
+            return addHandler(EventObjectHandler(dispatcher, wait, run))
         }
 
         /**
-         * Helper function for registering non-suspending event handlers.
+         * Helper function for registering non-suspending event handlers. Without a dispatcher these are run directly
+         * on the firing thread.
          *
          * @return A function that can be called to unregister the event handler.
          */
         protected fun onHelper(dispatcher: CoroutineDispatcher?, wait: Boolean, run: (new: Any?, old: Any?) -> Unit): () -> Boolean? {
-            val eventObjectHandler = EventObjectHandler(dispatcher, wait, run)
-            eventMapping.getOrPut(this@EventObject) { ConcurrentLinkedQueue() }.add(eventObjectHandler)
-            return {
-                eventMapping[this@EventObject]?.remove(eventObjectHandler)
-            }
+            return addHandler(EventObjectHandler(dispatcher, wait, { new, old -> run(new, old) }, blockingHandler = run))
+        }
 
+        /**
+         * Whether a fire with these arguments should reach the handlers.
+         */
+        protected open fun shouldFire(new: Any?, old: Any?) = true
+
+        /**
+         * Run a non-suspending handler on this thread. As with a launched handler, an exception is reported rather
+         * than thrown to the code that fired the event.
+         */
+        private fun runBlockingHandler(handler: (new: Any?, old: Any?) -> Unit, new: Any?, old: Any?) {
+            try {
+                handler(new, old)
+            } catch (e: Throwable) {
+                val thread = Thread.currentThread()
+                thread.uncaughtExceptionHandler.uncaughtException(thread, e)
+            }
         }
 
         /**
-         * The main event handling code is here. All other fire functions should route through this one.
+         * The main event handling code is here. All other fire functions should route through this one. Returns the
+         * jobs of the handlers that were launched and not already waited for.
          */
-        private suspend fun runAllHandlers(run: suspend (suspend (new: Any?, old: Any?) -> Unit) -> Unit) = eventMapping[this@EventObject]
-            ?.map { (dispatcher, wait, handler, stackTrace) ->
+        private suspend fun runAllHandlers(new: Any?, old: Any?): List<Job> {
+            val handlers = handlers
+            val jobs = ArrayList<Job>(handlers.size)
+            for (eventObjectHandler in handlers) {
+                val (dispatcher, wait, handler, stackTrace, blockingHandler) = eventObjectHandler
                 try {
-                    suspend fun runAll() = if (dispatcher != null) {
-                        launch(dispatcher) { run(handler) }.let { if (wait) withTimeout(timeout) { it.join() } else it }
+                    suspend fun runAll(): Job? = if (blockingHandler != null && dispatcher == null) {
+                        runBlockingHandler(blockingHandler, new, old)
+                        null
                     } else {
-                        launch { run(handler) }.let { if (wait) withTimeout(timeout) { it.join() } else it }
+                        launch(dispatcher ?: EmptyCoroutineContext) { handler(new, old) }
+                            .let { if (wait) { withTimeout(timeout) { it.join() }; null } else it }
                     }
-                    if (!useEventDebug) {
+                    val job = if (!useEventDebug) {
                         runAll()
                     } else {
-                        var result: Any? = null
+                        var result: Job? = null
                         val nanoTime = measureNanoTime {
                             result = runAll()
                         }
@@ -133,17 +185,58 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                         ))
                         result
                     }
+                    job?.let { jobs.add(it) }
                 } catch (e: TimeoutCancellationException) {
                     throw IllegalStateException("Event time out on dispatcher $dispatcher. Event handler created by ${stackTrace.contentDeepToString()}")
                 }
-            }?.filterIsInstance<Job>()
+            }
+            return jobs
+        }
+
+        /**
+         * Fire the event, or while a [coalesce] block is running on this thread, record it to be fired once when the
+         * block ends. Fires that may be waited on by a handler (`wait = true`) and throttled or debounced events are
+         * not coalesced.
+         */
+        protected fun coalesceOrFire(new: Any?, old: Any?): Deferred<Boolean> {
+            if (handlers.isEmpty() || !shouldFire(new, old)) return completed
+            if (interval == 0 && handlers.none { it.wait }) {
+                val state = coalesceState.get()
+                if (state.depth > 0) {
+                    // The first old value is kept and the new value replaced
+                    state.pending.getOrPut(this) { arrayOf(null, old) }[0] = new
+                    return completed
+                }
+            }
+            return fireAllHelper(new, old)
+        }
+
+        /**
+         * Fire without coalescing, for callers that wait on the result.
+         */
+        protected fun fireNow(new: Any?, old: Any?) = if (shouldFire(new, old)) fireAllHelper(new, old) else completed
+
+        internal fun fireCoalesced(new: Any?, old: Any?) {
+            fireNow(new, old)
+        }
 
-        protected fun fireAllHelper(run: suspend (suspend (new: Any?, old: Any?) -> Unit) -> Unit): Deferred<Boolean> {
-            if (eventMapping[this@EventObject].isNullOrEmpty()) return CompletableDeferred(true)
+        protected fun fireAllHelper(new: Any?, old: Any?): Deferred<Boolean> {
+            val handlers = handlers
+            if (handlers.isEmpty()) return completed
             val now = System.currentTimeMillis()
             if (interval == 0) {
+                val blockingHandler = handlers.singleOrNull()?.takeIf { it.dispatcher == null }?.blockingHandler
+                if (blockingHandler != null && !useEventDebug) {
+                    // Common case of one plain listener: no coroutine is needed
+                    UpdateTelemetry.measure(UpdatePhase.Events, telemetryName) {
+                        runBlockingHandler(blockingHandler, new, old)
+                    }
+                    return completed
+                }
                 return async {
-                    runAllHandlers(run)?.joinAll()
+                    UpdateTelemetry.measure(UpdatePhase.Events, telemetryName) {
+                        runAllHandlers(new, old).joinAll()
+                    }
                     true
                 }
             }
@@ -152,7 +245,7 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                     mutex.withLock {
                         if (now >= intervalEndTime) {
                             intervalEndTime = now + interval
-                            runAllHandlers(run)
+                            runAllHandlers(new, old)
                             true
                         } else {
                             false
@@ -165,7 +258,7 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                     mutex.withLock {
                         val seqNow = debounceCounter.get()
                         if (seq == seqNow) {
-                            runAllHandlers(run)
+                            runAllHandlers(new, old)
                             true
                         } else {
                             false
@@ -188,7 +281,9 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
             old?.let { batchOld.add(it) }
             if (interval == 0) {
                 mutex.withLock {
-                    runAllHandlers { handler -> handler(batchNew, batchOld) }?.joinAll()
+                    UpdateTelemetry.measure(UpdatePhase.Events, telemetryName) {
+                        runAllHandlers(batchNew, batchOld).joinAll()
+                    }
                     shouldClearQueue = true
                     true
                 }
@@ -198,7 +293,7 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                         mutex.withLock {
                             if (now >= intervalEndTime) {
                                 intervalEndTime = now + interval
-                                runAllHandlers { handler -> handler(batchNew, batchOld) }?.joinAll()
+                                runAllHandlers(batchNew, batchOld).joinAll()
                                 shouldClearQueue = true
                                 true
                             } else {
@@ -212,7 +307,7 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                         mutex.withLock {
                             val seqNow = debounceCounter.get()
                             if (seq == seqNow) {
-                                runAllHandlers { handler -> handler(batchNew, batchOld) }?.joinAll()
+                                runAllHandlers(batchNew, batchOld).joinAll()
                                 shouldClearQueue = true
                                 true
                             } else {
@@ -262,13 +357,13 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
         /**
          * Like java fireAndBlock() but suspends rather than blocking, so that the GUI remains responsive.
          */
-        fun fire() = fireAllHelper { handler -> handler(null, null) }
+        fun fire() = coalesceOrFire(null, null)
 
         /**
          * Java fire and block. Fire event and wait for it to terminate before continuing.
          */
         fun fireAndBlock() = runBlocking {
-            printTiming { fire().await() }
+            printTiming { fireNow(null, null).await() }
         }
 
     }
@@ -289,7 +384,7 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                 new, _ -> handler.accept(new as T)
         }
 
-        fun fire(new: T) = fireAllHelper { handler -> handler(new, null) }
+        fun fire(new: T) = fireAllHelper(new, null)
 
         fun fireAndBlock(new: T) = runBlocking {
             printTiming { fire(new).await() }
@@ -331,7 +426,7 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
 
         @Suppress("UNCHECKED_CAST")
 
-        fun on(dispatcher: CoroutineDispatcher? = null, wait: Boolean = false, handler: (new: T, old: T) -> Unit) = onSuspendHelper(dispatcher, wait) {
+        fun on(dispatcher: CoroutineDispatcher? = null, wait: Boolean = false, handler: (new: T, old: T) -> Unit) = onHelper(dispatcher, wait) {
                 new, old -> handler(new as T, old as T)
         }
 
@@ -341,10 +436,12 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
                 new, old -> handler.accept(new as T, old as T)
         }
 
-        fun fire(new: T, old: T) = fireAllHelper { handler -> if (new != old) handler(new, old) }
+        fun fire(new: T, old: T) = coalesceOrFire(new, old)
+
+        override fun shouldFire(new: Any?, old: Any?) = new != old
 
         fun fireAndBlock(new: T, old: T) = runBlocking {
-            printTiming { fire(new, old).await() }
+            printTiming { fireNow(new, old).await() }
         }
 
     }
@@ -375,13 +472,72 @@ open class Events(val timeout: Duration = 5.seconds): CoroutineScope {
         }
     }
 
+    companion object {
+
+        private val noHandlers = arrayOf<EventObjectHandler>()
+
+        private val completed: Deferred<Boolean> = CompletableDeferred(true)
+
+        /**
+         * Coalescing is per thread, so that fires from other threads (another network, a GUI action, a worker) are
+         * dispatched as usual while a network is updating.
+         */
+        private val coalesceState = ThreadLocal.withInitial { CoalesceState() }
+
+        /**
+         * Run [block], merging repeated fires of the same no-arg or changed event on this thread into one fire when
+         * the outermost coalesce block ends. A changed event is then fired with its first old value and last new
+         * value, and not at all if they are equal. Used around a network update, where e.g. a model can fire
+         * `updated` several times.
+         *
+         * Coalesced fires return an already completed result, so nothing inside the block can wait on them. Fires
+         * from other threads are not affected.
+         */
+        fun <T> coalesce(block: () -> T): T {
+            val state = coalesceState.get()
+            state.depth++
+            try {
+                return block()
+            } finally {
+                if (--state.depth == 0) {
+                    flushPending(state)
+                }
+            }
+        }
+
+        private fun flushPending(state: CoalesceState) {
+            while (state.pending.isNotEmpty()) {
+                val iterator = state.pending.entries.iterator()
+                val (event, values) = iterator.next()
+                iterator.remove()
+                event.fireCoalesced(values[0], values[1])
+            }
+        }
+    }
+}
+
+/**
+ * Fires recorded by the [Events.coalesce] blocks running on one thread.
+ */
+private class CoalesceState {
+    var depth = 0
+
+    /**
+     * Events to fire when the outermost block ends, in order of their first fire, each with its latest new value and
+     * first old value.
+     */
+    val pending = LinkedHashMap<Events.EventObject, Array<Any?>>()
 }
 
 data class EventObjectHandler(
     val dispatcher: CoroutineDispatcher?,
     val wait: Boolean,
     val handler: suspend (new: Any?, old: Any?) -> Unit,
-    val stackTraceElements: Array<StackTraceElement>? = if (useEventDebug) Thread.getAllStackTraces()[Thread.currentThread()] else null
+    val stackTraceElements: Array<StackTraceElement>? = if (useEventDebug) Thread.getAllStackTraces()[Thread.currentThread()] else null,
+    /**
+     * The handler itself when it does not suspend, so that it can be called without a coroutine.
+     */
+    val blockingHandler: ((new: Any?, old: Any?) -> Unit)? = null
 ) {
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
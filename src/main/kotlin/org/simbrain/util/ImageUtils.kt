@@ -31,12 +31,83 @@ fun Double.toSimbrainColor() = toFloat().toSimbrainColor()
 /**
  * Convert array of float values to array of RGB color values.
  */
-fun FloatArray.toSimbrainColor() = map { it.toSimbrainColor() }.toIntArray()
+fun FloatArray.toSimbrainColor() = IntArray(size) { this[it].toSimbrainColor() }
 
 /**
  * Convert array of double values to array of RGB color values.
  */
-fun DoubleArray.toSimbrainColor() = map { it.toSimbrainColor() }.toIntArray()
+fun DoubleArray.toSimbrainColor() = IntArray(size) { this[it].toSimbrainColor() }
+
+/**
+ * Simbrain colors of values evenly spaced over -1..1, so that images redrawn every update can be colored without
+ * an HSB conversion per pixel.
+ */
+object SimbrainColorTable {
+
+    private const val SIZE = 1025
+
+    private val colors = IntArray(SIZE) { (-1.0f + 2.0f * it / (SIZE - 1)).toSimbrainColor() }
+
+    /**
+     * RGB color of the table entry nearest to [value]. Values outside -1..1 are clipped.
+     */
+    fun rgb(value: Double): Int {
+        val index = ((value + 1) * ((SIZE - 1) / 2.0) + 0.5).toInt()
+        return colors[index.coerceIn(0, SIZE - 1)]
+    }
+}
+
+/**
+ * An image backed by an int array of pixels that can be written in place, so that it can be redrawn every update
+ * without allocating. Opaque images are 24-bit RGB; transparent ones are ARGB.
+ */
+class PixelImage(val width: Int, val height: Int, val transparent: Boolean = false) {
+
+    val pixels = IntArray(width * height)
+
+    val image: BufferedImage = run {
+        val colorModel = if (transparent) {
+            DirectColorModel(32, 0xff0000, 0x00ff00, 0x0000ff, 0xff shl 24)
+        } else {
+            DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff)
+        }
+        val sampleModel = colorModel.createCompatibleSampleModel(width, height)
+        val raster = Raster.createWritableRaster(sampleModel, DataBufferInt(pixels, pixels.size), null)
+        BufferedImage(colorModel, raster, false, null)
+    }
+
+    /**
+     * Color the first [size] pixels with the Simbrain colors of [value] and any remaining pixels light gray, as in
+     * [DoubleArray.toSimbrainColorImage].
+     */
+    inline fun renderSimbrainColors(size: Int, value: (Int) -> Double) {
+        val n = min(size, pixels.size)
+        for (i in 0 until n) {
+            pixels[i] = SimbrainColorTable.rgb(value(i))
+        }
+        if (n < pixels.size) {
+            pixels.fill(Color.lightGray.rgb, n, pixels.size)
+        }
+    }
+
+    /**
+     * Set pixels to [color] where [mask] is true and to transparent elsewhere, as in [BooleanArray.toOverlay].
+     */
+    fun renderOverlay(mask: BooleanArray, color: Color) {
+        val rgb = color.rgb
+        val n = min(mask.size, pixels.size)
+        for (i in 0 until n) {
+            pixels[i] = if (mask[i]) rgb else 0
+        }
+    }
+}
+
+/**
+ * This image if it has the given size and transparency, otherwise a new one.
+ */
+fun PixelImage?.reuse(width: Int, height: Int, transparent: Boolean = false) =
+    this?.takeIf { it.width == width && it.height == height && it.transparent == transparent }
+        ?: PixelImage(width, height, transparent)
 
 /**
  * Converts a double array to matrix representation (as a Buffered Image) with a specified width and height, in pixels.
@@ -266,9 +337,16 @@ fun Matrix.toScaledImageData(imageWidth: Int, imageHeight: Int, scale: Double):
     return flatten().toScaledImageData(imageWidth, imageHeight, ncol(), nrow(), scale)
 }
 
+/**
+ * Number of pixels along one side of an image of an array with [arraySize] entries along that side, displayed
+ * [imageSize] units wide at the given scale. At most one pixel per entry, and no more than [weightMatrixImageMaxSize].
+ */
+fun scaledImageSize(imageSize: Int, arraySize: Int, scale: Double) =
+    (imageSize * scale).coerceIn(1.0, min(arraySize, weightMatrixImageMaxSize).toDouble()).toInt()
+
 fun DoubleArray.toScaledImageData(imageWidth: Int, imageHeight: Int, arrayWidth: Int, arrayHeight: Int, scale: Double): ImageData {
-    val width = (imageWidth * scale).coerceIn(1.0, min(arrayWidth, weightMatrixImageMaxSize).toDouble()).toInt()
-    val height = (imageHeight * scale).coerceIn(1.0, min(arrayHeight, weightMatrixImageMaxSize).toDouble()).toInt()
+    val width = scaledImageSize(imageWidth, arrayWidth, scale)
+    val height = scaledImageSize(imageHeight, arrayHeight, scale)
 
     val imageBound = Rectangle2D.Double(0.0, 0.0, width.toDouble(), height.toDouble())
     val matrixBound = Rectangle2D.Double(0.0, 0.0, arrayWidth.toDouble(), arrayHeight.toDouble())
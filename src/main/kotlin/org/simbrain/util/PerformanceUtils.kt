@@ -1,20 +1,306 @@
 package org.simbrain.util
 
-val counters = HashMap<String, Int>()
+import jdk.jfr.*
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
 
 /**
  * Utilities for performance tuning.
  */
 
+private val counters = ConcurrentHashMap<String, LongAdder>()
+
 /**
- * Count the number of times an event (labelled by a string) occurs.
- * Call e.g. with count("neuron.setLocation").  Get the count with
- * getCounters().get("neuron.setLocation").
+ * Count the number of times an event (labelled by a string) occurs. Safe to call from any thread.
+ * Call e.g. with count("neuron.setLocation").  Get the count with getCount("neuron.setLocation").
  */
 fun count(name: String) {
-    if (counters.containsKey(name)) {
-        counters[name] = counters[name]!! + 1
-    } else {
-        counters[name] = 1
+    counters.computeIfAbsent(name) { LongAdder() }.increment()
+}
+
+fun getCount(name: String): Long = counters[name]?.sum() ?: 0
+
+fun resetCounters() = counters.clear()
+
+/**
+ * The parts of a workspace update that are timed by [UpdateTelemetry].
+ */
+enum class UpdatePhase {
+    /**
+     * One pass over all couplings.
+     */
+    Couplings,
+
+    /**
+     * One call to update a workspace component.
+     */
+    Component,
+
+    /**
+     * An action in the workspace update manager.
+     */
+    WorkspaceAction,
+
+    /**
+     * An action in a network's update manager.
+     */
+    NetworkAction,
+
+    /**
+     * Running the handlers of a fired event.
+     */
+    Events,
+
+    /**
+     * Saving or loading a workspace or one of its components.
+     */
+    Serialization
+}
+
+/**
+ * Histogram of durations in nanoseconds that can be recorded into from many threads without locking.
+ *
+ * Buckets are log-linear as in HdrHistogram: each power of two is split into [SUB_BUCKETS] equal buckets, so a
+ * reported percentile is within 1 / [SUB_BUCKETS] of the true value at any scale, and recording is a couple of
+ * atomic increments.
+ */
+class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(64 * SUB_BUCKETS)
+
+    private val total = LongAdder()
+
+    private val maximum = AtomicLong()
+
+    val count get() = buckets.let { b -> (0 until b.length()).sumOf { b[it] } }
+
+    /**
+     * Mean duration in nanoseconds.
+     */
+    val mean get() = count.let { if (it == 0L) 0.0 else total.sum().toDouble() / it }
+
+    /**
+     * Longest duration in nanoseconds.
+     */
+    val max get() = maximum.get()
+
+    fun record(nanos: Long) {
+        val value = nanos.coerceAtLeast(0)
+        buckets.incrementAndGet(bucketIndex(value))
+        total.add(value)
+        maximum.accumulateAndGet(value) { a, b -> maxOf(a, b) }
+    }
+
+    /**
+     * The duration in nanoseconds below which the given fraction (between 0 and 1) of recorded durations fall.
+     */
+    fun percentile(fraction: Double): Long {
+        val counts = LongArray(buckets.length()) { buckets[it] }
+        val n = counts.sum()
+        if (n == 0L) {
+            return 0
+        }
+        val rank = maxOf(1L, kotlin.math.ceil(fraction * n).toLong())
+        var seen = 0L
+        for (i in counts.indices) {
+            seen += counts[i]
+            if (seen >= rank) {
+                return minOf(bucketMidpoint(i), max)
+            }
+        }
+        return max
+    }
+
+    fun reset() {
+        for (i in 0 until buckets.length()) {
+            buckets[i] = 0
+        }
+        total.reset()
+        maximum.set(0)
     }
+
+    companion object {
+
+        private const val SUB_BUCKET_BITS = 4
+
+        const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+
+        internal fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKETS) {
+                return value.toInt()
+            }
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = exponent - SUB_BUCKET_BITS
+            val sub = ((value ushr shift) and (SUB_BUCKETS - 1L)).toInt()
+            return (shift + 1) * SUB_BUCKETS + sub
+        }
+
+        internal fun bucketMidpoint(index: Int): Long {
+            if (index < SUB_BUCKETS) {
+                return index.toLong()
+            }
+            val shift = index / SUB_BUCKETS - 1
+            val lower = (SUB_BUCKETS + index % SUB_BUCKETS).toLong() shl shift
+            return lower + ((1L shl shift) - 1) / 2
+        }
+    }
+}
+
+/**
+ * JFR event emitted for each timed update phase. Not created when no recording is running.
+ */
+@Name("org.simbrain.UpdatePhase")
+@Label("Update Phase")
+@Category("Simbrain")
+@StackTrace(false)
+class UpdatePhaseEvent : Event() {
+
+    @field:Label("Phase")
+    @JvmField
+    var phase: String = ""
+
+    @field:Label("Name")
+    @JvmField
+    var name: String = ""
 }
+
+/**
+ * Timing of each part of a workspace update: coupling passes, component updates, update actions, event fan-out and
+ * serialization. Each measurement goes into a [LatencyHistogram] for its phase and name and is emitted as an
+ * [UpdatePhaseEvent] for Java Flight Recorder, so it is cheap enough to leave on.
+ *
+ * Unlike [org.simbrain.workspace.updater.PerformanceMonitor], which streams individual timings to the GUI, this keeps
+ * running percentiles and can be used headless. To record a run without changing code, start the JVM with
+ * `-Dsimbrain.telemetry=<directory>`; a JFR recording and a per-phase percentile summary are written there on exit.
+ */
+object UpdateTelemetry {
+
+    @Volatile
+    var enabled = true
+
+    private val histograms = Array(UpdatePhase.values().size) { ConcurrentHashMap<String, LatencyHistogram>() }
+
+    private var recording: Recording? = null
+
+    /**
+     * Checked before each measurement, so that no JFR event is allocated when no recording wants one.
+     */
+    @PublishedApi
+    internal val phaseEventType: EventType = EventType.getEventType(UpdatePhaseEvent::class.java)
+
+    init {
+        System.getProperty("simbrain.telemetry")?.let { directory ->
+            val dir = File(directory).apply { mkdirs() }
+            startRecording(File(dir, "updates.jfr"))
+            // JFR's own shutdown hook writes the recording
+            recording?.dumpOnExit = true
+            Runtime.getRuntime().addShutdownHook(Thread { writeSummary(File(dir, "update-phases.csv")) })
+        }
+    }
+
+    /**
+     * Run [block] and record how long it took under the given phase and name. Names should come from a small set
+     * (component names, action descriptions), since each gets its own histogram.
+     */
+    inline fun <T> measure(phase: UpdatePhase, name: String, block: () -> T): T {
+        if (!enabled) {
+            return block()
+        }
+        val event = if (phaseEventType.isEnabled) UpdatePhaseEvent().also { it.begin() } else null
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            finish(event, phase, name, start)
+        }
+    }
+
+    @PublishedApi
+    internal fun finish(event: UpdatePhaseEvent?, phase: UpdatePhase, name: String, start: Long) {
+        histogram(phase, name).record(System.nanoTime() - start)
+        if (event == null) {
+            return
+        }
+        event.end()
+        if (event.shouldCommit()) {
+            event.phase = phase.name
+            event.name = name
+            event.commit()
+        }
+    }
+
+    fun histogram(phase: UpdatePhase, name: String): LatencyHistogram =
+        histograms[phase.ordinal].computeIfAbsent(name) { LatencyHistogram() }
+
+    fun reset() = histograms.forEach { it.clear() }
+
+    /**
+     * One row per phase and name, with durations in microseconds, sorted by total time spent.
+     */
+    fun summary(): List<PhaseSummary> = UpdatePhase.values().flatMap { phase ->
+        histograms[phase.ordinal].map { (name, histogram) -> phase to name to histogram }
+    }.map { (key, histogram) ->
+        PhaseSummary(
+            key.first,
+            key.second,
+            histogram.count,
+            histogram.mean / 1000,
+            histogram.percentile(0.5) / 1000.0,
+            histogram.percentile(0.9) / 1000.0,
+            histogram.percentile(0.99) / 1000.0,
+            histogram.max / 1000.0
+        )
+    }.sortedByDescending { it.count * it.meanMicros }
+
+    /**
+     * Write [summary] as csv.
+     */
+    fun writeSummary(file: File) {
+        file.printWriter().use { out ->
+            out.println("phase,name,count,meanMicros,p50Micros,p90Micros,p99Micros,maxMicros")
+            summary().forEach { s ->
+                out.println(
+                    listOf(s.phase, "\"${s.name.replace("\"", "\"\"")}\"", s.count, s.meanMicros, s.p50Micros,
+                        s.p90Micros, s.p99Micros, s.maxMicros).joinToString(",")
+                )
+            }
+        }
+    }
+
+    /**
+     * Start a JFR recording of [UpdatePhaseEvent]s that is written to [file] by [stopRecording].
+     */
+    @Synchronized
+    fun startRecording(file: File) {
+        stopRecording()
+        recording = Recording().apply {
+            name = "Simbrain update phases"
+            enable(UpdatePhaseEvent::class.java)
+            destination = file.toPath()
+            start()
+        }
+    }
+
+    @Synchronized
+    fun stopRecording() {
+        recording?.let {
+            it.stop()
+            it.close()
+        }
+        recording = null
+    }
+}
+
+data class PhaseSummary(
+    val phase: UpdatePhase,
+    val name: String,
+    val count: Long,
+    val meanMicros: Double,
+    val p50Micros: Double,
+    val p90Micros: Double,
+    val p99Micros: Double,
+    val maxMicros: Double
+)
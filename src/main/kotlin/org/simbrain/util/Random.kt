@@ -9,17 +9,47 @@ fun Random.nextBoolean(probability: Double) = nextDouble() < probability
 fun Random.nextNegate() = if (nextBoolean()) 1 else -1
 
 fun FloatArray.randomize(dist: ProbabilityDistribution) {
-    forEachIndexed { i, _ -> this[i] = dist.sampleDouble().toFloat() }
+    val buffer = DoubleArray(minOf(size, ProbabilityDistribution.SAMPLE_BLOCK_SIZE))
+    for (start in indices step buffer.size) {
+        val length = minOf(buffer.size, size - start)
+        dist.fill(buffer, 0, length)
+        for (i in 0 until length) {
+            this[start + i] = buffer[i].toFloat()
+        }
+    }
 }
 
-fun DoubleArray.randomize(dist: ProbabilityDistribution) {
-    forEachIndexed { i, _ -> this[i] = dist.sampleDouble() }
-}
+fun DoubleArray.randomize(dist: ProbabilityDistribution) = dist.fill(this)
 
+/**
+ * Fill the matrix with samples from [dist]. Large matrices are filled in parallel blocks whose streams are derived from
+ * one draw of the distribution's generator, so a seeded distribution still gives reproducible matrices.
+ */
 fun Matrix.randomize(dist: ProbabilityDistribution) {
-    (0 until nrow()).forEach { i ->
-        (0 until ncol()).forEach { j ->
-            set(i, j, dist.sampleDouble())
+    val size = nrow() * ncol()
+    if (size > ProbabilityDistribution.SAMPLE_BLOCK_SIZE) {
+        randomize(dist, RandomStreams(dist.randomGenerator.nextLong()))
+    } else {
+        setColumnMajor(DoubleArray(size).also { dist.fill(it) })
+    }
+}
+
+/**
+ * Fill the matrix, in column-major order, with samples drawn in parallel from the given streams. The result depends
+ * only on the streams and the shape of the matrix. See [ProbabilityDistribution.sampleDouble].
+ */
+fun Matrix.randomize(dist: ProbabilityDistribution, streams: RandomStreams) {
+    setColumnMajor(dist.sampleDouble(nrow() * ncol(), streams))
+}
+
+/**
+ * Smile does not expose the backing array, so values are copied in through [Matrix.set] in storage order.
+ */
+private fun Matrix.setColumnMajor(values: DoubleArray) {
+    val rows = nrow()
+    for (j in 0 until ncol()) {
+        for (i in 0 until rows) {
+            set(i, j, values[j * rows + i])
         }
     }
 }
@@ -0,0 +1,91 @@
+package org.simbrain.util
+
+import org.apache.commons.math3.random.RandomGenerator
+import java.util.*
+import kotlin.random.Random
+
+/**
+ * Derives independent, reproducible random streams from a single seed.
+ *
+ * Each stream is identified by a key (a component name, a subnetwork id, the index of a block of work) and its seed
+ * depends only on the root seed and the key, not on the order in which streams are requested or on the thread that
+ * requests them. Work split into a fixed number of blocks, each drawing from the stream for its block index, therefore
+ * gives bitwise-identical results however many threads run the blocks.
+ *
+ * Seeds are derived with the SplitMix64 finalizer, the same mixing function [SplittableRandom] uses to split.
+ */
+class RandomStreams(val seed: Long) {
+
+    /**
+     * Seed of the stream with the given index.
+     */
+    fun seedFor(index: Long) = mix64(seed + GOLDEN_GAMMA * (index + 1))
+
+    /**
+     * Seed of the stream with the given name.
+     */
+    fun seedFor(key: String) = seedFor(mix64(key.hashCode().toLong() xor STRING_KEY_SALT))
+
+    /**
+     * Streams derived from the stream with the given name, for example one subnetwork of a network.
+     */
+    fun child(key: String) = RandomStreams(seedFor(key))
+
+    fun child(index: Long) = RandomStreams(seedFor(index))
+
+    /**
+     * A new generator for the stream with the given index.
+     */
+    fun random(index: Long): Random = Random(seedFor(index))
+
+    fun random(key: String): Random = Random(seedFor(key))
+
+    companion object {
+
+        private const val GOLDEN_GAMMA = -0x61c8864680b583ebL
+
+        private const val STRING_KEY_SALT = 0x5DEECE66DL
+
+        fun mix64(z0: Long): Long {
+            var z = z0
+            z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+            z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+            return z xor (z ushr 31)
+        }
+    }
+}
+
+/**
+ * Commons math random generator backed by a [SplittableRandom]. Unlike the synchronized JDK generator it has no
+ * locking, so it should be used by one thread at a time.
+ */
+class SplittableRandomGenerator(seed: Long? = null) : RandomGenerator {
+
+    private var random = if (seed == null) SplittableRandom() else SplittableRandom(seed)
+
+    override fun setSeed(seed: Int) = setSeed(seed.toLong())
+
+    override fun setSeed(seed: IntArray) = setSeed(seed.fold(0L) { acc, i -> acc * 31 + i })
+
+    override fun setSeed(seed: Long) {
+        random = SplittableRandom(seed)
+    }
+
+    override fun nextBytes(bytes: ByteArray) = random.nextBytes(bytes)
+
+    override fun nextInt() = random.nextInt()
+
+    override fun nextInt(n: Int) = random.nextInt(n)
+
+    override fun nextLong() = random.nextLong()
+
+    override fun nextBoolean() = random.nextBoolean()
+
+    override fun nextFloat() = random.nextFloat()
+
+    override fun nextDouble() = random.nextDouble()
+
+    override fun nextGaussian() = random.nextGaussian()
+
+    fun nextExponential() = random.nextExponential()
+}
@@ -259,6 +259,28 @@ fun Matrix.layerNorm(epsilon: Double = 1e-5): Matrix {
     return normalized
 }
 
+/**
+ * Normalizes each row to zero mean and unit variance in place, without allocating.
+ */
+fun Matrix.layerNormInPlace(epsilon: Double = 1e-5) {
+    val n = ncol()
+    for (i in 0 until nrow()) {
+        var mean = 0.0
+        for (j in 0 until n) {
+            mean += get(i, j)
+        }
+        mean /= n
+        var variance = 0.0
+        for (j in 0 until n) {
+            variance += (get(i, j) - mean) * (get(i, j) - mean)
+        }
+        val std = sqrt(variance / n + epsilon)
+        for (j in 0 until n) {
+            set(i, j, (get(i, j) - mean) / std)
+        }
+    }
+}
+
 fun Matrix.relu(): Matrix {
     val activated = Matrix(nrow(), ncol())
     for (i in 0 until nrow()) {
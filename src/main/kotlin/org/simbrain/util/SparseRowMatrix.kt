@@ -0,0 +1,120 @@
+package org.simbrain.util
+
+import smile.math.matrix.Matrix
+
+/**
+ * Immutable matrix of doubles in compressed sparse row (CSR) format. The non-zero entries of row i are stored in
+ * [columns] and [values] from rowPointers[i] (inclusive) to rowPointers[i + 1] (exclusive), sorted by column.
+ *
+ * Used for large matrices that are mostly zero, like word co-occurrence counts, where a dense [Matrix] would not fit
+ * in memory.
+ */
+class SparseRowMatrix(
+    val nrow: Int,
+    val ncol: Int,
+    val rowPointers: IntArray,
+    val columns: IntArray,
+    val values: DoubleArray
+) {
+
+    init {
+        if (rowPointers.size != nrow + 1) {
+            throw IllegalArgumentException("rowPointers must have nrow + 1 entries")
+        }
+        if (columns.size != values.size || rowPointers[nrow] != values.size) {
+            throw IllegalArgumentException("columns and values must have one entry per non-zero")
+        }
+    }
+
+    /**
+     * Number of stored (non-zero) entries.
+     */
+    val nnz get() = values.size
+
+    operator fun get(i: Int, j: Int): Double {
+        val index = columns.binarySearch(j, rowPointers[i], rowPointers[i + 1])
+        return if (index >= 0) values[index] else 0.0
+    }
+
+    /**
+     * Number of stored entries in row i.
+     */
+    fun rowNnz(i: Int) = rowPointers[i + 1] - rowPointers[i]
+
+    /**
+     * Returns row i as a dense array.
+     */
+    fun row(i: Int): DoubleArray {
+        val row = DoubleArray(ncol)
+        forEachInRow(i) { j, value -> row[j] = value }
+        return row
+    }
+
+    inline fun forEachInRow(i: Int, action: (column: Int, value: Double) -> Unit) {
+        for (k in rowPointers[i] until rowPointers[i + 1]) {
+            action(columns[k], values[k])
+        }
+    }
+
+    fun rowSums() = DoubleArray(nrow) { i ->
+        var sum = 0.0
+        forEachInRow(i) { _, value -> sum += value }
+        sum
+    }
+
+    fun colSums() = DoubleArray(ncol).also { sums ->
+        for (k in values.indices) {
+            sums[columns[k]] += values[k]
+        }
+    }
+
+    /**
+     * Returns a matrix with the same non-zero structure whose values are transformed by [transform].
+     */
+    inline fun mapValues(transform: (row: Int, column: Int, value: Double) -> Double): SparseRowMatrix {
+        val newValues = DoubleArray(nnz)
+        for (i in 0 until nrow) {
+            for (k in rowPointers[i] until rowPointers[i + 1]) {
+                newValues[k] = transform(i, columns[k], values[k])
+            }
+        }
+        return SparseRowMatrix(nrow, ncol, rowPointers, columns, newValues)
+    }
+
+    /**
+     * Dense copy of this matrix. Only practical when nrow * ncol fits in memory.
+     */
+    fun toMatrix(): Matrix {
+        val matrix = Matrix(nrow, ncol)
+        for (i in 0 until nrow) {
+            forEachInRow(i) { j, value -> matrix[i, j] = value }
+        }
+        return matrix
+    }
+
+    override fun toString() = "SparseRowMatrix($nrow x $ncol, $nnz non-zeros)"
+
+    companion object {
+
+        /**
+         * Sparse copy of a dense matrix, keeping entries that are not zero.
+         */
+        @JvmStatic
+        fun of(matrix: Matrix): SparseRowMatrix {
+            val rowPointers = IntArray(matrix.nrow() + 1)
+            val columns = ArrayList<Int>()
+            val values = ArrayList<Double>()
+            for (i in 0 until matrix.nrow()) {
+                for (j in 0 until matrix.ncol()) {
+                    val value = matrix[i, j]
+                    if (value != 0.0) {
+                        columns.add(j)
+                        values.add(value)
+                    }
+                }
+                rowPointers[i + 1] = values.size
+            }
+            return SparseRowMatrix(matrix.nrow(), matrix.ncol(), rowPointers, columns.toIntArray(), values.toDoubleArray())
+        }
+    }
+}
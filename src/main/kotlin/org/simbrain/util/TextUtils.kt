@@ -111,12 +111,26 @@ fun manualPPMI(cocMatrix: Matrix, positive: Boolean = true): Matrix {
     return adjustedMatrix
 }
 
-fun String.removeWords(wordsToRemove: List<String>): String {
-    var result = this
-    for (word in wordsToRemove) {
-        result = result.replace("\\b$word\\b".toRegex(), "") // using word boundaries to match whole words
+/**
+ * Sparse version of [manualPPMI]. Only stored (non-zero) co-occurrences are weighted, so the expected values are
+ * never materialized as a dense matrix.
+ */
+fun manualPPMI(cocMatrix: SparseRowMatrix, positive: Boolean = true): SparseRowMatrix {
+    val columnTotals = cocMatrix.colSums()
+    val totalSum = columnTotals.sum()
+    val rowTotals = cocMatrix.rowSums()
+    return cocMatrix.mapValues { row, col, value ->
+        val adjusted = value / (rowTotals[row] * columnTotals[col] / totalSum)
+        if (positive && adjusted < 0) 0.0 else adjusted
     }
-    return result.trim().normalizeSpacing()
+}
+
+fun String.removeWords(wordsToRemove: List<String>): String {
+    val words = wordsToRemove.filter { it.isNotEmpty() }
+    if (words.isEmpty()) return trim().normalizeSpacing()
+    // One alternation using word boundaries to match whole words, rather than a pass per word
+    val regex = "\\b(${words.joinToString("|") { Regex.escape(it) }})\\b".toRegex()
+    return replace(regex, "").trim().normalizeSpacing()
 }
 
 
@@ -134,6 +148,7 @@ fun String.removeWords(wordsToRemove: List<String>): String {
  * square.
  * @return a co-occurrence matrix with as many rows as there are unique tokens in [docString].
  *
+ * The matrix is dense, so this is only suitable for small vocabularies. For large corpora see [CooccurrenceBuilder].
  */
 fun generateCooccurrenceMatrix(
     docString: String,
@@ -152,6 +167,7 @@ fun generateCooccurrenceMatrix(
     }
 
     val tokens = convertedDocString.tokenizeWordsFromString().uniqueTokensFromArray()
+    val tokenIndices = tokens.withIndex().associate { (index, token) -> token to index }
 
     // Split document into sentences
     val sentences = convertedDocString.tokenizeSentencesFromDoc()
@@ -175,8 +191,8 @@ fun generateCooccurrenceMatrix(
             for (contextIndex in contextLowerLimit..contextUpperLimit) {
                 if (contextIndex in 0..maxIndex && contextIndex != sentenceIndex) {
                     val currentContext = tokenizedSentence[contextIndex]
-                    val tokenCoordinate = tokens.indexOf(currentToken)
-                    val contextCoordinate = tokens.indexOf(currentContext)
+                    val tokenCoordinate = tokenIndices[currentToken] ?: continue
+                    val contextCoordinate = tokenIndices[currentContext] ?: continue
                     // print(listOf("Current Token:", currentToken, tokenCoordinate))
                     // println(listOf("Current Context",currentContext, contextCoordinate))
                     cocMatrix[tokenCoordinate, contextCoordinate] =
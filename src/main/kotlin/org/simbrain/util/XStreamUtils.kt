@@ -18,7 +18,9 @@ import org.simbrain.util.piccolo.Tile
 import org.simbrain.util.piccolo.TileMapLayer
 import org.simbrain.util.projection.Projector
 import org.simbrain.util.propertyeditor.EditableObject
+import org.simbrain.util.table.BasicDataFrame
 import org.simbrain.world.odorworld.OdorWorld
+import org.simbrain.world.textworld.TokenEmbedding
 import kotlin.reflect.KClass
 import kotlin.reflect.KMutableProperty
 import kotlin.reflect.KProperty1
@@ -49,6 +51,10 @@ fun getSimbrainXStream(): XStream {
                 "java.util.concurrent.**"
             )
         )
+        // Dense token embeddings were stored in a field of this name before sparse embeddings were supported
+        aliasField("tokenVectorMatrix", TokenEmbedding::class.java, "denseVectors")
+        // Table rows were stored as lists in a field of this name before tables were stored by column
+        aliasField("data", BasicDataFrame::class.java, "legacyData")
         registerConverter(DoubleArrayConverter())
         registerConverter(MatrixConverter())
         registerConverter(
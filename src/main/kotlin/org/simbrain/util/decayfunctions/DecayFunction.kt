@@ -5,6 +5,12 @@ import org.simbrain.util.propertyeditor.CopyableObject
 import org.simbrain.util.propertyeditor.EditableObject
 import kotlin.math.abs
 
+/**
+ * Probability below which a decay is treated as complete, used to find a finite cutoff distance for decay functions
+ * that never reach zero.
+ */
+const val NEGLIGIBLE_PROBABILITY = 1e-12
+
 abstract class DecayFunction(
 
     /**
@@ -34,6 +40,13 @@ abstract class DecayFunction(
      */
     abstract fun getScalingFactor(distance: Double): Double
 
+    /**
+     * Distance beyond which the scaling factor is zero, or negligible for functions that never reach zero. Infinite
+     * if there is no such distance.
+     */
+    open val cutoffDistance: Double
+        get() = Double.POSITIVE_INFINITY
+
     // TODO: Stub for future implementation of, for example, elliptical decay functions
     // open fun getScalingFactor(relativeLocation: Point2D): Double {
     //     return 0.0
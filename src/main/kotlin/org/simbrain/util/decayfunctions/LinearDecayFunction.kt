@@ -7,6 +7,9 @@ class LinearDecayFunction @JvmOverloads constructor(dispersion: Double = 70.0) :
         return if (dist > dispersion) 0.0 else 1 - dist / dispersion
     }
 
+    override val cutoffDistance: Double
+        get() = peakDistance + dispersion
+
     override fun copy(): LinearDecayFunction {
         return LinearDecayFunction(dispersion)
             .also {
@@ -0,0 +1,491 @@
+package org.simbrain.util.projection
+
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.*
+
+/**
+ * Barnes-Hut approximation of t-SNE for two dimensional embeddings.
+ *
+ * Van der Maaten, L. (2014). Accelerating t-SNE using tree-based algorithms. Journal of Machine Learning Research,
+ * 15(1), 3221-3245.
+ *
+ * Input similarities are only computed over the `3 * perplexity` nearest neighbors of each point (found using the
+ * dataset's [KDTree]), and repulsive forces are approximated using a quadtree over the embedding, so that each
+ * iteration is O(N log N) rather than O(N^2).
+ *
+ * Points can be added while the optimization is running. New points are queued by [addPoint] and picked up at the
+ * start of the next [step], which may be running on another thread. Coordinates are exposed as copies via
+ * [snapshot] so that readers never see a half-updated embedding.
+ *
+ * @param theta Barnes-Hut accuracy. 0 is exact; larger values are faster but coarser.
+ */
+class BarnesHutTSNE(
+    val dataset: Dataset,
+    val perplexity: Double = 20.0,
+    val eta: Double = 200.0,
+    val theta: Double = 0.5
+) {
+
+    /**
+     * Points in the order used by the optimizer. Index i of this list corresponds to index i of the coordinates.
+     */
+    private val _points = ArrayList<DataPoint>()
+    val points: List<DataPoint> get() = _points
+
+    private val indices = IdentityHashMap<DataPoint, Int>()
+
+    private val pending = ConcurrentLinkedQueue<DataPoint>()
+
+    /**
+     * Number of points in [pending], kept separately since the size of the queue is computed by traversing it.
+     */
+    private val pendingCount = AtomicInteger()
+
+    val size get() = _points.size
+
+    /**
+     * Number of points including those queued by [addPoint] that have not been picked up by a [step] yet.
+     */
+    val queuedSize get() = _points.size + pendingCount.get()
+
+    /**
+     * Flat coordinate storage: x of point i is at 2i and y at 2i+1.
+     */
+    private var y = DoubleArray(0)
+    private var update = DoubleArray(0)
+    private var gains = DoubleArray(0)
+    private var gradient = DoubleArray(0)
+
+    /**
+     * Conditional probabilities p(j|i) over the nearest neighbors of each point, one row per point.
+     */
+    private val neighborRows = ArrayList<IntArray>()
+    private val conditionalRows = ArrayList<DoubleArray>()
+
+    /**
+     * Symmetrized joint probabilities in compressed sparse row form, rebuilt from the conditional rows whenever points
+     * are added.
+     */
+    private var rowPointers = IntArray(1)
+    private var columns = IntArray(0)
+    private var values = DoubleArray(0)
+    private var jointStale = true
+
+    /**
+     * Number of points when all conditional rows were last recomputed.
+     */
+    private var refreshedSize = 0
+
+    var iteration = 0
+        private set
+
+    /**
+     * Kullback-Leibler divergence of the last step, estimated using the Barnes-Hut normalization term.
+     */
+    var error = 0.0
+        private set
+
+    var exaggerationIterations = 250
+    var exaggeration = 12.0
+
+    private val random = Random(1)
+
+    /**
+     * Queue a point for inclusion in the optimization. Its current downstairs coordinates are used as its initial
+     * position, so callers should place it first (e.g. with [TriangulateProjection]).
+     */
+    fun addPoint(point: DataPoint) {
+        pending.add(point)
+        pendingCount.incrementAndGet()
+    }
+
+    /**
+     * Add all points currently in the dataset and give them small random initial positions, as in standard t-SNE.
+     */
+    @Synchronized
+    fun initFromDataset() {
+        synchronized(dataset) {
+            dataset.kdTree.forEach {
+                it.setDownstairs(doubleArrayOf(random.nextGaussian() * 1e-4, random.nextGaussian() * 1e-4))
+                addPoint(it)
+            }
+        }
+        drainPending()
+    }
+
+    private fun ensureCapacity(n: Int) {
+        if (y.size >= 2 * n) return
+        val newSize = max(2 * n, y.size * 2)
+        y = y.copyOf(newSize)
+        update = update.copyOf(newSize)
+        gradient = gradient.copyOf(newSize)
+        val oldSize = gains.size
+        gains = gains.copyOf(newSize).also { it.fill(1.0, oldSize, newSize) }
+    }
+
+    private fun drainPending() {
+        if (pending.isEmpty()) return
+        val added = ArrayList<DataPoint>()
+        while (true) {
+            val point = pending.poll() ?: break
+            pendingCount.decrementAndGet()
+            if (indices.containsKey(point)) continue
+            ensureCapacity(_points.size + 1)
+            val i = _points.size
+            indices[point] = i
+            _points.add(point)
+            y[2 * i] = point.downstairsPoint[0]
+            y[2 * i + 1] = point.downstairsPoint[1]
+            neighborRows.add(IntArray(0))
+            conditionalRows.add(DoubleArray(0))
+            added.add(point)
+        }
+        // Neighbors are computed after all pending points have indices so that points added together can be each
+        // other's neighbors. Rows of older points only see the points that existed when they were added, so they are
+        // all refreshed whenever the number of points doubles.
+        synchronized(dataset) {
+            if (_points.size >= 2 * refreshedSize) {
+                refreshedSize = _points.size
+                _points.indices.forEach { computeConditionalRow(it) }
+            } else {
+                added.forEach { computeConditionalRow(indices[it]!!) }
+            }
+        }
+        jointStale = true
+    }
+
+    /**
+     * Find the nearest neighbors of point i and set its conditional probabilities p(j|i) using a binary search for
+     * the Gaussian precision that matches the perplexity.
+     */
+    private fun computeConditionalRow(i: Int) {
+        val point = _points[i]
+        val k = min(_points.size - 1, floor(3 * perplexity).toInt())
+        if (k <= 0) return
+        val neighbors = dataset.kdTree.findClosestNPoints(point, k + 1)
+            .mapNotNull { indices[it] }
+            .filter { it != i }
+            .take(k)
+            .toIntArray()
+        val distances = DoubleArray(neighbors.size) {
+            val d = point.euclideanDistance(_points[neighbors[it]])
+            d * d
+        }
+        neighborRows[i] = neighbors
+        conditionalRows[i] = gaussianRow(distances)
+    }
+
+    private fun gaussianRow(distances: DoubleArray): DoubleArray {
+        val row = DoubleArray(distances.size)
+        if (row.isEmpty()) return row
+        val targetEntropy = ln(perplexity)
+        var beta = 1.0
+        var betaMin = Double.NEGATIVE_INFINITY
+        var betaMax = Double.POSITIVE_INFINITY
+        val minDistance = distances.min()
+        for (attempt in 0 until 200) {
+            var sum = 0.0
+            for (j in distances.indices) {
+                // Shift by the minimum distance to avoid underflow; it cancels on normalization
+                row[j] = exp(-beta * (distances[j] - minDistance))
+                sum += row[j]
+            }
+            var entropy = 0.0
+            for (j in distances.indices) {
+                entropy += beta * (distances[j] - minDistance) * row[j]
+            }
+            entropy = entropy / sum + ln(sum)
+            val diff = entropy - targetEntropy
+            if (abs(diff) < 1e-5) break
+            if (diff > 0) {
+                betaMin = beta
+                beta = if (betaMax == Double.POSITIVE_INFINITY) beta * 2 else (beta + betaMax) / 2
+            } else {
+                betaMax = beta
+                beta = if (betaMin == Double.NEGATIVE_INFINITY) beta / 2 else (beta + betaMin) / 2
+            }
+        }
+        val sum = row.sum()
+        for (j in row.indices) row[j] /= sum
+        return row
+    }
+
+    /**
+     * Build P_ij = (p(j|i) + p(i|j)) / 2N as a sparse matrix.
+     */
+    private fun rebuildJointProbabilities() {
+        val n = _points.size
+        val degree = IntArray(n)
+        for (i in 0 until n) {
+            for (j in neighborRows[i]) {
+                degree[i]++
+                degree[j]++
+            }
+        }
+        val pointers = IntArray(n + 1)
+        for (i in 0 until n) pointers[i + 1] = pointers[i] + degree[i]
+        val cols = IntArray(pointers[n])
+        val vals = DoubleArray(pointers[n])
+        val fill = pointers.copyOf(n)
+        for (i in 0 until n) {
+            val neighbors = neighborRows[i]
+            val conditionals = conditionalRows[i]
+            for (m in neighbors.indices) {
+                val j = neighbors[m]
+                val p = conditionals[m] / (2.0 * n)
+                cols[fill[i]] = j; vals[fill[i]++] = p
+                cols[fill[j]] = i; vals[fill[j]++] = p
+            }
+        }
+        // Merge the entries where i and j are in each other's neighborhoods
+        val mergedPointers = IntArray(n + 1)
+        var out = 0
+        for (i in 0 until n) {
+            val start = pointers[i]
+            val end = pointers[i + 1]
+            sortSegment(cols, vals, start, end)
+            var m = start
+            while (m < end) {
+                val col = cols[m]
+                var value = vals[m]
+                m++
+                while (m < end && cols[m] == col) {
+                    value += vals[m]
+                    m++
+                }
+                cols[out] = col
+                vals[out] = value
+                out++
+            }
+            mergedPointers[i + 1] = out
+        }
+        rowPointers = mergedPointers
+        columns = cols.copyOf(out)
+        values = vals.copyOf(out)
+        jointStale = false
+    }
+
+    /**
+     * Insertion sort of a (small) row segment by column.
+     */
+    private fun sortSegment(cols: IntArray, vals: DoubleArray, start: Int, end: Int) {
+        for (a in start + 1 until end) {
+            val col = cols[a]
+            val value = vals[a]
+            var b = a - 1
+            while (b >= start && cols[b] > col) {
+                cols[b + 1] = cols[b]
+                vals[b + 1] = vals[b]
+                b--
+            }
+            cols[b + 1] = col
+            vals[b + 1] = value
+        }
+    }
+
+    /**
+     * Run the given number of gradient descent iterations.
+     */
+    @Synchronized
+    fun step(iterations: Int = 1) {
+        drainPending()
+        val n = _points.size
+        if (n < 2) return
+        if (jointStale) rebuildJointProbabilities()
+        repeat(iterations) {
+            val exaggerating = iteration < exaggerationIterations
+            val momentum = if (exaggerating) 0.5 else 0.8
+            computeGradient(n, if (exaggerating) exaggeration else 1.0)
+            for (d in 0 until 2 * n) {
+                val g = gradient[d]
+                gains[d] = if (sign(g) != sign(update[d])) gains[d] + 0.2 else max(gains[d] * 0.8, 0.01)
+                update[d] = momentum * update[d] - eta * gains[d] * g
+                y[d] += update[d]
+            }
+            recenter(n)
+            iteration++
+        }
+    }
+
+    private fun recenter(n: Int) {
+        var meanX = 0.0
+        var meanY = 0.0
+        for (i in 0 until n) {
+            meanX += y[2 * i]
+            meanY += y[2 * i + 1]
+        }
+        meanX /= n
+        meanY /= n
+        for (i in 0 until n) {
+            y[2 * i] -= meanX
+            y[2 * i + 1] -= meanY
+        }
+    }
+
+    private fun computeGradient(n: Int, exaggeration: Double) {
+        val tree = QuadTree.build(y, n)
+        val forces = DoubleArray(3)
+        var sumQ = 0.0
+        // Repulsive forces, accumulated unnormalized into the gradient
+        for (i in 0 until n) {
+            forces.fill(0.0)
+            tree.computeRepulsion(i, y[2 * i], y[2 * i + 1], theta, forces)
+            gradient[2 * i] = -forces[0]
+            gradient[2 * i + 1] = -forces[1]
+            sumQ += forces[2]
+        }
+        for (d in 0 until 2 * n) gradient[d] /= sumQ
+
+        // Attractive forces over the sparse joint probabilities
+        var kl = 0.0
+        for (i in 0 until n) {
+            val xi = y[2 * i]
+            val yi = y[2 * i + 1]
+            var ax = 0.0
+            var ay = 0.0
+            for (m in rowPointers[i] until rowPointers[i + 1]) {
+                val j = columns[m]
+                val dx = xi - y[2 * j]
+                val dy = yi - y[2 * j + 1]
+                val q = 1.0 / (1.0 + dx * dx + dy * dy)
+                val p = values[m]
+                ax += p * q * dx
+                ay += p * q * dy
+                kl += p * ln(max(p, Double.MIN_VALUE) / max(q / sumQ, Double.MIN_VALUE))
+            }
+            gradient[2 * i] += exaggeration * ax
+            gradient[2 * i + 1] += exaggeration * ay
+        }
+        for (d in 0 until 2 * n) gradient[d] *= 4.0
+        error = kl
+    }
+
+    /**
+     * Copy of the current coordinates, in the order of [points].
+     */
+    @Synchronized
+    fun snapshot(): Pair<List<DataPoint>, Array<DoubleArray>> {
+        val pointsCopy = ArrayList(_points)
+        return pointsCopy to Array(pointsCopy.size) { doubleArrayOf(y[2 * it], y[2 * it + 1]) }
+    }
+
+    /**
+     * Quadtree over the embedding used to approximate the repulsive forces.
+     */
+    private class QuadTree(
+        val centerX: Double,
+        val centerY: Double,
+        val halfWidth: Double,
+        val depth: Int
+    ) {
+        var count = 0
+        var massX = 0.0
+        var massY = 0.0
+
+        /**
+         * Index of the point stored in this leaf, or -1.
+         */
+        var pointIndex = -1
+        var children: Array<QuadTree>? = null
+
+        fun insert(coordinates: DoubleArray, i: Int) {
+            val px = coordinates[2 * i]
+            val py = coordinates[2 * i + 1]
+            massX = (massX * count + px) / (count + 1)
+            massY = (massY * count + py) / (count + 1)
+            count++
+            val kids = children
+            if (kids == null) {
+                if (count == 1) {
+                    pointIndex = i
+                    return
+                }
+                // Coincident points (or very deep trees) stay in the leaf as extra mass
+                val existing = pointIndex
+                if (depth >= MAX_DEPTH || (existing >= 0 && coordinates[2 * existing] == px && coordinates[2 * existing + 1] == py)) {
+                    return
+                }
+                subdivide()
+                if (existing >= 0) {
+                    childFor(coordinates[2 * existing], coordinates[2 * existing + 1]).insertExisting(coordinates, existing, count - 1)
+                }
+                pointIndex = -1
+            }
+            childFor(px, py).insert(coordinates, i)
+        }
+
+        /**
+         * Move the point (with its coincident duplicates) from a leaf that is being subdivided.
+         */
+        private fun insertExisting(coordinates: DoubleArray, i: Int, mass: Int) {
+            insert(coordinates, i)
+            count += mass - 1
+        }
+
+        private fun subdivide() {
+            val h = halfWidth / 2
+            children = arrayOf(
+                QuadTree(centerX - h, centerY - h, h, depth + 1),
+                QuadTree(centerX + h, centerY - h, h, depth + 1),
+                QuadTree(centerX - h, centerY + h, h, depth + 1),
+                QuadTree(centerX + h, centerY + h, h, depth + 1)
+            )
+        }
+
+        private fun childFor(x: Double, y: Double): QuadTree {
+            val index = (if (x > centerX) 1 else 0) + (if (y > centerY) 2 else 0)
+            return children!![index]
+        }
+
+        /**
+         * Accumulates the unnormalized repulsive force on point i into forces[0] and forces[1], and its contribution
+         * to the normalization term into forces[2].
+         */
+        fun computeRepulsion(i: Int, x: Double, y: Double, theta: Double, forces: DoubleArray) {
+            if (count == 0) return
+            var mass = count.toDouble()
+            if (children == null && pointIndex == i) {
+                mass -= 1.0
+                if (mass == 0.0) return
+            }
+            val dx = x - massX
+            val dy = y - massY
+            val distanceSquared = dx * dx + dy * dy
+            val kids = children
+            if (kids == null || 2 * halfWidth < theta * sqrt(distanceSquared)) {
+                val q = 1.0 / (1.0 + distanceSquared)
+                val m = mass * q
+                forces[2] += m
+                forces[0] += m * q * dx
+                forces[1] += m * q * dy
+            } else {
+                kids.forEach { it.computeRepulsion(i, x, y, theta, forces) }
+            }
+        }
+
+        companion object {
+
+            const val MAX_DEPTH = 50
+
+            fun build(coordinates: DoubleArray, n: Int): QuadTree {
+                var minX = Double.POSITIVE_INFINITY
+                var minY = Double.POSITIVE_INFINITY
+                var maxX = Double.NEGATIVE_INFINITY
+                var maxY = Double.NEGATIVE_INFINITY
+                for (i in 0 until n) {
+                    minX = min(minX, coordinates[2 * i])
+                    maxX = max(maxX, coordinates[2 * i])
+                    minY = min(minY, coordinates[2 * i + 1])
+                    maxY = max(maxY, coordinates[2 * i + 1])
+                }
+                val halfWidth = max(max(maxX - minX, maxY - minY) / 2, 1e-5) * (1 + 1e-5)
+                return QuadTree((minX + maxX) / 2, (minY + maxY) / 2, halfWidth, 0).apply {
+                    for (i in 0 until n) insert(coordinates, i)
+                }
+            }
+        }
+    }
+
+}
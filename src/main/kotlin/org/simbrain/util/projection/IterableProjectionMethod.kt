@@ -6,4 +6,21 @@ interface IterableProjectionMethod {
 
     fun iterate(dataset: Dataset)
 
-}
\ No newline at end of file
+}
+
+/**
+ * An iterable projection method that can also optimize on a background thread, publishing snapshots of its
+ * coordinates with [Projector.publishDownstairs].
+ */
+interface BackgroundProjectionMethod : IterableProjectionMethod {
+
+    /**
+     * True if the method is currently configured to run in the background. If false, it is iterated normally.
+     */
+    val runsInBackground: Boolean
+
+    fun startBackground(projector: Projector)
+
+    fun stopBackground()
+
+}
@@ -5,192 +5,464 @@ import com.thoughtworks.xstream.converters.MarshallingContext
 import com.thoughtworks.xstream.converters.UnmarshallingContext
 import com.thoughtworks.xstream.io.HierarchicalStreamReader
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter
-import java.util.*
-import kotlin.math.abs
-
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.sqrt
+
+/**
+ * A k-d tree of [DataPoint]s used for nearest neighbor queries on their upstairs points.
+ *
+ * Coordinates are copied into a single flat array when points are added, and nodes are stored as parallel int arrays
+ * indexed by point, so queries do not allocate. Points passed to [insertAll] are bulk-loaded into a balanced tree in
+ * O(N log N). Points added one at a time with [insert] are attached as leaves; if that makes the tree too deep the
+ * smallest unbalanced subtree is rebuilt (as in a scapegoat tree), so insertion-ordered data does not degenerate into
+ * a list.
+ *
+ * [delete] finds the point through the tree and marks it as deleted; deleted points are skipped by queries and
+ * iteration, and the tree is rebuilt without them once they make up half of it.
+ *
+ * Iteration is in insertion order. Iterators see the points that were present when they were created, so the tree can
+ * be iterated while points are being inserted. Queries use per-thread scratch buffers, but insertion and deletion must
+ * be externally synchronized with queries (e.g. using the [Dataset] lock).
+ */
 class KDTree(val dimension: Int) : Iterable<DataPoint> {
 
-    @Transient
+    /**
+     * Number of stored points, including deleted ones.
+     */
     private var pointCount = 0
-    val size get() = pointCount
 
-    private data class Node(
-        var point: DataPoint,
-        val axis: Int,
-        var left: Node? = null,
-        var right: Node? = null
-    )
+    private var deletedCount = 0
 
-    @Transient
-    private var root: Node? = null
+    val size get() = pointCount - deletedCount
 
-    private fun buildTree(points: List<DataPoint>, depth: Int): Node? {
-        if (points.isEmpty()) {
-            return null
-        }
+    private var points: Array<DataPoint?> = arrayOfNulls(INITIAL_CAPACITY)
+
+    /**
+     * Upstairs coordinates of point i are at [i * dimension, (i + 1) * dimension).
+     */
+    private var coordinates = DoubleArray(INITIAL_CAPACITY * dimension)
+
+    private var left = IntArray(INITIAL_CAPACITY)
+    private var right = IntArray(INITIAL_CAPACITY)
+    private var splitAxis = IntArray(INITIAL_CAPACITY)
+    private var subtreeSize = IntArray(INITIAL_CAPACITY)
+    private var deleted = BooleanArray(INITIAL_CAPACITY)
 
-        val axis = depth % dimension
-        val sortedPoints = points.sortedBy { it.upstairsPoint[axis] }
-        val median = sortedPoints.size / 2
+    private var root = NONE
 
-        return Node(
-            point = sortedPoints[median],
-            axis = axis,
-            left = buildTree(sortedPoints.subList(0, median), depth + 1),
-            right = buildTree(sortedPoints.subList(median + 1, sortedPoints.size), depth + 1)
-        )
+    /**
+     * Depth of the deepest node, for diagnostics and tests.
+     */
+    val depth: Int get() = depth(root)
+
+    private fun depth(node: Int): Int = if (node == NONE) 0 else 1 + max(depth(left[node]), depth(right[node]))
+
+    operator fun get(index: Int): DataPoint = points[index]!!
+
+    private fun ensureCapacity(capacity: Int) {
+        if (points.size >= capacity) return
+        val newCapacity = max(capacity, points.size * 2)
+        points = points.copyOf(newCapacity)
+        coordinates = coordinates.copyOf(newCapacity * dimension)
+        left = left.copyOf(newCapacity)
+        right = right.copyOf(newCapacity)
+        splitAxis = splitAxis.copyOf(newCapacity)
+        subtreeSize = subtreeSize.copyOf(newCapacity)
+        deleted = deleted.copyOf(newCapacity)
     }
 
-    fun insert(point: DataPoint) {
-        root = insert(root, point, 0)
+    private fun append(point: DataPoint): Int {
+        ensureCapacity(pointCount + 1)
+        val index = pointCount
+        points[index] = point
+        System.arraycopy(point.upstairsPoint, 0, coordinates, index * dimension, dimension)
+        left[index] = NONE
+        right[index] = NONE
+        subtreeSize[index] = 1
+        deleted[index] = false
         pointCount++
+        return index
     }
 
-    private fun insert(node: Node?, point: DataPoint, depth: Int): Node {
-        if (node == null) {
-            return Node(point, depth % dimension)
-        }
-
-        val axis = node.axis
-        val currentNode = node.point.upstairsPoint[axis]
-        val newPoint = point.upstairsPoint[axis]
+    /**
+     * Add many points at once and rebuild a balanced tree over all points.
+     */
+    fun insertAll(newPoints: Collection<DataPoint>) {
+        ensureCapacity(pointCount + newPoints.size)
+        newPoints.forEach { append(it) }
+        val order = IntArray(pointCount) { it }
+        root = build(order, 0, pointCount)
+    }
 
-        if (newPoint < currentNode) {
-            node.left = insert(node.left, point, depth + 1)
-        } else {
-            node.right = insert(node.right, point, depth + 1)
+    fun insert(point: DataPoint) {
+        val index = append(point)
+        if (root == NONE) {
+            root = index
+            splitAxis[index] = 0
+            return
+        }
+        val buffers = buffers.get()
+        var path = buffers.path
+        var pathLength = 0
+        var node = root
+        while (true) {
+            if (pathLength == path.size) {
+                path = path.copyOf(path.size * 2)
+                buffers.path = path
+            }
+            path[pathLength++] = node
+            subtreeSize[node]++
+            val axis = splitAxis[node]
+            val goLeft = coordinates[index * dimension + axis] < coordinates[node * dimension + axis]
+            val child = if (goLeft) left[node] else right[node]
+            if (child == NONE) {
+                if (goLeft) left[node] = index else right[node] = index
+                splitAxis[index] = (axis + 1) % dimension
+                break
+            }
+            node = child
+        }
+        if (pathLength > ln(pointCount.toDouble()) / LOG_INVERSE_ALPHA + 1) {
+            rebalance(path, pathLength)
         }
-
-        return node
     }
 
-    private data class SearchNode(
-        val node: Node,
-        val distance: Double
-    ) : Comparable<SearchNode> {
-        override fun compareTo(other: SearchNode): Int {
-            return -distance.compareTo(other.distance)
+    /**
+     * Walk up the insertion path to the first node whose subtree is too deep for its size (the "scapegoat") and
+     * rebuild that subtree.
+     */
+    private fun rebalance(path: IntArray, pathLength: Int) {
+        for (p in pathLength - 1 downTo 0) {
+            val node = path[p]
+            val size = subtreeSize[node]
+            if (pathLength - p > ln(size.toDouble()) / LOG_INVERSE_ALPHA) {
+                val order = buffers.get().order(size)
+                collect(node, order, 0)
+                val rebuilt = build(order, 0, size)
+                when {
+                    p == 0 -> root = rebuilt
+                    left[path[p - 1]] == node -> left[path[p - 1]] = rebuilt
+                    else -> right[path[p - 1]] = rebuilt
+                }
+                return
+            }
         }
     }
 
-    fun findClosestPoint(target: DataPoint) = findClosestNPoints(target, 1).firstOrNull()
+    /**
+     * Write the indices of a subtree into order starting at offset and return the next free offset.
+     */
+    private fun collect(node: Int, order: IntArray, offset: Int): Int {
+        if (node == NONE) return offset
+        var next = collect(left[node], order, offset)
+        order[next++] = node
+        return collect(right[node], order, next)
+    }
 
-    fun findClosestNPoints(target: DataPoint, n: Int): List<DataPoint> {
-        val closestNPoints = PriorityQueue<SearchNode>()
+    /**
+     * Build a balanced subtree over order[from, to), splitting on the axis with the largest spread.
+     */
+    private fun build(order: IntArray, from: Int, to: Int): Int {
+        if (from >= to) return NONE
+        val axis = widestAxis(order, from, to)
+        val mid = (from + to) ushr 1
+        select(order, from, to - 1, mid, axis)
+        val node = order[mid]
+        splitAxis[node] = axis
+        subtreeSize[node] = to - from
+        left[node] = build(order, from, mid)
+        right[node] = build(order, mid + 1, to)
+        return node
+    }
 
-        fun searchClosest(node: Node?, depth: Int) {
-            if (node == null) {
-                return
+    private fun widestAxis(order: IntArray, from: Int, to: Int): Int {
+        var bestAxis = 0
+        var bestSpread = -1.0
+        for (axis in 0 until dimension) {
+            var min = Double.POSITIVE_INFINITY
+            var max = Double.NEGATIVE_INFINITY
+            for (i in from until to) {
+                val value = coordinates[order[i] * dimension + axis]
+                if (value < min) min = value
+                if (value > max) max = value
             }
+            if (max - min > bestSpread) {
+                bestSpread = max - min
+                bestAxis = axis
+            }
+        }
+        return bestAxis
+    }
 
-            val distance = target.euclideanDistance(node.point)
-            if (closestNPoints.size < n || distance < closestNPoints.peek().distance) {
-                if (closestNPoints.size == n) {
-                    closestNPoints.poll()
+    /**
+     * Quickselect: partially sort order between lo and hi (inclusive) so that order[k] has the k-th smallest
+     * coordinate on the axis, with smaller or equal coordinates before it and larger or equal after it.
+     */
+    private fun select(order: IntArray, lo: Int, hi: Int, k: Int, axis: Int) {
+        var low = lo
+        var high = hi
+        while (high > low) {
+            val pivot = coordinates[order[(low + high) ushr 1] * dimension + axis]
+            var i = low
+            var j = high
+            while (i <= j) {
+                while (coordinates[order[i] * dimension + axis] < pivot) i++
+                while (coordinates[order[j] * dimension + axis] > pivot) j--
+                if (i <= j) {
+                    val tmp = order[i]
+                    order[i] = order[j]
+                    order[j] = tmp
+                    i++
+                    j--
                 }
-                closestNPoints.offer(SearchNode(node, distance))
             }
-
-            val axis = node.axis
-            val diff = target.upstairsPoint[axis] - node.point.upstairsPoint[axis]
-            val (nearNode, farNode) = if (diff < 0) {
-                node.left to node.right
-            } else {
-                node.right to node.left
+            when {
+                k <= j -> high = j
+                k >= i -> low = i
+                else -> return
             }
+        }
+    }
 
-            searchClosest(nearNode, depth + 1)
+    fun findClosestPoint(target: DataPoint): DataPoint? {
+        if (root == NONE) return null
+        val buffers = buffers.get()
+        buffers.bestIndex = NONE
+        buffers.bestDistance = Double.POSITIVE_INFINITY
+        searchClosest(root, target.upstairsPoint, buffers)
+        return if (buffers.bestIndex == NONE) null else points[buffers.bestIndex]
+    }
 
-            if (abs(diff) < closestNPoints.peek().distance || closestNPoints.size < n) {
-                searchClosest(farNode, depth + 1)
-            }
+    private fun searchClosest(node: Int, target: DoubleArray, buffers: SearchBuffers) {
+        if (node == NONE) return
+        val distance = if (deleted[node]) Double.POSITIVE_INFINITY else squaredDistance(node, target, buffers.bestDistance)
+        if (distance < buffers.bestDistance) {
+            buffers.bestDistance = distance
+            buffers.bestIndex = node
+        }
+        val diff = target[splitAxis[node]] - coordinates[node * dimension + splitAxis[node]]
+        if (diff < 0) {
+            searchClosest(left[node], target, buffers)
+            if (diff * diff < buffers.bestDistance) searchClosest(right[node], target, buffers)
+        } else {
+            searchClosest(right[node], target, buffers)
+            if (diff * diff < buffers.bestDistance) searchClosest(left[node], target, buffers)
         }
+    }
 
-        searchClosest(root, 0)
+    fun findClosestNPoints(target: DataPoint, n: Int): List<DataPoint> {
+        val buffers = buffers.get()
+        val result = buffers.result(n)
+        val count = findClosestNIndices(target.upstairsPoint, n, result)
+        return List(count) { points[result[it]]!! }
+    }
 
-        return closestNPoints.map { it.node.point }
+    /**
+     * Allocation free k-nearest neighbor query. Writes the indices of the (up to) n closest points into indices,
+     * nearest first, and if provided their euclidean distances into distances.
+     *
+     * @return the number of neighbors found, which is less than n if the tree has fewer than n points.
+     */
+    @JvmOverloads
+    fun findClosestNIndices(target: DoubleArray, n: Int, indices: IntArray, distances: DoubleArray? = null): Int {
+        if (root == NONE || n <= 0) return 0
+        val buffers = buffers.get()
+        buffers.heapSize = 0
+        buffers.ensureHeapCapacity(n)
+        searchClosestN(root, target, n, buffers)
+        // Pop the max heap from the back so results are nearest first
+        val count = buffers.heapSize
+        for (i in count - 1 downTo 0) {
+            indices[i] = buffers.heapIndices[0]
+            distances?.set(i, sqrt(buffers.heapDistances[0]))
+            buffers.pop()
+        }
+        return count
     }
 
-    private fun inOrderTraversal(node: Node?, action: (DataPoint) -> Unit) {
-        if (node == null) return
-        inOrderTraversal(node.left, action)
-        action(node.point)
-        inOrderTraversal(node.right, action)
+    private fun searchClosestN(node: Int, target: DoubleArray, n: Int, buffers: SearchBuffers) {
+        if (node == NONE) return
+        val full = buffers.heapSize == n
+        val bound = if (full) buffers.heapDistances[0] else Double.POSITIVE_INFINITY
+        val distance = if (deleted[node]) Double.POSITIVE_INFINITY else squaredDistance(node, target, bound)
+        if (distance < bound) {
+            if (full) buffers.pop()
+            buffers.push(node, distance)
+        }
+        val diff = target[splitAxis[node]] - coordinates[node * dimension + splitAxis[node]]
+        val near = if (diff < 0) left[node] else right[node]
+        val far = if (diff < 0) right[node] else left[node]
+        searchClosestN(near, target, n, buffers)
+        if (buffers.heapSize < n || diff * diff < buffers.heapDistances[0]) {
+            searchClosestN(far, target, n, buffers)
+        }
     }
 
-    override fun iterator(): Iterator<DataPoint> {
-        val nodes = mutableListOf<DataPoint>()
-        inOrderTraversal(root) { nodes.add(it) }
-        return nodes.iterator()
+    /**
+     * Squared distance from a stored point to the target, abandoned early (returning a value >= bound) once it
+     * exceeds the bound.
+     */
+    private fun squaredDistance(index: Int, target: DoubleArray, bound: Double): Double {
+        val offset = index * dimension
+        var sum = 0.0
+        for (d in 0 until dimension) {
+            val diff = coordinates[offset + d] - target[d]
+            sum += diff * diff
+            if (sum >= bound) return sum
+        }
+        return sum
     }
 
-    private fun findMinimum(node: Node?, targetAxis: Int, searchAxis: Int): Node? {
-        if (node == null) return null
-        if (searchAxis == targetAxis) {
-            return findMinimum(node.left, targetAxis, (searchAxis + 1) % dimension) ?: node
+    override fun iterator(): Iterator<DataPoint> = object : Iterator<DataPoint> {
+        private val snapshot = points
+        private val deletedSnapshot = deleted
+        private val count = pointCount
+        private var index = 0
+
+        private fun skipDeleted() {
+            while (index < count && deletedSnapshot[index]) index++
         }
 
-        val leftMin = findMinimum(node.left, targetAxis, (searchAxis + 1) % dimension)
-        val rightMin = findMinimum(node.right, targetAxis, (searchAxis + 1) % dimension)
+        override fun hasNext(): Boolean {
+            skipDeleted()
+            return index < count
+        }
 
-        return listOfNotNull(node, leftMin, rightMin)
-            .minByOrNull { it.point.upstairsPoint[targetAxis] }
+        override fun next(): DataPoint {
+            skipDeleted()
+            if (index >= count) throw NoSuchElementException()
+            return snapshot[index++]!!
+        }
     }
 
+    /**
+     * Remove a point whose upstairs coordinates equal the target's. The point is found by descending the tree and
+     * marked as deleted; the tree is only rebuilt once half of its points are deleted.
+     */
     fun delete(target: DataPoint): Boolean {
-        return delete(null, root, target, 0) != null
+        val index = findExact(root, target.upstairsPoint)
+        if (index == NONE) return false
+        deleted[index] = true
+        deletedCount++
+        if (deletedCount * 2 > pointCount) {
+            val remaining = (0 until pointCount).filter { !deleted[it] }.map { points[it]!! }
+            clear()
+            insertAll(remaining)
+        }
+        return true
     }
 
-    private fun delete(parent: Node?, node: Node?, target: DataPoint, depth: Int): Node? {
-        if (node == null) {
-            return null
-        }
+    /**
+     * Index of a point that is not deleted and has exactly the target coordinates, or [NONE]. Points equal to a node on
+     * its split axis can be on either side of it, so both sides are searched in that case.
+     */
+    private fun findExact(node: Int, target: DoubleArray): Int {
+        if (node == NONE) return NONE
+        if (!deleted[node] && (0 until dimension).all { coordinates[node * dimension + it] == target[it] }) return node
+        val diff = target[splitAxis[node]] - coordinates[node * dimension + splitAxis[node]]
+        if (diff < 0) return findExact(left[node], target)
+        if (diff > 0) return findExact(right[node], target)
+        val found = findExact(right[node], target)
+        return if (found != NONE) found else findExact(left[node], target)
+    }
 
-        val axis = depth % dimension
-
-        if (node.point.upstairsPoint.contentEquals(target.upstairsPoint)) {
-            pointCount--
-            if (node.right != null) {
-                val minNode = findMinimum(node.right, axis, (depth + 1) % dimension)!!
-                node.point = minNode.point
-                node.right = delete(node, node.right, minNode.point, depth + 1)
-            } else if (node.left != null) {
-                if (parent == null) {
-                    root = node.left
-                } else {
-                    if (parent.left == node) {
-                        parent.left = node.left
-                    } else {
-                        parent.right = node.left
-                    }
-                }
-                return node.left
-            } else {
-                if (parent == null) {
-                    root = null
-                } else {
-                    if (parent.left == node) {
-                        parent.left = null
-                    } else {
-                        parent.right = null
-                    }
-                }
-                return null
+    fun clear() {
+        // New arrays so that existing iterators are unaffected
+        points = arrayOfNulls(INITIAL_CAPACITY)
+        coordinates = DoubleArray(INITIAL_CAPACITY * dimension)
+        left = IntArray(INITIAL_CAPACITY)
+        right = IntArray(INITIAL_CAPACITY)
+        splitAxis = IntArray(INITIAL_CAPACITY)
+        subtreeSize = IntArray(INITIAL_CAPACITY)
+        deleted = BooleanArray(INITIAL_CAPACITY)
+        root = NONE
+        pointCount = 0
+        deletedCount = 0
+    }
+
+    /**
+     * Scratch space for queries and insertions, reused across calls on the same thread.
+     */
+    private class SearchBuffers {
+        var bestIndex = NONE
+        var bestDistance = 0.0
+
+        var heapIndices = IntArray(16)
+        var heapDistances = DoubleArray(16)
+        var heapSize = 0
+
+        var path = IntArray(64)
+        private var order = IntArray(64)
+        private var result = IntArray(16)
+
+        fun ensureHeapCapacity(n: Int) {
+            if (heapIndices.size < n) {
+                heapIndices = IntArray(n)
+                heapDistances = DoubleArray(n)
             }
-        } else {
-            if (target.upstairsPoint[axis] < node.point.upstairsPoint[axis]) {
-                delete(node, node.left, target, depth + 1)
-            } else {
-                delete(node, node.right, target, depth + 1)
+        }
+
+        fun order(n: Int): IntArray {
+            if (order.size < n) order = IntArray(max(n, order.size * 2))
+            return order
+        }
+
+        fun result(n: Int): IntArray {
+            if (result.size < n) result = IntArray(n)
+            return result
+        }
+
+        /**
+         * Max heap on distance.
+         */
+        fun push(index: Int, distance: Double) {
+            var i = heapSize++
+            while (i > 0) {
+                val parent = (i - 1) / 2
+                if (heapDistances[parent] >= distance) break
+                heapDistances[i] = heapDistances[parent]
+                heapIndices[i] = heapIndices[parent]
+                i = parent
             }
+            heapDistances[i] = distance
+            heapIndices[i] = index
         }
 
-        return node
+        fun pop() {
+            heapSize--
+            if (heapSize == 0) return
+            val distance = heapDistances[heapSize]
+            val index = heapIndices[heapSize]
+            var i = 0
+            while (true) {
+                var child = 2 * i + 1
+                if (child >= heapSize) break
+                if (child + 1 < heapSize && heapDistances[child + 1] > heapDistances[child]) child++
+                if (heapDistances[child] <= distance) break
+                heapDistances[i] = heapDistances[child]
+                heapIndices[i] = heapIndices[child]
+                i = child
+            }
+            heapDistances[i] = distance
+            heapIndices[i] = index
+        }
     }
 
-    fun clear() {
-        root = null
-        pointCount = 0
+    companion object {
+
+        private const val NONE = -1
+
+        private const val INITIAL_CAPACITY = 16
+
+        /**
+         * Balance factor. A subtree of size n is rebuilt when it is deeper than log base 1/alpha of n.
+         */
+        private const val ALPHA = 0.7
+
+        private val LOG_INVERSE_ALPHA = ln(1 / ALPHA)
+
+        private val buffers = ThreadLocal.withInitial { SearchBuffers() }
     }
 
 }
@@ -219,7 +491,7 @@ class KDTreeConvertor : Converter {
         val datapoints = context.convertAnother(reader.value, ArrayList::class.java) as List<DataPoint>
         reader.moveUp()
         val kdTree = KDTree(dims)
-        datapoints.forEach { kdTree.insert(it) }
+        kdTree.insertAll(datapoints)
         return kdTree
     }
 }
@@ -40,6 +40,7 @@ class Projector(initialDimension: Int = 25) : EditableObject, CoroutineScope {
     var projectionMethod: ProjectionMethod = PCAProjection()
         set(value) {
             val oldMethod = field
+            (oldMethod as? BackgroundProjectionMethod)?.stopBackground()
             field = value
             initProjector()
             events.methodChanged.fire(oldMethod, value)
@@ -89,6 +90,18 @@ class Projector(initialDimension: Int = 25) : EditableObject, CoroutineScope {
         }
     }
 
+    /**
+     * Copy coordinates computed by a background projection method into the dataset and notify listeners. The
+     * coordinates must be in the same order as the points.
+     */
+    suspend fun publishDownstairs(points: List<DataPoint>, coordinates: Array<DoubleArray>, error: Double) {
+        synchronized(dataset) {
+            points.forEachIndexed { i, point -> point.setDownstairs(coordinates[i]) }
+        }
+        events.iterated.fire(error)
+        events.datasetChanged.fire().await()
+    }
+
     fun initProjector() {
         projectionMethod.init(dataset)
     }
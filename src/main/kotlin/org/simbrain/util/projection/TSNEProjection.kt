@@ -1,9 +1,14 @@
 package org.simbrain.util.projection
 
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import org.simbrain.util.UserParameter
 import smile.manifold.TSNE
+import java.util.concurrent.Executors
 
-class TSNEProjection: ProjectionMethod(), IterableProjectionMethod  {
+class TSNEProjection: ProjectionMethod(), BackgroundProjectionMethod  {
 
     // TODO: Re-init when setting these parameters
 
@@ -13,6 +18,18 @@ class TSNEProjection: ProjectionMethod(), IterableProjectionMethod  {
     @UserParameter(label = "Learning Rate")
     var eta: Double = 200.0
 
+    @UserParameter(label = "Barnes-Hut", description = "If true, use the O(N log N) Barnes-Hut approximation, which " +
+            "includes points added after initialization and runs in the background. If false use exact t-SNE.")
+    var barnesHut: Boolean = false
+
+    @UserParameter(label = "Theta", description = "Barnes-Hut accuracy. 0 is exact, larger values are faster but " +
+            "less accurate", minimumValue = 0.0, increment = .1)
+    var theta: Double = 0.5
+
+    @UserParameter(label = "Iterations per update", description = "Number of gradient steps between published " +
+            "snapshots", minimumValue = 1.0)
+    var iterationsPerUpdate: Int = 10
+
     val downstairsInitializationMethod = CoordinateProjection()
     val downstairsInitializationMethod2 = TriangulateProjection()
 
@@ -20,9 +37,25 @@ class TSNEProjection: ProjectionMethod(), IterableProjectionMethod  {
 
     var tsne: TSNE? = null
 
+    @Transient
+    @Volatile
+    var barnesHutTSNE: BarnesHutTSNE? = null
+
+    @Transient
+    private var backgroundJob: Job? = null
+
     override fun init(dataset: Dataset) {
-        tsne = TSNE(dataset.computeUpstairsArray(), 2, perplexity, eta, 1000).also {
-            dataset.setDownstairsData(it.coordinates)
+        stopBackground()
+        if (barnesHut) {
+            tsne = null
+            barnesHutTSNE = BarnesHutTSNE(dataset, perplexity, eta, theta).also {
+                it.initFromDataset()
+            }
+        } else {
+            barnesHutTSNE = null
+            tsne = TSNE(dataset.computeUpstairsArray(), 2, perplexity, eta, 1000).also {
+                dataset.setDownstairsData(it.coordinates)
+            }
         }
     }
 
@@ -34,11 +67,35 @@ class TSNEProjection: ProjectionMethod(), IterableProjectionMethod  {
                 downstairsInitializationMethod2.addPoint(dataset, point)
             }
         }
+        if (barnesHut) {
+            // Start over from every point in the dataset, at their current positions, if the dataset was replaced or
+            // cleared. Points queued but not yet picked up by the optimizer count towards its size.
+            val current = barnesHutTSNE
+            if (current == null || current.dataset !== dataset || dataset.kdTree.size <= current.queuedSize) {
+                barnesHutTSNE = BarnesHutTSNE(dataset, perplexity, eta, theta).also { bh ->
+                    synchronized(dataset) {
+                        dataset.kdTree.forEach { bh.addPoint(it) }
+                    }
+                }
+            } else {
+                current.addPoint(point)
+            }
+        }
     }
 
     override var error: Double = 0.0
 
     override fun iterate(dataset: Dataset) {
+        if (barnesHut) {
+            val bh = barnesHutTSNE ?: initBarnesHut(dataset)
+            bh.step(iterationsPerUpdate)
+            error = bh.error
+            val (points, coordinates) = bh.snapshot()
+            synchronized(dataset) {
+                points.forEachIndexed { i, point -> point.setDownstairs(coordinates[i]) }
+            }
+            return
+        }
         tsne?.let {
             it.update(1000)
             dataset.setDownstairsData(it.coordinates)
@@ -46,8 +103,49 @@ class TSNEProjection: ProjectionMethod(), IterableProjectionMethod  {
         // TODO: Cost function?
     }
 
+    override val runsInBackground get() = barnesHut
+
+    private fun initBarnesHut(dataset: Dataset) = BarnesHutTSNE(dataset, perplexity, eta, theta).also {
+        it.initFromDataset()
+        barnesHutTSNE = it
+    }
+
+    /**
+     * Run Barnes-Hut optimization steps on the t-SNE thread until [stopBackground] is called, publishing a snapshot
+     * of the coordinates to the projector after every [iterationsPerUpdate] steps. The optimizer is looked up on each
+     * iteration, so that one replaced by [addPoint] or a new dataset is picked up without restarting.
+     */
+    override fun startBackground(projector: Projector) {
+        if (backgroundJob?.isActive == true) return
+        backgroundJob = projector.launch(tsneDispatcher) {
+            while (isActive) {
+                val dataset = projector.dataset
+                val bh = barnesHutTSNE?.takeIf { it.dataset === dataset } ?: initBarnesHut(dataset)
+                bh.step(iterationsPerUpdate)
+                error = bh.error
+                val (points, coordinates) = bh.snapshot()
+                projector.publishDownstairs(points, coordinates, error)
+            }
+        }
+    }
+
+    override fun stopBackground() {
+        backgroundJob?.cancel()
+        backgroundJob = null
+    }
+
     override fun copy() = TSNEProjection()
 
     override val name = "TSNE"
 
-}
\ No newline at end of file
+    companion object {
+        /**
+         * Background t-SNE optimization runs on its own thread so that it never competes with workspace updates for
+         * the default dispatcher.
+         */
+        private val tsneDispatcher = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "t-SNE").apply { isDaemon = true }
+        }.asCoroutineDispatcher()
+    }
+
+}
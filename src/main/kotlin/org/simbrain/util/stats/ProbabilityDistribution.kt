@@ -6,11 +6,13 @@ import com.thoughtworks.xstream.converters.reflection.ReflectionConverter
 import com.thoughtworks.xstream.converters.reflection.ReflectionProvider
 import com.thoughtworks.xstream.io.HierarchicalStreamReader
 import com.thoughtworks.xstream.mapper.Mapper
-import org.apache.commons.math3.random.JDKRandomGenerator
+import org.simbrain.util.RandomStreams
+import org.simbrain.util.SplittableRandomGenerator
 import org.simbrain.util.createConstructorCallingConverter
 import org.simbrain.util.getSimbrainXStream
 import org.simbrain.util.propertyeditor.CopyableObject
 import org.simbrain.util.stats.distributions.*
+import java.util.stream.IntStream
 import kotlin.reflect.KParameter
 import kotlin.reflect.jvm.javaType
 
@@ -25,10 +27,12 @@ import kotlin.reflect.jvm.javaType
 abstract class ProbabilityDistribution() : CopyableObject {
 
     /**
-     * Random generator for pseudo-random sequences on which a seed can be set.
+     * Random generator for pseudo-random sequences on which a seed can be set. It is not synchronized, so a
+     * distribution should be sampled by one thread at a time; see [sampleDouble] with [RandomStreams] for parallel
+     * sampling.
      */
     @Transient
-    val randomGenerator = JDKRandomGenerator()
+    val randomGenerator = SplittableRandomGenerator()
 
     /**
      * Use this to ensure two probability distributions return the same pseudo-random sequence of numbers.
@@ -49,6 +53,32 @@ abstract class ProbabilityDistribution() : CopyableObject {
 
     abstract fun sampleDouble(n: Int): DoubleArray
 
+    /**
+     * Write [length] samples into [array] starting at [offset]. Subclasses override this to sample in a tight loop
+     * straight from [randomGenerator], without allocating or going through commons math.
+     */
+    open fun fill(array: DoubleArray, offset: Int = 0, length: Int = array.size - offset) {
+        for (i in offset until offset + length) {
+            array[i] = sampleDouble()
+        }
+    }
+
+    /**
+     * Draw n samples in blocks of [SAMPLE_BLOCK_SIZE], in parallel. Block i is drawn by a copy of this distribution
+     * seeded from stream i of [streams], so the result depends only on the streams, not on the number of threads.
+     * This distribution's own generator is not used.
+     */
+    fun sampleDouble(n: Int, streams: RandomStreams): DoubleArray {
+        val samples = DoubleArray(n)
+        val blocks = (n + SAMPLE_BLOCK_SIZE - 1) / SAMPLE_BLOCK_SIZE
+        IntStream.range(0, blocks).parallel().forEach { block ->
+            val start = block * SAMPLE_BLOCK_SIZE
+            val dist = copy().also { it.randomSeed = streams.seedFor(block.toLong()) }
+            dist.fill(samples, start, minOf(SAMPLE_BLOCK_SIZE, n - start))
+        }
+        return samples
+    }
+
     abstract fun sampleInt(): Int
 
     abstract fun sampleInt(n: Int): IntArray
@@ -63,6 +93,11 @@ abstract class ProbabilityDistribution() : CopyableObject {
 
     companion object {
 
+        /**
+         * Number of samples drawn from each stream by [sampleDouble] with [RandomStreams].
+         */
+        const val SAMPLE_BLOCK_SIZE = 4096
+
         fun getXStream(): XStream {
             val xstream = getSimbrainXStream()
             xstream.registerConverter(createConstructorCallingConverter(listOf(ProbabilityDistribution::class.java), xstream.mapper, xstream.reflectionProvider))
@@ -35,7 +35,17 @@ class ExponentialDistribution(lambda: Double = 1.0, negate: Boolean = false)
 
     override fun sampleDouble(): Double = dist.sample().conditionalNegate()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n).conditionalNegate()
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    /**
+     * Uses the generator's ziggurat exponential sampler directly.
+     */
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val scale = (if (negate) -1.0 else 1.0) / lambda
+        for (i in offset until offset + length) {
+            array[i] = scale * randomGenerator.nextExponential()
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().toInt().conditionalNegate()
 
@@ -5,6 +5,9 @@ import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.NegatableDistribution
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.toIntArray
+import kotlin.math.ln
+import kotlin.math.pow
+import kotlin.math.sqrt
 
 /**
  * https://en.wikipedia.org/wiki/Gamma_distribution
@@ -41,7 +44,41 @@ class GammaDistribution(shape: Double = 2.0, scale: Double = 1.0, negate: Boolea
 
     override fun sampleDouble(): Double = dist.sample().conditionalNegate()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n).conditionalNegate()
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    /**
+     * Marsaglia and Tsang's method, which takes a normal and a uniform sample and accepts about 98% of the time. For
+     * shapes below 1 a sample with shape + 1 is scaled by u^(1 / shape).
+     *
+     * See https://doi.org/10.1145/358407.358414
+     */
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val sign = if (negate) -1.0 else 1.0
+        val boosted = shape < 1
+        val d = (if (boosted) shape + 1 else shape) - 1.0 / 3
+        val c = 1 / sqrt(9 * d)
+        for (i in offset until offset + length) {
+            var sample: Double
+            while (true) {
+                val x = randomGenerator.nextGaussian()
+                var v = 1 + c * x
+                if (v <= 0) {
+                    continue
+                }
+                v *= v * v
+                val u = randomGenerator.nextDouble()
+                val xx = x * x
+                if (u < 1 - 0.0331 * xx * xx || ln(u) < 0.5 * xx + d * (1 - v + ln(v))) {
+                    sample = d * v
+                    break
+                }
+            }
+            if (boosted) {
+                sample *= (1 - randomGenerator.nextDouble()).pow(1 / shape)
+            }
+            array[i] = sign * scale * sample
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().toInt().conditionalNegate()
 
@@ -47,7 +47,14 @@ class LogNormalDistribution(location: Double = 1.0, scale: Double = .5, negate:
 
     override fun sampleDouble(): Double = dist.sample().conditionalNegate()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n).conditionalNegate()
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val sign = if (negate) -1.0 else 1.0
+        for (i in offset until offset + length) {
+            array[i] = sign * exp(location + scale * randomGenerator.nextGaussian())
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().toInt().conditionalNegate()
 
@@ -34,7 +34,16 @@ class NormalDistribution(mean: Double = 0.0, standardDeviation: Double = 1.0): P
 
     override fun sampleDouble(): Double = dist.sample()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n)
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    /**
+     * Uses the generator's ziggurat normal sampler directly.
+     */
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        for (i in offset until offset + length) {
+            array[i] = mean + standardDeviation * randomGenerator.nextGaussian()
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().toInt()
 
@@ -5,6 +5,7 @@ import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.NegatableDistribution
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.toIntArray
+import kotlin.math.pow
 
 /**
  * https://en.wikipedia.org/wiki/Pareto_distribution
@@ -43,7 +44,19 @@ class ParetoDistribution(shape: Double = 3.0, scale: Double = 1.0, negate: Boole
 
     override fun sampleDouble(): Double = dist.sample().conditionalNegate()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n).conditionalNegate()
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    /**
+     * Inverse transform sampling.
+     */
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val sign = if (negate) -1.0 else 1.0
+        val exponent = -1 / shape
+        for (i in offset until offset + length) {
+            // 1 - u is in (0, 1]
+            array[i] = sign * scale * (1 - randomGenerator.nextDouble()).pow(exponent)
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().toInt().conditionalNegate()
 
@@ -4,7 +4,7 @@ import org.apache.commons.math3.distribution.AbstractIntegerDistribution
 import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.NegatableDistribution
 import org.simbrain.util.stats.ProbabilityDistribution
-import org.simbrain.util.toDoubleArray
+import kotlin.math.exp
 
 /**
  * https://en.wikipedia.org/wiki/Poisson_distribution
@@ -32,7 +32,31 @@ class PoissonDistribution(p: Double = 1.0, negate: Boolean = false)
 
     override fun sampleDouble(): Double = dist.sample().toDouble().conditionalNegate()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n).toDoubleArray().conditionalNegate()
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    /**
+     * For small means, counts uniform samples until their product falls below e^-p (Knuth's method), which takes
+     * p + 1 uniform samples on average. Larger means use the commons math sampler.
+     */
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val sign = if (negate) -1.0 else 1.0
+        if (p >= KNUTH_LIMIT) {
+            for (i in offset until offset + length) {
+                array[i] = sign * dist.sample()
+            }
+            return
+        }
+        val limit = exp(-p)
+        for (i in offset until offset + length) {
+            var count = 0
+            var product = randomGenerator.nextDouble()
+            while (product > limit) {
+                count++
+                product *= randomGenerator.nextDouble()
+            }
+            array[i] = sign * count
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().conditionalNegate()
 
@@ -52,4 +76,12 @@ class PoissonDistribution(p: Double = 1.0, negate: Boolean = false)
         return copy
     }
 
-}
\ No newline at end of file
+    companion object {
+
+        /**
+         * Means from which [fill] falls back to the commons math sampler, as Knuth's method slows down linearly.
+         */
+        private const val KNUTH_LIMIT = 30.0
+    }
+
+}
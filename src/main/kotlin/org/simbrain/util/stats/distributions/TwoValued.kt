@@ -30,7 +30,13 @@ class TwoValued(
     }
 
     override fun sampleDouble(n: Int): DoubleArray {
-        return DoubleArray(n) {sampleDouble()}
+        return DoubleArray(n).also { fill(it) }
+    }
+
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        for (i in offset until offset + length) {
+            array[i] = if (randomGenerator.nextDouble() > p) lowerValue else upperValue
+        }
     }
 
     override fun sampleInt(n: Int): IntArray {
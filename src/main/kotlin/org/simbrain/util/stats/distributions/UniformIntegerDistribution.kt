@@ -3,7 +3,6 @@ package org.simbrain.util.stats.distributions
 import org.apache.commons.math3.distribution.AbstractIntegerDistribution
 import org.simbrain.util.UserParameter
 import org.simbrain.util.stats.ProbabilityDistribution
-import org.simbrain.util.toDoubleArray
 import java.lang.Math.sqrt
 
 class UniformIntegerDistribution(floor:Int = 0, ceil: Int = 1) : ProbabilityDistribution() {
@@ -32,7 +31,14 @@ class UniformIntegerDistribution(floor:Int = 0, ceil: Int = 1) : ProbabilityDist
 
     override fun sampleDouble(): Double = dist.sample().toDouble()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n).toDoubleArray()
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val range = ceil.toLong() - floor + 1
+        for (i in offset until offset + length) {
+            array[i] = (floor + (randomGenerator.nextDouble() * range).toLong()).toDouble()
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample()
 
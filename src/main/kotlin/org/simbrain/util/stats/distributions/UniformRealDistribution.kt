@@ -33,7 +33,14 @@ class UniformRealDistribution(floor:Double = 0.0, ceil: Double = 1.0) : Probabil
 
     override fun sampleDouble(): Double = dist.sample()
 
-    override fun sampleDouble(n: Int): DoubleArray = dist.sample(n)
+    override fun sampleDouble(n: Int): DoubleArray = DoubleArray(n).also { fill(it) }
+
+    override fun fill(array: DoubleArray, offset: Int, length: Int) {
+        val range = ceil - floor
+        for (i in offset until offset + length) {
+            array[i] = floor + range * randomGenerator.nextDouble()
+        }
+    }
 
     override fun sampleInt(): Int = dist.sample().toInt()
 
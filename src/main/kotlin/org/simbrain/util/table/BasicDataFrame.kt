@@ -7,6 +7,9 @@ import kotlin.reflect.KClass
 
 /**
  * Mutable table whose columns have arbitrary types.
+ *
+ * Data are stored by column. Columns of doubles or ints use growable primitive arrays, so numeric tables can be
+ * appended to one row at a time (see [appendRow]) in amortized constant time and without boxing.
  */
 class BasicDataFrame(
     data: MutableList<MutableList<Any?>>,
@@ -17,12 +20,97 @@ class BasicDataFrame(
 
     override var isMutable = true
 
-    var data: MutableList<MutableList<Any?>> = data
+    private var columnStorage: MutableList<ColumnStorage> = mutableListOf()
+
+    private var size = 0
+
+    /**
+     * Row data from files saved before data were stored by column. See [readResolve].
+     */
+    private var legacyData: MutableList<MutableList<Any?>>? = null
+
+    @Transient
+    private var rowsView: RowsView? = null
+
+    init {
+        loadRows(data)
+    }
+
+    /**
+     * The table as a list of rows. The returned list and its rows are live views of the table, which can be used to
+     * read and write cells or add and remove rows. Setting the data replaces the contents of the table and infers new
+     * column types.
+     */
+    var data: MutableList<MutableList<Any?>>
+        get() = rowsView ?: RowsView().also { rowsView = it }
         set(value) {
-            field = value
+            loadRows(value)
             columns = inferColumns(columns.map { it.columName }, value)
         }
 
+    private fun loadRows(rows: List<List<Any?>>) {
+        val columnCount = rows.firstOrNull()?.size ?: columns.size
+        columnStorage = MutableList(columnCount) { col ->
+            ColumnStorage.of(rows.map { it[col] }, columns.getOrNull(col)?.type)
+        }
+        size = rows.size
+    }
+
+    private fun readResolve(): Any {
+        legacyData?.let {
+            loadRows(it)
+            legacyData = null
+        }
+        return this
+    }
+
+    /**
+     * Store a value without validation or events, converting the column to boxed storage if needed.
+     */
+    private fun storeValue(row: Int, col: Int, value: Any?) {
+        var storage = columnStorage[col]
+        if (!storage.accepts(value)) {
+            storage = storage.boxed(size).also { columnStorage[col] = it }
+        }
+        storage[row] = value
+    }
+
+    private fun insertRowValues(row: Int, values: List<Any?>) {
+        if (values.size != columnCount) {
+            throw IllegalArgumentException("Row has ${values.size} values but table has $columnCount columns")
+        }
+        columnStorage.forEach { it.makeRoom(row, size) }
+        size++
+        values.forEachIndexed { col, value -> storeValue(row, col, value) }
+    }
+
+    private fun removeRowValues(row: Int) {
+        columnStorage.forEach { it.remove(row, size) }
+        size--
+    }
+
+    /**
+     * Append a row of numbers to the bottom of the table. Values are stored without boxing in double columns.
+     */
+    @JvmOverloads
+    fun appendRow(row: DoubleArray, fireEvent: Boolean = true) {
+        if (row.size != columnCount) {
+            throw IllegalArgumentException("Row has ${row.size} values but table has $columnCount columns")
+        }
+        columnStorage.forEach { it.makeRoom(size, size) }
+        size++
+        columnStorage.forEachIndexed { col, storage ->
+            if (storage is ColumnStorage.DoubleColumnStorage) {
+                storage.values[size - 1] = row[col]
+            } else {
+                storeValue(size - 1, col, row[col])
+            }
+        }
+        if (fireEvent) {
+            fireTableRowsInserted(size - 1, size - 1)
+        }
+    }
+
     /**
      * Insert column to left, unless the index is -1 (no selection) in which case it is added as the right-most column.
      */
@@ -35,7 +123,7 @@ class BasicDataFrame(
         if (colIndex in -1 until columnCount) {
             val newColumn = Column(name, type)
             columns.add(newColIndex, newColumn)
-            data.forEach { row -> row.add(newColIndex, newColumn.type.defaultValue) }
+            columnStorage.add(newColIndex, ColumnStorage.of(List(size) { newColumn.type.defaultValue }, newColumn.type))
             fireTableStructureChanged()
         }
     }
@@ -46,7 +134,7 @@ class BasicDataFrame(
 
     override fun deleteColumn(colIndex: Int, fireEvent: Boolean) {
         if (validateColumnIndex(colIndex)) {
-            data.forEach { row -> row.removeAt(colIndex) }
+            columnStorage.removeAt(colIndex)
             if (fireEvent) {
                 fireTableStructureChanged()
             }
@@ -59,7 +147,7 @@ class BasicDataFrame(
     override fun insertRow(selectedRow: Int) {
         val newRowIndex = if (selectedRow == -1) rowCount else selectedRow
         if (selectedRow in -1..rowCount) {
-            data.add(newRowIndex, MutableList(columnCount) { columns[it].type.defaultValue })
+            insertRowValues(newRowIndex, List(columnCount) { columns[it].type.defaultValue })
             swingInvokeLater {
                 fireTableStructureChanged()
             }
@@ -68,7 +156,7 @@ class BasicDataFrame(
 
     override fun setRow(selectedRow: Int, row: Array<out Any?>) {
         if (validateRowIndex(selectedRow) && row.size == columnCount) {
-            data[selectedRow].forEachIndexed { index, _ ->
+            for (index in 0 until columnCount) {
                 setValueAt(row[index], selectedRow, index)
             }
             fireTableDataChanged()
@@ -82,7 +170,7 @@ class BasicDataFrame(
             return
         }
         if (validateRowIndex(rowIndex)) {
-            data.removeAt(rowIndex)
+            removeRowValues(rowIndex)
             if (fireEvent) {
                 fireTableStructureChanged()
             }
@@ -90,16 +178,16 @@ class BasicDataFrame(
     }
 
     override fun getRowCount(): Int {
-        return data.size
+        return size
     }
 
     override fun getColumnCount(): Int {
-        return data[0].size
+        return columnStorage.size
     }
 
     override fun getValueAt(rowIndex: Int, columnIndex: Int): Any? {
         if (validateRowIndex(rowIndex) && validateColumnIndex(columnIndex)) {
-            return data[rowIndex][columnIndex]
+            return columnStorage[columnIndex][rowIndex]
         }
         return null
     }
@@ -107,12 +195,83 @@ class BasicDataFrame(
     override fun setValueAt(value: Any?, rowIndex: Int, colIndex: Int) {
         if (canEditAt(rowIndex, colIndex) && validateRowIndex(rowIndex) && validateColumnIndex(colIndex)) {
             withValidatedValue(value, colIndex) {
-                data[rowIndex][colIndex] = it
+                storeValue(rowIndex, colIndex, it)
                 fireTableDataChanged()
             }
         }
     }
 
+    /**
+     * Copies primitive columns directly rather than cell by cell.
+     */
+    override fun getDoubleColumn(col: Int): DoubleArray {
+        if (columns[col].isNumeric()) {
+            return columnStorage[col].toDoubleArray(size)
+        }
+        throw Error("getDoubleColumn called on a non-numeric column")
+    }
+
+    override fun get2DDoubleArray(): Array<DoubleArray> {
+        if (!columnsOfType(Double::class.java)) {
+            throw Error("getDoubleArray called on a non-numeric column")
+        }
+        val columnValues = columnStorage.map { it.toDoubleArray(size) }
+        return Array(size) { row -> DoubleArray(columnCount) { col -> columnValues[col][row] } }
+    }
+
+    override fun toMatrix(): Matrix {
+        if (!columnsOfType(Double::class.java, Int::class.java)) {
+            throw Error("toMatrix called on a non-numeric column")
+        }
+        // Smile matrices are column major, so each column is a single contiguous copy
+        val values = DoubleArray(size * columnCount)
+        columnStorage.forEachIndexed { col, storage ->
+            when (storage) {
+                is ColumnStorage.DoubleColumnStorage -> System.arraycopy(storage.values, 0, values, col * size, size)
+                else -> storage.toDoubleArray(size).copyInto(values, col * size)
+            }
+        }
+        return Matrix(size, columnCount, size, values)
+    }
+
+    /**
+     * Live view of the table as a list of rows.
+     */
+    private inner class RowsView : AbstractMutableList<MutableList<Any?>>() {
+        override val size get() = rowCount
+        override fun get(index: Int): MutableList<Any?> = RowView(index)
+        override fun set(index: Int, element: MutableList<Any?>): MutableList<Any?> {
+            val previous = get(index).toMutableList()
+            element.forEachIndexed { col, value -> storeValue(index, col, value) }
+            return previous
+        }
+        override fun add(index: Int, element: MutableList<Any?>) = insertRowValues(index, element)
+        override fun removeAt(index: Int): MutableList<Any?> {
+            val previous = get(index).toMutableList()
+            removeRowValues(index)
+            return previous
+        }
+    }
+
+    /**
+     * Live view of one row. Cells can be read and written but the number of columns cannot be changed.
+     */
+    private inner class RowView(val row: Int) : AbstractMutableList<Any?>() {
+        override val size get() = columnCount
+        override fun get(index: Int) = columnStorage[index][row]
+        override fun set(index: Int, element: Any?): Any? {
+            val previous = get(index)
+            storeValue(row, index, element)
+            return previous
+        }
+        override fun add(index: Int, element: Any?) {
+            throw UnsupportedOperationException("Use insertColumn")
+        }
+        override fun removeAt(index: Int): Any? {
+            throw UnsupportedOperationException("Use deleteColumn")
+        }
+    }
+
     /**
      * Tries to parse a value into the type associated with a column, and executes a block if the parse is successful.
      */
@@ -0,0 +1,127 @@
+package org.simbrain.util.table
+
+/**
+ * Growable storage for one column of a [BasicDataFrame]. Columns of doubles or ints are kept in primitive arrays.
+ * Any other column, or a column that is given a value its array cannot hold exactly (like a null, or a string in a
+ * numeric column), is kept as boxed objects.
+ *
+ * Capacity grows geometrically, so appending rows is amortized O(1). The number of rows in use is tracked by the
+ * owning data frame.
+ */
+internal sealed class ColumnStorage {
+
+    abstract val capacity: Int
+
+    abstract operator fun get(row: Int): Any?
+
+    abstract operator fun set(row: Int, value: Any?)
+
+    /**
+     * True if the value can be stored as is. If not, the column must first be converted with [boxed].
+     */
+    abstract fun accepts(value: Any?): Boolean
+
+    protected abstract fun resize(newCapacity: Int)
+
+    /**
+     * Copy count entries starting at from so they start at to (ranges may overlap).
+     */
+    protected abstract fun move(from: Int, to: Int, count: Int)
+
+    /**
+     * Open a slot at the given row by shifting later rows down. [size] is the number of rows before insertion. The
+     * slot must then be set.
+     */
+    fun makeRoom(row: Int, size: Int) {
+        if (size == capacity) resize(maxOf(MIN_CAPACITY, capacity + (capacity shr 1)))
+        move(row, row + 1, size - row)
+    }
+
+    /**
+     * Remove the given row, shifting later rows up. [size] is the number of rows before removal.
+     */
+    open fun remove(row: Int, size: Int) {
+        move(row + 1, row, size - row - 1)
+    }
+
+    /**
+     * The first [size] values as doubles, in a new array. Nulls become NaN.
+     */
+    open fun toDoubleArray(size: Int) = DoubleArray(size) { (get(it) as Number?)?.toDouble() ?: Double.NaN }
+
+    /**
+     * Copy of this column as boxed objects.
+     */
+    fun boxed(size: Int) = ObjectColumnStorage(Array(maxOf(capacity, MIN_CAPACITY)) { if (it < size) get(it) else null })
+
+    class DoubleColumnStorage(var values: DoubleArray) : ColumnStorage() {
+        override val capacity get() = values.size
+        override fun get(row: Int): Any = values[row]
+        override fun set(row: Int, value: Any?) {
+            values[row] = value as Double
+        }
+        override fun accepts(value: Any?) = value is Double
+        override fun resize(newCapacity: Int) {
+            values = values.copyOf(newCapacity)
+        }
+        override fun move(from: Int, to: Int, count: Int) = System.arraycopy(values, from, values, to, count)
+        override fun toDoubleArray(size: Int) = values.copyOf(size)
+    }
+
+    class IntColumnStorage(var values: IntArray) : ColumnStorage() {
+        override val capacity get() = values.size
+        override fun get(row: Int): Any = values[row]
+        override fun set(row: Int, value: Any?) {
+            values[row] = value as Int
+        }
+        override fun accepts(value: Any?) = value is Int
+        override fun resize(newCapacity: Int) {
+            values = values.copyOf(newCapacity)
+        }
+        override fun move(from: Int, to: Int, count: Int) = System.arraycopy(values, from, values, to, count)
+        override fun toDoubleArray(size: Int) = DoubleArray(size) { values[it].toDouble() }
+    }
+
+    class ObjectColumnStorage(var values: Array<Any?>) : ColumnStorage() {
+        override val capacity get() = values.size
+        override fun get(row: Int) = values[row]
+        override fun set(row: Int, value: Any?) {
+            values[row] = value
+        }
+        override fun accepts(value: Any?) = true
+        override fun resize(newCapacity: Int) {
+            values = values.copyOf(newCapacity)
+        }
+        override fun move(from: Int, to: Int, count: Int) = System.arraycopy(values, from, values, to, count)
+        override fun remove(row: Int, size: Int) {
+            super.remove(row, size)
+            // Release the reference left in the vacated slot
+            values[size - 1] = null
+        }
+    }
+
+    companion object {
+
+        const val MIN_CAPACITY = 16
+
+        /**
+         * Storage holding the given values, using a primitive array if they are all doubles or all ints. An empty
+         * column uses the primitive array for its declared type, if any.
+         */
+        fun of(values: List<Any?>, type: Column.DataType? = null): ColumnStorage {
+            val capacity = maxOf(MIN_CAPACITY, values.size)
+            val storage = when {
+                values.isEmpty() -> when (type) {
+                    Column.DataType.DoubleType -> DoubleColumnStorage(DoubleArray(capacity))
+                    Column.DataType.IntType -> IntColumnStorage(IntArray(capacity))
+                    else -> ObjectColumnStorage(arrayOfNulls(capacity))
+                }
+                values.all { it is Double } -> DoubleColumnStorage(DoubleArray(capacity))
+                values.all { it is Int } -> IntColumnStorage(IntArray(capacity))
+                else -> ObjectColumnStorage(arrayOfNulls(capacity))
+            }
+            values.forEachIndexed { i, value -> storage[i] = value }
+            return storage
+        }
+    }
+}
@@ -5,9 +5,15 @@ import smile.math.matrix.Matrix
 
 /**
  * Wraps a Smile Matrix.
+ *
+ * When rows are inserted or deleted, the data are moved into a column-major array with spare row capacity, and [data]
+ * is replaced by a matrix that views that array (its leading dimension is the capacity). Appending rows is then
+ * amortized O(1). [toMatrix] returns a copy, and [matrixView] returns [data] itself for callers that must not copy.
+ * Matrices previously obtained from [data] or [matrixView] may share the array and should not be used after rows are
+ * inserted or deleted.
  */
 class MatrixDataFrame @JvmOverloads constructor(
-    var data: Matrix,
+    data: Matrix,
     override var columns: MutableList<Column> = List(data.ncol()) { colNum ->
         Column("Column ${colNum + 1}", Column.DataType.DoubleType)
     }.toMutableList()
@@ -15,6 +21,25 @@ class MatrixDataFrame @JvmOverloads constructor(
 
     override val isMutable = true
 
+    var data: Matrix = data
+        set(value) {
+            field = value
+            storage = null
+        }
+
+    /**
+     * Column-major backing array of [data] once rows have been inserted or deleted, else null. Not serialized, since
+     * [data] already holds the array; it is rebuilt from [data] on the next insertion or deletion.
+     */
+    @Transient
+    private var storage: DoubleArray? = null
+
+    /**
+     * Number of rows [storage] has room for; the leading dimension of [data] when storage is used.
+     */
+    @Transient
+    private var capacity = 0
+
     override fun getRowCount(): Int {
         return data.nrow()
     }
@@ -37,22 +62,70 @@ class MatrixDataFrame @JvmOverloads constructor(
         }
     }
 
+    /**
+     * Make sure [storage] exists and can hold the given number of rows, copying the current data into it if needed.
+     */
+    private fun ensureCapacity(rows: Int): DoubleArray {
+        val current = storage
+        if (current != null && capacity >= rows) {
+            return current
+        }
+        val newCapacity = maxOf(16, rows + (rows shr 1))
+        val newStorage = DoubleArray(newCapacity * data.ncol())
+        for (j in 0 until data.ncol()) {
+            if (current != null) {
+                System.arraycopy(current, j * capacity, newStorage, j * newCapacity, data.nrow())
+            } else {
+                data.col(j).copyInto(newStorage, j * newCapacity)
+            }
+        }
+        storage = newStorage
+        capacity = newCapacity
+        return newStorage
+    }
+
+    /**
+     * Replace [data] with a view of the storage array with the given number of rows.
+     */
+    private fun resizeView(rows: Int, backing: DoubleArray) {
+        data = Matrix(rows, data.ncol(), capacity, backing)
+        // The setter forgets the storage, but the new matrix is a view of it
+        storage = backing
+    }
+
     override fun insertRow(rowIndex: Int) {
         val newRowIndex = if (rowIndex == -1) rowCount else rowIndex
         if (newRowIndex in -1 .. rowCount) {
-            val oldData = data
-            data = Matrix(data.nrow() + 1, data.ncol())
-            for (i in 0 until newRowIndex)
-                for (j in 0 until data.ncol())
-                    data[i,j] = oldData[i,j]
-            for (i in newRowIndex + 1 until data.nrow())
-                for (j in 0 until data.ncol())
-                    data[i,j] = oldData[i-1,j]
-
+            insertRowValues(newRowIndex, null)
             fireTableStructureChanged()
         }
     }
 
+    private fun insertRowValues(rowIndex: Int, values: DoubleArray?) {
+        val rows = data.nrow()
+        val array = ensureCapacity(rows + 1)
+        for (j in 0 until data.ncol()) {
+            val offset = j * capacity
+            System.arraycopy(array, offset + rowIndex, array, offset + rowIndex + 1, rows - rowIndex)
+            array[offset + rowIndex] = values?.get(j) ?: 0.0
+        }
+        resizeView(rows + 1, array)
+    }
+
+    /**
+     * Append a row to the bottom of the table in amortized constant time.
+     */
+    @JvmOverloads
+    fun appendRow(row: DoubleArray, fireEvent: Boolean = true) {
+        if (row.size != columnCount) {
+            throw IllegalArgumentException("Row has ${row.size} values but table has $columnCount columns")
+        }
+        insertRowValues(rowCount, row)
+        if (fireEvent) {
+            fireTableRowsInserted(rowCount - 1, rowCount - 1)
+        }
+    }
+
     override fun setRow(selectedRow: Int, row: Array<out Any?>) {
         if (validateRowIndex(selectedRow) && row.size == columnCount) {
             for (i in 0 until columnCount) {
@@ -67,17 +140,43 @@ class MatrixDataFrame @JvmOverloads constructor(
             return
         }
         if (validateRowIndex(rowIndex)) {
-            val oldData = data
-            data = Matrix(data.nrow() - 1, data.ncol())
-            for (i in 0 until rowIndex)
-                for (j in 0 until data.ncol())
-                    data[i,j] = oldData[i,j]
-            for (i in rowIndex + 1 until data.nrow())
-                for (j in 0 until data.ncol())
-                    data[i-1,j] = oldData[i,j]
+            val rows = data.nrow()
+            val array = ensureCapacity(rows)
+            for (j in 0 until data.ncol()) {
+                val offset = j * capacity
+                System.arraycopy(array, offset + rowIndex + 1, array, offset + rowIndex, rows - rowIndex - 1)
+            }
+            resizeView(rows - 1, array)
             if (fireEvent) {
                 fireTableStructureChanged()
             }
         }
     }
+
+    override fun getDoubleColumn(col: Int): DoubleArray = data.col(col)
+
+    override fun get2DDoubleArray(): Array<DoubleArray> = data.toArray()
+
+    /**
+     * Returns a copy of the table as a matrix with no spare row capacity.
+     */
+    override fun toMatrix(): Matrix {
+        val rows = data.nrow()
+        val values = DoubleArray(rows * data.ncol())
+        val backing = storage
+        for (j in 0 until data.ncol()) {
+            if (backing != null) {
+                System.arraycopy(backing, j * capacity, values, j * rows, rows)
+            } else {
+                data.col(j).copyInto(values, j * rows)
+            }
+        }
+        return Matrix(rows, data.ncol(), rows, values)
+    }
+
+    /**
+     * Returns [data] itself without copying, so changes to the matrix are changes to the table. See the class comment
+     * for when the matrix stops sharing the table's storage.
+     */
+    fun matrixView(): Matrix = data
 }
@@ -7,6 +7,7 @@ import org.simbrain.util.propertyeditor.EditableObject
 import org.simbrain.util.stats.ProbabilityDistribution
 import org.simbrain.util.stats.distributions.UniformRealDistribution
 import smile.data.type.DataType
+import smile.math.matrix.Matrix
 import javax.swing.table.AbstractTableModel
 
 /**
@@ -70,7 +71,7 @@ abstract class SimbrainDataFrame : AbstractTableModel() {
     /**
      * Returns a column (assumed to be numeric) as a double array.
      */
-    fun getDoubleColumn(col: Int): DoubleArray {
+    open fun getDoubleColumn(col: Int): DoubleArray {
         if (columns[col].isNumeric()) {
             return (0 until rowCount)
                 .map { (getValueAt(it, col) as Number).toDouble() }
@@ -185,7 +186,7 @@ abstract class SimbrainDataFrame : AbstractTableModel() {
      *
      * Numeric types are cast to doubles.
      */
-    fun get2DDoubleArray(): Array<DoubleArray> {
+    open fun get2DDoubleArray(): Array<DoubleArray> {
         if (!columnsOfType(Double::class.java)) {
             throw Error("getDoubleArray called on a non-numeric column")
         }
@@ -194,6 +195,11 @@ abstract class SimbrainDataFrame : AbstractTableModel() {
             .toTypedArray()
     }
 
+    /**
+     * Returns a copy of the numeric table as a Smile matrix.
+     */
+    open fun toMatrix(): Matrix = Matrix.of(get2DDoubleArray())
+
     /**
      * Returns an array of float array rows for the table (comparable to "row major" order).
      *
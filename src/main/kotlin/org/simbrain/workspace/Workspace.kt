@@ -2,6 +2,7 @@ package org.simbrain.workspace
 
 import kotlinx.coroutines.*
 import org.pmw.tinylog.Logger
+import org.simbrain.util.RandomStreams
 import org.simbrain.util.SimpleIdManager
 import org.simbrain.util.Utils
 import org.simbrain.workspace.couplings.Coupling
@@ -82,6 +83,18 @@ class Workspace: CoroutineScope {
     var savedTime = 0
         private set
 
+    /**
+     * If set, each component added to the workspace is seeded from its own stream of this seed, keyed by the
+     * component's name (see [WorkspaceComponent.seedRandom]), so that a workspace built the same way runs the same way.
+     */
+    var randomSeed: Long? = null
+        set(value) {
+            field = value
+            if (value != null) {
+                componentList.forEach { it.seedRandom(RandomStreams(value).child(it.name)) }
+            }
+        }
+
     /**
      * Listeners on this workspace. The CopyOnWriteArrayList is not a problem
      * because writes to this list are uncommon.
@@ -124,6 +137,7 @@ class Workspace: CoroutineScope {
         if (component.name.isEmpty()) {
             component.name = idManager.getAndIncrementId(component.javaClass)
         }
+        randomSeed?.let { component.seedRandom(RandomStreams(it).child(component.name)) }
 
         events.componentAdded.fireAndBlock(component)
         component.events.attributeContainerRemoved.on { attributeContainer: AttributeContainer? ->
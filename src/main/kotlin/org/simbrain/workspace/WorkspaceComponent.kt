@@ -19,6 +19,7 @@
 package org.simbrain.workspace
 
 import org.pmw.tinylog.Logger
+import org.simbrain.util.RandomStreams
 import org.simbrain.workspace.couplings.CouplingManager
 import org.simbrain.workspace.events.WorkspaceComponentEvents
 import java.io.File
@@ -161,6 +162,11 @@ abstract class WorkspaceComponent(name: String) {
         // TODO: If there is no Gui then close must be called directly
     }
 
+    /**
+     * Seed the component's random generators from the given streams. Called when the workspace has a random seed.
+     */
+    open fun seedRandom(streams: RandomStreams) {}
+
     /**
      * Closes the WorkspaceComponent.
      */
@@ -1,5 +1,7 @@
 package org.simbrain.workspace.serialization
 
+import org.simbrain.util.UpdatePhase
+import org.simbrain.util.UpdateTelemetry
 import org.simbrain.util.getSimbrainXStream
 import org.simbrain.workspace.Workspace
 import org.simbrain.workspace.WorkspaceComponent
@@ -22,7 +24,7 @@ class WorkspaceSerializer(val workspace: Workspace) {
      * @throws IOException If there is an IO error.
      */
     @JvmOverloads
-    fun serialize(output: OutputStream, headless: Boolean = false) {
+    fun serialize(output: OutputStream, headless: Boolean = false) = UpdateTelemetry.measure(UpdatePhase.Serialization, "save workspace") {
         // Create the zip output stream. ZipStream is a sequence of
         // ZipEntries, with extra utilities for iterating over them.
         // Each zipentry corresponds to a single file in the zip archive, a
@@ -96,7 +98,9 @@ class WorkspaceSerializer(val workspace: Workspace) {
         var entry: ZipEntry? = ZipEntry(archiveComp.getUri())
         try {
             zipStream.putNextEntry(entry)
-            serializer.serializeComponent(component, zipStream)
+            UpdateTelemetry.measure(UpdatePhase.Serialization, "save ${component.javaClass.simpleName}") {
+                serializer.serializeComponent(component, zipStream)
+            }
             if (!headless) {
                 val desktopComponent = getDesktopComponent(component)
                 // Makes it possible to save a non-GUI simulation
@@ -172,7 +176,7 @@ class WorkspaceSerializer(val workspace: Workspace) {
      * @throws IOException if an IO error occurs.
      */
     @Throws(IOException::class)
-    fun deserialize(stream: InputStream) {
+    fun deserialize(stream: InputStream) = UpdateTelemetry.measure(UpdatePhase.Serialization, "load workspace") {
         val byteArrays = processInputStream(stream)
         val archive =
             ArchivedWorkspace.xstream().fromXML(ByteArrayInputStream(byteArrays["contents.xml"])) as ArchivedWorkspace
@@ -2,6 +2,8 @@ package org.simbrain.workspace.updater
 
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
+import org.simbrain.util.UpdatePhase
+import org.simbrain.util.UpdateTelemetry
 import org.simbrain.workspace.gui.PerformanceMonitorPanel
 import kotlin.system.measureNanoTime
 
@@ -54,11 +56,14 @@ object PerformanceMonitor {
     }
 
     /**
-     * Convenient way to invoke actions and record their performance.
+     * Convenient way to invoke actions and record their performance, here and in [UpdateTelemetry].
      */
     suspend operator fun UpdateAction.invoke() {
-        record(this, description?: "(Unnamed Action)") {
-            run()
+        val name = description?: "(Unnamed Action)"
+        record(this, name) {
+            UpdateTelemetry.measure(UpdatePhase.WorkspaceAction, name) {
+                run()
+            }
         }
     }
 }
@@ -4,6 +4,8 @@ import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
 import org.pmw.tinylog.Logger
+import org.simbrain.util.UpdatePhase
+import org.simbrain.util.UpdateTelemetry
 
 /**
  * This is the default action for all workspace updates.
@@ -21,7 +23,9 @@ class UpdateAllAction(@Transient val updater: WorkspaceUpdater) : UpdateAction(d
             .map {
             async {
                PerformanceMonitor.record("Updating Component ${it.name}") {
-                   it.update()
+                   UpdateTelemetry.measure(UpdatePhase.Component, it.name) {
+                       it.update()
+                   }
                }
             }
         }.awaitAll()
@@ -31,7 +35,9 @@ class UpdateAllAction(@Transient val updater: WorkspaceUpdater) : UpdateAction(d
      * Update couplings.
      */
     suspend fun updateCouplings() {
-        updater.workspace.couplingManager.updateCouplings()
+        UpdateTelemetry.measure(UpdatePhase.Couplings, "couplings") {
+            updater.workspace.couplingManager.updateCouplings()
+        }
         Logger.trace("couplings updated")
         updater.events.couplingsUpdates.fire()
     }
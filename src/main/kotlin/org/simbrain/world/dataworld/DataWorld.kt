@@ -33,7 +33,7 @@ class DataWorld(val rows: Int = 30, val cols: Int = 5): AttributeContainer, Edit
     fun setCurrentNumericRow(row: DoubleArray) {
         dataModel.setRow(dataModel.currentRowIndex, row.toTypedArray())
         if (appendMode == DataEntryMode.APPEND && dataModel.currentRowIndex == dataModel.rowCount - 1) {
-            dataModel.insertRow(dataModel.currentRowIndex + 1)
+            dataModel.appendRow(DoubleArray(dataModel.columnCount))
         }
     }
 
@@ -136,7 +136,7 @@ class ImageWorldDesktopComponent(frame: GenericFrame, component: ImageWorldCompo
             } else {
                 image.setRGB(x, y, penColor.rgb)
             }
-            imageWorld.imageAlbum.fireImageUpdate()
+            imageWorld.imageAlbum.currentImageEdited()
         }
     }
 
@@ -298,7 +298,7 @@ class ImageWorldDesktopComponent(frame: GenericFrame, component: ImageWorldCompo
             val confirm = showWarningConfirmDialog("Are you sure you want to fill the canvas?")
             if (confirm == JOptionPane.YES_OPTION) {
                 imageWorld.imageAlbum.currentImage.fill(penColor)
-                imageWorld.imageAlbum.fireImageUpdate()
+                imageWorld.imageAlbum.currentImageEdited()
             }
         }
         val clearCanvasAction = org.simbrain.util.createAction(
@@ -309,7 +309,7 @@ class ImageWorldDesktopComponent(frame: GenericFrame, component: ImageWorldCompo
             val confirm = showWarningConfirmDialog("Are you sure you want to clear the canvas?")
             if (confirm == JOptionPane.YES_OPTION) {
                 imageWorld.imageAlbum.currentImage.fill(Color.black)
-                imageWorld.imageAlbum.fireImageUpdate()
+                imageWorld.imageAlbum.currentImageEdited()
             }
         }
 
@@ -418,9 +418,15 @@ class ImageWorldDesktopComponent(frame: GenericFrame, component: ImageWorldCompo
         fileChooser.setDescription("Select images to load")
         val files = fileChooser.showMultiOpenDialogNative()
         if (files != null) {
-            // Load the images
-
-            imageWorld.loadImages(files)
+            // Large albums can be read from disk as needed, but are then saved as file paths
+            val diskBacked = files.size > ImageAlbum.DISK_BACKED_THRESHOLD && JOptionPane.showConfirmDialog(
+                null,
+                "Load the ${files.size} images from disk as they are shown, rather than into memory?\n" +
+                        "The workspace will then refer to the image files instead of saving the images.",
+                "Load images",
+                JOptionPane.YES_NO_OPTION
+            ) == JOptionPane.YES_OPTION
+            imageWorld.loadImages(files, diskBacked)
 
             // Update status of buttons
             updateToolbar()
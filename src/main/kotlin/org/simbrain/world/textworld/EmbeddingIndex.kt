@@ -0,0 +1,598 @@
+package org.simbrain.world.textworld
+
+import org.simbrain.util.SparseRowMatrix
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+/**
+ * How vectors are compared when searching an [EmbeddingIndex].
+ */
+enum class EmbeddingMetric {
+    /**
+     * Smaller euclidean distance is closer. Scores are distances.
+     */
+    EUCLIDEAN,
+
+    /**
+     * Larger cosine similarity is closer, consistent with [org.simbrain.util.embeddingSimilarity]. Scores are
+     * similarities. Zero vectors have similarity 0 to everything.
+     */
+    COSINE
+}
+
+enum class EmbeddingIndexType {
+    /**
+     * Exact brute force scan. Best for small vocabularies and as a reference.
+     */
+    EXACT,
+
+    /**
+     * Approximate search using a hierarchical navigable small world graph. Much faster for large vocabularies.
+     */
+    HNSW
+}
+
+/**
+ * Nearest neighbor search over the rows of an embedding matrix.
+ */
+interface EmbeddingIndex {
+
+    val metric: EmbeddingMetric
+
+    /**
+     * Number of indexed vectors.
+     */
+    val size: Int
+
+    val dimension: Int
+
+    /**
+     * Find the (up to) k indexed rows closest to the query. Row indices are written to indices, best first, and if
+     * provided their scores (see [EmbeddingMetric]) to scores.
+     *
+     * @return the number of results written
+     */
+    fun search(query: DoubleArray, k: Int, indices: IntArray, scores: DoubleArray? = null): Int
+
+    /**
+     * Index of the closest row, or -1 if the index is empty.
+     */
+    fun nearest(query: DoubleArray): Int
+
+}
+
+fun createEmbeddingIndex(
+    type: EmbeddingIndexType,
+    rows: EmbeddingRows,
+    metric: EmbeddingMetric
+): EmbeddingIndex = when (type) {
+    EmbeddingIndexType.EXACT -> ExactEmbeddingIndex(rows, metric)
+    EmbeddingIndexType.HNSW -> HNSWEmbeddingIndex(rows, metric)
+}
+
+fun createEmbeddingIndex(
+    type: EmbeddingIndexType,
+    rows: Array<DoubleArray>,
+    metric: EmbeddingMetric
+) = createEmbeddingIndex(type, DenseEmbeddingRows(rows), metric)
+
+/**
+ * The vectors searched by an [EmbeddingIndex]. Indexes only use dot products, so the rows can be stored densely or
+ * sparsely.
+ */
+abstract class EmbeddingRows {
+
+    abstract val size: Int
+
+    abstract val dimension: Int
+
+    /**
+     * Dot product of row i with a vector of length [dimension].
+     */
+    abstract fun dot(i: Int, vector: DoubleArray): Double
+
+    /**
+     * Dot product of rows i and j.
+     */
+    abstract fun dot(i: Int, j: Int): Double
+
+    fun squaredNorm(i: Int) = dot(i, i)
+}
+
+/**
+ * Dense rows, copied into one contiguous row-major array.
+ */
+class DenseEmbeddingRows(rows: Array<DoubleArray>) : EmbeddingRows() {
+
+    override val size = rows.size
+
+    override val dimension = rows.firstOrNull()?.size ?: 0
+
+    private val data = flatten(rows, dimension)
+
+    override fun dot(i: Int, vector: DoubleArray) = dotProduct(data, i * dimension, vector, dimension)
+
+    override fun dot(i: Int, j: Int): Double {
+        val iOffset = i * dimension
+        val jOffset = j * dimension
+        var sum = 0.0
+        for (d in 0 until dimension) sum += data[iOffset + d] * data[jOffset + d]
+        return sum
+    }
+}
+
+/**
+ * Rows of a sparse matrix, used in place so that large sparse embeddings are indexed without a dense copy. Dot
+ * products cost the number of non-zeros in the rows rather than the dimension.
+ */
+class SparseEmbeddingRows(private val matrix: SparseRowMatrix) : EmbeddingRows() {
+
+    override val size = matrix.nrow
+
+    override val dimension = matrix.ncol
+
+    override fun dot(i: Int, vector: DoubleArray): Double {
+        var sum = 0.0
+        matrix.forEachInRow(i) { column, value -> sum += value * vector[column] }
+        return sum
+    }
+
+    override fun dot(i: Int, j: Int): Double {
+        val columns = matrix.columns
+        val values = matrix.values
+        var a = matrix.rowPointers[i]
+        val aEnd = matrix.rowPointers[i + 1]
+        var b = matrix.rowPointers[j]
+        val bEnd = matrix.rowPointers[j + 1]
+        var sum = 0.0
+        // Merge the two rows, which are sorted by column
+        while (a < aEnd && b < bEnd) {
+            val aColumn = columns[a]
+            val bColumn = columns[b]
+            when {
+                aColumn < bColumn -> a++
+                aColumn > bColumn -> b++
+                else -> sum += values[a++] * values[b++]
+            }
+        }
+        return sum
+    }
+}
+
+/**
+ * Dot product of a row stored at offset in a flat row-major array with a vector. Uses independent accumulators so
+ * the loop pipelines well on a contiguous array.
+ */
+private fun dotProduct(data: DoubleArray, offset: Int, vector: DoubleArray, dimension: Int): Double {
+    var s0 = 0.0
+    var s1 = 0.0
+    var s2 = 0.0
+    var s3 = 0.0
+    var d = 0
+    val end = dimension - 3
+    while (d < end) {
+        s0 += data[offset + d] * vector[d]
+        s1 += data[offset + d + 1] * vector[d + 1]
+        s2 += data[offset + d + 2] * vector[d + 2]
+        s3 += data[offset + d + 3] * vector[d + 3]
+        d += 4
+    }
+    while (d < dimension) {
+        s0 += data[offset + d] * vector[d]
+        d++
+    }
+    return (s0 + s1) + (s2 + s3)
+}
+
+private fun flatten(rows: Array<DoubleArray>, dimension: Int) = DoubleArray(rows.size * dimension).also { data ->
+    rows.forEachIndexed { i, row -> System.arraycopy(row, 0, data, i * dimension, dimension) }
+}
+
+/**
+ * Bounded heap of (index, cost) pairs that keeps the k lowest costs, with the highest retained cost at the top.
+ */
+private class BoundedHeap(capacity: Int) {
+    var indices = IntArray(capacity)
+    var costs = DoubleArray(capacity)
+    var size = 0
+    var limit = capacity
+
+    fun reset(k: Int) {
+        if (indices.size < k) {
+            indices = IntArray(k)
+            costs = DoubleArray(k)
+        }
+        limit = k
+        size = 0
+    }
+
+    val worst get() = if (size < limit) Double.POSITIVE_INFINITY else costs[0]
+
+    fun offer(index: Int, cost: Double) {
+        if (size == limit) {
+            if (cost >= costs[0]) return
+            removeTop()
+        }
+        var i = size++
+        while (i > 0) {
+            val parent = (i - 1) / 2
+            if (costs[parent] >= cost) break
+            costs[i] = costs[parent]
+            indices[i] = indices[parent]
+            i = parent
+        }
+        costs[i] = cost
+        indices[i] = index
+    }
+
+    fun removeTop() {
+        size--
+        if (size == 0) return
+        val cost = costs[size]
+        val index = indices[size]
+        var i = 0
+        while (true) {
+            var child = 2 * i + 1
+            if (child >= size) break
+            if (child + 1 < size && costs[child + 1] > costs[child]) child++
+            if (costs[child] <= cost) break
+            costs[i] = costs[child]
+            indices[i] = indices[child]
+            i = child
+        }
+        costs[i] = cost
+        indices[i] = index
+    }
+
+    /**
+     * Empty the heap into the arrays, lowest cost first, and return the number of entries.
+     */
+    inline fun drain(outIndices: IntArray, outCosts: (Int, Double) -> Unit): Int {
+        val count = size
+        for (i in count - 1 downTo 0) {
+            outIndices[i] = indices[0]
+            outCosts(i, costs[0])
+            removeTop()
+        }
+        return count
+    }
+}
+
+/**
+ * Exact search by scanning every row of the embedding.
+ *
+ * Euclidean search ranks rows by |x|^2 - 2 x.q, using precomputed squared norms, and cosine search by x.q / |x|, so
+ * both reduce to one dot product per row.
+ */
+class ExactEmbeddingIndex(private val rows: EmbeddingRows, override val metric: EmbeddingMetric) : EmbeddingIndex {
+
+    constructor(rows: Array<DoubleArray>, metric: EmbeddingMetric) : this(DenseEmbeddingRows(rows), metric)
+
+    override val size = rows.size
+
+    override val dimension = rows.dimension
+
+    private val squaredNorms = DoubleArray(size) { rows.squaredNorm(it) }
+
+    private val inverseNorms = DoubleArray(size) { if (squaredNorms[it] > 0) 1 / sqrt(squaredNorms[it]) else 0.0 }
+
+    private val heap = BoundedHeap(16)
+
+    /**
+     * Cost to minimize for row i: |x|^2 - 2 x.q for euclidean and -cos for cosine (without the query norm).
+     */
+    private fun cost(i: Int, query: DoubleArray): Double {
+        val dot = rows.dot(i, query)
+        return when (metric) {
+            EmbeddingMetric.EUCLIDEAN -> squaredNorms[i] - 2 * dot
+            EmbeddingMetric.COSINE -> -dot * inverseNorms[i]
+        }
+    }
+
+    private fun score(cost: Double, querySquaredNorm: Double) = when (metric) {
+        EmbeddingMetric.EUCLIDEAN -> sqrt(max(0.0, cost + querySquaredNorm))
+        EmbeddingMetric.COSINE -> if (querySquaredNorm > 0) -cost / sqrt(querySquaredNorm) else 0.0
+    }
+
+    override fun nearest(query: DoubleArray): Int {
+        var best = -1
+        var bestCost = Double.POSITIVE_INFINITY
+        for (i in 0 until size) {
+            val cost = cost(i, query)
+            if (cost < bestCost) {
+                bestCost = cost
+                best = i
+            }
+        }
+        return if (best == -1 && size > 0) 0 else best
+    }
+
+    @Synchronized
+    override fun search(query: DoubleArray, k: Int, indices: IntArray, scores: DoubleArray?): Int {
+        if (k <= 0) return 0
+        heap.reset(k)
+        for (i in 0 until size) {
+            heap.offer(i, cost(i, query))
+        }
+        val querySquaredNorm = dotProduct(query, 0, query, dimension)
+        return heap.drain(indices) { i, cost -> scores?.set(i, score(cost, querySquaredNorm)) }
+    }
+}
+
+/**
+ * Approximate nearest neighbor search using a hierarchical navigable small world graph.
+ *
+ * Malkov, Y. A., & Yashunin, D. A. (2018). Efficient and robust approximate nearest neighbor search using
+ * hierarchical navigable small world graphs. IEEE TPAMI, 42(4), 824-836.
+ *
+ * @param m number of links per node (twice this on the bottom layer)
+ * @param efConstruction size of the candidate list when building; larger gives a better graph
+ */
+class HNSWEmbeddingIndex @JvmOverloads constructor(
+    private val rows: EmbeddingRows,
+    override val metric: EmbeddingMetric,
+    val m: Int = 16,
+    val efConstruction: Int = 100,
+    seed: Int = 1
+) : EmbeddingIndex {
+
+    @JvmOverloads
+    constructor(
+        rows: Array<DoubleArray>,
+        metric: EmbeddingMetric,
+        m: Int = 16,
+        efConstruction: Int = 100,
+        seed: Int = 1
+    ) : this(DenseEmbeddingRows(rows), metric, m, efConstruction, seed)
+
+    /**
+     * Size of the candidate list when searching. This is the recall / latency knob: larger values find the true
+     * nearest neighbors more often but take longer. Values below the number of requested neighbors are raised to it.
+     */
+    var efSearch = 50
+
+    override val size = rows.size
+
+    override val dimension = rows.dimension
+
+    /**
+     * Distances are computed from dot products: |x|^2 + |y|^2 - 2 x.y for euclidean and 1 - x.y / (|x| |y|) for
+     * cosine, with the norms of the rows computed once here.
+     */
+    private val squaredNorms = DoubleArray(size) { rows.squaredNorm(it) }
+
+    private val inverseNorms = DoubleArray(size) { if (squaredNorms[it] > 0) 1 / sqrt(squaredNorms[it]) else 0.0 }
+
+    private val levels = IntArray(size)
+
+    /**
+     * links[node][level] holds up to maxLinks(level) neighbor indices; linkCounts[node][level] how many are used.
+     */
+    private val links = arrayOfNulls<Array<IntArray>>(size)
+    private val linkCounts = arrayOfNulls<IntArray>(size)
+
+    private var entryPoint = -1
+    private var maxLevel = -1
+
+    // Scratch space for searches
+    private val visited = IntArray(size)
+    private var visitGeneration = 0
+    private var candidateIndices = IntArray(64)
+    private var candidateCosts = DoubleArray(64)
+    private var candidateCount = 0
+    private val results = BoundedHeap(64)
+    private var selected = IntArray(64)
+
+    /**
+     * What graph searches measure distance to: the row being inserted, or a query vector when targetRow is -1.
+     */
+    private var targetRow = -1
+    private var targetVector: DoubleArray? = null
+    private var targetSquaredNorm = 0.0
+    private var targetInverseNorm = 0.0
+
+    init {
+        val random = Random(seed)
+        val levelMultiplier = 1 / ln(max(m, 2).toDouble())
+        for (i in 0 until size) {
+            levels[i] = floor(-ln(1 - random.nextDouble()) * levelMultiplier).toInt()
+            links[i] = Array(levels[i] + 1) { IntArray(maxLinks(it) + 1) }
+            linkCounts[i] = IntArray(levels[i] + 1)
+            insert(i)
+        }
+    }
+
+    private fun maxLinks(level: Int) = if (level == 0) 2 * m else m
+
+    private fun distance(a: Int, dot: Double, otherSquaredNorm: Double, otherInverseNorm: Double) = when (metric) {
+        EmbeddingMetric.EUCLIDEAN -> max(0.0, squaredNorms[a] + otherSquaredNorm - 2 * dot)
+        EmbeddingMetric.COSINE -> 1 - dot * inverseNorms[a] * otherInverseNorm
+    }
+
+    private fun distance(a: Int, b: Int) = distance(a, rows.dot(a, b), squaredNorms[b], inverseNorms[b])
+
+    private fun targetDistance(a: Int) = if (targetRow == -1) {
+        distance(a, rows.dot(a, targetVector!!), targetSquaredNorm, targetInverseNorm)
+    } else {
+        distance(a, targetRow)
+    }
+
+    private fun insert(node: Int) {
+        if (entryPoint == -1) {
+            entryPoint = node
+            maxLevel = levels[node]
+            return
+        }
+        targetRow = node
+        var current = entryPoint
+        for (level in maxLevel downTo levels[node] + 1) {
+            current = greedyClosest(current, level)
+        }
+        for (level in min(levels[node], maxLevel) downTo 0) {
+            searchLayer(current, efConstruction, level)
+            // Results are drained closest first; connect to the m closest
+            if (selected.size < results.size) selected = IntArray(results.size)
+            val count = results.drain(selected) { _, _ -> }
+            for (s in 0 until min(count, m)) {
+                addLink(node, selected[s], level)
+                addLink(selected[s], node, level)
+            }
+            current = selected[0]
+        }
+        if (levels[node] > maxLevel) {
+            maxLevel = levels[node]
+            entryPoint = node
+        }
+    }
+
+    /**
+     * Add a directed link, dropping the farthest link if the node has too many.
+     */
+    private fun addLink(from: Int, to: Int, level: Int) {
+        val nodeLinks = links[from]!![level]
+        val counts = linkCounts[from]!!
+        val count = counts[level]
+        nodeLinks[count] = to
+        if (count < maxLinks(level)) {
+            counts[level] = count + 1
+            return
+        }
+        var farthest = 0
+        var farthestDistance = -1.0
+        for (l in 0..count) {
+            val d = distance(from, nodeLinks[l])
+            if (d > farthestDistance) {
+                farthestDistance = d
+                farthest = l
+            }
+        }
+        nodeLinks[farthest] = nodeLinks[count]
+    }
+
+    private fun greedyClosest(start: Int, level: Int): Int {
+        var current = start
+        var currentDistance = targetDistance(current)
+        var changed = true
+        while (changed) {
+            changed = false
+            val nodeLinks = links[current]!![level]
+            for (l in 0 until linkCounts[current]!![level]) {
+                val d = targetDistance(nodeLinks[l])
+                if (d < currentDistance) {
+                    currentDistance = d
+                    current = nodeLinks[l]
+                    changed = true
+                }
+            }
+        }
+        return current
+    }
+
+    /**
+     * Best first search of one layer, leaving the ef closest nodes found in [results].
+     */
+    private fun searchLayer(start: Int, ef: Int, level: Int) {
+        visitGeneration++
+        if (visitGeneration == Int.MAX_VALUE) {
+            visited.fill(0)
+            visitGeneration = 1
+        }
+        results.reset(ef)
+        candidateCount = 0
+        val startDistance = targetDistance(start)
+        visited[start] = visitGeneration
+        results.offer(start, startDistance)
+        pushCandidate(start, startDistance)
+        while (candidateCount > 0) {
+            val candidate = candidateIndices[0]
+            val candidateDistance = candidateCosts[0]
+            popCandidate()
+            if (candidateDistance > results.worst) break
+            val nodeLinks = links[candidate]!![level]
+            for (l in 0 until linkCounts[candidate]!![level]) {
+                val neighbor = nodeLinks[l]
+                if (visited[neighbor] == visitGeneration) continue
+                visited[neighbor] = visitGeneration
+                val d = targetDistance(neighbor)
+                if (d < results.worst) {
+                    results.offer(neighbor, d)
+                    pushCandidate(neighbor, d)
+                }
+            }
+        }
+    }
+
+    /**
+     * Min heap of candidates to expand.
+     */
+    private fun pushCandidate(index: Int, cost: Double) {
+        if (candidateCount == candidateIndices.size) {
+            candidateIndices = candidateIndices.copyOf(candidateCount * 2)
+            candidateCosts = candidateCosts.copyOf(candidateCount * 2)
+        }
+        var i = candidateCount++
+        while (i > 0) {
+            val parent = (i - 1) / 2
+            if (candidateCosts[parent] <= cost) break
+            candidateCosts[i] = candidateCosts[parent]
+            candidateIndices[i] = candidateIndices[parent]
+            i = parent
+        }
+        candidateCosts[i] = cost
+        candidateIndices[i] = index
+    }
+
+    private fun popCandidate() {
+        candidateCount--
+        if (candidateCount == 0) return
+        val cost = candidateCosts[candidateCount]
+        val index = candidateIndices[candidateCount]
+        var i = 0
+        while (true) {
+            var child = 2 * i + 1
+            if (child >= candidateCount) break
+            if (child + 1 < candidateCount && candidateCosts[child + 1] < candidateCosts[child]) child++
+            if (candidateCosts[child] >= cost) break
+            candidateCosts[i] = candidateCosts[child]
+            candidateIndices[i] = candidateIndices[child]
+            i = child
+        }
+        candidateCosts[i] = cost
+        candidateIndices[i] = index
+    }
+
+    private fun setTargetVector(query: DoubleArray) {
+        targetRow = -1
+        targetVector = query
+        targetSquaredNorm = dotProduct(query, 0, query, dimension)
+        targetInverseNorm = if (targetSquaredNorm > 0) 1 / sqrt(targetSquaredNorm) else 0.0
+    }
+
+    @Synchronized
+    override fun search(query: DoubleArray, k: Int, indices: IntArray, scores: DoubleArray?): Int {
+        if (entryPoint == -1 || k <= 0) return 0
+        setTargetVector(query)
+        var current = entryPoint
+        for (level in maxLevel downTo 1) {
+            current = greedyClosest(current, level)
+        }
+        searchLayer(current, max(efSearch, k), 0)
+        targetVector = null
+        while (results.size > k) results.removeTop()
+        return results.drain(indices) { i, cost ->
+            scores?.set(i, when (metric) {
+                EmbeddingMetric.EUCLIDEAN -> sqrt(cost)
+                EmbeddingMetric.COSINE -> 1 - cost
+            })
+        }
+    }
+
+    private val single = IntArray(1)
+
+    @Synchronized
+    override fun nearest(query: DoubleArray): Int = if (search(query, 1, single) == 0) -1 else single[0]
+}
@@ -1,8 +1,6 @@
 package org.simbrain.world.textworld
 
 import org.simbrain.util.*
-import org.simbrain.util.projection.DataPoint
-import org.simbrain.util.projection.KDTree
 import org.simbrain.util.propertyeditor.EditableObject
 import org.simbrain.util.table.BasicDataFrame
 import org.simbrain.util.table.SimbrainTablePanel
@@ -11,24 +9,38 @@ import smile.math.matrix.Matrix
 
 /**
  * Associates string tokens with vector representations. Each member of a list of String tokens is associated with
- * a row of a Matrix of doubles.
+ * a row of a Matrix of doubles. The vectors can instead be stored as a [SparseRowMatrix], for embeddings like large
+ * co-occurrence matrices (see [CooccurrenceBuilder]) that would not fit in memory as a dense matrix.
  *
- * Allows for reverse mappings from vectors back to tokens using a [KDTree].
+ * Allows for reverse mappings from vectors back to tokens using an [EmbeddingIndex], either by euclidean distance
+ * ([getClosestWord]) or cosine similarity ([getMostSimilarWord]).
  *
  * All tokens are converted to lower case.
  *
  * Cannot currently be mutated after creation.
  *
  * @param inputTokenList tokens prior to conversion to lower case
- * @param tokenVectorMatrix Matrix whose rows correspond to vector representations of corresponding tokens.
+ * @param denseVectors Matrix whose rows correspond to vector representations of corresponding tokens, or null if
+ * [sparseVectors] is used.
+ * @param sparseVectors sparse rows corresponding to vector representations of corresponding tokens, or null if
+ * the vectors are dense.
  * @param trainingDocument Document, if any, used to train this embedding.
  */
-class TokenEmbedding(
+class TokenEmbedding private constructor(
     inputTokenList: List<String>,
-    var tokenVectorMatrix: Matrix,
-    var trainingDocument: String? = null
+    private val denseVectors: Matrix?,
+    val sparseVectors: SparseRowMatrix?,
+    var trainingDocument: String?
 ) {
 
+    @JvmOverloads
+    constructor(inputTokenList: List<String>, tokenVectorMatrix: Matrix, trainingDocument: String? = null) :
+            this(inputTokenList, tokenVectorMatrix, null, trainingDocument)
+
+    @JvmOverloads
+    constructor(inputTokenList: List<String>, sparseVectors: SparseRowMatrix, trainingDocument: String? = null) :
+            this(inputTokenList, null, sparseVectors, trainingDocument)
+
     val tokens = inputTokenList.map { it.lowercase() }
 
     /**
@@ -46,20 +58,57 @@ class TokenEmbedding(
     /**
      * The number of dimensions in the word embedding space.
      */
-    val dimension = tokenVectorMatrix.ncol()
+    val dimension = denseVectors?.ncol() ?: sparseVectors!!.ncol
 
     init {
-        if (inputTokenList.size != tokenVectorMatrix.nrow()) {
+        if (inputTokenList.size != (denseVectors?.nrow() ?: sparseVectors!!.nrow)) {
             throw IllegalArgumentException("token list must be same length as token vector matrix has rows")
         }
     }
 
+    val isSparse get() = sparseVectors != null
+
+    @Transient
+    private var densified: Matrix? = null
+
     /**
-     * N-Tree (optimized to find vectors near a given vector) associating vectors with tokens.
+     * Matrix whose rows correspond to vector representations of corresponding tokens. For sparse embeddings this is a
+     * dense copy made on first access, which can be very large.
      */
-    private val treeMap = KDTree(dimension).apply {
-        tokensMap.forEach { (token, i) ->
-            insert(DataPoint(tokenVectorMatrix.row(i), label = token))
+    val tokenVectorMatrix: Matrix
+        get() = denseVectors ?: densified ?: sparseVectors!!.toMatrix().also { densified = it }
+
+    /**
+     * Type of index used to find tokens from vectors. Exact search scans every token; HNSW is approximate but much
+     * faster for large vocabularies.
+     */
+    var indexType: EmbeddingIndexType = EmbeddingIndexType.EXACT
+        set(value) {
+            field = value
+            indexes.clear()
+        }
+
+    /**
+     * Candidate list size for approximate (HNSW) search. Larger values give better recall at the cost of speed.
+     */
+    var efSearch: Int = 50
+        set(value) {
+            field = value
+            indexes.values.forEach { (it as? HNSWEmbeddingIndex)?.efSearch = value }
+        }
+
+    /**
+     * Indexes over the rows of [tokenVectorMatrix], one per metric, built when first needed.
+     */
+    @Transient
+    private var _indexes: MutableMap<EmbeddingMetric, EmbeddingIndex>? = null
+    private val indexes get() = _indexes ?: HashMap<EmbeddingMetric, EmbeddingIndex>().also { _indexes = it }
+
+    @Synchronized
+    fun getIndex(metric: EmbeddingMetric): EmbeddingIndex = indexes.getOrPut(metric) {
+        val rows = denseVectors?.let { DenseEmbeddingRows(it.toArray()) } ?: SparseEmbeddingRows(sparseVectors!!)
+        createEmbeddingIndex(indexType, rows, metric).also {
+            (it as? HNSWEmbeddingIndex)?.efSearch = efSearch
         }
     }
 
@@ -70,24 +119,59 @@ class TokenEmbedding(
         val searchToken = token.lowercase()
         val tokenIndex = tokensMap[searchToken]
         if (tokenIndex != null) {
-            return tokenVectorMatrix.row(tokenIndex)
+            return vector(tokenIndex)
         } else {
             // Zero array if no matching token is found
             return DoubleArray(dimension)
         }
     }
 
+    /**
+     * Returns the vector for the token at the given index.
+     */
+    fun vector(index: Int): DoubleArray = denseVectors?.row(index) ?: sparseVectors!!.row(index)
+
     /**
      * Finds the closest vector in terms of Euclidean distance, then returns the
      * String associated with it.
      */
     fun getClosestWord(key: DoubleArray): String {
         // TODO: Add a default minimum distance and if above that, return null or zero vector
-        return treeMap.findClosestPoint(DataPoint(key))?.label!!
+        return tokens[getIndex(EmbeddingMetric.EUCLIDEAN).nearest(key)]
+    }
+
+    /**
+     * Finds the vector with the highest cosine similarity to the key (see [embeddingSimilarity]), then returns the
+     * String associated with it.
+     */
+    fun getMostSimilarWord(key: DoubleArray): String {
+        return tokens[getIndex(EmbeddingMetric.COSINE).nearest(key)]
+    }
+
+    /**
+     * Returns up to n tokens closest to the key, closest first.
+     */
+    @JvmOverloads
+    fun getClosestWords(key: DoubleArray, n: Int, metric: EmbeddingMetric = EmbeddingMetric.EUCLIDEAN): List<String> {
+        val indices = IntArray(n)
+        val count = getIndex(metric).search(key, n, indices)
+        return List(count) { tokens[indices[it]] }
+    }
+
+    @Suppress("SENSELESS_COMPARISON")
+    private fun readResolve(): Any {
+        // Embeddings saved before index types were added
+        if (indexType == null) {
+            indexType = EmbeddingIndexType.EXACT
+        }
+        if (efSearch <= 0) {
+            efSearch = 50
+        }
+        return this
     }
 
     override fun toString(): String {
-        return tokens.mapIndexed{ i, t -> "$t -> ${tokenVectorMatrix.row(i).contentToString()}"  }.joinToString("\n")
+        return tokens.mapIndexed{ i, t -> "$t -> ${vector(i).contentToString()}"  }.joinToString("\n")
     }
 
     /**
@@ -121,6 +205,13 @@ class TokenEmbeddingBuilder(): EditableObject {
     @UserParameter(label = "Use PPMI", order = 40 )
     var usePPMI = true
 
+    @UserParameter(
+        label = "Sparse",
+        description = "Store co-occurrences sparsely, for large documents",
+        order = 50
+    )
+    var sparse = false
+
     @UserParameter(label = "Remove stopwords", order = 60 )
     var removeStopWords = false
 
@@ -142,7 +233,11 @@ class TokenEmbeddingBuilder(): EditableObject {
             TokenEmbedding(tokens, Matrix.eye(tokens.size))
         }
         EmbeddingType.COC -> {
-            generateCooccurrenceMatrix(docString, windowSize, bidirectional, usePPMI, removeStopWords)
+            if (sparse) {
+                CooccurrenceBuilder(windowSize, bidirectional, usePPMI, removeStopWords).build(docString)
+            } else {
+                generateCooccurrenceMatrix(docString, windowSize, bidirectional, usePPMI, removeStopWords)
+            }
         }
         else -> {
             throw IllegalStateException("Custom embeddings must be manually loaded")
@@ -4,7 +4,6 @@ import org.simbrain.util.StandardDialog
 import org.simbrain.util.createAction
 import org.simbrain.util.showMessageDialog
 import org.simbrain.util.table.*
-import org.simbrain.util.toMatrix
 import org.simbrain.world.textworld.TokenEmbedding
 import org.simbrain.world.textworld.createTrainEmbeddingAction
 
@@ -48,7 +47,7 @@ class TokenEmbeddingDialog(val initialTokenEmbedding: TokenEmbedding, updateToke
             updateTokenEmbedding(
                 TokenEmbedding(
                     tablePanel.table.model.rowNames as List<String>,
-                    tablePanel.table.model.get2DDoubleArray().toMatrix(),
+                    tablePanel.table.model.toMatrix(),
                     trainingDocument
                 )
             )
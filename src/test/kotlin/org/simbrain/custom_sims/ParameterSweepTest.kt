@@ -0,0 +1,98 @@
+package org.simbrain.custom_sims
+
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.io.path.createTempDirectory
+
+class ParameterSweepTest {
+
+    private val spec = SweepSpec.parse(
+        """
+        # Sweep of a test sim
+        sim = Sum
+        options = {a}:{b}
+        seeds = 1, 2
+        replicates = 2
+        param a = 1, 2, 3
+        param b = 0 .. 10 : 3
+        """.trimIndent()
+    )
+
+    private val calls = AtomicInteger()
+
+    private val sum = newSim { optionString ->
+        calls.incrementAndGet()
+        val (a, b) = optionString!!.split(":").map { it.toDouble() }
+        reportMetric("sum", a + b)
+        reportMetric("seed", seed!! % 1000)
+    }
+
+    private fun resultsFile() = File(createTempDirectory().toFile().apply { deleteOnExit() }, "results.csv")
+
+    @Test
+    fun `grid spec expands to every combination, seed and replicate`() {
+        val runs = spec.runs()
+        assertEquals(3 * 3 * 2 * 2, runs.size)
+        assertEquals(runs.size, runs.map { it.id }.toSet().size)
+        assertEquals(listOf("0", "5", "10"), runs.map { it.values["b"] }.distinct())
+        assertEquals("2:10", runs.first { it.values == mapOf("a" to "2", "b" to "10") }.optionString)
+    }
+
+    @Test
+    fun `random search is reproducible`() {
+        val random = SweepSpec("Sum", "{a}", listOf(SweepParameter.Range("a", 0.0, 1.0, 1, false)), true, 20, 7)
+        val values = random.runs().map { it.values["a"]!!.toDouble() }
+        assertEquals(values, random.runs().map { it.values["a"]!!.toDouble() })
+        assertTrue(values.all { it in 0.0..1.0 })
+    }
+
+    @Test
+    fun `sweep writes every metric of every run`() {
+        val output = resultsFile()
+        val count = runBlocking { runSweep(spec, output, parallelism = 4, sim = sum) }
+        assertEquals(36, count)
+        val lines = output.readLines()
+        assertEquals("run,a,b,seed,replicate,status,metric,value", lines.first())
+        // sum, seed and elapsedSeconds for each run
+        assertEquals(36 * 3, lines.size - 1)
+        val sums = lines.drop(1).map { it.split(",") }.filter { it[6] == "sum" }
+        assertTrue(sums.all { it[7].toDouble() == it[1].toDouble() + it[2].toDouble() })
+        val seeds = lines.drop(1).map { it.split(",") }.filter { it[6] == "seed" }
+        assertTrue(seeds.all { it[7].toDouble().toLong() == it[3].toLong() % 1000 })
+    }
+
+    @Test
+    fun `resumed sweep skips finished runs`() {
+        val output = resultsFile()
+        val partial = SweepSpec.parse("sim = Sum\noptions = {a}:{b}\nparam a = 1, 2, 3\nparam b = 0 .. 10 : 3")
+        runBlocking { runSweep(partial, output, sim = sum) }
+        // Simulate an interrupted write
+        output.appendText("a=4;b=0;seed=0;replicate=0,4,0,0,0,ok,su")
+        calls.set(0)
+        val first = runBlocking { runSweep(partial, output, sim = sum) }
+        assertEquals(0, first)
+        assertEquals(0, calls.get())
+        val wider = SweepSpec.parse("sim = Sum\noptions = {a}:{b}\nparam a = 1, 2, 3, 4\nparam b = 0 .. 10 : 3")
+        val second = runBlocking { runSweep(wider, output, sim = sum) }
+        assertEquals(3, second)
+        assertEquals(3, calls.get())
+    }
+
+    @Test
+    fun `failed runs are recorded and retried`() {
+        val output = resultsFile()
+        val flaky = newSim { optionString ->
+            if (calls.incrementAndGet() == 1) throw IllegalStateException("first run fails")
+            reportMetric("value", optionString!!.toDouble())
+        }
+        val single = SweepSpec.parse("sim = Flaky\noptions = {a}\nparam a = 1")
+        runBlocking { runSweep(single, output, sim = flaky) }
+        assertTrue(output.readLines()[1].contains("failed"))
+        assertEquals(1, runBlocking { runSweep(single, output, sim = flaky) })
+        assertEquals(0, runBlocking { runSweep(single, output, sim = flaky) })
+    }
+}
@@ -1,10 +1,14 @@
 package org.simbrain.network.connections
 
 import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.addNeuron
+import org.simbrain.network.util.SimnetUtils.getEuclideanDist
 import org.simbrain.util.decayfunctions.LinearDecayFunction
+import org.simbrain.util.decayfunctions.StepDecayFunction
+import kotlin.random.Random
 
 class DistancedBasedTest {
 
@@ -25,6 +29,30 @@ class DistancedBasedTest {
         }
     }
 
+    @Test
+    fun `step decay connects exactly the pairs within the dispersion`() {
+        runBlocking {
+            with(network) {
+                val random = Random(1)
+                val neurons = (0 until 300).map { addNeuron(random.nextInt(1000), random.nextInt(1000)) }
+                val decay = StepDecayFunction().apply { dispersion = 100.0 }
+                val syns = DistanceBased(decayFunction = decay, seed = 42L).connectNeurons(neurons, neurons)
+                val expected = neurons.sumOf { a -> neurons.count { b -> a != b && getEuclideanDist(a, b) <= 100.0 } }
+                assertEquals(expected, syns.size)
+            }
+        }
+    }
+
+    @Test
+    fun `strategies with the same seed produce the same pattern over several blocks of sources`() {
+        assertStrategiesPatterns(
+            network,
+            DistanceBased(seed = 42L),
+            DistanceBased(seed = 42L),
+            300
+        )
+    }
+
     @Test
     fun `strategy created with the same seed should produce the same same pattern`() {
         assertStrategiesPatterns(
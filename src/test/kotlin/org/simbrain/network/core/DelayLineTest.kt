@@ -0,0 +1,74 @@
+package org.simbrain.network.core
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import smile.math.matrix.Matrix
+import kotlin.random.Random
+
+class DelayLineTest {
+
+    private val net = Network()
+
+    /**
+     * Source activation of node j at step t, 0 before the first step.
+     */
+    private fun activation(t: Int, j: Int) = if (t < 0) 0.0 else Random(t * 31 + j).nextDouble(-1.0, 1.0)
+
+    @Test
+    fun `delay line returns vectors from the given number of pushes ago`() {
+        val line = DelayLine(2, 3)
+        repeat(5) { t -> line.push(doubleArrayOf(t.toDouble(), -t.toDouble())) }
+        assertEquals(4.0, line[0, 0])
+        assertEquals(3.0, line[1, 0])
+        assertEquals(-2.0, line[2, 1])
+    }
+
+    @Test
+    fun `weight matrix connections read the source from their own delay`() {
+        val source = NeuronArray(2)
+        val target = NeuronArray(2)
+        val wm = WeightMatrix(source, target)
+        net.addNetworkModels(source, target, wm)
+        wm.setWeights(arrayOf(doubleArrayOf(1.0, 2.0), doubleArrayOf(3.0, 4.0)))
+        val delays = arrayOf(intArrayOf(0, 2), intArrayOf(1, 3))
+        wm.setDelays(delays)
+        assertEquals(3, wm.maxDelay)
+        for (t in 0 until 8) {
+            source.activations = Matrix.column(DoubleArray(2) { activation(t, it) })
+            with(net) { wm.updatePSR() }
+            for (i in 0 until 2) {
+                for (j in 0 until 2) {
+                    assertEquals(wm.weightMatrix[i, j] * activation(t - delays[i][j], j), wm.psrMatrix[i, j], 1e-12)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `synapse group shares one delay line and matches per synapse queues`() {
+        val source = NeuronGroup(3)
+        val target = NeuronGroup(2)
+        net.addNetworkModels(source, target)
+        val group = SynapseGroup(source, target)
+        net.addNetworkModel(group)
+        group.synapses.forEachIndexed { k, synapse -> synapse.forceSetStrength(k + 1.0) }
+        group.setDelays(2)
+
+        // A synapse outside any group keeps its own queue
+        val single = Synapse(source.neuronList[1], target.neuronList[0], 0.5).apply { delay = 2 }
+
+        for (t in 0 until 6) {
+            source.neuronList.forEachIndexed { j, neuron -> neuron.activation = activation(t, j) }
+            with(net) {
+                group.synapses.forEach { it.updatePSR() }
+                single.updatePSR()
+            }
+            group.synapses.forEach { synapse ->
+                val j = source.neuronList.indexOf(synapse.source)
+                assertEquals(synapse.strength * activation(t - 2, j), synapse.psr, 1e-12)
+            }
+            assertEquals(0.5 * activation(t - 2, 1), single.psr, 1e-12)
+            net.updateTime()
+        }
+    }
+}
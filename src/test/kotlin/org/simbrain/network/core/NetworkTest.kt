@@ -177,4 +177,45 @@ class NetworkTest {
         // (2 in neuron collection are free neurons)
         Assertions.assertEquals(22, net.flatNeuronList.size)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `flat lists are cached until the structure changes`() = runBlocking {
+        val neurons = net.flatNeuronList
+        Assertions.assertSame(neurons, net.flatNeuronList)
+        n1.activation = 0.5
+        Assertions.assertSame(neurons, net.flatNeuronList)
+
+        net.addNetworkModel(Neuron())
+        Assertions.assertEquals(23, net.flatNeuronList.size)
+        ng1.neuronList.first().delete()
+        Assertions.assertEquals(22, net.flatNeuronList.size)
+
+        val synapses = net.flatSynapseList
+        sg1.addSynapse(Synapse(ng2.neuronList.first(), ng1.neuronList.first()))
+        Assertions.assertEquals(synapses.size + 1, net.flatSynapseList.size)
+        Assertions.assertEquals(listOf(wm1), net.flatWeightMatrixList)
+    }
+
+    @Test
+    fun `model sets can be changed while iterating`() {
+        val models = NetworkModelList()
+        val neurons = (0 until 5).map { Neuron() }
+        models.addAll(neurons)
+        for (neuron in models.get<Neuron>()) {
+            models.remove(neuron)
+            models.add(Neuron())
+        }
+        Assertions.assertEquals(5, models.get<Neuron>().size)
+        Assertions.assertTrue(neurons.none { it in models.get<Neuron>() })
+    }
+
+    @Test
+    fun `adding many neurons takes linear time`() {
+        val network = Network()
+        val start = System.nanoTime()
+        network.addNetworkModels((0 until 50_000).map { Neuron() })
+        Assertions.assertEquals(50_000, network.flatNeuronList.size)
+        // Quadratic copying took minutes for this many neurons
+        Assertions.assertTrue(System.nanoTime() - start < 30e9)
+    }
+}
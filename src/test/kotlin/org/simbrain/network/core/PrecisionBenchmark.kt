@@ -0,0 +1,55 @@
+package org.simbrain.network.core
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.simbrain.util.stats.distributions.UniformRealDistribution
+import smile.math.matrix.Matrix
+import kotlin.math.abs
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares double and single precision updates of a 4096 × 4096 [WeightMatrix]. Excluded from the regular test run;
+ * run with `gradle benchmark`. Correctness is covered by [PrecisionTest].
+ */
+@Tag("benchmark")
+class PrecisionBenchmark {
+
+    private val size = 4096
+    private val iterations = 20
+
+    private fun timeMillis(block: () -> Unit) = measureNanoTime(block) / 1e6
+
+    private fun assertClose(expected: DoubleArray, actual: DoubleArray) {
+        val scale = expected.maxOf { abs(it) }
+        expected.indices.forEach { assertEquals(expected[it], actual[it], 1e-4 * scale) }
+    }
+
+    @Test
+    fun `benchmark single against double precision on 4096 x 4096 weights`() {
+        val net = Network()
+        val source = NeuronArray(size)
+        val target = NeuronArray(size)
+        val wm = WeightMatrix(source, target)
+        net.addNetworkModels(source, target, wm)
+        val dist = UniformRealDistribution(-1.0, 1.0).apply { randomSeed = 3L }
+        wm.randomize(dist)
+        source.activations = Matrix.column(DoubleArray(size) { dist.sampleDouble() })
+
+        fun run(precision: Network.Precision): Pair<Double, DoubleArray> {
+            net.precision = precision
+            // Warm up
+            repeat(3) { with(net) { wm.updatePSR() } }
+            val millis = timeMillis { repeat(iterations) { with(net) { wm.updatePSR() }; wm.getSummedPSRs() } }
+            return millis / iterations to wm.getSummedPSRs()
+        }
+
+        val (doubleMillis, doubleResult) = run(Network.Precision.DOUBLE)
+        val (singleMillis, singleResult) = run(Network.Precision.SINGLE)
+        assertClose(doubleResult, singleResult)
+
+        println("Precision benchmark, $size x $size weight matrix, mean of $iterations updates")
+        println("  double: %8.2f ms".format(doubleMillis))
+        println("  single: %8.2f ms".format(singleMillis))
+    }
+}
@@ -0,0 +1,69 @@
+package org.simbrain.network.core
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.simbrain.util.stats.distributions.UniformRealDistribution
+import smile.math.matrix.Matrix
+import kotlin.math.abs
+
+class PrecisionTest {
+
+    private fun assertClose(expected: DoubleArray, actual: DoubleArray) {
+        val scale = maxOf(1.0, expected.maxOf { abs(it) })
+        expected.indices.forEach { assertEquals(expected[it], actual[it], 1e-4 * scale) }
+    }
+
+    @Test
+    fun `single precision matches double precision on 64 x 64 weights`() {
+        val size = 64
+        val net = Network()
+        val source = NeuronArray(size)
+        val target = NeuronArray(size)
+        val wm = WeightMatrix(source, target)
+        net.addNetworkModels(source, target, wm)
+        val dist = UniformRealDistribution(-1.0, 1.0).apply { randomSeed = 3L }
+        wm.randomize(dist)
+        source.activations = Matrix.column(DoubleArray(size) { dist.sampleDouble() })
+
+        fun summedPSRs(precision: Network.Precision): DoubleArray {
+            net.precision = precision
+            with(net) { wm.updatePSR() }
+            return wm.getSummedPSRs()
+        }
+
+        assertClose(summedPSRs(Network.Precision.DOUBLE), summedPSRs(Network.Precision.SINGLE))
+
+        // The single precision copy of the weights must be refreshed after they change
+        for (j in 0 until size) {
+            wm.weightMatrix[3, j] = 2.0
+        }
+        wm.weightMatrix[10, 20] = -5.0
+        wm.weightsChanged()
+        val single = summedPSRs(Network.Precision.SINGLE)
+        assertClose(summedPSRs(Network.Precision.DOUBLE), single)
+        assertEquals(2.0 * source.activationArray.sum(), single[3], 1e-4 * size)
+    }
+
+    @Test
+    fun `single precision sees weight changes`() {
+        val net = Network().apply { precision = Network.Precision.SINGLE }
+        val source = NeuronArray(2)
+        val target = NeuronArray(2)
+        val wm = WeightMatrix(source, target)
+        net.addNetworkModels(source, target, wm)
+        source.activations = Matrix.column(doubleArrayOf(1.0, 2.0))
+
+        wm.setWeights(arrayOf(doubleArrayOf(1.0, 2.0), doubleArrayOf(3.0, 4.0)))
+        with(net) { wm.updatePSR() }
+        assertClose(doubleArrayOf(5.0, 11.0), wm.getSummedPSRs())
+
+        wm.weightMatrix[0, 0] = -1.0
+        wm.weightsChanged()
+        with(net) { wm.updatePSR() }
+        assertClose(doubleArrayOf(3.0, 11.0), wm.getSummedPSRs())
+
+        wm.hardClear()
+        with(net) { wm.updatePSR() }
+        assertClose(doubleArrayOf(0.0, 0.0), wm.getSummedPSRs())
+    }
+}
@@ -1,6 +1,7 @@
 package org.simbrain.network.core
 
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
 import org.junit.jupiter.api.Test
 
 class SynapseTestKt {
@@ -15,4 +16,32 @@ class SynapseTestKt {
         assertEquals(1, n2.fanIn.size)
     }
 
+    @Test
+    fun `only structural changes bump the fan-in version`() {
+        val (n1, n2) = List(2) { Neuron().also { network.addNetworkModel(it) } }
+        val synapse = Synapse(n1, n2).also { network.addNetworkModel(it) }
+        var version = n2.fanInVersion
+        synapse.strength = 0.5
+        synapse.setStrength(0.25, false)
+        assertEquals(version, n2.fanInVersion)
+        synapse.isEnabled = false
+        assertNotEquals(version, n2.fanInVersion)
+        version = n2.fanInVersion
+        synapse.delay = 2
+        assertNotEquals(version, n2.fanInVersion)
+    }
+
+    @Test
+    fun `strength changes bump the fan-in strength version`() {
+        val (n1, n2) = List(2) { Neuron().also { network.addNetworkModel(it) } }
+        val synapse = Synapse(n1, n2).also { network.addNetworkModel(it) }
+        var version = n2.fanInStrengthVersion
+        synapse.strength = 0.5
+        assertNotEquals(version, n2.fanInStrengthVersion)
+        version = n2.fanInStrengthVersion
+        synapse.setStrength(0.25, false)
+        assertNotEquals(version, n2.fanInStrengthVersion)
+        assertEquals(0, n1.fanInStrengthVersion)
+    }
+
 }
\ No newline at end of file
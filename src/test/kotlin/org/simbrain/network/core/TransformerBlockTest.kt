@@ -0,0 +1,73 @@
+package org.simbrain.network.core
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.simbrain.util.stats.distributions.UniformRealDistribution
+import java.lang.management.ManagementFactory
+import kotlin.random.Random
+
+class TransformerBlockTest {
+
+    private val sequenceSize = 4
+    private val inputSize = 5
+
+    private val block = TransformerBlock(sequenceSize, inputSize, 6).apply {
+        randomize(UniformRealDistribution(-1.0, 1.0))
+    }
+
+    private val tokens = Random(42).let { random -> Array(10) { DoubleArray(inputSize) { random.nextDouble(-1.0, 1.0) } } }
+
+    /**
+     * Run the full forward pass on the window of tokens ending at [last].
+     */
+    private fun forwardWindow(last: Int) {
+        for (i in 0 until sequenceSize) {
+            for (j in 0 until inputSize) {
+                block.inputs[i, j] = tokens[last - sequenceSize + 1 + i][j]
+            }
+        }
+        block.forward()
+    }
+
+    private fun lastActivationRow() = DoubleArray(inputSize) { block.activations[sequenceSize - 1, it] }
+
+    @Test
+    fun `step matches the last row of the forward pass`() {
+        for (t in tokens.indices) {
+            val output = block.step(tokens[t]).copyOf()
+            if (t >= sequenceSize - 1) {
+                forwardWindow(t)
+                assertArrayEquals(lastActivationRow(), output, 1e-9)
+            }
+        }
+    }
+
+    @Test
+    fun `shifted window gives the same activations as a full recomputation`() {
+        for (t in sequenceSize - 1 until tokens.size) {
+            // block reuses the projections of the previous window; fresh computes them from scratch
+            forwardWindow(t)
+            val fresh = block.copy()
+            for (i in 0 until sequenceSize) for (j in 0 until inputSize) fresh.inputs[i, j] = block.inputs[i, j]
+            fresh.forward()
+            for (i in 0 until sequenceSize) {
+                assertArrayEquals(fresh.activations.row(i), block.activations.row(i), 1e-9)
+            }
+        }
+    }
+
+    @Test
+    fun `step does not allocate`() {
+        val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return
+        if (!threads.isThreadAllocatedMemorySupported) {
+            return
+        }
+        repeat(1000) { block.step(tokens[it % tokens.size]) }
+        val thread = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(thread)
+        repeat(1000) { block.step(tokens[it % tokens.size]) }
+        val allocated = threads.getThreadAllocatedBytes(thread) - before
+        assertTrue(allocated < 10_000, "step allocated $allocated bytes")
+    }
+}
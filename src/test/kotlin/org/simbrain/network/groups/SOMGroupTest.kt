@@ -3,6 +3,8 @@ package org.simbrain.network.groups
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
 import org.simbrain.network.core.Network
+import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.Synapse
 import org.simbrain.network.neurongroups.SOMGroup
 
 class SOMGroupTest {
@@ -72,8 +74,62 @@ class SOMGroupTest {
         assertEquals(0.0498, SOM.learningRate, 0.001) // Starts at 0.06
     }
 
+    /**
+     * Connect three input neurons to every SOM neuron, with the weights of SOM neuron i being (i, i, i) / 10.
+     */
+    private fun connectInputs(): List<Neuron> {
+        val inputs = List(3) { Neuron() }
+        net.addNetworkModels(inputs)
+        SOM.neuronList.forEachIndexed { i, n ->
+            inputs.forEach { input ->
+                net.addNetworkModel(Synapse(input, n).apply { strength = i / 10.0 })
+            }
+        }
+        return inputs
+    }
+
     @Test
     fun `Test winner function`() {
+        val inputs = connectInputs()
+        inputs.forEach { it.activation = 0.42 }
+        SOM.update()
+        assertEquals(SOM.neuronList[4], SOM.winner)
+        assertEquals(3 * 0.02 * 0.02, SOM.winDistance, 1e-9)
+        assertEquals(1.0, SOM.neuronList[4].activation)
+        assertEquals(0.0, SOM.neuronList[3].activation)
 
+        // Weights changed outside the SOM are picked up
+        SOM.neuronList[9].fanIn.forEach { it.strength = 0.42 }
+        SOM.update()
+        assertEquals(SOM.neuronList[9], SOM.winner)
+        assertEquals(0.0, SOM.winDistance, 1e-9)
+    }
+
+    @Test
+    fun `Test neighborhood update`() {
+        val inputs = connectInputs()
+        inputs.forEach { it.activation = 1.0 }
+        SOM.neighborhoodSize = 1000.0
+        val rate = SOM.learningRate
+        SOM.update()
+        SOM.neuronList.forEachIndexed { i, n ->
+            n.fanIn.forEach { assertEquals(i / 10.0 + rate * (1.0 - i / 10.0), it.strength, 1e-12) }
+        }
+    }
+
+    @Test
+    fun `prototypes stay in sync with the synapses over several updates`() {
+        val inputs = connectInputs()
+        inputs.forEach { it.activation = 1.0 }
+        SOM.neighborhoodSize = 1000.0
+        val expected = DoubleArray(SOM.neuronList.size) { it / 10.0 }
+        repeat(3) {
+            val rate = SOM.learningRate
+            SOM.update()
+            expected.indices.forEach { expected[it] += rate * (1.0 - expected[it]) }
+        }
+        SOM.neuronList.forEachIndexed { i, n ->
+            n.fanIn.forEach { assertEquals(expected[i], it.strength, 1e-12) }
+        }
     }
 }
\ No newline at end of file
@@ -2,10 +2,14 @@ package org.simbrain.network.smile
 
 import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertThrows
+import kotlinx.coroutines.runBlocking
 import org.junit.jupiter.api.Test
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.NeuronArray
 import org.simbrain.network.core.WeightMatrix
+import org.simbrain.network.smile.classifiers.KNNClassifier
 import org.simbrain.network.smile.classifiers.LogisticRegClassifier
 import org.simbrain.network.smile.classifiers.SVMClassifier
 import org.simbrain.util.Utils
@@ -130,6 +134,39 @@ class SmileClassifierTest {
     }
 
 
+    @Test
+    fun `batched prediction matches per-row prediction`() {
+        val inputs = Array(3000) { i -> doubleArrayOf((i % 2).toDouble(), (i / 2 % 2).toDouble(), 0.0) }
+        val predictions = xorSVM.predict(Matrix(inputs))
+        assertArrayEquals(IntArray(inputs.size) { svm.predict(inputs[it]) }, predictions)
+        assertArrayEquals(intArrayOf(-1, 1, 1, -1), predictions.copyOfRange(0, 4))
+    }
+
+    @Test
+    fun `background training swaps in a new model`() {
+        val oldModel = svm.model
+        val training = xorSVM.trainInBackground()
+        runBlocking { training.await() }
+        assertNotSame(oldModel, svm.model)
+        assertEquals(1, svm.predict(doubleArrayOf(1.0, 0.0, 0.0)))
+    }
+
+    @Test
+    fun `background training errors are reported and the old model is kept`() {
+        val knn = KNNClassifier(3, 2).apply {
+            trainingData.featureVectors = svm.trainingData.featureVectors
+            trainingData.setIntegerTargets(intArrayOf(0, 1, 1, 0))
+            k = 1
+        }
+        val classifier = SmileClassifier(knn)
+        classifier.train()
+        val oldModel = knn.model
+        knn.k = 10
+        val training = classifier.trainInBackground()
+        assertThrows(IllegalStateException::class.java) { runBlocking { training.await() } }
+        assertEquals(oldModel, knn.model)
+    }
+
     // @Test
     fun `test naive bayes`() {
         val nb = NaiveBayes(
@@ -8,7 +8,9 @@ import org.simbrain.network.core.WeightMatrix
 import org.simbrain.network.updaterules.IntegrateAndFireRule
 import org.simbrain.network.updaterules.SpikingThresholdRule
 import org.simbrain.network.util.SpikingMatrixData
+import org.simbrain.util.stats.distributions.UniformRealDistribution
 import smile.math.matrix.Matrix
+import kotlin.random.Random
 
 /**
  * This will hold all matrix based spike responder tests since they all require the same setup.
@@ -131,5 +133,50 @@ class SpikeResponderMatrixTest {
         assertArrayEquals(doubleArrayOf(0.0, 0.0, 0.0), n3.activationArray, .001)
     }
 
+    /**
+     * Drive identical dense and sparse weight matrices with the same random spike trains and compare the summed
+     * responses at every step.
+     */
+    private fun assertSparseMatchesDense(createResponder: () -> SpikeResponder) {
+        val random = Random(1)
+        val net = Network()
+        val source = NeuronArray(40).apply { updateRule = SpikingThresholdRule() }
+        val dense = WeightMatrix(source, NeuronArray(30))
+        val sparse = WeightMatrix(source, NeuronArray(30))
+        net.addNetworkModels(source, dense.target, sparse.target, dense, sparse)
+        dense.randomize(UniformRealDistribution(-1.0, 1.0))
+        sparse.setMatrixValues(dense.weightMatrix)
+        dense.spikeResponder = createResponder()
+        sparse.spikeResponder = createResponder()
+        sparse.useSparsePropagation = true
+        val spikeData = source.dataHolder as SpikingMatrixData
+        repeat(300) {
+            with(net) {
+                for (j in 0 until source.size) {
+                    spikeData.setHasSpiked(j, random.nextDouble() < 0.05)
+                }
+                dense.updatePSR()
+                sparse.updatePSR()
+            }
+            assertArrayEquals(dense.getSummedPSRs(), sparse.getSummedPSRs(), 1e-9)
+            net.updateTime()
+        }
+    }
+
+    @Test
+    fun `sparse jump and decay matches the dense responder`() {
+        assertSparseMatchesDense { JumpAndDecay() }
+        assertSparseMatchesDense { JumpAndDecay().apply { baseLine = 0.2; timeConstant = 7.0 } }
+        assertSparseMatchesDense { JumpAndDecay().apply { useConvolution = true; baseLine = -0.1 } }
+    }
 
-}
\ No newline at end of file
+    @Test
+    fun `sparse step responder matches the dense responder`() {
+        assertSparseMatchesDense { StepResponder(responseDuration = 4) }
+    }
+
+    @Test
+    fun `responders without a sparse form fall back to the dense path`() {
+        assertSparseMatchesDense { RiseAndDecay() }
+    }
+}
@@ -3,6 +3,7 @@ package org.simbrain.network.subnetworks
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import org.simbrain.network.core.Network
+import org.simbrain.network.core.getEnergy
 import org.simbrain.network.core.getModelByLabel
 import org.simbrain.network.core.getNetworkXStream
 
@@ -24,4 +25,65 @@ class HopfieldTest {
         Assertions.assertNotNull(fromXml.getModelByLabel(Hopfield::class.java, "Hopfield"))
     }
 
-}
\ No newline at end of file
+    private val pattern = doubleArrayOf(1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 1.0, 0.0, 1.0, 0.0)
+
+    /**
+     * Store [pattern], then start from a copy of it with two units flipped.
+     */
+    private fun storeAndCorrupt() {
+        hopfield.neuronGroup.activationArray = pattern
+        hopfield.trainOnCurrentPattern()
+        hopfield.neuronGroup.activationArray = pattern.copyOf().apply {
+            this[1] = 1.0
+            this[2] = 0.0
+        }
+    }
+
+    @Test
+    fun `stored pattern is recalled with each update function`() {
+        Hopfield.HopfieldUpdate.values().forEach { updateFunc ->
+            hopfield.synapseGroup.synapses.forEach { it.forceSetStrength(0.0) }
+            storeAndCorrupt()
+            hopfield.updateFunc = updateFunc
+            repeat(3) { with(net) { hopfield.update() } }
+            Assertions.assertArrayEquals(pattern, hopfield.neuronGroup.activationArray, updateFunc.toString())
+            Assertions.assertEquals(hopfield.neuronGroup.neuronList.getEnergy(), hopfield.energy, 1e-9)
+        }
+    }
+
+    @Test
+    fun `energy tracks activation and weight changes`() {
+        storeAndCorrupt()
+        Assertions.assertEquals(hopfield.neuronGroup.neuronList.getEnergy(), hopfield.energy, 1e-9)
+        hopfield.neuronGroup.neuronList[5].activation = 1.0
+        hopfield.synapseGroup.synapses[0].strength = 0.5
+        Assertions.assertEquals(hopfield.neuronGroup.neuronList.getEnergy(), hopfield.energy, 1e-9)
+    }
+
+    @Test
+    fun `training adds the outer product of the pattern to the synapses`() {
+        val before = hopfield.synapseGroup.synapses.map { it.strength }
+        hopfield.neuronGroup.activationArray = pattern
+        hopfield.trainOnCurrentPattern()
+        hopfield.synapseGroup.synapses.forEachIndexed { i, s ->
+            val product = (2 * s.source.activation - 1) * (2 * s.target.activation - 1)
+            Assertions.assertEquals(before[i] + product, s.strength, 1e-12)
+        }
+        Assertions.assertEquals(hopfield.neuronGroup.neuronList.getEnergy(), hopfield.energy, 1e-9)
+    }
+
+    @Test
+    fun `random update order is reproducible`() {
+        fun run(): DoubleArray {
+            val net = Network().apply { randomSeed = 42 }
+            val hop = Hopfield(10)
+            net.addNetworkModels(hop)
+            hop.synapseGroup.synapses.forEachIndexed { i, s -> s.forceSetStrength(if (i % 3 == 0) 1.0 else -1.0) }
+            hop.neuronGroup.activationArray = pattern
+            repeat(5) { with(net) { hop.update() } }
+            return hop.neuronGroup.activationArray
+        }
+        Assertions.assertArrayEquals(run(), run())
+    }
+
+}
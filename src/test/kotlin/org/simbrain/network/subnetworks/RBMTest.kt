@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.getModelByLabel
 import org.simbrain.network.core.getNetworkXStream
+import smile.math.matrix.Matrix
 
 class RBMTest {
 
@@ -24,4 +25,46 @@ class RBMTest {
         Assertions.assertNotNull(fromXml.getModelByLabel(RestrictedBoltzmannMachine::class.java, "RBM"))
     }
 
-}
\ No newline at end of file
+    /**
+     * Ten copies of (1, 1, 0).
+     */
+    private val data = Matrix(10, 3).apply {
+        for (i in 0 until 10) {
+            this[i, 0] = 1.0
+            this[i, 1] = 1.0
+        }
+    }
+
+    @Test
+    fun `mini-batch and persistent training move visible biases toward the data`() {
+        listOf(false, true).forEach { persistent ->
+            val net = Network().apply { randomSeed = 1 }
+            val rbm = RestrictedBoltzmannMachine(3, 2)
+            net.addNetworkModels(rbm)
+            rbm.inputData = data
+            rbm.batchSize = 4
+            rbm.persistent = persistent
+            rbm.trainer.learningRate = 0.1
+            repeat(200) { with(net) { rbm.trainOnInputData() } }
+            val biases = rbm.visibleLayer.biases
+            Assertions.assertTrue(biases[0, 0] > biases[2, 0], "persistent = $persistent")
+            Assertions.assertTrue(biases[1, 0] > biases[2, 0], "persistent = $persistent")
+        }
+    }
+
+    @Test
+    fun `training is reproducible with a seed`() {
+        fun train(): Matrix {
+            val net = Network().apply { randomSeed = 7 }
+            val rbm = RestrictedBoltzmannMachine(3, 2)
+            net.addNetworkModels(rbm)
+            rbm.visibleToHidden.setMatrixValues(Matrix(Array(2) { DoubleArray(3) { 0.1 } }))
+            rbm.inputData = data
+            rbm.samplingSteps = 3
+            repeat(5) { with(net) { rbm.trainOnInputData() } }
+            return rbm.visibleToHidden.weightMatrix
+        }
+        Assertions.assertArrayEquals(train().toArray(), train().toArray())
+    }
+
+}
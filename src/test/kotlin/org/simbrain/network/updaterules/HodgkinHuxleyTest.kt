@@ -0,0 +1,115 @@
+package org.simbrain.network.updaterules
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.simbrain.network.core.Network
+import org.simbrain.network.core.Neuron
+import org.simbrain.network.core.NeuronArray
+import org.simbrain.network.updaterules.HodgkinHuxleyRule.Companion.alphaH
+import org.simbrain.network.updaterules.HodgkinHuxleyRule.Companion.alphaM
+import org.simbrain.network.updaterules.HodgkinHuxleyRule.Companion.alphaN
+import org.simbrain.network.updaterules.HodgkinHuxleyRule.Companion.betaH
+import org.simbrain.network.updaterules.HodgkinHuxleyRule.Companion.betaM
+import org.simbrain.network.updaterules.HodgkinHuxleyRule.Companion.betaN
+import org.simbrain.util.toMatrix
+import kotlin.math.roundToInt
+
+class HodgkinHuxleyTest {
+
+    private val duration = 50.0
+
+    /**
+     * Times at which the voltage trace, sampled every dt starting at dt, crosses 0 mV upward.
+     */
+    private fun spikeTimes(trace: DoubleArray, dt: Double) = (1 until trace.size)
+        .filter { trace[it - 1] < 0 && trace[it] >= 0 }
+        .map { (it - trace[it - 1] / (trace[it] - trace[it - 1])) * dt }
+
+    /**
+     * Classic RK4 with a small step, for reference.
+     */
+    private fun referenceTrace(current: Double, dt: Double = 0.001): DoubleArray {
+        fun derivative(s: DoubleArray): DoubleArray {
+            val (v, m, h, n) = s
+            val iIon = 120 * m * m * m * h * (v - 50) + 36 * n * n * n * n * (v + 77) + 0.3 * (v + 54.387)
+            return doubleArrayOf(
+                current - iIon,
+                alphaM(v) * (1 - m) - betaM(v) * m,
+                alphaH(v) * (1 - h) - betaH(v) * h,
+                alphaN(v) * (1 - n) - betaN(v) * n
+            )
+        }
+        val rest = HodgkinHuxleyData()
+        var s = doubleArrayOf(HodgkinHuxleyRule.RESTING_POTENTIAL, rest.m, rest.h, rest.n)
+        val steps = (duration / dt).roundToInt()
+        return DoubleArray(steps) {
+            val k1 = derivative(s)
+            val k2 = derivative(DoubleArray(4) { i -> s[i] + dt / 2 * k1[i] })
+            val k3 = derivative(DoubleArray(4) { i -> s[i] + dt / 2 * k2[i] })
+            val k4 = derivative(DoubleArray(4) { i -> s[i] + dt * k3[i] })
+            s = DoubleArray(4) { i -> s[i] + dt / 6 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]) }
+            s[0]
+        }
+    }
+
+    private fun ruleTrace(rule: HodgkinHuxleyRule, current: Double, dt: Double): DoubleArray {
+        val net = Network()
+        val neuron = Neuron(rule)
+        net.addNetworkModel(neuron)
+        net.timeStep = dt
+        neuron.activation = HodgkinHuxleyRule.RESTING_POTENTIAL
+        return DoubleArray((duration / dt).roundToInt()) {
+            neuron.addInputValue(current)
+            net.update()
+            neuron.activation
+        }
+    }
+
+    @Test
+    fun `adaptive sub-steps at a 10x larger time step match RK4 spike times`() {
+        val rule = HodgkinHuxleyRule().apply { adaptiveSubsteps = true }
+        for (current in listOf(10.0, 20.0)) {
+            val expected = spikeTimes(referenceTrace(current), 0.001)
+            val actual = spikeTimes(ruleTrace(rule, current, 0.1), 0.1)
+            assertEquals(expected.size, actual.size)
+            // Forward Euler needs dt = 0.01 ms to be this close, and diverges at 0.1 ms
+            (expected zip actual).forEach { (e, a) -> assertEquals(e, a, 0.05) }
+        }
+    }
+
+    @Test
+    fun `exponential Euler is stable without sub-steps`() {
+        val current = 10.0
+        val trace = ruleTrace(HodgkinHuxleyRule(), current, 0.1)
+        assertTrue(trace.all { it in -80.0..50.0 })
+        assertEquals(spikeTimes(referenceTrace(current), 0.001).size, spikeTimes(trace, 0.1).size)
+    }
+
+    @Test
+    fun `stays at rest without input`() {
+        val trace = ruleTrace(HodgkinHuxleyRule(), 0.0, 0.1)
+        assertEquals(HodgkinHuxleyRule.RESTING_POTENTIAL, trace.last(), 0.1)
+    }
+
+    @Test
+    fun `neuron arrays keep gates per neuron and match single neurons`() {
+        val net = Network()
+        val rule = HodgkinHuxleyRule()
+        val array = NeuronArray(2)
+        array.updateRule = rule
+        val neuron = Neuron(rule)
+        net.addNetworkModels(array, neuron)
+        array.activations = doubleArrayOf(HodgkinHuxleyRule.RESTING_POTENTIAL, HodgkinHuxleyRule.RESTING_POTENTIAL).toMatrix()
+        neuron.activation = HodgkinHuxleyRule.RESTING_POTENTIAL
+        repeat(100) {
+            array.addInputs(doubleArrayOf(10.0, 0.0))
+            neuron.addInputValue(10.0)
+            net.update()
+            assertEquals(neuron.activation, array.activationArray[0], 1e-9)
+        }
+        val data = array.dataHolder as HodgkinHuxleyMatrixData
+        assertEquals((neuron.dataHolder as HodgkinHuxleyData).n, data.n[0], 1e-9)
+        assertEquals(HodgkinHuxleyData().n, data.n[1], 1e-3)
+    }
+}
@@ -0,0 +1,140 @@
+package org.simbrain.network.updaterules
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.simbrain.network.core.Network
+import org.simbrain.network.core.NeuronArray
+import org.simbrain.network.core.WeightMatrix
+import org.simbrain.network.learningrules.HebbianRule
+import org.simbrain.network.learningrules.StaticSynapseRule
+import org.simbrain.util.toMatrix
+import kotlin.math.cos
+import kotlin.math.hypot
+import kotlin.math.sin
+import kotlin.random.Random
+
+class KuramotoRuleTest {
+
+    private val net = Network()
+
+    private val size = 20
+
+    private fun randomPhases(seed: Int) = Random(seed).let { r -> DoubleArray(size) { r.nextDouble(0.0, 2 * Math.PI) } }
+
+    /**
+     * One step of the Kuramoto model computed pairwise, for reference.
+     */
+    private fun referenceStep(theta: DoubleArray, weights: Array<DoubleArray>, slope: Double): DoubleArray {
+        return DoubleArray(theta.size) { i ->
+            val sum = theta.indices.sumOf { j -> weights[i][j] * sin(theta[j] - theta[i]) }
+            (theta[i] + net.timeStep * (slope + sum / theta.size)) % (2 * Math.PI)
+        }
+    }
+
+    /**
+     * Magnitude of the order parameter, 1 when all phases are equal.
+     */
+    private fun coherence(theta: DoubleArray) = hypot(theta.sumOf { cos(it) }, theta.sumOf { sin(it) }) / theta.size
+
+    private fun recurrentArray(): Pair<NeuronArray, WeightMatrix> {
+        val array = NeuronArray(size)
+        array.updateRule = KuramotoRule()
+        val wm = WeightMatrix(array, array)
+        net.addNetworkModels(array, wm)
+        return array to wm
+    }
+
+    @Test
+    fun `arbitrary weight matrix matches pairwise coupling`() {
+        val (array, wm) = recurrentArray()
+        val random = Random(1)
+        val weights = Array(size) { DoubleArray(size) { random.nextDouble(-1.0, 1.0) } }
+        wm.setWeights(weights)
+        var theta = randomPhases(2)
+        array.activations = theta.toMatrix()
+        repeat(10) {
+            theta = referenceStep(theta, weights, 1.0)
+            net.update()
+            theta.indices.forEach { assertEquals(theta[it], array.activationArray[it], 1e-9) }
+        }
+    }
+
+    @Test
+    fun `uniform weights use the order parameter and match pairwise coupling`() {
+        val (array, wm) = recurrentArray()
+        val weights = Array(size) { DoubleArray(size) { 0.5 } }
+        wm.setWeights(weights)
+        assertEquals(0.5, wm.uniformWeight)
+        var theta = randomPhases(3)
+        array.activations = theta.toMatrix()
+        repeat(10) {
+            theta = referenceStep(theta, weights, 1.0)
+            net.update()
+            theta.indices.forEach { assertEquals(theta[it], array.activationArray[it], 1e-9) }
+        }
+
+        wm.weightMatrix[0, 1] = 0.25
+        wm.weightsChanged()
+        assertEquals(null, wm.uniformWeight)
+    }
+
+    @Test
+    fun `block weights use per block sums and match pairwise coupling`() {
+        val (array, wm) = recurrentArray()
+        // Two interleaved populations, coupled strongly within and weakly between
+        val weights = Array(size) { i -> DoubleArray(size) { j -> if (i % 2 == j % 2) 1.0 else 0.2 } }
+        wm.setWeights(weights)
+        assertEquals(null, wm.uniformWeight)
+        val blocks = wm.blockWeights!!
+        assertEquals(2, blocks.values.size)
+        assertEquals(2, blocks.values[0].size)
+        var theta = randomPhases(5)
+        array.activations = theta.toMatrix()
+        repeat(10) {
+            theta = referenceStep(theta, weights, 1.0)
+            net.update()
+            theta.indices.forEach { assertEquals(theta[it], array.activationArray[it], 1e-9) }
+        }
+
+        val random = Random(6)
+        wm.setWeights(Array(size) { DoubleArray(size) { random.nextDouble(-1.0, 1.0) } })
+        assertEquals(null, wm.blockWeights)
+    }
+
+    @Test
+    fun `weight structure is not searched for again after a failed search or while learning`() {
+        val (_, wm) = recurrentArray()
+        val random = Random(7)
+        wm.setWeights(Array(size) { DoubleArray(size) { random.nextDouble(-1.0, 1.0) } })
+        assertEquals(null, wm.blockWeights)
+        assertEquals(null, wm.uniformWeight)
+
+        // Editing the matrix in place does not retry the searches, replacing the weights does
+        for (i in 0 until size) for (j in 0 until size) wm.weightMatrix[i, j] = 0.5
+        wm.weightsChanged()
+        assertEquals(null, wm.uniformWeight)
+        wm.setWeights(Array(size) { DoubleArray(size) { 0.5 } })
+        assertEquals(0.5, wm.uniformWeight)
+        assertTrue(wm.blockWeights != null)
+
+        wm.learningRule = HebbianRule()
+        assertEquals(null, wm.uniformWeight)
+        assertEquals(null, wm.blockWeights)
+        wm.learningRule = StaticSynapseRule()
+        assertEquals(0.5, wm.uniformWeight)
+    }
+
+    @Test
+    fun `global coupling without a weight matrix synchronizes oscillators`() {
+        val array = NeuronArray(size)
+        array.updateRule = KuramotoRule().apply { globalCoupling = 5.0 }
+        net.addNetworkModel(array)
+        array.activations = randomPhases(4).toMatrix()
+        val initial = coherence(array.activationArray)
+        repeat(200) { net.update() }
+        val final = coherence(array.activationArray)
+        assertTrue(final > initial)
+        assertTrue(final > 0.99)
+    }
+}
@@ -1,8 +1,12 @@
 package org.simbrain.network.updaterules
 
+import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
 import org.simbrain.network.core.Network
 import org.simbrain.network.core.Neuron
+import kotlin.math.cosh
+import kotlin.math.roundToInt
+import kotlin.math.tanh
 
 class MorrisLecarTest {
 
@@ -21,4 +25,54 @@ class MorrisLecarTest {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Times at which the voltage trace, sampled every dt starting at dt, crosses 0 mV upward.
+     */
+    private fun spikeTimes(trace: DoubleArray, dt: Double) = (1 until trace.size)
+        .filter { trace[it - 1] < 0 && trace[it] >= 0 }
+        .map { (it - trace[it - 1] / (trace[it] - trace[it - 1])) * dt }
+
+    @Test
+    fun `adaptive sub-steps at a 10x larger time step match RK4 spike times`() {
+        val current = 20.0
+        val duration = 500.0
+        val v0 = -60.0
+
+        // Classic RK4 with a small step, for reference
+        fun derivative(s: DoubleArray): DoubleArray = with(mlRule) {
+            val (v, w) = s
+            val mInf = 0.5 * (1 + tanh((v - getV_m1()) / getV_m2()))
+            val wInf = 0.5 * (1 + tanh((v - getV_w1()) / getV_w2()))
+            val lambda = cosh((v - getV_w1()) / (2 * getV_w2()))
+            val iIon = getG_Ca() * mInf * (v - getvRest_Ca()) + getG_K() * w * (v - getvRest_k()) +
+                    getG_L() * (v - getvRest_L())
+            doubleArrayOf((getI_bg() + current - iIon) / getcMembrane(), getPhi() * lambda * (wInf - w))
+        }
+        val h = 0.01
+        var s = doubleArrayOf(v0, 0.0)
+        val reference = DoubleArray((duration / h).roundToInt()) {
+            val k1 = derivative(s)
+            val k2 = derivative(DoubleArray(2) { i -> s[i] + h / 2 * k1[i] })
+            val k3 = derivative(DoubleArray(2) { i -> s[i] + h / 2 * k2[i] })
+            val k4 = derivative(DoubleArray(2) { i -> s[i] + h * k3[i] })
+            s = DoubleArray(2) { i -> s[i] + h / 6 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]) }
+            s[0]
+        }
+
+        val dt = 1.0
+        mlRule.adaptiveSubsteps = true
+        net.timeStep = dt
+        n.activation = v0
+        val trace = DoubleArray((duration / dt).roundToInt()) {
+            n.addInputValue(current)
+            net.update()
+            n.activation
+        }
+
+        val expected = spikeTimes(reference, h)
+        val actual = spikeTimes(trace, dt)
+        assertEquals(expected.size, actual.size)
+        (expected zip actual).forEach { (e, a) -> assertEquals(e, a, 0.3) }
+    }
+
+}
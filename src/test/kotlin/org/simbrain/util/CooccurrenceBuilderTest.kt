@@ -0,0 +1,86 @@
+package org.simbrain.util
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import smile.math.matrix.Matrix
+import java.io.StringReader
+import kotlin.random.Random
+
+class CooccurrenceBuilderTest {
+
+    val windowSizeText = "Albert ran into the store, while Jean walked into the store. Jean packed all the books, after Albert read all the books."
+
+    /**
+     * Many short random sentences, so that several shards and chunks are used.
+     */
+    val randomText = Random(1).let { random ->
+        val words = (0 until 300).map { "word$it" }
+        (0 until 2000).joinToString(" ") {
+            (0 until random.nextInt(1, 12)).joinToString(" ") { words[random.nextInt(words.size)] } + "."
+        }
+    }
+
+    @Test
+    fun `sparse counts match dense co-occurrence matrix`() {
+        val dense = generateCooccurrenceMatrix(windowSizeText, 2, true, usePPMI = false)
+        val sparse = CooccurrenceBuilder(2, true, usePPMI = false).build(windowSizeText)
+        assertTrue(sparse.isSparse)
+        assertEquals(dense.tokens, sparse.tokens)
+        dense.tokens.forEach { assertArrayEquals(dense.get(it), sparse.get(it)) }
+    }
+
+    @Test
+    fun `sparse PPMI matches dense PPMI`() {
+        val dense = generateCooccurrenceMatrix(windowSizeText, 3, false, usePPMI = true)
+        val sparse = CooccurrenceBuilder(3, false, usePPMI = true).build(windowSizeText)
+        assertEquals(dense.tokens, sparse.tokens)
+        dense.tokens.forEach { assertArrayEquals(dense.get(it), sparse.get(it), 1e-9) }
+    }
+
+    @Test
+    fun `counts are symmetric and windowed within sentences`() {
+        val coc = CooccurrenceBuilder(1, true, usePPMI = false).build("a b c. c d!")
+        assertEquals(listOf("a", "b", "c", "d"), coc.tokens)
+        assertArrayEquals(doubleArrayOf(0.0, 1.0, 0.0, 0.0), coc.get("a"))
+        assertArrayEquals(doubleArrayOf(1.0, 0.0, 1.0, 0.0), coc.get("b"))
+        assertArrayEquals(doubleArrayOf(0.0, 1.0, 0.0, 1.0), coc.get("c"))
+        assertArrayEquals(doubleArrayOf(0.0, 0.0, 1.0, 0.0), coc.get("d"))
+    }
+
+    @Test
+    fun `small chunks and parallel shards give the same result`() {
+        val serial = CooccurrenceBuilder(2, true).build(StringReader(randomText))
+        val parallel = CooccurrenceBuilder(2, true, parallel = true, sentencesPerShard = 37, chunkSize = 13)
+            .build(StringReader(randomText))
+        assertEquals(serial.tokens, parallel.tokens)
+        val a = serial.sparseVectors!!
+        val b = parallel.sparseVectors!!
+        assertArrayEquals(a.rowPointers, b.rowPointers)
+        assertArrayEquals(a.columns, b.columns)
+        assertArrayEquals(a.values, b.values, 1e-12)
+    }
+
+    @Test
+    fun `stopwords are removed`() {
+        val coc = CooccurrenceBuilder(2, true, removeStopwords = true).build("This is Balthazar not Mordrax")
+        assertEquals(listOf("balthazar", "mordrax"), coc.tokens)
+    }
+
+    @Test
+    fun `sparse row matrix round trips dense matrix`() {
+        val matrix = Matrix.of(
+            arrayOf(
+                doubleArrayOf(0.0, 3.0, 2.0),
+                doubleArrayOf(1.0, 4.0, 0.0),
+                doubleArrayOf(0.0, 0.0, 0.0)
+            )
+        )
+        val sparse = SparseRowMatrix.of(matrix)
+        assertEquals(4, sparse.nnz)
+        assertEquals(0, sparse.rowNnz(2))
+        assertEquals(4.0, sparse[1, 1])
+        assertEquals(0.0, sparse[1, 2])
+        assertArrayEquals(matrix.toArray(), sparse.toMatrix().toArray())
+        assertArrayEquals(manualPPMI(matrix).row(0), manualPPMI(sparse).row(0), 1e-12)
+    }
+}
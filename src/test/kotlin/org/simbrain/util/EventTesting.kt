@@ -3,6 +3,7 @@ package org.simbrain.util
 import kotlinx.coroutines.*
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.math.abs
 import kotlin.system.measureTimeMillis
 import kotlin.time.Duration.Companion.milliseconds
@@ -18,6 +19,9 @@ class TestEvents : Events() {
     val longFireAndForgetEvent = NoArgEvent()
     val changedEvent = ChangedEvent<String>()
     val batchedAddedEvent = BatchOneArgEvent<String>(interval = 100)
+    val inlineEvent = NoArgEvent()
+    val coalescedEvent = NoArgEvent()
+    val coalescedChangedEvent = ChangedEvent<Int>()
 }
 
 class EventTesting {
@@ -209,4 +213,56 @@ class EventTesting {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `single non-suspending handler runs before fire returns`() {
+        var counter = 0
+        testEvents.inlineEvent.on(handler = Runnable { counter++ })
+        repeat(10) {
+            testEvents.inlineEvent.fire()
+        }
+        assertEquals(10, counter)
+    }
+
+    @Test
+    fun `fires within coalesce are dispatched once`() {
+        var counter = 0
+        val changes = ArrayList<Pair<Int, Int>>()
+        testEvents.coalescedEvent.on(handler = Runnable { counter++ })
+        testEvents.coalescedChangedEvent.on { new, old -> changes.add(new to old) }
+        Events.coalesce {
+            repeat(10) {
+                testEvents.coalescedEvent.fire()
+                testEvents.coalescedChangedEvent.fire(it + 1, it)
+            }
+            assertEquals(0, counter, "should not fire inside coalesce")
+        }
+        assertEquals(1, counter)
+        assertEquals(listOf(10 to 0), changes)
+
+        // A change that is undone within the block is not fired
+        Events.coalesce {
+            testEvents.coalescedChangedEvent.fire(1, 0)
+            testEvents.coalescedChangedEvent.fire(0, 1)
+        }
+        assertEquals(1, changes.size)
+    }
+
+    @Test
+    fun `fires from another thread during coalesce are dispatched right away`() {
+        val counter = AtomicInteger()
+        testEvents.coalescedEvent.on(handler = Runnable { counter.incrementAndGet() })
+        Events.coalesce {
+            testEvents.coalescedEvent.fire()
+            var countAfterFire = -1
+            val other = Thread {
+                testEvents.coalescedEvent.fire()
+                countAfterFire = counter.get()
+            }
+            other.start()
+            other.join()
+            assertEquals(1, countAfterFire, "should run before fire returns on a thread that is not coalescing")
+        }
+        assertEquals(2, counter.get())
+    }
+}
@@ -0,0 +1,50 @@
+package org.simbrain.util
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+import java.awt.Color
+
+class ImageUtilsTest {
+
+    @Test
+    fun `color table matches simbrain colors`() {
+        for (value in listOf(-1.0, -0.5, 0.0, 0.5, 1.0)) {
+            assertEquals(value.toSimbrainColor(), SimbrainColorTable.rgb(value))
+        }
+        assertEquals(1.0.toSimbrainColor(), SimbrainColorTable.rgb(5.0))
+        assertEquals((-1.0).toSimbrainColor(), SimbrainColorTable.rgb(-5.0))
+    }
+
+    @Test
+    fun `pixel images are redrawn in place`() {
+        val pixels = PixelImage(2, 2)
+        val image = pixels.image
+        pixels.renderSimbrainColors(3) { if (it == 0) 1.0 else -1.0 }
+        assertEquals(1.0.toSimbrainColor(), image.getRGB(0, 0))
+        assertEquals((-1.0).toSimbrainColor(), image.getRGB(0, 1))
+        assertEquals(Color.lightGray.rgb, image.getRGB(1, 1))
+
+        pixels.renderSimbrainColors(4) { 0.0 }
+        assertSame(image, pixels.image)
+        assertEquals(0.0.toSimbrainColor(), image.getRGB(0, 0))
+        assertEquals(0.0.toSimbrainColor(), image.getRGB(1, 1))
+    }
+
+    @Test
+    fun `overlays are transparent where the mask is false`() {
+        val pixels = PixelImage(2, 1, transparent = true)
+        pixels.renderOverlay(booleanArrayOf(true, false), Color.yellow)
+        assertEquals(Color.yellow.rgb, pixels.image.getRGB(0, 0))
+        assertEquals(0, pixels.image.getRGB(1, 0))
+    }
+
+    @Test
+    fun `pixel images are reused only at the same size`() {
+        val pixels = PixelImage(3, 2)
+        assertSame(pixels, pixels.reuse(3, 2))
+        assertNotSame(pixels, pixels.reuse(2, 3))
+        assertNotSame(pixels, pixels.reuse(3, 2, transparent = true))
+    }
+}
@@ -0,0 +1,74 @@
+package org.simbrain.util
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.simbrain.network.NetworkComponent
+import org.simbrain.network.core.Neuron
+import org.simbrain.workspace.Workspace
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+class PerformanceUtilsTest {
+
+    @Test
+    fun `counters are exact when counted from many coroutines`() {
+        resetCounters()
+        runBlocking(Dispatchers.Default) {
+            repeat(100) {
+                launch { repeat(1000) { count("test.event") } }
+            }
+        }
+        assertEquals(100_000, getCount("test.event"))
+        assertEquals(0, getCount("test.missing"))
+    }
+
+    @Test
+    fun `histogram percentiles are within the bucket resolution`() {
+        val histogram = LatencyHistogram()
+        (1..100_000L).forEach { histogram.record(it * 100) }
+        assertEquals(100_000, histogram.count)
+        assertEquals(10_000_000, histogram.max)
+        assertEquals(5_000_050.0, histogram.mean, 1.0)
+        for (fraction in listOf(0.5, 0.9, 0.99)) {
+            val expected = fraction * 10_000_000
+            val actual = histogram.percentile(fraction).toDouble()
+            assertEquals(expected, actual, expected / LatencyHistogram.SUB_BUCKETS)
+        }
+        histogram.reset()
+        assertEquals(0, histogram.count)
+        assertEquals(0, histogram.percentile(0.5))
+    }
+
+    @Test
+    fun `bucket midpoints fall in their buckets`() {
+        for (value in listOf(0L, 15L, 16L, 17L, 1000L, 123_456_789L, Long.MAX_VALUE / 3)) {
+            val index = LatencyHistogram.bucketIndex(value)
+            assertEquals(index, LatencyHistogram.bucketIndex(LatencyHistogram.bucketMidpoint(index)))
+        }
+    }
+
+    @Test
+    fun `workspace updates are timed by phase and summarized`() {
+        UpdateTelemetry.reset()
+        val workspace = Workspace()
+        val component = NetworkComponent("telemetry net")
+        workspace.addWorkspaceComponent(component)
+        component.network.addNetworkModels(List(10) { Neuron() })
+        runBlocking { workspace.iterateSuspend(5) }
+        val summary = UpdateTelemetry.summary()
+        assertEquals(5, summary.first { it.phase == UpdatePhase.Component && it.name == "telemetry net" }.count)
+        assertEquals(5, summary.first { it.phase == UpdatePhase.Couplings }.count)
+        assertTrue(summary.any { it.phase == UpdatePhase.NetworkAction })
+
+        val file = File(createTempDirectory().toFile().apply { deleteOnExit() }, "phases.csv")
+        UpdateTelemetry.writeSummary(file)
+        val lines = file.readLines()
+        assertEquals("phase,name,count,meanMicros,p50Micros,p90Micros,p99Micros,maxMicros", lines.first())
+        assertEquals(summary.size, lines.size - 1)
+        workspace.clearWorkspace()
+    }
+}
@@ -175,6 +175,52 @@ class ProbabilityDistributionTest {
         // assertTrue(dist.variance in confidenceIntervalVariance(sample.variance, alpha, N))
     }
 
+    @Test
+    fun `test fill only writes the given range`() {
+        val dists = listOf(NormalDistribution(), UniformRealDistribution(1.0, 2.0), UniformIntegerDistribution(1, 3),
+            ExponentialDistribution(), LogNormalDistribution(), ParetoDistribution(), GammaDistribution(),
+            PoissonDistribution(2.0), PoissonDistribution(50.0), TwoValued(1.0, 2.0))
+        for (dist in dists) {
+            val array = DoubleArray(20) { Double.NaN }
+            dist.fill(array, 5, 10)
+            assertTrue((0 until 5).all { array[it].isNaN() }, dist.name)
+            assertTrue((5 until 15).none { array[it].isNaN() }, dist.name)
+            assertTrue((15 until 20).all { array[it].isNaN() }, dist.name)
+        }
+    }
+
+    @Test
+    fun `test fill for large poisson and gamma`() {
+        val poisson = PoissonDistribution(40.0)
+        var sample = poisson.sampleDouble(N)
+        assertTrue(poisson.mean in confidenceIntervalMean(sample.mean, sample.stdev, alpha, N))
+
+        val gamma = GammaDistribution(3.0, 2.0)
+        sample = gamma.sampleDouble(N)
+        assertTrue(gamma.mean in confidenceIntervalMean(sample.mean, sample.stdev, alpha, N))
+        assertTrue(gamma.variance in confidenceIntervalVariance(sample.variance, alpha, N))
+
+        val pareto = ParetoDistribution(4.0, 1.0, negate = true)
+        sample = pareto.sampleDouble(N)
+        assertTrue(sample.all { it <= -1.0 })
+        // Mean of a pareto with shape 4 and scale 1 is 4/3
+        assertTrue(-4.0 / 3 in confidenceIntervalMean(sample.mean, sample.stdev, alpha, N))
+    }
+
+    @Test
+    fun `test seeded matrix randomize is reproducible`() {
+        fun matrix(rows: Int, cols: Int) = smile.math.matrix.Matrix(rows, cols).apply {
+            randomize(NormalDistribution().apply { randomSeed = 3 })
+        }
+        for ((rows, cols) in listOf(5 to 7, 100 to 100)) {
+            val a = matrix(rows, cols)
+            val b = matrix(rows, cols)
+            for (i in 0 until rows) {
+                assertArrayEquals(a.row(i), b.row(i))
+            }
+        }
+    }
+
     @Test
     fun `test same results from same seed`() {
         var dist1: ProbabilityDistribution = NormalDistribution(1.0, .5)
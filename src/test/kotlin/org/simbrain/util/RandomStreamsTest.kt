@@ -0,0 +1,96 @@
+package org.simbrain.util
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.simbrain.network.NetworkComponent
+import org.simbrain.network.connections.Sparse
+import org.simbrain.network.core.NeuronArray
+import org.simbrain.network.core.SynapseGroup
+import org.simbrain.network.core.WeightMatrix
+import org.simbrain.network.neurongroups.NeuronGroup
+import org.simbrain.util.stats.distributions.NormalDistribution
+import org.simbrain.workspace.Workspace
+import smile.math.matrix.Matrix
+import java.util.concurrent.ForkJoinPool
+
+class RandomStreamsTest {
+
+    @Test
+    fun `stream seeds depend only on the root seed and the key`() {
+        val streams = RandomStreams(42)
+        assertEquals(streams.seedFor(3), RandomStreams(42).seedFor(3))
+        assertEquals(streams.seedFor("net"), RandomStreams(42).seedFor("net"))
+        assertNotEquals(streams.seedFor(3), streams.seedFor(4))
+        assertNotEquals(streams.seedFor(3), RandomStreams(43).seedFor(3))
+        assertNotEquals(streams.seedFor("net 1"), streams.seedFor("net 2"))
+        assertEquals(1000, (0L until 1000L).map { streams.seedFor(it) }.toSet().size)
+        assertEquals(streams.random(7).nextLong(), RandomStreams(42).random(7).nextLong())
+    }
+
+    @Test
+    fun `parallel samples do not depend on the number of threads`() {
+        val dist = NormalDistribution(1.0, 2.0)
+        val n = 10 * 4096 + 17
+        val serial = ForkJoinPool(1).submit<DoubleArray> { dist.sampleDouble(n, RandomStreams(5)) }.get()
+        val parallel = ForkJoinPool(8).submit<DoubleArray> { dist.sampleDouble(n, RandomStreams(5)) }.get()
+        assertArrayEquals(serial, parallel)
+        assertEquals(1.0, serial.average(), 0.05)
+        assertFalse(serial.contentEquals(dist.sampleDouble(n, RandomStreams(6))))
+    }
+
+    @Test
+    fun `matrix randomized from streams is reproducible`() {
+        val a = Matrix(30, 200).apply { randomize(NormalDistribution(), RandomStreams(9)) }
+        val b = Matrix(30, 200).apply { randomize(NormalDistribution(), RandomStreams(9)) }
+        for (i in 0 until 30) {
+            assertArrayEquals(a.row(i), b.row(i))
+        }
+    }
+
+    @Test
+    fun `seeded distributions are reproducible`() {
+        val a = NormalDistribution().apply { randomSeed = 11 }
+        val b = NormalDistribution().apply { randomSeed = 11 }
+        assertArrayEquals(a.sampleDouble(100), b.sampleDouble(100))
+    }
+
+    @Test
+    fun `workspace seed gives each network its own reproducible seed`() {
+        fun seeds(): List<Long> {
+            val workspace = Workspace()
+            workspace.randomSeed = 1
+            return listOf("a", "b").map { name ->
+                NetworkComponent(name).also { workspace.addWorkspaceComponent(it) }.network.randomSeed
+            }
+        }
+        val first = seeds()
+        assertEquals(first, seeds())
+        assertNotEquals(first[0], first[1])
+    }
+
+    @Test
+    fun `workspace seed gives bitwise identical weights and connections`() {
+        fun build(seed: Long): List<Double> {
+            val workspace = Workspace().apply { randomSeed = seed }
+            val net = NetworkComponent("net").also { workspace.addWorkspaceComponent(it) }.network
+            val source = NeuronArray(20)
+            val target = NeuronArray(30)
+            val weightMatrix = WeightMatrix(source, target)
+            val sourceGroup = NeuronGroup(10)
+            val targetGroup = NeuronGroup(10)
+            net.addNetworkModels(source, target, weightMatrix, sourceGroup, targetGroup)
+            val synapseGroup = SynapseGroup(sourceGroup, targetGroup, Sparse(connectionDensity = 0.3))
+            net.addNetworkModel(synapseGroup)
+            weightMatrix.randomize(NormalDistribution())
+            synapseGroup.randomize()
+            val connections = synapseGroup.synapses.map {
+                (sourceGroup.neuronList.indexOf(it.source) * 10 + targetGroup.neuronList.indexOf(it.target)).toDouble()
+            }
+            return weightMatrix.weightMatrix.toArray().flatMap { it.asList() } +
+                    synapseGroup.synapses.map { it.strength } + connections
+        }
+        val first = build(1)
+        assertEquals(first, build(1))
+        assertNotEquals(first, build(2))
+    }
+}
\ No newline at end of file
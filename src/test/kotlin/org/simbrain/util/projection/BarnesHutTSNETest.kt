@@ -0,0 +1,109 @@
+package org.simbrain.util.projection
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class BarnesHutTSNETest {
+
+    private val random = Random(42)
+
+    /**
+     * Two well separated clusters in 10 dimensions.
+     */
+    private fun clusteredPoints(n: Int) = (0 until n).map { i ->
+        val offset = if (i % 2 == 0) 0.0 else 10.0
+        DataPoint(DoubleArray(10) { offset + random.nextDouble(-1.0, 1.0) }, label = "${i % 2}")
+    }
+
+    private fun separation(points: List<DataPoint>, coordinates: Array<DoubleArray>): Double {
+        fun centroid(label: String) = points.indices.filter { points[it].label == label }.let { members ->
+            doubleArrayOf(members.map { coordinates[it][0] }.average(), members.map { coordinates[it][1] }.average())
+        }
+        val a = centroid("0")
+        val b = centroid("1")
+        val correct = points.indices.count { i ->
+            val (x, y) = coordinates[i]
+            val da = (x - a[0]) * (x - a[0]) + (y - a[1]) * (y - a[1])
+            val db = (x - b[0]) * (x - b[0]) + (y - b[1]) * (y - b[1])
+            (points[i].label == "0") == (da < db)
+        }
+        return correct.toDouble() / points.size
+    }
+
+    @Test
+    fun `clusters are separated`() {
+        val dataset = Dataset(10)
+        clusteredPoints(200).forEach { dataset.kdTree.insert(it) }
+        val tsne = BarnesHutTSNE(dataset, perplexity = 10.0)
+        tsne.initFromDataset()
+        tsne.step(300)
+        val (points, coordinates) = tsne.snapshot()
+        assertEquals(200, points.size)
+        assertTrue(coordinates.all { it[0].isFinite() && it[1].isFinite() })
+        assertEquals(1.0, separation(points, coordinates), 0.01)
+    }
+
+    @Test
+    fun `points added after initialization are optimized`() {
+        val projector = Projector(10)
+        projector.projectionMethod = TSNEProjection().apply {
+            barnesHut = true
+            perplexity = 10.0
+        }
+        clusteredPoints(100).forEach { projector.addDataPoint(it) }
+        projector.initProjector()
+        val tsne = projector.projectionMethod as TSNEProjection
+        repeat(10) { tsne.iterate(projector.dataset) }
+        clusteredPoints(100).forEach { projector.addDataPoint(it) }
+        repeat(30) { tsne.iterate(projector.dataset) }
+        val (points, coordinates) = tsne.barnesHutTSNE!!.snapshot()
+        assertEquals(projector.dataset.kdTree.size, points.size)
+        assertTrue(separation(points, coordinates) > 0.95)
+    }
+
+    @Test
+    fun `points added before the first step are all optimized`() {
+        val projector = Projector(10)
+        val tsne = TSNEProjection().apply {
+            barnesHut = true
+            perplexity = 10.0
+        }
+        projector.projectionMethod = tsne
+        clusteredPoints(50).forEach { projector.addDataPoint(it) }
+        assertEquals(50, tsne.barnesHutTSNE!!.queuedSize)
+        tsne.iterate(projector.dataset)
+        assertEquals(projector.dataset.kdTree.size, tsne.barnesHutTSNE!!.size)
+    }
+
+    @Test
+    fun `background optimization follows a replaced optimizer`() {
+        val projector = Projector(10)
+        val tsne = TSNEProjection().apply {
+            barnesHut = true
+            perplexity = 10.0
+        }
+        projector.projectionMethod = tsne
+        clusteredPoints(60).forEach { projector.addDataPoint(it) }
+        projector.initProjector()
+
+        fun awaitSteps(bh: BarnesHutTSNE) {
+            val deadline = System.currentTimeMillis() + 10_000
+            while (bh.iteration == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10)
+            }
+        }
+
+        try {
+            tsne.startBackground(projector)
+            awaitSteps(tsne.barnesHutTSNE!!)
+            val replacement = BarnesHutTSNE(projector.dataset, perplexity = 10.0).apply { initFromDataset() }
+            tsne.barnesHutTSNE = replacement
+            awaitSteps(replacement)
+            assertTrue(replacement.iteration > 0)
+        } finally {
+            tsne.stopBackground()
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.simbrain.util.projection
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.ln
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+/**
+ * Compares [KDTree] against the previous unbalanced, node based tree ([LegacyKDTree]) on 100k points. Excluded from
+ * the regular test run; run with `gradle benchmark`.
+ */
+@Tag("benchmark")
+class KDTreeBenchmark {
+
+    private val numPoints = 100_000
+    private val numQueries = 2_000
+    private val dimension = 5
+    private val k = 10
+
+    private fun timeMillis(block: () -> Unit) = measureNanoTime(block) / 1e6
+
+    @Test
+    fun `benchmark against legacy tree on 100k points`() {
+        val random = Random(7)
+        val points = List(numPoints) { DataPoint(DoubleArray(dimension) { random.nextDouble() }) }
+        val queries = List(numQueries) { DataPoint(DoubleArray(dimension) { random.nextDouble() }) }
+
+        val legacy = LegacyKDTree(dimension)
+        val legacyInsert = timeMillis { points.forEach { legacy.insert(it) } }
+        val incremental = KDTree(dimension)
+        points.forEach { incremental.insert(it) }
+        val bulk = KDTree(dimension)
+        val bulkInsert = timeMillis { bulk.insertAll(points) }
+
+        lateinit var legacyResults: List<List<DataPoint>>
+        val legacyQuery = timeMillis { legacyResults = queries.map { legacy.findClosestNPoints(it, k) } }
+        val indices = IntArray(k)
+        val newResults = queries.map { q -> IntArray(k).also { bulk.findClosestNIndices(q.upstairsPoint, k, it) } }
+        val bulkQuery = timeMillis { queries.forEach { bulk.findClosestNIndices(it.upstairsPoint, k, indices) } }
+        val incrementalQuery = timeMillis { queries.forEach { incremental.findClosestNIndices(it.upstairsPoint, k, indices) } }
+        val legacyIteration = timeMillis { repeat(10) { legacy.forEach { } } }
+        val newIteration = timeMillis { repeat(10) { bulk.forEach { } } }
+
+        // Both trees find the same neighbors
+        (queries zip (legacyResults zip newResults)).forEach { (query, results) ->
+            val (legacyNeighbors, newNeighbors) = results
+            val legacyDistance = legacyNeighbors.maxOf { it.euclideanDistance(query) }
+            val newDistance = newNeighbors.maxOf { bulk[it].euclideanDistance(query) }
+            assertEquals(legacyDistance, newDistance, 1e-12)
+        }
+
+        val logSize = log2(numPoints.toDouble())
+        assertTrue(bulk.depth <= ceil(logSize) + 1) { "bulk loaded depth ${bulk.depth}" }
+        assertTrue(incremental.depth <= ceil(logSize / log2(1 / 0.7)) + 2) { "incremental depth ${incremental.depth}" }
+        assertTrue(bulkInsert < legacyInsert) { "bulk insert $bulkInsert ms, legacy $legacyInsert ms" }
+        assertTrue(bulkQuery < legacyQuery) { "bulk query $bulkQuery ms, legacy $legacyQuery ms" }
+        assertTrue(incrementalQuery < legacyQuery) { "incremental query $incrementalQuery ms, legacy $legacyQuery ms" }
+        assertTrue(newIteration < legacyIteration) { "iteration $newIteration ms, legacy $legacyIteration ms" }
+    }
+
+    private fun log2(x: Double) = ln(x) / ln(2.0)
+
+    @Test
+    fun `deleting half the points keeps queries correct and fast`() {
+        val random = Random(11)
+        val points = List(numPoints) { DataPoint(DoubleArray(dimension) { random.nextDouble() }) }
+        val tree = KDTree(dimension).apply { insertAll(points) }
+        val removed = points.filterIndexed { i, _ -> i % 2 == 0 }
+        val delete = timeMillis { removed.forEach { assertTrue(tree.delete(it)) } }
+        assertEquals(numPoints - removed.size, tree.size)
+        // Deleting by linear scan and rebuilding each time would take minutes
+        assertTrue(delete < 5_000) { "deleting ${removed.size} points took $delete ms" }
+        val query = DataPoint(DoubleArray(dimension) { 0.5 })
+        val expected = points.filterIndexed { i, _ -> i % 2 == 1 }.minOf { it.euclideanDistance(query) }
+        assertEquals(expected, tree.findClosestPoint(query)!!.euclideanDistance(query))
+    }
+
+    @Test
+    fun `benchmark insertion ordered points`() {
+        // Activation vectors tend to arrive in order, which made the legacy tree a linked list. It is limited to a
+        // smaller size here to avoid overflowing the stack in its recursive search.
+        val ordered = List(numPoints) { i -> DataPoint(DoubleArray(dimension) { d -> i + d * 0.5 }) }
+        val query = DataPoint(DoubleArray(dimension) { d -> numPoints / 2 + d * 0.5 + 0.1 })
+
+        val legacySize = 2_000
+        val legacy = LegacyKDTree(dimension)
+        ordered.take(legacySize).forEach { legacy.insert(it) }
+        val legacyQuery = timeMillis { repeat(100) { legacy.findClosestNPoints(query, k) } }
+
+        val tree = KDTree(dimension)
+        ordered.forEach { tree.insert(it) }
+        val indices = IntArray(k)
+        val treeQuery = timeMillis { repeat(100) { tree.findClosestNIndices(query.upstairsPoint, k, indices) } }
+        assertEquals(numPoints / 2.0, tree[indices[0]].upstairsPoint[0])
+
+        // The legacy tree degenerates into a list, so even at 1/50 of the size it is slower to query
+        assertTrue(treeQuery < legacyQuery) { "query $treeQuery ms on $numPoints points, legacy $legacyQuery ms on $legacySize" }
+        assertTrue(tree.depth < 3 * log2(numPoints.toDouble())) { "depth ${tree.depth}" }
+    }
+}
+
+/**
+ * The k-d tree used before bulk loading and rebalancing were added, kept as a benchmark baseline.
+ */
+private class LegacyKDTree(val dimension: Int) : Iterable<DataPoint> {
+
+    private data class Node(
+        var point: DataPoint,
+        val axis: Int,
+        var left: Node? = null,
+        var right: Node? = null
+    )
+
+    private var root: Node? = null
+
+    fun insert(point: DataPoint) {
+        root = insert(root, point, 0)
+    }
+
+    private fun insert(node: Node?, point: DataPoint, depth: Int): Node {
+        if (node == null) {
+            return Node(point, depth % dimension)
+        }
+        if (point.upstairsPoint[node.axis] < node.point.upstairsPoint[node.axis]) {
+            node.left = insert(node.left, point, depth + 1)
+        } else {
+            node.right = insert(node.right, point, depth + 1)
+        }
+        return node
+    }
+
+    private data class SearchNode(val node: Node, val distance: Double) : Comparable<SearchNode> {
+        override fun compareTo(other: SearchNode) = -distance.compareTo(other.distance)
+    }
+
+    fun findClosestNPoints(target: DataPoint, n: Int): List<DataPoint> {
+        val closestNPoints = PriorityQueue<SearchNode>()
+
+        fun searchClosest(node: Node?) {
+            if (node == null) {
+                return
+            }
+            val distance = target.euclideanDistance(node.point)
+            if (closestNPoints.size < n || distance < closestNPoints.peek().distance) {
+                if (closestNPoints.size == n) {
+                    closestNPoints.poll()
+                }
+                closestNPoints.offer(SearchNode(node, distance))
+            }
+            val diff = target.upstairsPoint[node.axis] - node.point.upstairsPoint[node.axis]
+            val (nearNode, farNode) = if (diff < 0) node.left to node.right else node.right to node.left
+            searchClosest(nearNode)
+            if (abs(diff) < closestNPoints.peek().distance || closestNPoints.size < n) {
+                searchClosest(farNode)
+            }
+        }
+
+        searchClosest(root)
+        return closestNPoints.map { it.node.point }
+    }
+
+    private fun inOrderTraversal(node: Node?, action: (DataPoint) -> Unit) {
+        if (node == null) return
+        inOrderTraversal(node.left, action)
+        action(node.point)
+        inOrderTraversal(node.right, action)
+    }
+
+    override fun iterator(): Iterator<DataPoint> {
+        val nodes = mutableListOf<DataPoint>()
+        inOrderTraversal(root) { nodes.add(it) }
+        return nodes.iterator()
+    }
+}
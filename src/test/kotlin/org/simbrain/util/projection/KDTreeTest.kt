@@ -1,6 +1,11 @@
 package org.simbrain.util.projection
 
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
+import kotlin.math.ln
+import kotlin.random.Random
 
 class KDTreeTest {
 
@@ -65,4 +70,109 @@ class KDTreeTest {
             println("Closest point: $point")
         }
     }
-}
\ No newline at end of file
+
+    private fun bruteForceClosest(points: List<DataPoint>, target: DataPoint, n: Int) =
+        points.sortedBy { it.euclideanDistance(target) }.take(n)
+
+    @Test
+    fun `k nearest neighbors match brute force`() {
+        val random = Random(1)
+        val points = List(2000) { DataPoint(DoubleArray(5) { random.nextDouble() }) }
+        val kdTree = KDTree(5)
+        points.forEach { kdTree.insert(it) }
+        repeat(50) {
+            val target = DataPoint(DoubleArray(5) { random.nextDouble() })
+            val expected = bruteForceClosest(points, target, 7).map { it.euclideanDistance(target) }
+            val actual = kdTree.findClosestNPoints(target, 7).map { it.euclideanDistance(target) }
+            assertEquals(expected, actual)
+            assertEquals(expected.first(), kdTree.findClosestPoint(target)!!.euclideanDistance(target))
+        }
+    }
+
+    @Test
+    fun `index queries return distances nearest first`() {
+        val kdTree = KDTree(1)
+        kdTree.insertAll((0 until 10).map { DataPoint(doubleArrayOf(it.toDouble())) })
+        val indices = IntArray(3)
+        val distances = DoubleArray(3)
+        val count = kdTree.findClosestNIndices(doubleArrayOf(4.2), 3, indices, distances)
+        assertEquals(3, count)
+        assertEquals(listOf(4.0, 5.0, 3.0), indices.map { kdTree[it].upstairsPoint[0] })
+        assertEquals(0.2, distances[0], 1e-9)
+        assertEquals(0.8, distances[1], 1e-9)
+        assertEquals(1.2, distances[2], 1e-9)
+        assertEquals(2, KDTree(1).apply { insert(DataPoint(doubleArrayOf(0.0))); insert(DataPoint(doubleArrayOf(1.0))) }
+            .findClosestNIndices(doubleArrayOf(0.0), 3, indices))
+    }
+
+    @Test
+    fun `insertion ordered points do not degenerate`() {
+        val kdTree = KDTree(3)
+        val n = 10000
+        repeat(n) { kdTree.insert(DataPoint(doubleArrayOf(it.toDouble(), it * 2.0, it * 3.0))) }
+        assertEquals(n, kdTree.size)
+        assertTrue(kdTree.depth < 3 * ln(n.toDouble()) / ln(2.0)) { "depth was ${kdTree.depth}" }
+        val closest = kdTree.findClosestPoint(DataPoint(doubleArrayOf(5000.2, 10000.4, 15000.6)))!!
+        assertEquals(5000.0, closest.upstairsPoint[0])
+    }
+
+    @Test
+    fun `iteration is in insertion order and unaffected by later inserts`() {
+        val kdTree = KDTree(2)
+        val points = List(100) { DataPoint(doubleArrayOf((it * 37 % 100).toDouble(), it.toDouble())) }
+        points.take(50).forEach { kdTree.insert(it) }
+        val iterator = kdTree.iterator()
+        points.drop(50).forEach { kdTree.insert(it) }
+        val seen = iterator.asSequence().toList()
+        assertEquals(points.take(50), seen)
+        assertEquals(points, kdTree.toList())
+    }
+
+    @Test
+    fun `delete removes point`() {
+        val kdTree = KDTree(2)
+        kdTree.insertAll(listOf(
+            DataPoint(doubleArrayOf(9.0, 9.0)),
+            DataPoint(doubleArrayOf(6.0, 12.0)),
+            DataPoint(doubleArrayOf(-9.0, 1.0))
+        ))
+        assertTrue(kdTree.delete(DataPoint(doubleArrayOf(6.0, 12.0))))
+        assertEquals(2, kdTree.size)
+        assertEquals(9.0, kdTree.findClosestPoint(DataPoint(doubleArrayOf(6.0, 12.0)))!!.upstairsPoint[0])
+    }
+
+    @Test
+    fun `deleted points are skipped by queries and iteration`() {
+        val random = Random(2)
+        val points = List(500) { DataPoint(DoubleArray(3) { random.nextDouble() }) }
+        val kdTree = KDTree(3)
+        points.forEach { kdTree.insert(it) }
+        // Fewer than half, so the deleted points are still in the tree
+        val removed = points.take(200)
+        removed.forEach { assertTrue(kdTree.delete(DataPoint(it.upstairsPoint.copyOf()))) }
+        val remaining = points.drop(200)
+        assertEquals(remaining.size, kdTree.size)
+        assertEquals(remaining, kdTree.toList())
+        repeat(20) {
+            val target = DataPoint(DoubleArray(3) { random.nextDouble() })
+            val expected = bruteForceClosest(remaining, target, 5).map { it.euclideanDistance(target) }
+            assertEquals(expected, kdTree.findClosestNPoints(target, 5).map { it.euclideanDistance(target) })
+            assertEquals(expected.first(), kdTree.findClosestPoint(target)!!.euclideanDistance(target))
+        }
+        assertFalse(kdTree.delete(removed.first()))
+
+        // Past half the tree is rebuilt
+        remaining.take(200).forEach { assertTrue(kdTree.delete(it)) }
+        assertEquals(remaining.drop(200), kdTree.toList())
+    }
+
+    @Test
+    fun `duplicate points are deleted one at a time`() {
+        val kdTree = KDTree(2)
+        repeat(3) { kdTree.insert(DataPoint(doubleArrayOf(1.0, 1.0))) }
+        kdTree.insert(DataPoint(doubleArrayOf(0.0, 0.0)))
+        repeat(3) { assertTrue(kdTree.delete(DataPoint(doubleArrayOf(1.0, 1.0)))) }
+        assertFalse(kdTree.delete(DataPoint(doubleArrayOf(1.0, 1.0))))
+        assertEquals(1, kdTree.size)
+    }
+}
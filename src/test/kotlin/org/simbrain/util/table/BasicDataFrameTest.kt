@@ -1,6 +1,8 @@
 package org.simbrain.util.table
 
+import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
 
 class BasicDataFrameTest {
@@ -23,4 +25,69 @@ class BasicDataFrameTest {
         println(df)
     }
 
+    @Test
+    fun `appended rows are stored in order`() {
+        val df = BasicDataFrame(1, 3)
+        repeat(1000) { df.appendRow(doubleArrayOf(it.toDouble(), 2.0 * it, -1.0), fireEvent = false) }
+        assertEquals(1001, df.rowCount)
+        assertEquals(999.0, df.getValueAt(1000, 0))
+        assertEquals(1998.0, df.getDoubleColumn(1)[1000])
+        assertArrayEquals(doubleArrayOf(10.0, 20.0, -1.0), df.get2DDoubleArray()[11])
+    }
+
+    @Test
+    fun `insert and delete rows in the middle`() {
+        val df = BasicDataFrame(mutableListOf(mutableListOf<Any?>(1.0, 1), mutableListOf<Any?>(3.0, 3)))
+        df.insertRow(1)
+        df.setRow(1, arrayOf(2.0, 2))
+        assertArrayEquals(doubleArrayOf(1.0, 2.0, 3.0), df.getDoubleColumn(0))
+        assertArrayEquals(intArrayOf(1, 2, 3), df.getIntColumn(1))
+        df.deleteRow(0)
+        assertArrayEquals(doubleArrayOf(2.0, 3.0), df.getDoubleColumn(0))
+    }
+
+    @Test
+    fun `data is a live view of the table`() {
+        val df = BasicDataFrame(2, 2)
+        df.data[1][0] = 5.0
+        assertEquals(5.0, df.getValueAt(1, 0))
+        df.data.add(mutableListOf(7.0, 8.0))
+        assertEquals(3, df.rowCount)
+        assertEquals(listOf(7.0, 8.0), df.data[2])
+    }
+
+    @Test
+    fun `mixed values fall back to boxed storage`() {
+        val df = BasicDataFrame(mutableListOf(mutableListOf<Any?>(1.0, "a"), mutableListOf<Any?>(null, "b")))
+        assertEquals(null, df.getValueAt(1, 0))
+        df.allowNullEditing = true
+        df.data[1][0] = 2.0
+        df.data[0][1] = 3
+        assertEquals(2.0, df.getValueAt(1, 0))
+        assertEquals(3, df.getValueAt(0, 1))
+        assertEquals("b", df.getValueAt(1, 1))
+    }
+
+    @Test
+    fun `toMatrix copies columns`() {
+        val df = createFromDoubleArray(arrayOf(doubleArrayOf(1.0, 2.0), doubleArrayOf(3.0, 4.0), doubleArrayOf(5.0, 6.0)))
+        df.appendRow(doubleArrayOf(7.0, 8.0), fireEvent = false)
+        val matrix = df.toMatrix()
+        assertEquals(4, matrix.nrow())
+        assertEquals(8.0, matrix[3, 1])
+        assertEquals(3.0, matrix[1, 0])
+    }
+
+
+    @Test
+    fun `empty columns use primitive storage for their declared type`() {
+        assertTrue(ColumnStorage.of(emptyList(), Column.DataType.DoubleType) is ColumnStorage.DoubleColumnStorage)
+        assertTrue(ColumnStorage.of(emptyList(), Column.DataType.IntType) is ColumnStorage.IntColumnStorage)
+        assertTrue(ColumnStorage.of(emptyList(), Column.DataType.StringType) is ColumnStorage.ObjectColumnStorage)
+
+        val df = BasicDataFrame(mutableListOf(), mutableListOf(Column("A"), Column("B")))
+        assertEquals(2, df.columnCount)
+        df.appendRow(doubleArrayOf(1.0, 2.0), fireEvent = false)
+        assertArrayEquals(doubleArrayOf(2.0), df.getDoubleColumn(1))
+    }
 }
@@ -0,0 +1,70 @@
+package org.simbrain.util.table
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+import org.simbrain.util.getSimbrainXStream
+import smile.math.matrix.Matrix
+
+class MatrixDataFrameTest {
+
+    private fun createFrame() = MatrixDataFrame(
+        Matrix.of(arrayOf(doubleArrayOf(1.0, 10.0), doubleArrayOf(2.0, 20.0), doubleArrayOf(3.0, 30.0)))
+    )
+
+    @Test
+    fun `insert row in the middle shifts later rows`() {
+        val df = createFrame()
+        df.insertRow(1)
+        assertEquals(4, df.rowCount)
+        assertArrayEquals(doubleArrayOf(1.0, 0.0, 2.0, 3.0), df.getDoubleColumn(0))
+        assertArrayEquals(doubleArrayOf(10.0, 0.0, 20.0, 30.0), df.getDoubleColumn(1))
+    }
+
+    @Test
+    fun `delete row`() {
+        val df = createFrame()
+        df.deleteRow(0)
+        assertArrayEquals(doubleArrayOf(2.0, 3.0), df.getDoubleColumn(0))
+        df.appendRow(doubleArrayOf(4.0, 40.0), fireEvent = false)
+        assertArrayEquals(doubleArrayOf(20.0, 30.0, 40.0), df.getDoubleColumn(1))
+    }
+
+    @Test
+    fun `append many rows`() {
+        val df = createFrame()
+        repeat(10_000) { df.appendRow(doubleArrayOf(it.toDouble(), -it.toDouble()), fireEvent = false) }
+        assertEquals(10_003, df.rowCount)
+        assertEquals(9_999.0, df.getValueAt(10_002, 0))
+        assertEquals(-5.0, df.data[8, 1])
+        assertArrayEquals(doubleArrayOf(3.0, 30.0), df.get2DDoubleArray()[2])
+    }
+
+    @Test
+    fun `toMatrix copies and matrixView does not`() {
+        val df = createFrame()
+        df.appendRow(doubleArrayOf(4.0, 40.0), fireEvent = false)
+        val copy = df.toMatrix()
+        assertEquals(4, copy.nrow())
+        assertArrayEquals(doubleArrayOf(4.0, 40.0), copy.row(3))
+        copy[3, 0] = 6.0
+        assertEquals(4.0, df.getValueAt(3, 0))
+        assertSame(df.data, df.matrixView())
+        df.matrixView()[3, 0] = 5.0
+        assertEquals(5.0, df.getValueAt(3, 0))
+    }
+
+    @Test
+    fun `rows can be appended after serialization`() {
+        val df = createFrame()
+        df.appendRow(doubleArrayOf(4.0, 40.0), fireEvent = false)
+        val xstream = getSimbrainXStream()
+        val copy = xstream.fromXML(xstream.toXML(df)) as MatrixDataFrame
+        copy.appendRow(doubleArrayOf(5.0, 50.0), fireEvent = false)
+        copy.deleteRow(0)
+        assertArrayEquals(doubleArrayOf(2.0, 3.0, 4.0, 5.0), copy.getDoubleColumn(0))
+        assertArrayEquals(doubleArrayOf(20.0, 30.0, 40.0, 50.0), copy.getDoubleColumn(1))
+        assertArrayEquals(doubleArrayOf(1.0, 2.0, 3.0, 4.0), df.getDoubleColumn(0))
+    }
+}
@@ -0,0 +1,57 @@
+package org.simbrain.world.imageworld
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.simbrain.world.imageworld.filters.*
+import java.awt.image.BufferedImage
+
+class FilterTest {
+
+    /**
+     * Left half black, right half white, stored as bytes rather than ints.
+     */
+    private val halfWhite = BufferedImage(8, 4, BufferedImage.TYPE_3BYTE_BGR).apply {
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                setRGB(x, y, if (x < width / 2) 0 else 0xFFFFFF)
+            }
+        }
+    }
+
+    @Test
+    fun `unscaled color filter copies the source pixels`() {
+        val album = ImageAlbum("", halfWhite)
+        val filter = Filter("Color", album, IdentityOp(), 8, 4)
+        assertArrayEquals(halfWhite.getRGB(0, 0, 8, 4, null, 0, 8), filter.rgbColor)
+        assertEquals(0.0, filter.brightness[0])
+        assertEquals(1.0, filter.brightness[7], 1e-9)
+    }
+
+    @Test
+    fun `threshold filter scales down in one pass`() {
+        val album = ImageAlbum("", halfWhite)
+        val filter = Filter("Threshold", album, ThresholdOp(.5), 2, 1)
+        assertArrayEquals(doubleArrayOf(0.0, 1.0), filter.brightness, 1e-9)
+        assertArrayEquals(doubleArrayOf(0.0, 1.0), filter.red, 1e-9)
+    }
+
+    @Test
+    fun `offset shifts the image and fills with black`() {
+        val album = ImageAlbum("", halfWhite)
+        val filter = Filter("Offset", album, OffsetOp(-4, 0), 8, 4)
+        assertArrayEquals(DoubleArray(4) { 1.0 } + DoubleArray(4), filter.brightness.copyOfRange(0, 8), 1e-9)
+    }
+
+    @Test
+    fun `buffers are reused between updates`() {
+        val album = ImageAlbum("", halfWhite)
+        val filter = Filter("Gray", album, GrayOp(), 4, 4)
+        val colors = filter.rgbColor
+        val brightness = filter.brightness
+        val image = filter.filteredImage
+        filter.updateFilter()
+        assertSame(colors, filter.rgbColor)
+        assertSame(brightness, filter.brightness)
+        assertSame(image, filter.filteredImage)
+    }
+}
@@ -0,0 +1,48 @@
+package org.simbrain.world.imageworld
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.awt.image.BufferedImage
+import java.io.File
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+class FrameCacheTest {
+
+    private val good = File("good.png")
+
+    private val bad = File("bad.png")
+
+    private val image = BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB)
+
+    @Test
+    fun `runtime exceptions while prefetching are treated as unreadable files`() {
+        val cache = FrameCache(4) { if (it == bad) throw IllegalStateException("Malformed") else image }
+        cache.prefetch(listOf(bad, good))
+        assertTimeoutPreemptively(Duration.ofSeconds(5)) {
+            assertNull(cache.get(bad))
+            assertSame(image, cache.get(good))
+        }
+        cache.close()
+    }
+
+    @Test
+    fun `errors while prefetching do not leave frames loading`() {
+        val fail = AtomicBoolean(true)
+        val reads = AtomicInteger()
+        val cache = FrameCache(4) {
+            reads.incrementAndGet()
+            if (fail.get()) throw OutOfMemoryError("Too large") else image
+        }
+        cache.prefetch(listOf(bad))
+        assertTimeoutPreemptively(Duration.ofSeconds(5)) {
+            while (reads.get() == 0) Thread.sleep(1)
+            // Either waits on the failed prefetch, which rethrows, or decodes again once the prefetch has given up
+            assertThrows(OutOfMemoryError::class.java) { cache.get(bad) }
+            fail.set(false)
+            assertSame(image, cache.get(bad))
+        }
+        cache.close()
+    }
+}
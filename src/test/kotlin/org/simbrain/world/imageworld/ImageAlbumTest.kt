@@ -0,0 +1,86 @@
+package org.simbrain.world.imageworld
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.awt.image.BufferedImage
+import java.io.File
+import javax.imageio.ImageIO
+import kotlin.io.path.createTempDirectory
+
+class ImageAlbumTest {
+
+    /**
+     * Writes solid color images, whose red value is their index, and returns their files.
+     */
+    private fun writeImages(count: Int): Array<File> {
+        val directory = createTempDirectory().toFile().apply { deleteOnExit() }
+        return Array(count) { i ->
+            val image = BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB)
+            image.setRGB(0, 0, 4, 3, IntArray(12) { i shl 16 }, 0, 4)
+            File(directory, "frame$i.png").also {
+                ImageIO.write(image, "png", it)
+                it.deleteOnExit()
+            }
+        }
+    }
+
+    private val ImageAlbum.currentRed get() = (currentImage.getRGB(0, 0) shr 16) and 0xFF
+
+    @Test
+    fun `disk-backed album steps through frames in order`() {
+        val album = ImageAlbum()
+        album.prefetchCount = 2
+        album.cacheSize = 4
+        album.loadImages(writeImages(10), diskBacked = true)
+        assertTrue(album.isDiskBacked)
+        assertEquals(10, album.numFrames)
+        assertEquals(0, album.currentRed)
+        repeat(12) { album.nextFrame() }
+        assertEquals(2, album.frameIndex)
+        assertEquals(2, album.currentRed)
+        album.previousFrame()
+        album.previousFrame()
+        album.previousFrame()
+        assertEquals(9, album.currentRed)
+        album.setFrame(5)
+        assertEquals(5, album.frameIndex)
+        assertEquals(5, album.currentRed)
+    }
+
+    @Test
+    fun `edits to disk-backed frames are kept`() {
+        val album = ImageAlbum()
+        album.loadImages(writeImages(3), diskBacked = true)
+        album.currentImage.setRGB(0, 0, 0xFFFFFF)
+        album.currentImageEdited()
+        album.nextFrame()
+        album.previousFrame()
+        assertEquals(0xFFFFFF, album.currentImage.getRGB(0, 0) and 0xFFFFFF)
+        assertEquals(0, (album.currentImage.getRGB(1, 0) shr 16) and 0xFF)
+    }
+
+    @Test
+    fun `albums are held in memory unless disk backing is asked for`() {
+        val album = ImageAlbum()
+        album.loadImages(writeImages(ImageAlbum.DISK_BACKED_THRESHOLD + 1))
+        assertFalse(album.isDiskBacked)
+        assertEquals(ImageAlbum.DISK_BACKED_THRESHOLD + 1, album.numFrames)
+    }
+
+    @Test
+    fun `deleting and adding frames in a disk-backed album`() {
+        val album = ImageAlbum()
+        album.loadImages(writeImages(3), diskBacked = true)
+        album.nextFrame()
+        album.deleteCurrentImage()
+        assertEquals(2, album.numFrames)
+        assertEquals(0, album.currentRed)
+        album.nextFrame()
+        assertEquals(2, album.currentRed)
+        album.addImage(BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB))
+        assertEquals(3, album.numFrames)
+        assertEquals(2, album.frameIndex)
+        album.nextFrame()
+        assertEquals(0, album.currentRed)
+    }
+}
@@ -0,0 +1,95 @@
+package org.simbrain.world.textworld
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.simbrain.util.SparseRowMatrix
+import org.simbrain.util.embeddingSimilarity
+import org.simbrain.util.toMatrix
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+class EmbeddingIndexTest {
+
+    private val random = Random(3)
+
+    private val rows = Array(2000) { DoubleArray(64) { random.nextDouble(-1.0, 1.0) } }
+
+    private val queries = Array(100) { DoubleArray(64) { random.nextDouble(-1.0, 1.0) } }
+
+    private fun euclidean(a: DoubleArray, b: DoubleArray) = sqrt(a.indices.sumOf { (a[it] - b[it]) * (a[it] - b[it]) })
+
+    @Test
+    fun `exact euclidean search matches a linear scan`() {
+        val index = ExactEmbeddingIndex(rows, EmbeddingMetric.EUCLIDEAN)
+        val indices = IntArray(5)
+        val scores = DoubleArray(5)
+        queries.forEach { query ->
+            val expected = rows.indices.sortedBy { euclidean(rows[it], query) }.take(5)
+            assertEquals(5, index.search(query, 5, indices, scores))
+            assertEquals(expected, indices.toList())
+            assertEquals(euclidean(rows[expected[0]], query), scores[0], 1e-9)
+            assertEquals(expected[0], index.nearest(query))
+        }
+    }
+
+    @Test
+    fun `exact cosine search is consistent with embeddingSimilarity`() {
+        val index = ExactEmbeddingIndex(rows, EmbeddingMetric.COSINE)
+        val indices = IntArray(3)
+        val scores = DoubleArray(3)
+        queries.forEach { query ->
+            val expected = rows.indices.sortedByDescending { embeddingSimilarity(rows[it], query) }.take(3)
+            index.search(query, 3, indices, scores)
+            assertEquals(expected, indices.toList())
+            assertEquals(embeddingSimilarity(rows[expected[0]], query), scores[0], 1e-9)
+        }
+    }
+
+    @Test
+    fun `hnsw recall improves with efSearch`() {
+        EmbeddingMetric.values().forEach { metric ->
+            val exact = ExactEmbeddingIndex(rows, metric)
+            val approximate = HNSWEmbeddingIndex(rows, metric)
+            fun recall(): Double {
+                val expected = IntArray(10)
+                val actual = IntArray(10)
+                return queries.sumOf { query ->
+                    exact.search(query, 10, expected)
+                    approximate.search(query, 10, actual)
+                    actual.count { it in expected }.toDouble()
+                } / (queries.size * 10)
+            }
+            approximate.efSearch = 10
+            val lowRecall = recall()
+            approximate.efSearch = 200
+            val highRecall = recall()
+            assertTrue(highRecall >= lowRecall)
+            assertTrue(highRecall > 0.9) { "$metric recall was $highRecall" }
+        }
+    }
+
+    @Test
+    fun `sparse rows give the same results as dense rows`() {
+        // Mostly zero rows, like co-occurrence counts
+        val sparseRandom = Random(4)
+        val dense = Array(500) { DoubleArray(200) { if (sparseRandom.nextDouble() < 0.05) sparseRandom.nextDouble() else 0.0 } }
+        val sparse = SparseEmbeddingRows(SparseRowMatrix.of(dense.toMatrix()))
+        val expected = IntArray(5)
+        val actual = IntArray(5)
+        val expectedScores = DoubleArray(5)
+        val actualScores = DoubleArray(5)
+        EmbeddingMetric.values().forEach { metric ->
+            EmbeddingIndexType.values().forEach { type ->
+                val denseIndex = createEmbeddingIndex(type, dense, metric)
+                val sparseIndex = createEmbeddingIndex(type, sparse, metric)
+                dense.take(50).forEach { query ->
+                    denseIndex.search(query, 5, expected, expectedScores)
+                    sparseIndex.search(query, 5, actual, actualScores)
+                    assertEquals(expected.toList(), actual.toList())
+                    expectedScores.indices.forEach { assertEquals(expectedScores[it], actualScores[it], 1e-9) }
+                }
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Assertions.assertArrayEquals
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.assertThrows
+import org.simbrain.util.getSimbrainXStream
 import smile.math.matrix.Matrix
 
 class TokenEmbeddingTest {
@@ -25,6 +26,22 @@ class TokenEmbeddingTest {
         assertEquals("b", tokenEmbedding.getClosestWord(doubleArrayOf(0.0, 1.0)))
     }
 
+    @Test
+    fun `test retrieval of token by cosine similarity`() {
+        val embedding = TokenEmbedding(listOf("A", "B"), Matrix.of(arrayOf(doubleArrayOf(10.0, 0.0), doubleArrayOf(1.0, 1.0))))
+        // Closer to b in euclidean distance but more similar to a in direction
+        assertEquals("b", embedding.getClosestWord(doubleArrayOf(2.0, 0.5)))
+        assertEquals("a", embedding.getMostSimilarWord(doubleArrayOf(2.0, 0.5)))
+        assertEquals(listOf("b", "a"), embedding.getClosestWords(doubleArrayOf(2.0, 0.5), 2))
+    }
+
+    @Test
+    fun `approximate index retrieves tokens`() {
+        tokenEmbedding.indexType = EmbeddingIndexType.HNSW
+        assertEquals("a", tokenEmbedding.getClosestWord(doubleArrayOf(1.0, 0.0)))
+        assertEquals("b", tokenEmbedding.getClosestWord(doubleArrayOf(0.0, 1.0)))
+    }
+
     @Test
     fun `return a zero vector when the token is not in map`() {
         assertArrayEquals(DoubleArray(tokenEmbedding.dimension) {0.0}, tokenEmbedding.get("C"))
@@ -44,4 +61,16 @@ class TokenEmbeddingTest {
 
 
 
-}
\ No newline at end of file
+
+    @Test
+    fun `embeddings saved before index types were added load with defaults`() {
+        val xstream = getSimbrainXStream()
+        val xml = xstream.toXML(tokenEmbedding)
+            .replace(Regex("\\s*<indexType>.*?</indexType>"), "")
+            .replace(Regex("\\s*<efSearch>.*?</efSearch>"), "")
+        val loaded = xstream.fromXML(xml) as TokenEmbedding
+        assertEquals(EmbeddingIndexType.EXACT, loaded.indexType)
+        assertEquals(50, loaded.efSearch)
+        assertEquals("b", loaded.getClosestWord(doubleArrayOf(0.0, 1.0)))
+    }
+}